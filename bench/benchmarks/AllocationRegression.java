@@ -0,0 +1,186 @@
+/*
+ * Allocation check for the per-frame entity paths.  Runs what a steady state
+ * 	frame does to every entity (physics sync, transform matrix, position,
+ * 	scale) and uses the thread's allocated byte counter to make sure none of
+ * 	it allocates per entity.
+ *
+ * 	The UBO staging a draw goes through (UniformBlock, switching between
+ * 	materials like RenderState does) is held to the same limit per draw.
+ *
+ * 	Exits with 1 when run on its own and something allocates, so it can gate
+ * 	a build.  getProperty(POSITION) is measured too, but only reported; it
+ * 	still has to hand back a fresh Vector3f.
+ */
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+import javax.vecmath.Vector3f;
+
+import org.lwjgl.BufferUtils;
+
+import com.bulletphysics.collision.shapes.BoxShape;
+import com.bulletphysics.linearmath.Transform;
+
+import engine.entity.Entity;
+import engine.render.Model;
+import engine.render.UniformBlock;
+import engine.render.ubos.Material;
+import engine.utils.Scratch;
+
+public class AllocationRegression {
+	private static final int[] SIZES = {1000, 10000};
+	private static final int WARMUP_FRAMES = 200;
+	private static final int MEASURED_FRAMES = 50;
+	// Anything above this per entity per frame means something is allocating in the loop
+	private static final double MAX_BYTES_PER_ENTITY = 1.0;
+
+	public static void main(String[] args) {
+		if (!run()) {
+			System.exit(1);
+		}
+	}
+
+	public static boolean run() {
+		java.lang.management.ThreadMXBean generic = ManagementFactory.getThreadMXBean();
+		if (!(generic instanceof com.sun.management.ThreadMXBean)) {
+			System.out.println("AllocationRegression: allocated bytes not supported by this JVM, skipping");
+			return true;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)generic;
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			System.out.println("AllocationRegression: allocated bytes not supported by this JVM, skipping");
+			return true;
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+		long thread_id = Thread.currentThread().getId();
+
+		Model model = new Model();
+		model.setCollisionShape(new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f)));
+
+		boolean passed = true;
+		for (int size : SIZES) {
+			final ArrayList<Entity> entities = new ArrayList<Entity>(size);
+			Transform trans = new Transform();
+			trans.setIdentity();
+			for (int i = 0; i < size; i++) {
+				Entity ent = new Entity("alloc" + i, 0f, false, model, null);
+				ent.setProperty(Entity.POSITION, new Vector3f(i, i * 0.5f, -i));
+				trans.origin.set(i, i * 0.5f, -i);
+				ent.getCollisionObject().setWorldTransform(trans);
+				entities.add(ent);
+			}
+
+			double frame = bytesPer(threads, thread_id, entities.size(), new Runnable() {
+				public void run() {
+					steadyStateFrame(entities);
+				}
+			});
+			double legacy = bytesPer(threads, thread_id, entities.size(), new Runnable() {
+				public void run() {
+					float sum = 0;
+					for (int i = 0; i < entities.size(); i++) {
+						sum += ((Vector3f)entities.get(i).getProperty(Entity.POSITION)).x;
+					}
+					Harness.sink = sum;
+				}
+			});
+
+			boolean ok = frame <= MAX_BYTES_PER_ENTITY;
+			passed &= ok;
+			System.out.println(String.format(
+				"%-48s %-12d %10.2f B/entity/frame  %s",
+				"alloc.frame", size, frame, ok ? "ok" : "FAIL (limit " + MAX_BYTES_PER_ENTITY + ")"
+			));
+			System.out.println(String.format(
+				"%-48s %-12d %10.2f B/entity/frame  (reference)",
+				"alloc.getProperty.position", size, legacy
+			));
+
+			for (Entity ent : entities) {
+				ent.destroy();
+			}
+		}
+
+		passed &= checkUniformBlock(threads, thread_id);
+		return passed;
+	}
+
+	/*
+	 * Materials written into a UniformBlock the way a frame's draws would,
+	 * 	std140 offsets like the shaders' Material block.  Also makes sure only
+	 * 	what changed comes back dirty.
+	 */
+	private static boolean checkUniformBlock(com.sun.management.ThreadMXBean threads, long thread_id) {
+		IntBuffer offsets = BufferUtils.createIntBuffer(5);
+		offsets.put(new int[] {0, 16, 32, 48, 52}).flip();
+		final UniformBlock block = new UniformBlock(64, offsets);
+		final Material[] materials = new Material[8];
+		for (int m = 0; m < materials.length; m++) {
+			materials[m] = new Material();
+			materials[m].setShininess(m);
+		}
+
+		block.update(materials[0]);
+		block.markUploaded();
+		materials[0].setAlpha(0.5f);
+		boolean ranged = block.update(materials[0]) && block.getDirtyOffset() == 52 && block.getDirty().remaining() == 1;
+		block.markUploaded();
+		boolean clean = !block.update(materials[0]);
+		boolean ok = ranged && clean;
+		if (!ok) {
+			System.out.println("alloc.ubo: dirty range wrong (ranged " + ranged + ", clean " + clean + ")");
+		}
+
+		final int draws = 10000;
+		double bytes = bytesPer(threads, thread_id, draws, new Runnable() {
+			public void run() {
+				int sent = 0;
+				for (int d = 0; d < draws; d++) {
+					if (block.update(materials[(d / 16) % materials.length])) {
+						sent += block.getDirty().remaining();
+						block.markUploaded();
+					}
+				}
+				Harness.sink = sent;
+			}
+		});
+		boolean light = bytes <= MAX_BYTES_PER_ENTITY;
+		System.out.println(String.format(
+			"%-48s %-12d %10.2f B/draw  %s",
+			"alloc.ubo.update", draws, bytes, light ? "ok" : "FAIL (limit " + MAX_BYTES_PER_ENTITY + ")"
+		));
+		return ok && light;
+	}
+
+	// What the physics sync plus the renderer do to each entity in a frame
+	private static void steadyStateFrame(ArrayList<Entity> entities) {
+		Scratch scratch = Scratch.get();
+		float sum = 0;
+		for (int i = 0; i < entities.size(); i++) {
+			Entity ent = entities.get(i);
+			ent.syncFromPhysics(scratch.transform, scratch.vector_a);
+			ent.getTransformation(scratch.matrix);
+			ent.getPosition(scratch.vector_b);
+			ent.getScale(scratch.vector_c);
+			ent.getTransform(scratch.transform);
+			sum += scratch.matrix[12] + scratch.vector_b.y + scratch.vector_c.z;
+		}
+		Harness.sink = sum;
+	}
+
+	// Bytes allocated per frame, over count (entities or draws)
+	private static double bytesPer(com.sun.management.ThreadMXBean threads, long thread_id, int count, Runnable frame) {
+		for (int i = 0; i < WARMUP_FRAMES; i++) {
+			frame.run();
+		}
+		long before = threads.getThreadAllocatedBytes(thread_id);
+		for (int i = 0; i < MEASURED_FRAMES; i++) {
+			frame.run();
+		}
+		long after = threads.getThreadAllocatedBytes(thread_id);
+		return (after - before) / (double)MEASURED_FRAMES / count;
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * Loading a model from its source file versus from its baked copy in the
+ * 	DerivedDataCache (see BakedModel).  "parse" is what a first load always
+ * 	did: the parser, then packBuffers() for the VBO.  "baked" is
+ * 	FileLoader.readFile() once the baked copy exists, with the hash the
+ * 	manifest would give it, which is mapping it with the buffers ready.
+ * 	"bake" is the one off cost of parsing and writing the baked copy.
+ *
+ * 	"spawn" is what the renderer does with a loaded (so baked) model each
+ * 	time an entity using it is added (verify(), createVBO(), reduceHull()),
+ * 	headless; "spawn.legacy" is the normals and hull of every vertex that
+ * 	used to be worked out again every time.  Each spawn still gets a hull
+ * 	of its own, since entities scale them, but from the baked points.
+ *
+ * 	The files are our bigger models plus a generated OBJ, copied to a
+ * 	temporary folder with its own cache.  Before timing, each baked model
+ * 	is checked against the parsed one: same bounds, triangles and
+ * 	positions, material ranges covering every index, a hull that reaches
+ * 	as far as the vertices do, and not being found once the source
+ * 	changes.  Threads baking the same model at once are checked to leave
+ * 	one whole copy.
+ *
+ * 	-Dbench.baked_faces=100000 changes the generated model's size.
+ */
+package benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.vecmath.Vector3f;
+
+import com.bulletphysics.collision.shapes.ConvexHullShape;
+import com.bulletphysics.util.ObjectArrayList;
+
+import engine.importing.BakedModel;
+import engine.importing.FileLoader;
+import engine.render.Model;
+import engine.render.RenderMode;
+import engine.render.model_pieces.Face;
+import engine.render.model_pieces.Mesh;
+import engine.render.model_pieces.VertexPacker;
+import engine.resource.DerivedDataCache;
+
+public class BakedModelBenchmark {
+	private static final String MODELS = "src/resources/models/misc/";
+	private static final String[] FILES = {"bunny.ply", "sphere.obj", "legoman.xgl", "teapot.stl", "magnolia.stl"};
+	private static final int[] GENERATED_FACES = {100000};
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		File directory = null;
+		boolean was_headless = RenderMode.isHeadless();
+		RenderMode.setHeadless(true);
+		try {
+			directory = File.createTempFile("baked", "");
+			directory.delete();
+			directory.mkdir();
+
+			ArrayList<File> files = new ArrayList<File>();
+			for (String name : FILES) {
+				File copy = new File(directory, name);
+				write(copy, Files.readAllBytes(new File(MODELS + name).toPath()));
+				files.add(copy);
+			}
+			for (int faces : Harness.sizes("bench.baked_faces", GENERATED_FACES)) {
+				File generated = new File(directory, "generated" + faces + ".obj");
+				write(generated, new MeshGenerator(faces).obj());
+				files.add(generated);
+			}
+
+			DerivedDataCache cache = new DerivedDataCache(new File(directory, "cache"));
+			checkConcurrent(files.get(0), cache);
+			for (File file : files) {
+				results.addAll(time(file, cache));
+			}
+			System.out.println("  " + cache);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			RenderMode.setHeadless(was_headless);
+			delete(directory);
+		}
+		return results;
+	}
+
+	private static ArrayList<Harness.Result> time(final File file, final DerivedDataCache cache) throws IOException {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		final String hash = DerivedDataCache.hash(file);
+		File baked = cache.getFile(hash, BakedModel.EXTENSION, BakedModel.VERSION);
+		Model parsed = parse(file);
+		BakedModel.save(parsed, cache, hash);
+		Model loaded = read(file, hash, cache);
+		check(file, parsed, loaded, cache);
+
+		long faces = parsed.getPacking().getIndexCount() / 3;
+		String param = file.getName();
+		System.out.println(String.format("  %s: %d faces, %d bytes source, %d bytes baked, %d hull points",
+			param, faces, file.length(), baked.length(), ((ConvexHullShape)loaded.getCollisionShape()).getNumPoints()));
+
+		results.add(Harness.run("model.parse", param, faces, 2, 5, new Runnable() {
+			public void run() {
+				Harness.sink = parse(file);
+			}
+		}));
+		results.add(Harness.run("model.bake", param, faces, 2, 5, new Runnable() {
+			public void run() {
+				try {
+					BakedModel.save(parse(file), cache, hash);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}));
+		results.add(Harness.run("model.baked", param, faces, 10, 50, new Runnable() {
+			public void run() {
+				Harness.sink = read(file, hash, cache);
+			}
+		}));
+
+		final Model parsed_spawned = parse(file);
+		final Model spawned = read(file, hash, cache);
+		spawn(spawned);
+		results.add(Harness.run("model.spawn.legacy", param, faces, 2, 5, new Runnable() {
+			public void run() {
+				Harness.sink = legacySpawn(parsed_spawned);
+			}
+		}));
+		results.add(Harness.run("model.spawn", param, faces, 10, 50, new Runnable() {
+			public void run() {
+				spawn(spawned);
+				Harness.sink = spawned.getCollisionShape();
+			}
+		}));
+		return results;
+	}
+
+	// ProgrammableRenderer.addRenderItem(), less the upload
+	private static void spawn(Model model) {
+		if (!model.getHasVBO()) {
+			model.verify();
+			model.createVBO();
+		}
+		if (!model.getCollisionShape().isConcave()) {
+			model.reduceHull();
+		}
+	}
+
+	// What verify() and reduceHull() worked out on every spawn before the normals and hull points were kept
+	private static ConvexHullShape legacySpawn(Model model) {
+		ObjectArrayList<Vector3f> vertices = new ObjectArrayList<Vector3f>();
+		for (Mesh m : model.getMeshes()) {
+			if (m.getFaceCount() == 0) {
+				continue;
+			}
+			m.getMaximums();
+			m.getMinimums();
+			m.calcNormals(true);
+			for (Face f : m.getFaces()) {
+				for (Vector3f v : f.getVertices()) {
+					Vector3f translated = new Vector3f();
+					translated.add(v, m.getTransform());
+					vertices.add(translated);
+				}
+			}
+		}
+		if (model.getPackedMesh() != null) {
+			for (int i = 0; i < model.getPackedMesh().getVertexCount(); i++) {
+				vertices.add(model.getPackedMesh().getPosition(i, new Vector3f()));
+			}
+		}
+		return new ConvexHullShape(vertices);
+	}
+
+	private static Model read(File file, String hash, DerivedDataCache cache) {
+		try {
+			return FileLoader.readFile(file, hash, cache);
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to load " + file, e);
+		}
+	}
+
+	// The first load before baking: parse, then pack for the VBO
+	private static Model parse(File file) {
+		try {
+			Model model = FileLoader.parseFile(file);
+			model.verify();
+			model.packBuffers();
+			return model;
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to parse " + file, e);
+		}
+	}
+
+	private static void check(File file, Model parsed, Model loaded, DerivedDataCache cache) {
+		String name = file.getName();
+		if (!loaded.isBaked()) {
+			throw new RuntimeException(name + " wasn't loaded from its baked file");
+		}
+		if (!loaded.getMinimums().equals(parsed.getMinimums()) || !loaded.getMaximums().equals(parsed.getMaximums())) {
+			throw new RuntimeException(name + " bounds changed: " + loaded.getMinimums() + " " + loaded.getMaximums());
+		}
+
+		// Same welding either way, so the same vertices and triangles whatever the layout
+		VertexPacker a = parsed.getPacking(), b = loaded.getPacking();
+		if (a.getVertexCount() != b.getVertexCount() || a.getIndexCount() != b.getIndexCount()) {
+			throw new RuntimeException(name + " has " + b.getVertexCount() + "/" + b.getIndexCount()
+				+ " vertices/indices baked, " + a.getVertexCount() + "/" + a.getIndexCount() + " parsed");
+		}
+		ByteBuffer index_a = a.getIndexBuffer().duplicate(), index_b = b.getIndexBuffer().duplicate();
+		index_a.rewind();
+		index_b.rewind();
+		if (!index_a.equals(index_b)) {
+			throw new RuntimeException(name + " triangles changed");
+		}
+		ByteBuffer vertex_a = a.getVertexBuffer().duplicate().order(ByteOrder.nativeOrder());
+		ByteBuffer vertex_b = b.getVertexBuffer().duplicate().order(ByteOrder.nativeOrder());
+		for (int i = 0; i < a.getVertexCount(); i++) {
+			for (int k = 0; k < 12; k += 4) {
+				if (vertex_a.getFloat(i * a.getStride() + k) != vertex_b.getFloat(i * b.getStride() + k)) {
+					throw new RuntimeException(name + " vertex " + i + " moved");
+				}
+			}
+		}
+
+		// What the whole model draws with
+		if (!loaded.getMaterial().sameAs(parsed.getMaterial())) {
+			throw new RuntimeException(name + " material changed");
+		}
+
+		// The hull should reach as far as the vertices in any direction, near enough
+		ConvexHullShape hull = (ConvexHullShape)loaded.getCollisionShape();
+		Vector3f extent = new Vector3f();
+		extent.sub(loaded.getMaximums(), loaded.getMinimums());
+		Random random = new Random(1);
+		Vector3f direction = new Vector3f();
+		float worst = 0;
+		for (int d = 0; d < 1000; d++) {
+			direction.set((float)random.nextGaussian(), (float)random.nextGaussian(), (float)random.nextGaussian());
+			direction.normalize();
+			float vertices = -Float.MAX_VALUE, points = -Float.MAX_VALUE;
+			for (int i = 0; i < a.getVertexCount(); i++) {
+				int v = i * a.getStride();
+				vertices = Math.max(vertices, direction.x * vertex_a.getFloat(v) + direction.y * vertex_a.getFloat(v + 4) + direction.z * vertex_a.getFloat(v + 8));
+			}
+			for (int i = 0; i < hull.getNumPoints(); i++) {
+				points = Math.max(points, direction.dot(hull.getPoints().getQuick(i)));
+			}
+			worst = Math.max(worst, vertices - points);
+		}
+		if (worst > extent.length() * 0.005f) {
+			throw new RuntimeException(name + " hull falls " + worst + " short of the vertices");
+		}
+
+		// Entities scale their hull, so two spawns mustn't get the same one
+		spawn(loaded);
+		ConvexHullShape first = (ConvexHullShape)loaded.getCollisionShape();
+		spawn(loaded);
+		first.setLocalScaling(new Vector3f(5, 5, 5));
+		if (loaded.getCollisionShape() == first || loaded.getCollisionShape().getLocalScaling(new Vector3f()).x != 1) {
+			throw new RuntimeException(name + " spawns share a hull");
+		}
+
+		// Another byte on the end changes the hash, so the old bake isn't found
+		try {
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			File changed = new File(file.getPath() + ".changed");
+			write(changed, Arrays.copyOf(bytes, bytes.length + 1));
+			if (BakedModel.load(cache, DerivedDataCache.hash(changed)) != null) {
+				throw new RuntimeException(name + " still counts as baked after changing");
+			}
+			changed.delete();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// Threads baking the same model at once leave one whole copy and nothing else
+	private static void checkConcurrent(File file, final DerivedDataCache cache) {
+		final Model parsed = parse(file);
+		final String hash = DerivedDataCache.hash(file);
+		final Exception[] failed = new Exception[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < 5; i++) {
+							BakedModel.save(parsed, cache, hash);
+							Model loaded = BakedModel.load(cache, hash);
+							if (loaded == null || loaded.getPacking().getIndexCount() != parsed.getPacking().getIndexCount()) {
+								throw new Exception("Read a partly written bake");
+							}
+						}
+					} catch (Exception e) {
+						failed[0] = e;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		if (failed[0] != null) {
+			throw new RuntimeException("Baking " + file.getName() + " on several threads failed", failed[0]);
+		}
+		File[] left = cache.getFile(hash, BakedModel.EXTENSION, BakedModel.VERSION).getParentFile().listFiles();
+		if (left.length != 1) {
+			throw new RuntimeException(left.length + " files left baking " + file.getName() + " on several threads");
+		}
+	}
+
+	private static void delete(File file) {
+		if (file == null) {
+			return;
+		}
+		File[] children = file.listFiles();
+		for (int i = 0; children != null && i < children.length; i++) {
+			delete(children[i]);
+		}
+		file.delete();
+	}
+
+	private static void write(File file, byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+}
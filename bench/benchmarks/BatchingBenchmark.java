@@ -0,0 +1,114 @@
+/*
+ * The renderer's CPU side of instancing: InstanceBatcher grouping a
+ * 	snapshot by geometry, shader, texture and material and writing every
+ * 	instance's matrix and scale.  No GL, so nothing is drawn or uploaded.
+ *
+ * 	"shared" is a scene like topdownshooter's: boxes in a few sizes and a
+ * 	couple of textures, so a handful of batches.  "unique" gives every
+ * 	entity its own model, the worst case (one batch each).  "legacy" is the
+ * 	per entity interpolation the old draw loop did before each draw call.
+ *
+ * 	-Dbench.boxes=1000,10000 changes the sizes.
+ */
+package benchmarks;
+
+import java.util.ArrayList;
+
+import javax.vecmath.Vector3f;
+
+import engine.entity.Entity;
+import engine.entity.EntityList;
+import engine.render.InstanceBatcher;
+import engine.render.Model;
+import engine.render.RenderSnapshot;
+import engine.render.Shader;
+import engine.render.SnapshotExchange;
+import engine.render.model_pieces.Texture;
+import engine.render.primitives.Box;
+
+public class BatchingBenchmark {
+	private static final int[] SIZES = {1000, 10000};
+	private static final int BOX_SIZES = 4;
+	private static final int TEXTURES = 2;
+	// A frame's worth of work is short, so plenty of both for the JIT
+	private static final int WARMUP = 200;
+	private static final int ITERATIONS = 200;
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		Shader shader = new Shader();
+		Texture[] textures = new Texture[TEXTURES];
+		for (int t = 0; t < TEXTURES; t++) {
+			textures[t] = new Texture();
+		}
+
+		for (int size : Harness.sizes("bench.boxes", SIZES)) {
+			EntityList shared = new EntityList();
+			EntityList unique = new EntityList();
+			for (int i = 0; i < size; i++) {
+				Vector3f position = new Vector3f((i % 100) * 2f, (i / 100) * 2f, 0);
+				Box box = new Box(0f, false, new Vector3f(1 + i % BOX_SIZES, 1, 1), shader);
+				box.getModel().setTexture(textures[i % TEXTURES]);
+				box.setProperty(Entity.NAME, "box" + i);
+				box.setProperty(Entity.POSITION, position);
+				shared.addEntity(box);
+
+				Model model = new Model(box.getModel());
+				model.shareGeometry(null);
+				Entity ent = new Entity("unique" + i, 0f, false, model, shader);
+				ent.setProperty(Entity.POSITION, position);
+				unique.addEntity(ent);
+			}
+
+			String param = String.valueOf(size);
+			results.add(build("render.batch.shared", param, shared));
+			results.add(build("render.batch.unique", param, unique));
+			results.add(legacy("render.batch.legacy", param, shared));
+		}
+
+		return results;
+	}
+
+	private static Harness.Result build(String name, String param, EntityList list) {
+		final RenderSnapshot snapshot = snapshot(list);
+		final InstanceBatcher batcher = new InstanceBatcher();
+		Harness.Result result = Harness.run(name, param, snapshot.getCount(), WARMUP, ITERATIONS, new Runnable() {
+			public void run() {
+				batcher.build(snapshot, 0.5f);
+				Harness.sink = batcher;
+			}
+		});
+		System.out.println("  " + snapshot.getCount() + " entities, " + batcher.getBatchCount() + " batches, "
+			+ batcher.getUnbatchedCount() + " unbatched");
+		return result;
+	}
+
+	private static Harness.Result legacy(String name, String param, EntityList list) {
+		final RenderSnapshot snapshot = snapshot(list);
+		final float[] matrix = new float[16];
+		final Vector3f scale = new Vector3f();
+		return Harness.run(name, param, snapshot.getCount(), WARMUP, ITERATIONS, new Runnable() {
+			public void run() {
+				float sum = 0;
+				for (int i = 0; i < snapshot.getCount(); i++) {
+					snapshot.getInterpolatedMatrix(i, 0.5f, matrix);
+					snapshot.getScale(i, scale);
+					sum += matrix[12] + scale.x;
+				}
+				Harness.sink = sum;
+			}
+		});
+	}
+
+	// Published twice, so there's a previous tick to interpolate from
+	private static RenderSnapshot snapshot(EntityList list) {
+		SnapshotExchange exchange = new SnapshotExchange();
+		exchange.publish(list);
+		exchange.publish(list);
+		return exchange.acquire();
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Per-frame entity iteration cost: the old HashMap<String,Object> property
+ * 	bag versus the typed component store, both through the Entity handle and
+ * 	by walking the store's arrays directly.
+ *
+ * 	The "hashmap" variant reproduces what every render/physics/AI loop used
+ * 	to do per entity: a string lookup, an unboxing cast, and two Transform
+ * 	allocations to find the position.
+ */
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.vecmath.Vector3f;
+
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.shapes.BoxShape;
+import com.bulletphysics.linearmath.Transform;
+
+import engine.entity.ComponentStore;
+import engine.entity.Entity;
+import engine.render.Model;
+
+public class ComponentStoreBenchmark {
+	private static final int[] SIZES = {1000, 10000, 100000};
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+
+		Model model = new Model();
+		model.setCollisionShape(new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f)));
+
+		for (int size : SIZES) {
+			final ArrayList<Entity> entities = new ArrayList<Entity>(size);
+			final ArrayList<HashMap<String, Object>> legacy = new ArrayList<HashMap<String, Object>>(size);
+			Transform trans = new Transform();
+			trans.setIdentity();
+
+			for (int i = 0; i < size; i++) {
+				Entity ent = new Entity("bench" + i, 0f, false, model, null);
+				ent.setProperty(Entity.POSITION, new Vector3f(i, i * 0.5f, -i));
+				trans.origin.set(i, i * 0.5f, -i);
+				ent.getCollisionObject().setWorldTransform(trans);
+				entities.add(ent);
+
+				HashMap<String, Object> data = new HashMap<String, Object>();
+				data.put(Entity.NAME, "bench" + i);
+				data.put(Entity.SHOULD_DRAW, true);
+				data.put(Entity.TIME_TO_LIVE, 0);
+				data.put(Entity.ADDED_TO_PHYSICS, true);
+				data.put(Entity.COLLISION_OBJECT, ent.getCollisionObject());
+				legacy.add(data);
+			}
+
+			final int[] ids = new int[size];
+			for (int i = 0; i < size; i++) {
+				ids[i] = entities.get(i).getId();
+			}
+			final ComponentStore store = ComponentStore.getDefault();
+
+			results.add(Harness.run("entity.iterate.hashmap", String.valueOf(size), new Runnable() {
+				public void run() {
+					float sum = 0;
+					for (int i = 0; i < legacy.size(); i++) {
+						HashMap<String, Object> data = legacy.get(i);
+						if ((Boolean) data.get(Entity.SHOULD_DRAW) && (Boolean) data.get(Entity.ADDED_TO_PHYSICS)) {
+							Transform out = new Transform();
+							CollisionObject co = (CollisionObject) data.get(Entity.COLLISION_OBJECT);
+							out = co.getWorldTransform(new Transform());
+							sum += out.origin.x + out.origin.y + out.origin.z;
+							sum += (Integer) data.get(Entity.TIME_TO_LIVE);
+						}
+					}
+					Harness.sink = sum;
+				}
+			}));
+
+			results.add(Harness.run("entity.iterate.handle", String.valueOf(size), new Runnable() {
+				public void run() {
+					float sum = 0;
+					float[] positions = store.getPositions();
+					for (int i = 0; i < entities.size(); i++) {
+						Entity ent = entities.get(i);
+						if (ent.shouldDraw()) {
+							int p = ent.getId() * ComponentStore.POSITION_STRIDE;
+							sum += positions[p] + positions[p + 1] + positions[p + 2];
+							sum += ent.getTimeToLive();
+						}
+					}
+					Harness.sink = sum;
+				}
+			}));
+
+			results.add(Harness.run("entity.iterate.store", String.valueOf(size), new Runnable() {
+				public void run() {
+					float sum = 0;
+					boolean[] should_draw = store.getShouldDrawArray();
+					float[] positions = store.getPositions();
+					int[] ttl = store.getTimeToLiveArray();
+					for (int i = 0; i < ids.length; i++) {
+						int id = ids[i];
+						if (should_draw[id]) {
+							int p = id * ComponentStore.POSITION_STRIDE;
+							sum += positions[p] + positions[p + 1] + positions[p + 2];
+							sum += ttl[id];
+						}
+					}
+					Harness.sink = sum;
+				}
+			}));
+
+			for (Entity ent : entities) {
+				ent.destroy();
+			}
+		}
+
+		return results;
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Frustum culling against a synthetic camera, no GL.  Boxes sit on a grid
+ * 	on the ground and the camera stands in the middle looking along it, so
+ * 	most of them are behind it or off to the side.
+ *
+ * 	"update.moved" is a tick where everything moved past its leaf's margin
+ * 	(the worst case), "update.still" one where nothing did.  "query" is
+ * 	the cull itself and "bruteforce" the same test on every entity's box,
+ * 	which is what the tree saves.  Before timing anything the culled set is
+ * 	checked against the brute force one: nothing in view may be dropped.
+ *
+ * 	-Dbench.boxes=1000,10000 changes the sizes.
+ */
+package benchmarks;
+
+import java.util.ArrayList;
+
+import javax.vecmath.Vector3f;
+
+import com.bulletphysics.linearmath.Transform;
+
+import engine.entity.Entity;
+import engine.entity.EntityList;
+import engine.render.Frustum;
+import engine.render.FrustumCuller;
+import engine.render.Model;
+import engine.render.RenderSnapshot;
+import engine.render.Shader;
+import engine.render.SnapshotExchange;
+import engine.render.primitives.Box;
+import engine.render.ubos.TransformationMatrices;
+
+public class CullingBenchmark {
+	private static final int[] SIZES = {1000, 10000, 100000};
+	private static final float SPACING = 4f;
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		Model model = new Box(0f, false, new Vector3f(1, 1, 1), new Shader()).getModel();
+		model.verify();
+
+		for (int size : Harness.sizes("bench.boxes", SIZES)) {
+			ArrayList<Entity> entities = new ArrayList<Entity>(size);
+			EntityList list = new EntityList();
+			for (int i = 0; i < size; i++) {
+				Entity ent = new Entity("cull" + i, 0f, false, model, null);
+				entities.add(ent);
+				list.addEntity(ent);
+			}
+			int side = (int)Math.ceil(Math.sqrt(size));
+			float half = side * SPACING / 2;
+
+			// Two ticks a cell apart (well past the margin), and one more with nothing moved
+			final RenderSnapshot here = snapshot(list, entities, side, 0f);
+			final RenderSnapshot there = snapshot(list, entities, side, SPACING);
+			final RenderSnapshot still = snapshot(list, entities, side, SPACING);
+
+			TransformationMatrices camera = new TransformationMatrices(
+				45f, 1f, 0.1f, half,
+				new Vector3f(0, 10, 0), new Vector3f(half, 0, 0), new Vector3f(0, 1, 0)
+			);
+			final float[] view_projection = new float[16];
+			camera.getViewProjection(view_projection);
+
+			final FrustumCuller culler = new FrustumCuller();
+			culler.update(here);
+			check(culler, here, view_projection);
+			culler.update(there);
+			check(culler, there, view_projection);
+			culler.update(still);
+			check(culler, still, view_projection);
+			System.out.println("  " + culler.getStats());
+
+			String param = String.valueOf(size);
+			final RenderSnapshot[] ticks = {here, there};
+			results.add(Harness.run("cull.update.moved", param, size, 5, 20, new Runnable() {
+				int tick = 0;
+				public void run() {
+					culler.update(ticks[tick++ & 1]);
+				}
+			}));
+			final RenderSnapshot[] still_ticks = {there, still};
+			culler.update(there);
+			results.add(Harness.run("cull.update.still", param, size, 5, 20, new Runnable() {
+				int tick = 0;
+				public void run() {
+					culler.update(still_ticks[tick++ & 1]);
+				}
+			}));
+			results.add(Harness.run("cull.query", param, size, 20, 50, new Runnable() {
+				public void run() {
+					Harness.sink = culler.cull(view_projection);
+				}
+			}));
+			results.add(Harness.run("cull.bruteforce", param, size, 20, 50, new Runnable() {
+				Frustum frustum = new Frustum();
+				float[] box = new float[6];
+				float[] matrix = new float[16];
+				public void run() {
+					frustum.set(view_projection);
+					int visible = 0;
+					for (int i = 0; i < still.getCount(); i++) {
+						worldBox(still, i, matrix, box);
+						if (frustum.intersects(box, 0)) {
+							visible++;
+						}
+					}
+					Harness.sink = visible;
+				}
+			}));
+
+			for (Entity ent : entities) {
+				ent.destroy();
+			}
+		}
+
+		return results;
+	}
+
+	// Everything placed on the grid, shifted by offset along x, and published twice so it's a still tick
+	private static RenderSnapshot snapshot(EntityList list, ArrayList<Entity> entities, int side, float offset) {
+		Transform trans = new Transform();
+		trans.setIdentity();
+		for (int i = 0; i < entities.size(); i++) {
+			trans.origin.set((i % side - side / 2) * SPACING + offset, 0, (i / side - side / 2) * SPACING);
+			entities.get(i).getCollisionObject().setWorldTransform(trans);
+		}
+		SnapshotExchange exchange = new SnapshotExchange();
+		exchange.publish(list);
+		exchange.publish(list);
+		return exchange.acquire();
+	}
+
+	// Brute force answer: every entity whose box is in view has to be in the culled set
+	private static void check(FrustumCuller culler, RenderSnapshot snapshot, float[] view_projection) {
+		int count = culler.cull(view_projection);
+		boolean[] kept = new boolean[snapshot.getCount()];
+		for (int v = 0; v < count; v++) {
+			kept[culler.getVisible()[v]] = true;
+		}
+		Frustum frustum = new Frustum();
+		frustum.set(view_projection);
+		float[] box = new float[6];
+		float[] matrix = new float[16];
+		int expected = 0;
+		for (int i = 0; i < snapshot.getCount(); i++) {
+			worldBox(snapshot, i, matrix, box);
+			if (frustum.intersects(box, 0)) {
+				expected++;
+				if (!kept[i]) {
+					throw new RuntimeException("Culled entity " + i + " is in view");
+				}
+			}
+		}
+		if (expected == 0 || expected == snapshot.getCount()) {
+			throw new RuntimeException("Camera sees " + expected + " of " + snapshot.getCount() + "; not a useful test");
+		}
+	}
+
+	// Unit box (half extent 0.5) at the entity's position; the layout never rotates
+	private static void worldBox(RenderSnapshot snapshot, int i, float[] matrix, float[] box) {
+		snapshot.getMatrix(i, matrix);
+		box[0] = matrix[12] - 0.5f;
+		box[1] = matrix[13] - 0.5f;
+		box[2] = matrix[14] - 0.5f;
+		box[3] = matrix[12] + 0.5f;
+		box[4] = matrix[13] + 0.5f;
+		box[5] = matrix[14] + 0.5f;
+	}
+}
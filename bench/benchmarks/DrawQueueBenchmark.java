@@ -0,0 +1,128 @@
+/*
+ * Sorting a frame's draws by state with DrawQueue, on its own: keys made
+ * 	up of a few shaders, more textures and materials, a tenth of them
+ * 	translucent and every depth different.  No GL.
+ *
+ * 	"radix" is adding every draw and sorting, as the renderer does each
+ * 	frame.  "arrays" is Arrays.sort on just the keys, for reference (it
+ * 	doesn't carry the items along).  Before timing anything the result is
+ * 	checked to be in order, and how many program, texture and material
+ * 	changes drawing in that order needs is printed next to the unsorted
+ * 	order's.
+ *
+ * 	-Dbench.draws=1000,100000 changes the sizes.
+ */
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import engine.render.DrawQueue;
+
+public class DrawQueueBenchmark {
+	private static final int[] SIZES = {1000, 100000};
+	private static final int SHADERS = 8;
+	private static final int TEXTURES = 32;
+	private static final int MATERIALS = 16;
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		Random random = new Random(42);
+
+		for (int size : Harness.sizes("bench.draws", SIZES)) {
+			final long[] keys = new long[size];
+			for (int i = 0; i < size; i++) {
+				int shader = 1 + random.nextInt(SHADERS);
+				int texture = random.nextInt(TEXTURES);
+				int material = random.nextInt(MATERIALS);
+				int depth = DrawQueue.quantizeDepth(random.nextFloat() * 1000f, 1000f);
+				keys[i] = (random.nextInt(10) == 0)
+					? DrawQueue.translucentKey(shader, texture, material, depth)
+					: DrawQueue.opaqueKey(shader, texture, material, depth);
+			}
+
+			final DrawQueue queue = new DrawQueue();
+			fill(queue, keys);
+			queue.sort();
+			check(queue, keys);
+
+			String param = String.valueOf(size);
+			results.add(Harness.run("queue.sort.radix", param, size, 20, 50, new Runnable() {
+				public void run() {
+					fill(queue, keys);
+					queue.sort();
+					Harness.sink = queue.getItem(0);
+				}
+			}));
+			results.add(Harness.run("queue.sort.arrays", param, size, 20, 50, new Runnable() {
+				long[] copy = new long[keys.length];
+				public void run() {
+					System.arraycopy(keys, 0, copy, 0, keys.length);
+					Arrays.sort(copy);
+					Harness.sink = copy[0];
+				}
+			}));
+		}
+
+		return results;
+	}
+
+	private static void fill(DrawQueue queue, long[] keys) {
+		queue.clear();
+		for (int i = 0; i < keys.length; i++) {
+			queue.add(keys[i], i);
+		}
+	}
+
+	// In order, every item once, items still matching their keys, and opaque depth/translucent depth the right way
+	private static void check(DrawQueue queue, long[] keys) {
+		boolean[] seen = new boolean[keys.length];
+		long[] sorted = new long[queue.getCount()];
+		for (int d = 0; d < queue.getCount(); d++) {
+			int item = queue.getItem(d);
+			sorted[d] = queue.getKey(d);
+			if (seen[item] || keys[item] != sorted[d]) {
+				throw new RuntimeException("Draw " + d + " lost its item");
+			}
+			seen[item] = true;
+			if (d > 0 && sorted[d - 1] > sorted[d]) {
+				throw new RuntimeException("Draws " + (d - 1) + " and " + d + " are out of order");
+			}
+			if (d > 0 && sameState(sorted[d - 1], sorted[d]) && DrawQueue.isTranslucent(sorted[d]) == DrawQueue.isTranslucent(sorted[d - 1])) {
+				int before = DrawQueue.getDepth(sorted[d - 1]), after = DrawQueue.getDepth(sorted[d]);
+				if (DrawQueue.isTranslucent(sorted[d]) ? before < after : before > after) {
+					throw new RuntimeException("Draws " + (d - 1) + " and " + d + " are in the wrong depth order");
+				}
+			}
+		}
+		System.out.println("  " + keys.length + " draws, unsorted: " + changes(keys) + "; sorted: " + changes(sorted));
+	}
+
+	private static boolean sameState(long a, long b) {
+		return DrawQueue.getShader(a) == DrawQueue.getShader(b) && DrawQueue.getTexture(a) == DrawQueue.getTexture(b)
+			&& DrawQueue.getMaterial(a) == DrawQueue.getMaterial(b);
+	}
+
+	// What drawing in this order binds, the way RenderState skips repeats
+	private static String changes(long[] keys) {
+		int programs = 0, textures = 0, materials = 0;
+		for (int d = 0; d < keys.length; d++) {
+			boolean program = d == 0 || DrawQueue.getShader(keys[d]) != DrawQueue.getShader(keys[d - 1]);
+			if (program) {
+				programs++;
+			}
+			if (program || DrawQueue.getTexture(keys[d]) != DrawQueue.getTexture(keys[d - 1])) {
+				textures++;
+			}
+			if (program || DrawQueue.getMaterial(keys[d]) != DrawQueue.getMaterial(keys[d - 1])) {
+				materials++;
+			}
+		}
+		return programs + " programs, " + textures + " textures, " + materials + " materials";
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Flattening the entity list and resolving ghost overlaps back to entities,
+ * 	the two things the renderer and physics do to the EntityList every
+ * 	frame.  Half the entities are ghosts, each sitting on top of a rigid
+ * 	body so every ghost has something overlapping it.
+ *
+ * 	The "legacy" variants reproduce the old code: a fresh HashSet/ArrayList
+ * 	per flatten, and a flatten plus linear scan per ghost overlap.
+ */
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.vecmath.Vector3f;
+
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.dispatch.GhostObject;
+import com.bulletphysics.collision.shapes.BoxShape;
+import com.bulletphysics.dynamics.RigidBody;
+import com.bulletphysics.linearmath.Transform;
+
+import engine.entity.Entity;
+import engine.entity.EntityList;
+import engine.physics.Physics;
+import engine.render.Model;
+
+public class EntityListBenchmark {
+	private static final int[] SIZES = {1000, 5000};
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+
+		Model model = new Model();
+		model.setCollisionShape(new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f)));
+
+		for (int size : SIZES) {
+			final EntityList list = new EntityList();
+			final Physics physics = new Physics();
+			list.addListener(physics);
+
+			Transform trans = new Transform();
+			trans.setIdentity();
+			int side = (int)Math.ceil(Math.sqrt(size / 2));
+			for (int i = 0; i < size / 2; i++) {
+				Vector3f pos = new Vector3f((i % side) * 3f - side, 0, (i / side) * 3f - side);
+				Entity body = new Entity("body" + i, 0f, true, model, null);
+				Entity ghost = new Entity("ghost" + i, 0f, false, model, null);
+				// Place them before adding; static bodies never get their broadphase AABB refreshed
+				trans.origin.set(pos);
+				body.setProperty(Entity.POSITION, pos);
+				ghost.setProperty(Entity.POSITION, pos);
+				body.getCollisionObject().setWorldTransform(trans);
+				ghost.getCollisionObject().setWorldTransform(trans);
+				list.addEntity(body);
+				list.addEntity(ghost);
+			}
+			physics.parsePhysicsQueue();
+			physics.getDynamicsWorld().performDiscreteCollisionDetection();
+
+			String param = String.valueOf(size);
+
+			results.add(Harness.run("entitylist.flatten.legacy", param, new Runnable() {
+				public void run() {
+					Harness.sink = legacyFlatten(list);
+				}
+			}));
+
+			results.add(Harness.run("entitylist.flatten.cached", param, new Runnable() {
+				public void run() {
+					Harness.sink = list.getEntitiesAndSubEntities();
+				}
+			}));
+
+			results.add(Harness.run("physics.ghosts.legacy", param, 1, 3, new Runnable() {
+				public void run() {
+					int found = 0;
+					for (Entity entity : legacyFlatten(list)) {
+						if (entity.getCollisionObject().getClass() != RigidBody.class && !entity.isCollidable()) {
+							GhostObject ghost = (GhostObject)entity.getCollisionObject();
+							for (int i = 0; i < ghost.getNumOverlappingObjects(); i++) {
+								if (legacyLookup(list, ghost.getOverlappingObject(i)) != null) {
+									found++;
+								}
+							}
+						}
+					}
+					Harness.sink = found;
+				}
+			}));
+
+			results.add(Harness.run("physics.ghosts.indexed", param, new Runnable() {
+				public void run() {
+					physics.handleGhostCollisions(list);
+				}
+			}));
+
+			for (Entity ent : list.getEntitiesAndSubEntities()) {
+				ent.destroy();
+			}
+		}
+
+		return results;
+	}
+
+	private static ArrayList<Entity> legacyFlatten(EntityList list) {
+		Set<Entity> ents = new HashSet<Entity>();
+		for (Entity e : list) {
+			ents.add(e);
+			ents.addAll(list.getSubEntities(e));
+		}
+		return new ArrayList<Entity>(ents);
+	}
+
+	private static Entity legacyLookup(EntityList list, CollisionObject co) {
+		for (Entity ent : legacyFlatten(list)) {
+			if (ent.getCollisionObject() == co) {
+				return ent;
+			}
+		}
+		return null;
+	}
+}
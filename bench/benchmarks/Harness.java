@@ -0,0 +1,178 @@
+/*
+ * Tiny benchmark harness.  Runs a body for a number of warmup iterations
+ * 	so the JIT settles, then times a number of measured iterations and
+ * 	reports the average.  Results can be written out as JSON so runs from
+ * 	different releases can be compared.
+ */
+package benchmarks;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+public class Harness {
+	public static final int DEFAULT_WARMUP = 10;
+	public static final int DEFAULT_ITERATIONS = 20;
+
+	/*
+	 * Basically just a struct for holding a single measurement
+	 */
+	public static class Result {
+		public String name;
+		public String param;
+		public int iterations;
+		public double ns_per_op;
+		public double min_ns;
+		public double max_ns;
+		// Things processed per op (faces, entities...), 0 if it doesn't apply
+		public long items;
+
+		public double itemsPerSecond() {
+			return items == 0 ? 0 : items * 1e9 / ns_per_op;
+		}
+
+		public String toString() {
+			String line = String.format(
+				"%-48s %-12s %14.1f ns/op  (min %.1f, max %.1f, n=%d)",
+				name, param, ns_per_op, min_ns, max_ns, iterations
+			);
+			if (items != 0) {
+				line += String.format("  %.0f items/s", itemsPerSecond());
+			}
+			return line;
+		}
+	}
+
+	// Keeps the JIT from throwing away results nobody looks at
+	public static volatile Object sink;
+
+	public static Result run(String name, String param, Runnable body) {
+		return run(name, param, DEFAULT_WARMUP, DEFAULT_ITERATIONS, body);
+	}
+
+	// Same as run(), but records how many items one op processes for throughput
+	public static Result run(String name, String param, long items, int warmup, int iterations, Runnable body) {
+		return run(name, param, warmup, iterations, body, items);
+	}
+
+	public static Result run(String name, String param, int warmup, int iterations, Runnable body) {
+		return run(name, param, warmup, iterations, body, 0);
+	}
+
+	private static Result run(String name, String param, int warmup, int iterations, Runnable body, long items) {
+		for (int i = 0; i < warmup; i++) {
+			body.run();
+		}
+
+		double total = 0;
+		double min = Double.MAX_VALUE;
+		double max = 0;
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			body.run();
+			double elapsed = System.nanoTime() - start;
+			total += elapsed;
+			min = Math.min(min, elapsed);
+			max = Math.max(max, elapsed);
+		}
+
+		Result result = new Result();
+		result.name = name;
+		result.param = param;
+		result.iterations = iterations;
+		result.ns_per_op = total / iterations;
+		result.min_ns = min;
+		result.max_ns = max;
+		result.items = items;
+
+		System.out.println(result);
+		return result;
+	}
+
+	/*
+	 * Sizes to run at, from a comma separated system property if it's set
+	 * 	(-Dbench.faces=10000,1000000) or the defaults if not.
+	 */
+	public static int[] sizes(String property, int[] defaults) {
+		String value = System.getProperty(property);
+		if (value == null || value.trim().isEmpty()) {
+			return defaults;
+		}
+		String[] split = value.trim().split("\\s*,\\s*");
+		int[] sizes = new int[split.length];
+		for (int i = 0; i < split.length; i++) {
+			sizes[i] = Integer.parseInt(split[i]);
+		}
+		return sizes;
+	}
+
+	/*************** JSON ***************/
+	/*
+	 * One object per run: when and where it ran, then every result.  label
+	 * 	is whatever identifies the build (a release number, a commit).
+	 */
+	public static void writeJson(String path, String label, List<Result> results) throws IOException {
+		Writer out = new FileWriter(path);
+		try {
+			out.write("{\n");
+			out.write("  \"label\": " + quote(label) + ",\n");
+			out.write("  \"timestamp\": " + System.currentTimeMillis() + ",\n");
+			out.write("  \"java_version\": " + quote(System.getProperty("java.version")) + ",\n");
+			out.write("  \"os\": " + quote(System.getProperty("os.name") + " " + System.getProperty("os.arch")) + ",\n");
+			out.write("  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+			out.write("  \"results\": [\n");
+			for (int i = 0; i < results.size(); i++) {
+				Result r = results.get(i);
+				out.write("    {");
+				out.write("\"name\": " + quote(r.name));
+				out.write(", \"param\": " + quote(r.param));
+				out.write(", \"iterations\": " + r.iterations);
+				out.write(", \"ns_per_op\": " + number(r.ns_per_op));
+				out.write(", \"min_ns\": " + number(r.min_ns));
+				out.write(", \"max_ns\": " + number(r.max_ns));
+				if (r.items != 0) {
+					out.write(", \"items\": " + r.items);
+					out.write(", \"items_per_sec\": " + number(r.itemsPerSecond()));
+				}
+				out.write(i == results.size() - 1 ? "}\n" : "},\n");
+			}
+			out.write("  ]\n");
+			out.write("}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String quote(String s) {
+		if (s == null) {
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int)c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	// JSON has no NaN/Infinity, and Locale mustn't turn the . into a ,
+	private static String number(double d) {
+		if (Double.isNaN(d) || Double.isInfinite(d)) {
+			return "null";
+		}
+		return String.valueOf(Math.round(d * 10) / 10.0);
+	}
+	/******************************************/
+}
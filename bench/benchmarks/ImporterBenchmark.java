@@ -0,0 +1,85 @@
+/*
+ * How fast each importer turns a file into a Model.  The files are
+ * 	generated grids (see MeshGenerator) held in memory, so this is parse
+ * 	time only, no disk.
+ *
+ * 	Defaults to 10k and 100k faces; -Dbench.faces=10000,100000,1000000
+ * 	for the big one (give it a few GB of heap, XGL goes through a DOM).
+ */
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+
+import engine.importing.Obj_Parser;
+import engine.importing.PLY_Parser;
+import engine.importing.Parser;
+import engine.importing.STL_Parser;
+import engine.importing.XGL_Parser;
+
+public class ImporterBenchmark {
+	private static final int[] SIZES = {10000, 100000};
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+
+		for (int faces : Harness.sizes("bench.faces", SIZES)) {
+			MeshGenerator generator = new MeshGenerator(faces);
+			String param = String.valueOf(faces);
+			int warmup = faces >= 1000000 ? 1 : faces >= 100000 ? 2 : 5;
+			int iterations = faces >= 1000000 ? 2 : faces >= 100000 ? 3 : 10;
+
+			results.add(parse("import.obj", param, faces, warmup, iterations, "obj", generator.obj()));
+			results.add(parse("import.stl", param, faces, warmup, iterations, "stl", generator.stl()));
+			byte[] binary_stl = generator.stlBinary();
+			results.add(parse("import.stl.binary", param, faces, warmup, iterations, "stl", binary_stl));
+			results.add(parse("import.stl.binary.welded", param, faces, warmup, iterations, "stl.welded", binary_stl));
+			byte[] ascii_ply = generator.ply();
+			results.add(parse("import.ply", param, faces, warmup, iterations, "ply", ascii_ply));
+			results.add(parse("import.ply.streaming", param, faces, warmup, iterations, "ply.streaming", ascii_ply));
+			byte[] binary_ply = generator.plyBinary(true);
+			results.add(parse("import.ply.binary", param, faces, warmup, iterations, "ply", binary_ply));
+			results.add(parse("import.ply.binary.streaming", param, faces, warmup, iterations, "ply.streaming", binary_ply));
+			results.add(parse("import.ply.binary.be", param, faces, warmup, iterations, "ply", generator.plyBinary(false)));
+			results.add(parse("import.xgl", param, faces, warmup, iterations, "xgl", generator.xgl()));
+		}
+
+		return results;
+	}
+
+	private static Harness.Result parse(String name, String param, long faces, int warmup, int iterations, final String format, final byte[] file) {
+		return Harness.run(name, param, faces, warmup, iterations, new Runnable() {
+			public void run() {
+				Parser parser = createParser(format);
+				try {
+					parser.readFile(new ByteArrayInputStream(file));
+				} catch (Exception e) {
+					// A failed parse would just look fast, so don't keep going
+					throw new RuntimeException("Failed to parse generated " + format, e);
+				}
+				Harness.sink = parser.createModel();
+			}
+		});
+	}
+
+	private static Parser createParser(String format) {
+		switch (format) {
+			case "obj": return new Obj_Parser();
+			case "stl": return new STL_Parser();
+			case "stl.welded":
+				STL_Parser welding = new STL_Parser();
+				welding.setWeld(true);
+				return welding;
+			case "ply": return new PLY_Parser();
+			case "ply.streaming":
+				PLY_Parser streaming = new PLY_Parser();
+				streaming.setStreaming(true);
+				return streaming;
+			default: return new XGL_Parser();
+		}
+	}
+}
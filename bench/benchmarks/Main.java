@@ -0,0 +1,100 @@
+/*
+ * Runs every benchmark in the tree.  Pass benchmark class names (without the
+ * 	package) to only run some of them.
+ *
+ * 	-Dbench.json=file writes the results there as JSON, tagged with
+ * 	-Dbench.label (a release or commit) so runs can be compared later.
+ */
+package benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class Main {
+	public static void main(String[] args) {
+		List<String> selected = Arrays.asList(args);
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+
+		if (shouldRun(selected, "BakedModelBenchmark")) {
+			results.addAll(BakedModelBenchmark.run());
+		}
+		if (shouldRun(selected, "BatchingBenchmark")) {
+			results.addAll(BatchingBenchmark.run());
+		}
+		if (shouldRun(selected, "ComponentStoreBenchmark")) {
+			results.addAll(ComponentStoreBenchmark.run());
+		}
+		if (shouldRun(selected, "CullingBenchmark")) {
+			results.addAll(CullingBenchmark.run());
+		}
+		if (shouldRun(selected, "DrawQueueBenchmark")) {
+			results.addAll(DrawQueueBenchmark.run());
+		}
+		if (shouldRun(selected, "EntityListBenchmark")) {
+			results.addAll(EntityListBenchmark.run());
+		}
+		if (shouldRun(selected, "ImporterBenchmark")) {
+			results.addAll(ImporterBenchmark.run());
+		}
+		if (shouldRun(selected, "MeshBenchmark")) {
+			results.addAll(MeshBenchmark.run());
+		}
+		if (shouldRun(selected, "PhysicsBenchmark")) {
+			results.addAll(PhysicsBenchmark.run());
+		}
+		if (shouldRun(selected, "ResourceCacheBenchmark")) {
+			results.addAll(ResourceCacheBenchmark.run());
+		}
+		if (shouldRun(selected, "ResourceLoadingBenchmark")) {
+			results.addAll(ResourceLoadingBenchmark.run());
+		}
+		if (shouldRun(selected, "ResourceStartupBenchmark")) {
+			results.addAll(ResourceStartupBenchmark.run());
+		}
+		if (shouldRun(selected, "StarsBenchmark")) {
+			results.addAll(StarsBenchmark.run());
+		}
+		if (shouldRun(selected, "TerrainBenchmark")) {
+			results.addAll(TerrainBenchmark.run());
+		}
+		if (shouldRun(selected, "TerrainStreamingBenchmark")) {
+			results.addAll(TerrainStreamingBenchmark.run());
+		}
+		if (shouldRun(selected, "VoxelBenchmark")) {
+			results.addAll(VoxelBenchmark.run());
+		}
+
+		boolean passed = true;
+		if (shouldRun(selected, "AllocationRegression")) {
+			passed &= AllocationRegression.run();
+		}
+		if (shouldRun(selected, "ShaderQueryCheck")) {
+			passed &= ShaderQueryCheck.run();
+		}
+		if (shouldRun(selected, "RegressionCheck")) {
+			passed &= RegressionCheck.run();
+		}
+
+		System.out.println("\nRan " + results.size() + " benchmarks.");
+		String json = System.getProperty("bench.json");
+		if (json != null && !json.isEmpty()) {
+			try {
+				Harness.writeJson(json, System.getProperty("bench.label", ""), results);
+				System.out.println("Wrote results to " + json);
+			} catch (IOException e) {
+				System.out.println("Couldn't write benchmark results to " + json);
+				e.printStackTrace();
+			}
+		}
+		if (!passed) {
+			System.out.println("Allocation, shader query or regression check failed.");
+			System.exit(1);
+		}
+	}
+
+	private static boolean shouldRun(List<String> selected, String name) {
+		return selected.isEmpty() || selected.contains(name);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * What happens to a model between being parsed and being drawn: normals,
+ * 	the convex hull for physics, and packing the VBO.  packBuffers() is
+ * 	everything createVBO() does except the upload, so no GL is needed; the
+ * 	bytes it saves over one vertex per corner are printed alongside.
+ *
+ * 	Sizes come from -Dbench.faces, same as ImporterBenchmark.
+ */
+package benchmarks;
+
+import java.util.ArrayList;
+
+import engine.render.Model;
+import engine.render.model_pieces.Mesh;
+
+public class MeshBenchmark {
+	private static final int[] SIZES = {10000, 100000};
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+
+		for (int faces : Harness.sizes("bench.faces", SIZES)) {
+			final Model model = new MeshGenerator(faces).model();
+			final Mesh mesh = model.getMesh(0);
+			model.verify();
+			String param = String.valueOf(faces);
+			int warmup = faces >= 1000000 ? 2 : 5;
+			int iterations = faces >= 1000000 ? 3 : 10;
+
+			results.add(Harness.run("mesh.calcNormals", param, faces, warmup, iterations, new Runnable() {
+				public void run() {
+					mesh.calcNormals(true);
+				}
+			}));
+
+			results.add(Harness.run("model.reduceHull", param, faces, warmup, iterations, new Runnable() {
+				public void run() {
+					model.reduceHull();
+					Harness.sink = model.getCollisionShape();
+				}
+			}));
+
+			results.add(Harness.run("model.packBuffers", param, faces, warmup, iterations, new Runnable() {
+				public void run() {
+					model.packBuffers();
+					Harness.sink = model.getVertexBuffer();
+				}
+			}));
+			System.out.println("  packed " + param + ": " + model.getPacking());
+
+			model.setCompactVertices(true);
+			results.add(Harness.run("model.packBuffers.compact", param, faces, warmup, iterations, new Runnable() {
+				public void run() {
+					model.packBuffers();
+					Harness.sink = model.getVertexBuffer();
+				}
+			}));
+			System.out.println("  packed " + param + ": " + model.getPacking());
+			model.setCompactVertices(false);
+
+			final Model smooth = new MeshGenerator(faces).smoothModel();
+			results.add(Harness.run("model.packBuffers.smooth", param, faces, warmup, iterations, new Runnable() {
+				public void run() {
+					smooth.packBuffers();
+					Harness.sink = smooth.getVertexBuffer();
+				}
+			}));
+			System.out.println("  packed " + param + ": " + smooth.getPacking());
+		}
+
+		return results;
+	}
+}
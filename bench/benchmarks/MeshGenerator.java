@@ -0,0 +1,256 @@
+/*
+ * Makes test meshes of any size: a bumpy grid of triangles, either as a
+ * 	Model in memory or written out in each format the importers read.
+ * 	Same grid every time for the same face count, so runs are comparable.
+ */
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import javax.vecmath.Vector2f;
+import javax.vecmath.Vector3f;
+
+import engine.render.Model;
+import engine.render.model_pieces.Face;
+import engine.render.model_pieces.Mesh;
+import engine.render.ubos.Material;
+
+public class MeshGenerator {
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private final int faces;
+	// Grid cells per row; two triangles per cell
+	private final int width;
+
+	public MeshGenerator(int faces) {
+		this.faces = faces;
+		this.width = (int)Math.ceil(Math.sqrt(faces / 2.0));
+	}
+
+	public int getFaceCount() {
+		return faces;
+	}
+
+	public int getVertexCount() {
+		return (width + 1) * (width + 1);
+	}
+
+	/*************** GRID ***************/
+	public float x(int vertex) {
+		return vertex % (width + 1);
+	}
+
+	public float y(int vertex) {
+		return (float)(Math.sin(x(vertex) * 0.1) * Math.cos(z(vertex) * 0.1));
+	}
+
+	public float z(int vertex) {
+		return vertex / (width + 1);
+	}
+
+	// Index of corner (0-2) of triangle face
+	public int corner(int face, int corner) {
+		int cell = face / 2;
+		int cx = cell % width;
+		int cz = cell / width;
+		int row = width + 1;
+		if (face % 2 == 0) {
+			switch (corner) {
+				case 0: return cz * row + cx;
+				case 1: return (cz + 1) * row + cx;
+				default: return cz * row + cx + 1;
+			}
+		} else {
+			switch (corner) {
+				case 0: return cz * row + cx + 1;
+				case 1: return (cz + 1) * row + cx;
+				default: return (cz + 1) * row + cx + 1;
+			}
+		}
+	}
+	/******************************************/
+
+	/*************** OUTPUT ***************/
+	public Model model() {
+		Mesh mesh = new Mesh();
+		Vector3f[] vertices = new Vector3f[getVertexCount()];
+		for (int i = 0; i < vertices.length; i++) {
+			vertices[i] = new Vector3f(x(i), y(i), z(i));
+		}
+		for (int f = 0; f < faces; f++) {
+			Face face = new Face();
+			for (int c = 0; c < 3; c++) {
+				face.addVertex(vertices[corner(f, c)]);
+			}
+			mesh.addFace(face);
+		}
+		mesh.setMaterial(new Material());
+		Model model = new Model();
+		model.addMesh(mesh);
+		return model;
+	}
+
+	/*
+	 * Same grid with a normal and texture coords per grid vertex, shared by
+	 * 	every face using it, like a smooth mesh exported with vn and vt.
+	 */
+	public Model smoothModel() {
+		Mesh mesh = new Mesh();
+		int count = getVertexCount();
+		Vector3f[] vertices = new Vector3f[count];
+		Vector3f[] normals = new Vector3f[count];
+		Vector2f[] uvs = new Vector2f[count];
+		for (int i = 0; i < count; i++) {
+			vertices[i] = new Vector3f(x(i), y(i), z(i));
+			// Gradient of the height function
+			float dx = (float)(0.1 * Math.cos(x(i) * 0.1) * Math.cos(z(i) * 0.1));
+			float dz = (float)(-0.1 * Math.sin(x(i) * 0.1) * Math.sin(z(i) * 0.1));
+			normals[i] = new Vector3f(-dx, 1, -dz);
+			normals[i].normalize();
+			uvs[i] = new Vector2f(x(i) / width, z(i) / width);
+		}
+		for (int f = 0; f < faces; f++) {
+			Face face = new Face();
+			ArrayList<Vector2f> face_uvs = new ArrayList<Vector2f>();
+			for (int c = 0; c < 3; c++) {
+				int v = corner(f, c);
+				face.addVertex(vertices[v]);
+				face.addVertexNorm(normals[v]);
+				face_uvs.add(uvs[v]);
+			}
+			face.setUVCoords(face_uvs);
+			mesh.addFace(face);
+		}
+		mesh.setMaterial(new Material());
+		Model model = new Model();
+		model.addMesh(mesh);
+		return model;
+	}
+
+	public byte[] obj() {
+		StringBuilder sb = new StringBuilder(faces * 48);
+		sb.append("o generated\n");
+		for (int i = 0; i < getVertexCount(); i++) {
+			sb.append("v ").append(x(i)).append(' ').append(y(i)).append(' ').append(z(i)).append('\n');
+		}
+		for (int f = 0; f < faces; f++) {
+			// obj counts from 1
+			sb.append("f ").append(corner(f, 0) + 1)
+				.append(' ').append(corner(f, 1) + 1)
+				.append(' ').append(corner(f, 2) + 1).append('\n');
+		}
+		return sb.toString().getBytes(ASCII);
+	}
+
+	public byte[] stl() {
+		StringBuilder sb = new StringBuilder(faces * 200);
+		sb.append("solid generated\n");
+		for (int f = 0; f < faces; f++) {
+			sb.append("facet normal 0 1 0\n");
+			sb.append("outer loop\n");
+			for (int c = 0; c < 3; c++) {
+				int v = corner(f, c);
+				sb.append("vertex ").append(x(v)).append(' ').append(y(v)).append(' ').append(z(v)).append('\n');
+			}
+			sb.append("endloop\n");
+			sb.append("endfacet\n");
+		}
+		sb.append("endsolid generated\n");
+		return sb.toString().getBytes(ASCII);
+	}
+
+	// 80 byte header, count, then normal + three corners + 2 spare bytes per triangle
+	public byte[] stlBinary() {
+		ByteBuffer buffer = ByteBuffer.allocate(84 + faces * 50).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put("generated".getBytes(ASCII));
+		buffer.position(80);
+		buffer.putInt(faces);
+		for (int f = 0; f < faces; f++) {
+			buffer.putFloat(0).putFloat(1).putFloat(0);
+			for (int c = 0; c < 3; c++) {
+				int v = corner(f, c);
+				buffer.putFloat(x(v)).putFloat(y(v)).putFloat(z(v));
+			}
+			buffer.putShort((short)0);
+		}
+		return buffer.array();
+	}
+
+	public byte[] ply() {
+		StringBuilder sb = new StringBuilder(faces * 48);
+		sb.append("ply\n");
+		sb.append("format ascii 1.0\n");
+		sb.append("element vertex ").append(getVertexCount()).append('\n');
+		sb.append("property float x\n");
+		sb.append("property float y\n");
+		sb.append("property float z\n");
+		sb.append("element face ").append(faces).append('\n');
+		sb.append("property list uchar int vertex_indices\n");
+		sb.append("end_header\n");
+		for (int i = 0; i < getVertexCount(); i++) {
+			sb.append(x(i)).append(' ').append(y(i)).append(' ').append(z(i)).append('\n');
+		}
+		for (int f = 0; f < faces; f++) {
+			sb.append("3 ").append(corner(f, 0))
+				.append(' ').append(corner(f, 1))
+				.append(' ').append(corner(f, 2)).append('\n');
+		}
+		return sb.toString().getBytes(ASCII);
+	}
+
+	// Same mesh as ply(), in binary_little_endian or binary_big_endian
+	public byte[] plyBinary(boolean little_endian) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("ply\n");
+		sb.append(little_endian ? "format binary_little_endian 1.0\n" : "format binary_big_endian 1.0\n");
+		sb.append("element vertex ").append(getVertexCount()).append('\n');
+		sb.append("property float x\n");
+		sb.append("property float y\n");
+		sb.append("property float z\n");
+		sb.append("element face ").append(faces).append('\n');
+		sb.append("property list uchar int vertex_indices\n");
+		sb.append("end_header\n");
+		byte[] header = sb.toString().getBytes(ASCII);
+
+		ByteBuffer buffer = ByteBuffer.allocate(header.length + getVertexCount() * 12 + faces * 13)
+			.order(little_endian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		buffer.put(header);
+		for (int i = 0; i < getVertexCount(); i++) {
+			buffer.putFloat(x(i)).putFloat(y(i)).putFloat(z(i));
+		}
+		for (int f = 0; f < faces; f++) {
+			buffer.put((byte)3);
+			buffer.putInt(corner(f, 0)).putInt(corner(f, 1)).putInt(corner(f, 2));
+		}
+		return buffer.array();
+	}
+
+	// Laid out the way Model.toXGLString() writes it: defines in a MESH, one OBJECT using it
+	public byte[] xgl() {
+		StringBuilder sb = new StringBuilder(faces * 160);
+		sb.append("<WORLD>\n");
+		sb.append("<MAT ID=\"0\">\n<AMB>0.2, 0.2, 0.2</AMB>\n<DIFF>0.8, 0.8, 0.8</DIFF>\n</MAT>\n");
+		sb.append("<MESH ID=\"0\">\n");
+		for (int i = 0; i < getVertexCount(); i++) {
+			sb.append("<P ID=\"").append(i).append("\">")
+				.append(x(i)).append(", ").append(y(i)).append(", ").append(z(i)).append("</P>\n");
+		}
+		sb.append("<N ID=\"0\">0.0, 1.0, 0.0</N>\n");
+		for (int f = 0; f < faces; f++) {
+			sb.append("<F><MATREF>0</MATREF>");
+			for (int c = 0; c < 3; c++) {
+				sb.append("<FV").append(c + 1).append("><PREF>").append(corner(f, c))
+					.append("</PREF><NREF>0</NREF></FV").append(c + 1).append(">");
+			}
+			sb.append("</F>\n");
+		}
+		sb.append("</MESH>\n");
+		sb.append("<OBJECT>\n<MESHREF>0</MESHREF>\n</OBJECT>\n");
+		sb.append("</WORLD>\n");
+		return sb.toString().getBytes(ASCII);
+	}
+	/******************************************/
+}
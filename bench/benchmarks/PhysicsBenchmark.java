@@ -0,0 +1,82 @@
+/*
+ * One physics tick with N boxes resting on a static floor, deactivation
+ * 	off so none of them get to sleep and every tick is the worst case.
+ *
+ * 	Times Physics.stepFixed(1) rather than clientUpdate(): clientUpdate
+ * 	takes as many substeps as wall clock time has passed, so it would
+ * 	mostly be measuring how long the last iteration took.  stepFixed(1)
+ * 	is the same step plus component store sync, done exactly once.
+ *
+ * 	-Dbench.boxes=100,1000 to change the counts.
+ */
+package benchmarks;
+
+import java.util.ArrayList;
+
+import javax.vecmath.Vector3f;
+
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.collision.shapes.BoxShape;
+import com.bulletphysics.linearmath.Transform;
+
+import engine.entity.Entity;
+import engine.entity.EntityList;
+import engine.physics.Physics;
+import engine.render.Model;
+
+public class PhysicsBenchmark {
+	private static final int[] SIZES = {100, 1000, 5000};
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+
+		Model box = new Model();
+		box.setCollisionShape(new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f)));
+
+		for (int size : Harness.sizes("bench.boxes", SIZES)) {
+			final EntityList list = new EntityList();
+			final Physics physics = new Physics();
+			list.addListener(physics);
+
+			int side = (int)Math.ceil(Math.sqrt(size));
+			Transform trans = new Transform();
+			trans.setIdentity();
+
+			// Floor big enough for the whole grid, top face at y=0
+			Model floor_model = new Model();
+			floor_model.setCollisionShape(new BoxShape(new Vector3f(side * 2f, 1f, side * 2f)));
+			Entity floor = new Entity("floor", 0f, true, floor_model, null);
+			trans.origin.set(side, -1f, side);
+			floor.setProperty(Entity.POSITION, new Vector3f(trans.origin));
+			floor.getCollisionObject().setWorldTransform(trans);
+			list.addEntity(floor);
+
+			for (int i = 0; i < size; i++) {
+				Entity ent = new Entity("box" + i, 1f, true, box, null);
+				// Two units apart so they only touch the floor
+				trans.origin.set((i % side) * 2f, 0.5f, (i / side) * 2f);
+				ent.setProperty(Entity.POSITION, new Vector3f(trans.origin));
+				ent.getCollisionObject().setWorldTransform(trans);
+				ent.getCollisionObject().setActivationState(CollisionObject.DISABLE_DEACTIVATION);
+				list.addEntity(ent);
+			}
+			physics.parsePhysicsQueue();
+
+			results.add(Harness.run("physics.step", String.valueOf(size), size, 20, 50, new Runnable() {
+				public void run() {
+					physics.stepFixed(1);
+				}
+			}));
+
+			for (Entity ent : list.getEntitiesAndSubEntities()) {
+				ent.destroy();
+			}
+		}
+
+		return results;
+	}
+}
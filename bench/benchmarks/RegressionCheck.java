@@ -0,0 +1,213 @@
+/*
+ * Behaviour the per-frame and loading work isn't supposed to have changed,
+ * 	checked the same way the allocation and shader query checks are: no
+ * 	GL, no window, just the engine's own classes.
+ *
+ * 	Exits with 1 when run on its own and something's changed.
+ */
+package benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
+
+import com.bulletphysics.collision.shapes.BoxShape;
+import com.bulletphysics.dynamics.RigidBody;
+import com.bulletphysics.linearmath.Transform;
+
+import engine.Engine;
+import engine.entity.Entity;
+import engine.entity.EntityList;
+import engine.importing.FileLoader;
+import engine.importing.Obj_Parser;
+import engine.physics.Physics;
+import engine.render.Model;
+import engine.render.model_pieces.PackedMesh;
+import engine.render.ubos.Material;
+import engine.resource.ResourceHandle;
+
+public class RegressionCheck {
+	private static final String CUBE = "src/resources/models/misc/test_cube.obj";
+	// Twelve meshes in different colours
+	private static final String LEGOMAN = "src/resources/models/misc/legoman.xgl";
+	private static final long ASYNC_TIMEOUT_NANOS = 10000000000L;
+
+	public static void main(String[] args) {
+		if (!run()) {
+			System.exit(1);
+		}
+	}
+
+	public static boolean run() {
+		boolean passed = true;
+		passed &= checkPhysicsPosition();
+		passed &= checkObjFlatNormals();
+		passed &= checkHeadlessAsyncLoad();
+		passed &= checkDrawMaterial();
+		return passed;
+	}
+
+	/*
+	 * A rigid body nobody gave a POSITION (like the player) still has one,
+	 * 	from getProperty and getPosition alike, before and after a tick.
+	 */
+	private static boolean checkPhysicsPosition() {
+		EntityList list = new EntityList();
+		Physics physics = new Physics();
+		list.addListener(physics);
+
+		Model model = new Model();
+		model.setCollisionShape(new BoxShape(new Vector3f(0.5f, 0.5f, 0.5f)));
+		Entity ent = new Entity("falling", 1f, true, model, null);
+		Transform trans = new Transform();
+		trans.setIdentity();
+		trans.origin.set(3f, 10f, -2f);
+		ent.getCollisionObject().setWorldTransform(trans);
+		list.addEntity(ent);
+
+		Vector3f before = (Vector3f)ent.getProperty(Entity.POSITION);
+		physics.parsePhysicsQueue();
+		// No gravity in a fresh world, so push it
+		RigidBody body = (RigidBody)ent.getCollisionObject();
+		body.setLinearVelocity(new Vector3f(0f, -10f, 0f));
+		body.activate();
+		physics.stepFixed(1);
+		Vector3f after = (Vector3f)ent.getProperty(Entity.POSITION);
+		Vector3f live = ent.getCollisionObject().getWorldTransform(new Transform()).origin;
+
+		boolean ok = before != null && before.equals(new Vector3f(3f, 10f, -2f))
+			&& after != null && after.equals(live) && after.y < 10f
+			&& ent.getPosition(new Vector3f()).equals(after);
+		report("check.position.physics", ok, "position " + before + " before the tick, " + after + " after, body at " + live);
+
+		for (Entity e : list.getEntitiesAndSubEntities()) {
+			e.destroy();
+		}
+		return ok;
+	}
+
+	/*
+	 * An obj without vn lines is shaded flat: the bundled cube has to come
+	 * 	out with every triangle's corners facing along the same axis, all
+	 * 	six axes used, not the averaged corner normals of a welded cube.
+	 */
+	private static boolean checkObjFlatNormals() {
+		PackedMesh cube;
+		try {
+			FileInputStream in = new FileInputStream(CUBE);
+			try {
+				Obj_Parser parser = new Obj_Parser();
+				parser.readFile(in);
+				cube = parser.createModel().getPackedMesh();
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			report("check.obj.flat_normals", false, "couldn't parse " + CUBE + ": " + e);
+			return false;
+		}
+
+		float[] vertices = cube.getVertices();
+		int[] indices = cube.getIndices();
+		boolean[] axes = new boolean[6];
+		boolean ok = cube.getIndexCount() == 36;
+		String detail = cube.getIndexCount() + " indices";
+		for (int i = 0; i < cube.getIndexCount() && ok; i += 3) {
+			int axis = -1;
+			for (int k = 0; k < 3; k++) {
+				int n = indices[i + k] * PackedMesh.STRIDE + PackedMesh.NORMAL_OFFSET;
+				int corner_axis = -1;
+				for (int a = 0; a < 3; a++) {
+					if (Math.abs(vertices[n + a]) > 0.999f) {
+						corner_axis = a * 2 + (vertices[n + a] > 0 ? 0 : 1);
+					}
+				}
+				if (corner_axis == -1 || (axis != -1 && corner_axis != axis)) {
+					ok = false;
+					detail = "triangle " + (i / 3) + " has normal " + vertices[n] + " " + vertices[n + 1] + " " + vertices[n + 2];
+					break;
+				}
+				axis = corner_axis;
+			}
+			if (ok) {
+				axes[axis] = true;
+			}
+		}
+		for (boolean used : axes) {
+			ok &= used;
+		}
+		report("check.obj.flat_normals", ok, detail);
+		return ok;
+	}
+
+	/*
+	 * A headless engine has no render thread, so its physics ticks have to
+	 * 	finish async loads: a handle that's only ever polled still gets done.
+	 */
+	private static boolean checkHeadlessAsyncLoad() {
+		final Engine engine = new Engine(true);
+		Thread runner = new Thread() {
+			public void run() {
+				engine.run();
+			}
+		};
+		runner.start();
+
+		ResourceHandle handle = engine.resource_manager.getResourceAsync("test_cube", "models");
+		long deadline = System.nanoTime() + ASYNC_TIMEOUT_NANOS;
+		while (!handle.isDone() && System.nanoTime() < deadline) {
+			try {
+				Thread.sleep(5);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		boolean ok = handle.getState() == ResourceHandle.DONE;
+
+		engine.stop();
+		try {
+			runner.join();
+		} catch (InterruptedException e) {
+			ok = false;
+		}
+		report("check.load.headless_async", ok, "handle state " + handle.getState() + " after "
+			+ ASYNC_TIMEOUT_NANOS / 1000000000L + "s, error " + handle.getError());
+		return ok;
+	}
+
+	/*
+	 * The shaders multiply the Material block by the vertex colour, so a
+	 * 	model whose colours went into its vertices has to bind white (keeping
+	 * 	its alpha), and one whose didn't still binds its own material.
+	 */
+	private static boolean checkDrawMaterial() {
+		Model legoman, cube;
+		try {
+			legoman = FileLoader.parseFile(new File(LEGOMAN));
+			legoman.verify();
+			legoman.packBuffers();
+			cube = FileLoader.parseFile(new File(CUBE));
+			cube.verify();
+			cube.packBuffers();
+		} catch (Exception e) {
+			report("check.material.vertex_colors", false, e.toString());
+			return false;
+		}
+		Vector4f white = new Vector4f(1f, 1f, 1f, 1f);
+		Material drawn = legoman.getDrawMaterial();
+		boolean ok = legoman.getPacking().hasVertexColors()
+			&& drawn.getAmbient().equals(white) && drawn.getDiffuse().equals(white) && drawn.getSpecular().equals(white)
+			&& drawn.getAlpha() == legoman.getMaterial().getAlpha()
+			&& drawn.getShininess() == legoman.getMaterial().getShininess()
+			&& !cube.getPacking().hasVertexColors() && cube.getDrawMaterial() == cube.getMaterial();
+		report("check.material.vertex_colors", ok, "legoman binds diffuse " + drawn.getDiffuse()
+			+ ", the cube " + (cube.getDrawMaterial() == cube.getMaterial() ? "its own" : "another") + " material");
+		return ok;
+	}
+
+	private static void report(String name, boolean ok, String detail) {
+		System.out.println(String.format("%-48s %-12s %10s", name, "", ok ? "ok" : "FAIL") + (ok ? "" : "  " + detail));
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * ResourceManager's registry, headless.  "lookup" is getResource() on a
+ * 	resource that's already loaded, as every entity spawn does, out of a
+ * 	category of a thousand or so; "lookup.legacy" is the search through the
+ * 	category's list it used to be.
+ *
+ * 	"acquire" cycles acquire() and release() through our models with the
+ * 	memory budget set to about half of what they take, so some are
+ * 	unloaded and loaded again each time round; its footprint, hit rate and
+ * 	evictions are printed.  Before timing, eviction is checked: held and
+ * 	getResource() resources stay, the least recently used go first, and
+ * 	acquiring an evicted one loads it again.
+ *
+ * 	-Dbench.lookups=1000 changes how many resources the category has.
+ */
+package benchmarks;
+
+import java.util.ArrayList;
+
+import engine.render.Model;
+import engine.render.RenderMode;
+import engine.resource.ResourceManager;
+import engine.resource.ResourceManager.ResourceItem;
+
+public class ResourceCacheBenchmark {
+	private static final String[] MODELS = {"bunny", "sphere", "legoman", "teapot", "magnolia"};
+	private static final String BOX = "src/resources/models/misc/box.xgl";
+	private static final int[] LOOKUPS = {1000};
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		boolean was_headless = RenderMode.isHeadless();
+		RenderMode.setHeadless(true);
+		try {
+			final ResourceManager manager = new ResourceManager(null);
+			for (int count : Harness.sizes("bench.lookups", LOOKUPS)) {
+				results.addAll(lookups(manager, count));
+			}
+
+			checkEviction(manager);
+			final long budget = footprint(manager) / 2;
+			for (String name : MODELS) {
+				manager.unloadResource(name, "models");
+			}
+			manager.setMemoryBudget(budget);
+			ResourceManager.CategoryStats before = manager.getCategoryStats("models");
+			results.add(Harness.run("resources.acquire", "half budget", MODELS.length, 2, 10, new Runnable() {
+				public void run() {
+					for (String name : MODELS) {
+						Harness.sink = manager.acquire(name, "models");
+						manager.release(name, "models");
+					}
+				}
+			}));
+			ResourceManager.CategoryStats after = manager.getCategoryStats("models");
+			System.out.println(String.format("  budget %.1fKB: %.0f%% hits, %d evictions, %.1fKB loaded at the end",
+				budget / 1024.0, 100.0 * (after.hits - before.hits) / (after.hits + after.misses - before.hits - before.misses),
+				after.evictions - before.evictions, manager.getMemoryUsed() / 1024.0));
+			System.out.println("  models: " + after);
+		} finally {
+			RenderMode.setHeadless(was_headless);
+		}
+		return results;
+	}
+
+	private static ArrayList<Harness.Result> lookups(final ResourceManager manager, int count) {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		final String[] names = new String[count];
+		for (int i = 0; i < count; i++) {
+			names[i] = "lookup" + count + "_" + i;
+			manager.createResource(names[i], "models", BOX, new Model());
+			if (manager.getResource(names[i], "models") == null) {
+				throw new RuntimeException(names[i] + " didn't load");
+			}
+		}
+		String param = manager.getResourcesInCategory("models").size() + " models";
+
+		results.add(Harness.run("resources.lookup.legacy", param, count, 10, 50, new Runnable() {
+			public void run() {
+				for (String name : names) {
+					for (ResourceItem item : manager.getResourcesInCategory("models")) {
+						if (item.name.equals(name)) {
+							Harness.sink = item.data;
+							break;
+						}
+					}
+				}
+			}
+		}));
+		results.add(Harness.run("resources.lookup", param, count, 10, 50, new Runnable() {
+			public void run() {
+				for (String name : names) {
+					Harness.sink = manager.getResource(name, "models");
+				}
+			}
+		}));
+
+		for (String name : names) {
+			manager.unloadResource(name, "models");
+		}
+		return results;
+	}
+
+	// What MODELS take loaded, all together
+	private static long footprint(ResourceManager manager) {
+		long before = manager.getMemoryUsed();
+		for (String name : MODELS) {
+			manager.acquire(name, "models");
+		}
+		long bytes = manager.getMemoryUsed() - before;
+		for (String name : MODELS) {
+			manager.release(name, "models");
+		}
+		return bytes;
+	}
+
+	private static void checkEviction(ResourceManager manager) {
+		manager.setMemoryBudget(Long.MAX_VALUE);
+		for (String name : MODELS) {
+			manager.unloadResource(name, "models");
+		}
+		long all = footprint(manager);
+		if (all <= 0) {
+			throw new RuntimeException("Models measured " + all + " bytes");
+		}
+		// Acquired and released in order, so the first is the least recently used
+		Object oldest = manager.acquire(MODELS[0], "models");
+		manager.release(MODELS[0], "models");
+		for (int i = 1; i < MODELS.length; i++) {
+			manager.acquire(MODELS[i], "models");
+			manager.release(MODELS[i], "models");
+		}
+
+		// Held, and handed out for good; neither can go
+		Object held = manager.acquire(MODELS[1], "models");
+		Object pinned = manager.getResource(MODELS[2], "models");
+		manager.setMemoryBudget(0);
+		manager.trim();
+		ResourceManager.CategoryStats stats = manager.getCategoryStats("models");
+		if (stats.evictions < MODELS.length - 2) {
+			throw new RuntimeException("Only " + stats.evictions + " models evicted with no budget");
+		}
+		if (manager.acquire(MODELS[1], "models") != held || manager.getResource(MODELS[2], "models") != pinned) {
+			throw new RuntimeException("A model in use was evicted");
+		}
+		manager.release(MODELS[1], "models");
+		manager.release(MODELS[1], "models");
+
+		// Gone, so it's a new one, counted as a reload
+		manager.setMemoryBudget(Long.MAX_VALUE);
+		long reloads = stats.reloads;
+		Object reloaded = manager.acquire(MODELS[0], "models");
+		if (reloaded == null || reloaded == oldest || manager.getCategoryStats("models").reloads != reloads + 1) {
+			throw new RuntimeException("Evicted model wasn't loaded again");
+		}
+		manager.release(MODELS[0], "models");
+
+		// Least recently used first: with room for all but the oldest, only it goes
+		for (String name : MODELS) {
+			manager.unloadResource(name, "models");
+		}
+		footprint(manager);
+		ResourceItem first = null;
+		for (ResourceItem item : manager.getResourcesInCategory("models")) {
+			if (item.name.equals(MODELS[0])) {
+				first = item;
+			}
+		}
+		long evictions = manager.getCategoryStats("models").evictions;
+		manager.setMemoryBudget(manager.getMemoryUsed() - 1);
+		manager.trim();
+		if (first.data != null || manager.getCategoryStats("models").evictions != evictions + 1) {
+			throw new RuntimeException("Evicted something other than the least recently used model");
+		}
+		manager.setMemoryBudget(Long.MAX_VALUE);
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Loading a level's worth of models through ResourceManager, headless.
+ * 	"sync" is getResource() on each, the way the render thread used to,
+ * 	so the frame stalls for all of it.  "async" is preload() and then
+ * 	frames of finishLoads() with the engine's budget until everything is
+ * 	in; it's timed until the last one is done, and the longest any one
+ * 	frame spent loading is printed next to the sync stall.
+ *
+ * 	Each run forgets what the last one loaded.  Baked copies are used once
+ * 	they exist, as they would be in the game.
+ */
+package benchmarks;
+
+import java.util.ArrayList;
+
+import engine.Engine;
+import engine.render.RenderMode;
+import engine.resource.ResourceHandle;
+import engine.resource.ResourceManager;
+
+public class ResourceLoadingBenchmark {
+	private static final String[] MODELS = {"bunny", "sphere", "legoman", "teapot", "magnolia", "box", "test_cube"};
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		boolean was_headless = RenderMode.isHeadless();
+		RenderMode.setHeadless(true);
+		try {
+			final ResourceManager manager = new ResourceManager(null);
+			check(manager);
+
+			final long[] worst_frame = new long[1];
+			String param = MODELS.length + " models";
+			results.add(Harness.run("resources.sync", param, MODELS.length, 2, 5, new Runnable() {
+				public void run() {
+					forget(manager);
+					for (String name : MODELS) {
+						Harness.sink = manager.getResource(name, "models");
+					}
+				}
+			}));
+			Harness.Result sync = results.get(results.size() - 1);
+			results.add(Harness.run("resources.async", param, MODELS.length, 2, 5, new Runnable() {
+				public void run() {
+					forget(manager);
+					worst_frame[0] = Math.max(worst_frame[0], load(manager));
+				}
+			}));
+			System.out.println(String.format("  render thread stalled %.1fms a load with getResource(), at most %.2fms a frame with preload()",
+				sync.ns_per_op / 1e6, worst_frame[0] / 1e6));
+			System.out.println("  " + manager.getLoadStats());
+		} finally {
+			RenderMode.setHeadless(was_headless);
+		}
+		return results;
+	}
+
+	// preload() and frames until it's all in; returns the longest frame spent finishing loads
+	private static long load(ResourceManager manager) {
+		ArrayList<ResourceHandle> handles = manager.preload("models", MODELS);
+		long worst = 0;
+		for (ResourceHandle handle : handles) {
+			while (!handle.isDone()) {
+				long start = System.nanoTime();
+				manager.finishLoads(Engine.LOAD_BUDGET_NANOS);
+				worst = Math.max(worst, System.nanoTime() - start);
+				// The rest of the frame, so the loading threads get a turn on one core too
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		Harness.sink = handles;
+		return worst;
+	}
+
+	private static void forget(ResourceManager manager) {
+		for (String name : MODELS) {
+			manager.unloadResource(name, "models");
+		}
+	}
+
+	// Everything finishes, and gets the same resource getResource() would return
+	private static void check(ResourceManager manager) {
+		forget(manager);
+		ArrayList<ResourceHandle> handles = manager.preload("models", MODELS);
+		load(manager);
+		for (ResourceHandle handle : handles) {
+			if (handle.getState() != ResourceHandle.DONE || handle.getResource() == null) {
+				throw new RuntimeException(handle + " didn't load: " + handle.getError());
+			}
+			if (manager.getResource(handle.getName(), "models") != handle.getResource()) {
+				throw new RuntimeException(handle + " loaded twice");
+			}
+		}
+		ResourceHandle missing = manager.getResourceAsync("no_such_model", "models");
+		if (missing.getState() != ResourceHandle.FAILED) {
+			throw new RuntimeException("A missing resource didn't fail");
+		}
+		ResourceManager.LoadStats stats = manager.getLoadStats();
+		if (stats.finished != MODELS.length || stats.pending != 0 || stats.waiting_for_upload != 0 || stats.getProgress() != 1f) {
+			throw new RuntimeException("Load stats don't add up: " + stats);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Creating the ResourceManager, in a working directory that's our
+ * 	resources folder next to a lot of files that aren't resources (builds,
+ * 	logs, saves...).  "legacy" is the walk of the whole directory and the
+ * 	regex on every path the constructor used to do; "cold" is a first run,
+ * 	which does the same walk, hashes every resource and writes the
+ * 	manifest; "warm" is every run after that, reading the manifest.
+ *
+ * 	Before timing, a warm start is checked to find the same resources as
+ * 	a cold one, and to notice a resource added, removed or changed.
+ *
+ * 	-Dbench.startup_files=20000 changes how many other files there are.
+ */
+package benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import engine.resource.FileSystemContents;
+import engine.resource.ResourceManager;
+import engine.resource.ResourceManager.ResourceItem;
+import engine.resource.ResourceManifest;
+
+public class ResourceStartupBenchmark {
+	private static final String RESOURCES = "src/resources";
+	private static final int[] OTHER_FILES = {20000};
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		for (int others : Harness.sizes("bench.startup_files", OTHER_FILES)) {
+			File root = null;
+			try {
+				root = File.createTempFile("startup", "");
+				root.delete();
+				root.mkdir();
+				copy(new File(RESOURCES), new File(root, RESOURCES));
+				for (int i = 0; i < others; i++) {
+					File other = new File(root, "build/" + (i / 500) + "/output" + i + ".log");
+					other.getParentFile().mkdirs();
+					write(other, ("line " + i + "\n").getBytes());
+				}
+				results.addAll(time(root, others));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				delete(root);
+			}
+		}
+		return results;
+	}
+
+	private static ArrayList<Harness.Result> time(final File root, int others) throws IOException {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		final File manifest = new File(root, ResourceManifest.FILE_NAME);
+		check(root, manifest);
+
+		int count = new ResourceManager(null, root).getManifest().size();
+		String param = others + " files";
+		results.add(Harness.run("startup.legacy", param, count, 2, 5, new Runnable() {
+			public void run() {
+				ArrayList<String> found = new ArrayList<String>();
+				for (String path : new FileSystemContents(root.getAbsolutePath()).getFiles()) {
+					if (path.matches(".*resources.*") && !path.matches(".*ignore.*")) {
+						found.add(path);
+					}
+				}
+				Harness.sink = found;
+			}
+		}));
+		results.add(Harness.run("startup.cold", param, count, 2, 5, new Runnable() {
+			public void run() {
+				manifest.delete();
+				Harness.sink = new ResourceManager(null, root);
+			}
+		}));
+		results.add(Harness.run("startup.warm", param, count, 5, 20, new Runnable() {
+			public void run() {
+				Harness.sink = new ResourceManager(null, root);
+			}
+		}));
+		return results;
+	}
+
+	private static void check(File root, File manifest) throws IOException {
+		manifest.delete();
+		HashMap<String, String> cold = found(new ResourceManager(null, root));
+		if (!manifest.isFile()) {
+			throw new RuntimeException("No manifest written");
+		}
+		HashMap<String, String> warm = found(new ResourceManager(null, root));
+		if (cold.isEmpty() || !cold.equals(warm)) {
+			throw new RuntimeException("Warm start found " + warm.size() + " resources, cold found " + cold.size());
+		}
+
+		// A new model; its folder changes, so it's found
+		File models = new File(root, RESOURCES + "/models/misc");
+		File added = new File(models, "startup_check.obj");
+		write(added, "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n".getBytes());
+		ResourceManager manager = new ResourceManager(null, root);
+		if (!found(manager).containsKey("models/startup_check")) {
+			throw new RuntimeException("A new resource wasn't found from the manifest");
+		}
+
+		// Changed in place, which only loading it notices
+		String before = manager.getManifest().verify(added.getAbsolutePath());
+		write(added, "v 0 0 0\nv 2 0 0\nv 0 2 0\nf 1 2 3\n".getBytes());
+		added.setLastModified(added.lastModified() + 2000);
+		String after = manager.getManifest().verify(added.getAbsolutePath());
+		if (before == null || before.equals(after)) {
+			throw new RuntimeException("A changed resource kept its hash");
+		}
+		if (!found(new ResourceManager(null, root)).get("models/startup_check").equals(after)) {
+			throw new RuntimeException("The new hash wasn't saved");
+		}
+
+		added.delete();
+		if (found(new ResourceManager(null, root)).containsKey("models/startup_check")) {
+			throw new RuntimeException("A removed resource was still found");
+		}
+	}
+
+	// category/name to hash
+	private static HashMap<String, String> found(ResourceManager manager) {
+		HashMap<String, String> found = new HashMap<String, String>();
+		for (ArrayList<ResourceItem> category : manager.getResources().values()) {
+			for (ResourceItem item : category) {
+				found.put(item.category + "/" + item.name, item.hash);
+			}
+		}
+		return found;
+	}
+
+	private static void copy(File from, File to) throws IOException {
+		if (from.isDirectory()) {
+			to.mkdirs();
+			for (File child : from.listFiles()) {
+				copy(child, new File(to, child.getName()));
+			}
+		} else {
+			write(to, Files.readAllBytes(from.toPath()));
+		}
+	}
+
+	private static void write(File file, byte[] bytes) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void delete(File file) {
+		if (file == null) {
+			return;
+		}
+		File[] children = file.listFiles();
+		for (int i = 0; children != null && i < children.length; i++) {
+			delete(children[i]);
+		}
+		file.delete();
+	}
+}
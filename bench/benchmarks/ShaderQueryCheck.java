@@ -0,0 +1,173 @@
+/*
+ * Counts the program queries (glGetAttribLocation, glGetUniformLocation,
+ * 	glGetProgrami...) a Shader makes, with a fake driver standing in for GL.
+ * 	Linking should ask about everything once; after that, looking up what
+ * 	a frame's worth of draws need (Model, Texture and startShader's
+ * 	attributes and uniforms) should ask nothing at all.
+ *
+ * 	Exits with 1 when run on its own and a lookup reaches the driver.
+ */
+package benchmarks;
+
+import java.nio.IntBuffer;
+import java.util.HashMap;
+
+import org.lwjgl.opengl.ARBUniformBufferObject;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+
+import engine.render.ProgramQueries;
+import engine.render.Shader;
+import engine.render.ShaderVariable;
+
+public class ShaderQueryCheck {
+	private static final int DRAWS = 100000;
+
+	public static void main(String[] args) {
+		if (!run()) {
+			System.exit(1);
+		}
+	}
+
+	public static boolean run() {
+		CountingQueries counting = new CountingQueries();
+		ProgramQueries previous = Shader.getQueries();
+		Shader.setQueries(counting);
+		try {
+			Shader shader = new Shader();
+			shader.introspect();
+			int at_link = counting.calls;
+
+			boolean passed = true;
+			passed &= expect(shader.getAttributeLocation("vertex"), 0, "vertex location");
+			passed &= expect(shader.getAttributeLocation("color"), 3, "color location");
+			passed &= expect(shader.getAttributeLocation("missing"), -1, "missing attribute");
+			passed &= expect(shader.getUniformLocation("texture_data"), 12, "texture_data location");
+			passed &= expect(shader.getUniformLocation("lights"), 13, "lights[] location");
+			passed &= expect(shader.getUniform("transform").type, GL20.GL_FLOAT_MAT4, "transform type");
+			passed &= expect(shader.getUniformBlock("Material").size, 64, "Material block size");
+
+			counting.calls = 0;
+			int sum = 0;
+			for (int i = 0; i < DRAWS; i++) {
+				// Everything a textured draw looks up
+				Shader copy = new Shader(shader);
+				sum += copy.getAttributeLocation("vertex") + copy.getAttributeLocation("normal")
+					+ copy.getAttributeLocation("texture") + copy.getAttributeLocation("color")
+					+ copy.getUniformLocation("texture_data");
+			}
+			Harness.sink = sum;
+			boolean ok = counting.calls == 0;
+			passed &= ok;
+
+			System.out.println(String.format("%-48s %-12s %10d calls", "shader.queries.link", "", at_link));
+			System.out.println(String.format("%-48s %-12d %10d calls  %s", "shader.queries.draws", DRAWS, counting.calls, ok ? "ok" : "FAIL (expected 0)"));
+			return passed;
+		} finally {
+			Shader.setQueries(previous);
+		}
+	}
+
+	private static boolean expect(int actual, int expected, String what) {
+		if (actual != expected) {
+			System.out.println("ShaderQueryCheck: " + what + " was " + actual + ", expected " + expected);
+			return false;
+		}
+		return true;
+	}
+
+	/*
+	 * A linked program with the attributes and uniforms the engine's
+	 * 	shaders use, answering from tables and counting every question.
+	 */
+	private static class CountingQueries implements ProgramQueries {
+		private static final String[] ATTRIBUTES = {"vertex", "normal", "texture", "color"};
+		private static final int[] ATTRIBUTE_TYPES = {GL20.GL_FLOAT_VEC3, GL20.GL_FLOAT_VEC3, GL20.GL_FLOAT_VEC2, GL20.GL_FLOAT_VEC4};
+		private static final String[] UNIFORMS = {"transform", "scale", "texture_data", "lights[0]"};
+		private static final int[] UNIFORM_TYPES = {GL20.GL_FLOAT_MAT4, GL20.GL_FLOAT_VEC4, GL20.GL_SAMPLER_2D, GL20.GL_FLOAT_VEC4};
+		private static final int[] UNIFORM_SIZES = {1, 1, 1, 4};
+		private static final String[] BLOCKS = {"Material", "Lights"};
+		private static final int[] BLOCK_SIZES = {64, 256};
+
+		private final HashMap<String, Integer> locations = new HashMap<String, Integer>();
+		public int calls = 0;
+
+		public CountingQueries() {
+			for (int i = 0; i < ATTRIBUTES.length; i++) {
+				locations.put(ATTRIBUTES[i], i);
+			}
+			locations.put("transform", 10);
+			locations.put("scale", 11);
+			locations.put("texture_data", 12);
+			locations.put("lights", 13);
+			locations.put("lights[0]", 13);
+		}
+
+		@Override
+		public int getProgrami(int program, int parameter) {
+			calls++;
+			switch (parameter) {
+				case GL20.GL_LINK_STATUS: return GL11.GL_TRUE;
+				case GL20.GL_ACTIVE_ATTRIBUTES: return ATTRIBUTES.length;
+				case GL20.GL_ACTIVE_UNIFORMS: return UNIFORMS.length;
+				case GL20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH:
+				case GL20.GL_ACTIVE_UNIFORM_MAX_LENGTH:
+				case ARBUniformBufferObject.GL_ACTIVE_UNIFORM_BLOCK_MAX_NAME_LENGTH:
+					return 32;
+				default: return 0;
+			}
+		}
+
+		@Override
+		public String getProgramInfoLog(int program, int max_length) {
+			calls++;
+			return "";
+		}
+
+		@Override
+		public String getActiveAttrib(int program, int index, int max_length, IntBuffer size_type) {
+			calls++;
+			size_type.put(0, 1).put(1, ATTRIBUTE_TYPES[index]);
+			return ATTRIBUTES[index];
+		}
+
+		@Override
+		public int getAttribLocation(int program, String name) {
+			calls++;
+			Integer location = locations.get(name);
+			return location == null ? -1 : location;
+		}
+
+		@Override
+		public String getActiveUniform(int program, int index, int max_length, IntBuffer size_type) {
+			calls++;
+			size_type.put(0, UNIFORM_SIZES[index]).put(1, UNIFORM_TYPES[index]);
+			return UNIFORMS[index];
+		}
+
+		@Override
+		public int getUniformLocation(int program, String name) {
+			calls++;
+			Integer location = locations.get(name);
+			return location == null ? -1 : location;
+		}
+
+		@Override
+		public int getActiveUniformBlocks(int program) {
+			calls++;
+			return BLOCKS.length;
+		}
+
+		@Override
+		public String getActiveUniformBlockName(int program, int index, int max_length) {
+			calls++;
+			return BLOCKS[index];
+		}
+
+		@Override
+		public int getActiveUniformBlocki(int program, int index, int parameter) {
+			calls++;
+			return parameter == ARBUniformBufferObject.GL_UNIFORM_BLOCK_DATA_SIZE ? BLOCK_SIZES[index] : 0;
+		}
+	}
+}
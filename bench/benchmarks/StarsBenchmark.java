@@ -0,0 +1,144 @@
+/*
+ * Making topdownshooter's star field (5 levels of 1000 x columns cells, a
+ * 	star in one cell in 50000) without an Engine.
+ *
+ * 	"legacy" is what the Stars constructor used to do: roll a new Random
+ * 	for every cell, and copy and move a whole box Mesh for each star.
+ * 	"field" is StarField drawing each level's count and placing just those
+ * 	stars, then packing them into one mesh; "field.parallel" fills the
+ * 	levels on a thread each.  Before timing, a field is checked to come
+ * 	out the same serial or parallel, and near the expected count.
+ *
+ * 	-Dbench.columns=1000,10000 changes the sizes.
+ */
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
+
+import engine.render.Model;
+import engine.render.model_pieces.Mesh;
+import engine.render.model_pieces.PackedMesh;
+import engine.render.primitives.Box;
+import engine.render.ubos.Material;
+import engine.stars.StarField;
+
+public class StarsBenchmark {
+	private static final int[] SIZES = {1000, 10000};
+	private static final int ROWS = 1000;
+	private static final int LEVELS = 5;
+	private static final int SPACE_BETWEEN_LEVELS = 200;
+	private static final int STARTING_DISTANCE = 400;
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		final ArrayList<Mesh> box = new ArrayList<Mesh>();
+		box.add(Box.createMesh(new Vector3f(0.5f, 0.5f, 0.5f)));
+		final PackedMesh template = StarField.template(box);
+
+		for (final int columns : Harness.sizes("bench.columns", SIZES)) {
+			try {
+				check(columns);
+			} catch (Exception e) {
+				throw new RuntimeException("Failed to generate a star field", e);
+			}
+			String param = LEVELS + "x" + ROWS + "x" + columns;
+			long cells = (long)LEVELS * ROWS * columns;
+
+			results.add(Harness.run("stars.legacy", param, cells, 1, 3, new Runnable() {
+				public void run() {
+					try {
+						Harness.sink = legacy(box, columns);
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			}));
+			results.add(field("stars.field", param, cells, columns, template, false));
+			results.add(field("stars.field.parallel", param, cells, columns, template, true));
+		}
+
+		return results;
+	}
+
+	private static Harness.Result field(String name, String param, long cells, final int columns, final PackedMesh template, final boolean parallel) {
+		return Harness.run(name, param, cells, 5, 20, new Runnable() {
+			long seed = 0;
+			public void run() {
+				StarField field = new StarField(ROWS, columns, SPACE_BETWEEN_LEVELS, LEVELS, STARTING_DISTANCE, seed++);
+				try {
+					field.generate(parallel);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+				Harness.sink = field.toPackedMesh(template);
+			}
+		});
+	}
+
+	// Same seed, same stars either way; and the count where the distribution says
+	private static void check(int columns) throws Exception {
+		StarField serial = new StarField(ROWS, columns, SPACE_BETWEEN_LEVELS, LEVELS, STARTING_DISTANCE, 42);
+		StarField parallel = new StarField(ROWS, columns, SPACE_BETWEEN_LEVELS, LEVELS, STARTING_DISTANCE, 42);
+		serial.generate(false);
+		parallel.generate(true);
+		if (serial.getCount() != parallel.getCount()
+			|| !Arrays.equals(serial.getPositions(), parallel.getPositions())
+			|| !Arrays.equals(serial.getColors(), parallel.getColors())) {
+			throw new RuntimeException("Parallel star field differs from serial");
+		}
+
+		double expected = (double)LEVELS * ROWS * columns / StarField.CHANCE;
+		long total = 0;
+		int fields = 200;
+		for (int f = 0; f < fields; f++) {
+			StarField field = new StarField(ROWS, columns, SPACE_BETWEEN_LEVELS, LEVELS, STARTING_DISTANCE, f);
+			total += field.generate(false);
+		}
+		double mean = total / (double)fields;
+		// Poisson, so the mean of 200 fields is within a few sqrt(expected / 200) of expected
+		double sigma = Math.sqrt(expected / fields);
+		if (Math.abs(mean - expected) > 5 * sigma) {
+			throw new RuntimeException("Star fields average " + mean + " stars, expected " + expected);
+		}
+		System.out.println(String.format("  %dx%dx%d: %.1f stars on average, expected %.1f", LEVELS, ROWS, columns, mean, expected));
+	}
+
+	// The old Stars constructor, minus the engine
+	private static Model legacy(ArrayList<Mesh> base_meshes, int columns) throws Exception {
+		Model full_model = new Model();
+		for (int i = 0; i < LEVELS; i++) {
+			for (int j = 0; j < ROWS; j++) {
+				for (int k = 0; k < columns; k++) {
+					Random rand = new Random();
+					if (rand.nextInt(StarField.CHANCE) == 10) {
+						for (Mesh mesh : base_meshes) {
+							Mesh new_mesh = new Mesh(mesh);
+							new_mesh.transform(
+								new Vector3f(j - STARTING_DISTANCE, k - STARTING_DISTANCE, i * -SPACE_BETWEEN_LEVELS - STARTING_DISTANCE),
+								new Vector3f(0, 0, 1),
+								new Vector3f(0, 1, 0)
+							);
+							float r = (float)Math.random();
+							float g = (float)Math.random();
+							float b = (float)Math.random();
+							new_mesh.setMaterial(new Material(
+								new Vector4f(r, g, b, 1f), new Vector4f(r, g, b, 1f), new Vector4f(r, g, b, 1f), 1f, 1f
+							));
+							full_model.addMesh(new_mesh);
+						}
+					}
+				}
+			}
+		}
+		return full_model;
+	}
+}
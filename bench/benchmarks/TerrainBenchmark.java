@@ -0,0 +1,123 @@
+/*
+ * Generating chunked heightfield terrain without an Engine: heights and
+ * 	a mesh for every chunk, serially and a chunk per task, and one chunk's
+ * 	triangle mesh collision shape on its own.  Sizes are cells a side.
+ *
+ * 	Before timing, the parallel terrain is checked to be the same as the
+ * 	serial one and edge samples to match between neighbouring chunks.
+ * 	Memory is printed as what the terrain keeps (heights, vertices and the
+ * 	shared indices) and what one generate allocates.
+ *
+ * 	-Dbench.terrain=512,2048 changes the sizes.
+ */
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import engine.terrain.HeightNoise;
+import engine.terrain.Terrain;
+import engine.terrain.TerrainChunk;
+
+public class TerrainBenchmark {
+	private static final int[] SIZES = {512, 2048};
+	private static final int CHUNK_SIZE = Terrain.DEFAULT_CHUNK_SIZE;
+	private static final long SEED = 1234;
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+
+		for (int size : Harness.sizes("bench.terrain", SIZES)) {
+			final int chunks = size / CHUNK_SIZE;
+			String param = size + "x" + size;
+			long samples = (long)(size + 1) * (size + 1);
+
+			try {
+				check(chunks);
+				memory(chunks, param);
+			} catch (Exception e) {
+				throw new RuntimeException("Failed to generate terrain", e);
+			}
+
+			results.add(generate("terrain.generate", param, samples, chunks, false));
+			results.add(generate("terrain.generate.parallel", param, samples, chunks, true));
+
+			// Shapes are made a chunk at a time, so that's what's timed
+			final Terrain terrain = new Terrain(new HeightNoise(SEED), CHUNK_SIZE, 1f);
+			try {
+				terrain.generate(1, 1, false);
+			} catch (Exception e) {
+				throw new RuntimeException("Failed to generate terrain", e);
+			}
+			results.add(Harness.run("terrain.collision.chunk", CHUNK_SIZE + "x" + CHUNK_SIZE, (long)CHUNK_SIZE * CHUNK_SIZE * 2, 2, 10, new Runnable() {
+				public void run() {
+					Harness.sink = terrain.getChunk(0, 0).buildCollisionShape(terrain.getGridIndices());
+				}
+			}));
+			Harness.sink = null;
+		}
+
+		return results;
+	}
+
+	private static Harness.Result generate(String name, String param, long samples, final int chunks, final boolean parallel) {
+		return Harness.run(name, param, samples, 2, 5, new Runnable() {
+			public void run() {
+				Terrain terrain = new Terrain(new HeightNoise(SEED), CHUNK_SIZE, 1f);
+				try {
+					terrain.generate(chunks, chunks, parallel);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+				Harness.sink = terrain;
+			}
+		});
+	}
+
+	// Same terrain serial or parallel, and chunks agree where they meet
+	private static void check(int chunks) throws Exception {
+		Terrain serial = new Terrain(new HeightNoise(SEED), CHUNK_SIZE, 1f);
+		Terrain parallel = new Terrain(new HeightNoise(SEED), CHUNK_SIZE, 1f);
+		serial.generate(chunks, chunks, false);
+		parallel.generate(chunks, chunks, true);
+		for (int z = 0; z < chunks; z++) {
+			for (int x = 0; x < chunks; x++) {
+				if (!Arrays.equals(serial.getChunk(x, z).getHeights(), parallel.getChunk(x, z).getHeights())
+					|| !Arrays.equals(serial.getMesh(x, z).getVertices(), parallel.getMesh(x, z).getVertices())) {
+					throw new RuntimeException("Parallel terrain differs from serial at chunk " + x + "," + z);
+				}
+				if (x + 1 < chunks) {
+					TerrainChunk left = serial.getChunk(x, z), right = serial.getChunk(x + 1, z);
+					for (int i = -1; i <= CHUNK_SIZE + 1; i++) {
+						if (left.getHeight(CHUNK_SIZE, i) != right.getHeight(0, i)) {
+							throw new RuntimeException("Seam between chunks " + x + "," + z + " and " + (x + 1) + "," + z);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static void memory(int chunks, String param) throws Exception {
+		java.lang.management.ThreadMXBean generic = ManagementFactory.getThreadMXBean();
+		long thread_id = Thread.currentThread().getId();
+		boolean measured = generic instanceof com.sun.management.ThreadMXBean;
+		long before = measured ? ((com.sun.management.ThreadMXBean)generic).getThreadAllocatedBytes(thread_id) : 0;
+
+		Terrain terrain = new Terrain(new HeightNoise(SEED), CHUNK_SIZE, 1f);
+		terrain.generate(chunks, chunks, false);
+
+		long allocated = measured ? ((com.sun.management.ThreadMXBean)generic).getThreadAllocatedBytes(thread_id) - before : -1;
+		long kept = terrain.getBytes();
+		System.out.println(String.format(
+			"  %s: %d chunks, keeps %.1f MB (%.1f B/cell), allocates %.1f MB",
+			param, terrain.getChunkCount(), kept / 1048576.0,
+			kept / (double)((long)chunks * CHUNK_SIZE * chunks * CHUNK_SIZE), allocated / 1048576.0
+		));
+	}
+}
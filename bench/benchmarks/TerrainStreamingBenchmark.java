@@ -0,0 +1,118 @@
+/*
+ * Streaming terrain around a moving focus, without an Engine: the
+ * 	focus flies out in a straight line and back again, one update() a
+ * 	frame, with a short sleep standing in for the rest of the frame so the
+ * 	workers get a turn.  Timed is update() alone, which is what the frame
+ * 	pays for; the streamer's stats (latency, hit rate, memory) are printed
+ * 	after each flight.  The way back should mostly hit the cache, unless the
+ * 	budget is too small to keep what was passed.
+ *
+ * 	Before that, every level's mesh is checked: indices in range, and edge
+ * 	vertices landing in the same place as the neighbouring chunk's.
+ *
+ * 	-Dbench.budget_mb=64,4 changes the budgets.
+ */
+package benchmarks;
+
+import java.util.ArrayList;
+
+import javax.vecmath.Vector3f;
+
+import engine.render.model_pieces.PackedMesh;
+import engine.terrain.HeightNoise;
+import engine.terrain.TerrainChunk;
+import engine.terrain.TerrainStreamer;
+
+public class TerrainStreamingBenchmark {
+	private static final int[] BUDGETS_MB = {64, 4};
+	private static final int CHUNK_SIZE = 64;
+	private static final long SEED = 1234;
+	private static final int FRAMES = 300;
+	// About 60 units a second at 60 frames a second
+	private static final float SPEED = 1f;
+	private static final long FRAME_MILLIS = 16;
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		check();
+
+		for (int budget_mb : Harness.sizes("bench.budget_mb", BUDGETS_MB)) {
+			TerrainStreamer streamer = new TerrainStreamer(null, null, new HeightNoise(SEED), CHUNK_SIZE, 1f,
+				Runtime.getRuntime().availableProcessors());
+			streamer.setLevelDistances(64, 128, 256);
+			streamer.setBudget(budget_mb * 1024L * 1024L);
+
+			String param = budget_mb + "MB";
+			Vector3f focus = new Vector3f(0, 0, 0);
+			results.add(fly("terrain.stream.out", param, streamer, focus, SPEED));
+			System.out.println("  " + streamer.getStats());
+			results.add(fly("terrain.stream.back", param, streamer, focus, -SPEED));
+			System.out.println("  " + streamer.getStats());
+			streamer.destroy();
+		}
+
+		return results;
+	}
+
+	// FRAMES updates, moving focus by speed along x each time
+	private static Harness.Result fly(String name, String param, TerrainStreamer streamer, Vector3f focus, float speed) {
+		double total = 0, min = Double.MAX_VALUE, max = 0;
+		for (int frame = 0; frame < FRAMES; frame++) {
+			focus.x += speed;
+			long start = System.nanoTime();
+			streamer.update(focus);
+			double elapsed = System.nanoTime() - start;
+			total += elapsed;
+			min = Math.min(min, elapsed);
+			max = Math.max(max, elapsed);
+			try {
+				Thread.sleep(FRAME_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		Harness.Result result = new Harness.Result();
+		result.name = name;
+		result.param = param;
+		result.iterations = FRAMES;
+		result.ns_per_op = total / FRAMES;
+		result.min_ns = min;
+		result.max_ns = max;
+		System.out.println(result);
+		return result;
+	}
+
+	private static void check() {
+		HeightNoise noise = new HeightNoise(SEED);
+		TerrainChunk left = new TerrainChunk(0, 0, CHUNK_SIZE, 1f);
+		TerrainChunk right = new TerrainChunk(1, 0, CHUNK_SIZE, 1f);
+		left.generate(noise);
+		right.generate(noise);
+		for (int step = 1; step <= 8; step *= 2) {
+			int[] indices = TerrainChunk.lodIndices(CHUNK_SIZE, step);
+			PackedMesh a = left.buildMesh(step, indices);
+			PackedMesh b = right.buildMesh(step, indices);
+			for (int index : indices) {
+				if (index < 0 || index >= a.getVertexCount()) {
+					throw new RuntimeException("Index " + index + " out of range at step " + step);
+				}
+			}
+			// Left's x = max edge against right's x = 0 edge
+			int side = CHUNK_SIZE / step + 1;
+			Vector3f p = new Vector3f(), q = new Vector3f();
+			for (int i = 0; i < side; i++) {
+				a.getPosition(i * side + side - 1, p);
+				b.getPosition(i * side, q);
+				p.x -= CHUNK_SIZE;
+				if (!p.equals(q)) {
+					throw new RuntimeException("Seam at step " + step + ": " + p + " vs " + q);
+				}
+			}
+		}
+	}
+}
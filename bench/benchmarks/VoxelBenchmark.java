@@ -0,0 +1,175 @@
+/*
+ * The editor's voxel models without the editor: a size^3 grid either
+ * 	half full of random colours from a small palette, or solid in one.
+ *
+ * 	"legacy" is what CubicGrid.getModel() used to do, a copy of the box
+ * 	mesh and a Material for every voxel; "greedy" is VoxelMesher.  Both
+ * 	are timed through to packed VBO buffers, since that's what the editor
+ * 	waits on after an edit, and the triangles each makes are printed.
+ *
+ * 	Before timing, the greedy mesh is checked to cover exactly the visible
+ * 	faces and, for the solid grid, to face outward.
+ *
+ * 	-Dbench.voxels=16,32 changes the sizes.
+ */
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
+
+import engine.render.Model;
+import engine.render.model_pieces.Mesh;
+import engine.render.model_pieces.PackedMesh;
+import engine.render.model_pieces.VoxelMesher;
+import engine.render.primitives.Box;
+import engine.render.ubos.Material;
+
+public class VoxelBenchmark {
+	private static final int[] SIZES = {16, 32};
+	private static final int[] PALETTE = {
+		0xFFFF0000, 0xFF00FF00, 0xFF0000FF, 0xFFFFFF00,
+		0xFF00FFFF, 0xFFFF00FF, 0xFFFFFFFF, 0xFF808080
+	};
+
+	public static void main(String[] args) {
+		run();
+	}
+
+	public static ArrayList<Harness.Result> run() {
+		ArrayList<Harness.Result> results = new ArrayList<Harness.Result>();
+		final Mesh box = Box.createMesh(new Vector3f(0.5f, 0.5f, 0.5f));
+
+		for (final int size : Harness.sizes("bench.voxels", SIZES)) {
+			String[] kinds = {"random", "solid"};
+			for (String kind : kinds) {
+				final int[] voxels = kind.equals("random") ? random(size) : solid(size);
+				String param = kind + " " + size;
+				check(voxels, size, kind.equals("solid"));
+
+				Model legacy = legacy(box, voxels, size);
+				VoxelMesher mesher = new VoxelMesher();
+				PackedMesh greedy = mesher.mesh(voxels, size);
+				long legacy_triangles = 0;
+				for (Mesh mesh : legacy.getMeshes()) {
+					legacy_triangles += mesh.getFaceCount();
+				}
+				System.out.println(String.format(
+					"  %s: legacy %d triangles, greedy %d triangles (%d quads for %d visible faces)",
+					param, legacy_triangles, greedy.getFaceCount(), mesher.getQuadCount(), mesher.getFaceCount()
+				));
+
+				results.add(Harness.run("voxels.legacy", param, (long)size * size * size, 1, 3, new Runnable() {
+					public void run() {
+						Model model = legacy(box, voxels, size);
+						model.packBuffers();
+						Harness.sink = model;
+					}
+				}));
+				results.add(Harness.run("voxels.greedy", param, (long)size * size * size, 5, 20, new Runnable() {
+					VoxelMesher mesher = new VoxelMesher();
+					public void run() {
+						Model model = new Model(mesher.mesh(voxels, size), new Material());
+						model.packBuffers();
+						Harness.sink = model;
+					}
+				}));
+			}
+		}
+
+		return results;
+	}
+
+	private static int[] random(int size) {
+		Random random = new Random(size);
+		int[] voxels = new int[size * size * size];
+		for (int i = 0; i < voxels.length; i++) {
+			if (random.nextBoolean()) {
+				voxels[i] = PALETTE[random.nextInt(PALETTE.length)];
+			}
+		}
+		return voxels;
+	}
+
+	private static int[] solid(int size) {
+		int[] voxels = new int[size * size * size];
+		for (int i = 0; i < voxels.length; i++) {
+			voxels[i] = PALETTE[0];
+		}
+		return voxels;
+	}
+
+	// The old CubicGrid.getModel(), minus the Blocks
+	private static Model legacy(Mesh box, int[] voxels, int size) {
+		Model model = new Model();
+		try {
+			for (int z = 0; z < size; z++) {
+				for (int y = 0; y < size; y++) {
+					for (int x = 0; x < size; x++) {
+						int color = voxels[x + size * y + size * size * z];
+						if (!VoxelMesher.isSolid(color)) {
+							continue;
+						}
+						Mesh mesh = new Mesh(box);
+						mesh.transform(new Vector3f(x, -y, z), new Vector3f(0, 0, 1), new Vector3f(0, 1, 0));
+						float r = ((color >> 16) & 0xFF) / 255f, g = ((color >> 8) & 0xFF) / 255f, b = (color & 0xFF) / 255f;
+						mesh.setMaterial(new Material(
+							new Vector4f(r, g, b, 1f), new Vector4f(r, g, b, 1f), new Vector4f(r, g, b, 1f), 1f, 1f
+						));
+						model.addMesh(mesh);
+					}
+				}
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		return model;
+	}
+
+	// Area of the quads == visible faces counted by brute force; solid grids face out
+	private static void check(int[] voxels, int size, boolean outward) {
+		int visible = 0;
+		int[][] directions = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+		for (int z = 0; z < size; z++) {
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					if (!VoxelMesher.isSolid(voxels[x + size * y + size * size * z])) {
+						continue;
+					}
+					for (int[] d : directions) {
+						int nx = x + d[0], ny = y + d[1], nz = z + d[2];
+						boolean inside = nx >= 0 && ny >= 0 && nz >= 0 && nx < size && ny < size && nz < size;
+						if (!inside || !VoxelMesher.isSolid(voxels[nx + size * ny + size * size * nz])) {
+							visible++;
+						}
+					}
+				}
+			}
+		}
+
+		PackedMesh mesh = new VoxelMesher().mesh(voxels, size);
+		float[] v = mesh.getVertices();
+		int[] indices = mesh.getIndices();
+		double area = 0;
+		Vector3f center = new Vector3f((size - 1) / 2f, -(size - 1) / 2f, (size - 1) / 2f);
+		for (int t = 0; t < mesh.getIndexCount(); t += 3) {
+			int a = indices[t] * PackedMesh.STRIDE, b = indices[t + 1] * PackedMesh.STRIDE, c = indices[t + 2] * PackedMesh.STRIDE;
+			Vector3f e1 = new Vector3f(v[b] - v[a], v[b + 1] - v[a + 1], v[b + 2] - v[a + 2]);
+			Vector3f e2 = new Vector3f(v[c] - v[a], v[c + 1] - v[a + 1], v[c + 2] - v[a + 2]);
+			Vector3f n = new Vector3f();
+			n.cross(e1, e2);
+			area += n.length() / 2;
+			if (outward) {
+				Vector3f out = new Vector3f(v[a] - center.x, v[a + 1] - center.y, v[a + 2] - center.z);
+				if (n.dot(out) <= 0) {
+					throw new RuntimeException("Triangle " + t / 3 + " faces in");
+				}
+			}
+		}
+		if (Math.abs(area - visible) > 1e-3 * visible) {
+			throw new RuntimeException("Greedy mesh covers " + area + " faces, " + visible + " are visible");
+		}
+	}
+}
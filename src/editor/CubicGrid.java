@@ -1,12 +1,10 @@
 package editor;
 
-import javax.vecmath.Vector3f;
 import javax.vecmath.Vector4f;
 
-import de.matthiasmann.twl.Color;
-
 import engine.render.Model;
-import engine.render.model_pieces.Mesh;
+import engine.render.model_pieces.PackedMesh;
+import engine.render.model_pieces.VoxelMesher;
 import engine.render.ubos.Material;
 
 public class CubicGrid<E> {
@@ -14,6 +12,7 @@ public class CubicGrid<E> {
 	private Integer size;
 	private Model full_model;
 	private Model base_model;
+	private final VoxelMesher mesher = new VoxelMesher();
 
 	public CubicGrid(Model base_model) {
 		this.base_model = base_model;
@@ -42,61 +41,31 @@ public class CubicGrid<E> {
 		size = dim;
 	}
 	
+	/*
+	 * Only the faces that show, merged into as few quads as possible (see
+	 * 	VoxelMesher), coloured per vertex.  A new model each time, so the
+	 * 	renderer frees the last one's VBO when it's swapped in.
+	 */
 	@SuppressWarnings("unchecked")
 	public Model getModel() {
-		try {
-			Color mat_color;
-			full_model.deleteMeshes();
-			
-			for (int z = 0; z < size; z++) {
-				for (int y = 0; y < size; y++) {
-					for (int x = 0; x < size; x++) {
-						if( ((Block<Integer>)get(x,y,z)).getActive()) {
-							for(Mesh copymesh: base_model.getMeshes()) {
-								Mesh mesh = new Mesh(copymesh);
-								mesh.transform(
-									new Vector3f(x, -y, z),
-									new Vector3f(0, 0, 1), 
-									new Vector3f(0, 1, 0)
-								);
-								mat_color = ((Block<Integer>) this.get(x, y, z)).getColor();
-								
-								mesh.setMaterial(
-									new Material(
-										new Vector4f(
-											mat_color.getRedFloat(), 
-											mat_color.getGreenFloat(), 
-											mat_color.getBlueFloat(),
-											1f
-										),
-										new Vector4f(
-											mat_color.getRedFloat(), 
-											mat_color.getGreenFloat(), 
-											mat_color.getBlueFloat(),
-											1f
-										),
-										new Vector4f(
-											mat_color.getRedFloat(), 
-											mat_color.getGreenFloat(), 
-											mat_color.getBlueFloat(),
-											1f
-										),
-										1f,
-										1f
-									)
-								);
-								
-								//mesh.calcNormals();
-								full_model.addMesh(mesh);
-							}
-						}
-					}
-				}
+		if (size == null) {
+			return full_model;
+		}
+		int[] voxels = new int[size * size * size];
+		for (int i = 0; i < items.length; i++) {
+			Block<Integer> block = (Block<Integer>)items[i];
+			if (block != null && block.getActive()) {
+				// Alpha forced on; it's what says the voxel is there
+				voxels[i] = block.getColor().toARGB() | 0xFF000000;
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
 
+		PackedMesh mesh = mesher.mesh(voxels, size);
+		// White, so the block colours in the vertices are what shows
+		Vector4f rgba = new Vector4f(1f, 1f, 1f, 1f);
+		full_model = new Model(mesh, new Material(rgba, new Vector4f(rgba), new Vector4f(rgba), 1f, 1f));
+		full_model.setShader(base_model.getShader());
+
 		return full_model;
 	}
 
@@ -15,17 +15,25 @@ import engine.input.InputMap;
 import engine.entity.EntityList;
 import engine.physics.Physics;
 import engine.physics.PhysicsInterface;
+import engine.physics.PhysicsScheduler;
 import engine.render.FixedRenderer;
+import engine.render.FrustumCuller;
 import engine.render.Model;
+import engine.render.NullRenderer;
 import engine.render.ProgrammableRenderer;
+import engine.render.RenderMode;
+import engine.render.RenderState;
 import engine.render.RendererInterface;
 import engine.render.Shader;
+import engine.render.SnapshotExchange;
 import engine.resource.ResourceManager;
 import engine.window.WindowManager;
 import engine.window.components.Window;
 
 public class Engine {
 	public static final int FRAMERATE = 60; // fps
+	// Render thread time a frame gives to finishing resources loaded asynchronously
+	public static final long LOAD_BUDGET_NANOS = 4000000;
 	AtomicBoolean finished;
 
 	private final PhysicsInterface physics;
@@ -38,13 +46,37 @@ public class Engine {
 	private EntityList entity_list;
 	
 	private AIManager ai_manager;
+	// Physics publishes transforms here every tick, the renderer draws from it
+	private final SnapshotExchange render_snapshots;
+	private final PhysicsScheduler physics_scheduler;
+
+	private final boolean headless;
+	private volatile boolean paced = true;
+	private volatile long load_budget = LOAD_BUDGET_NANOS;
 	public final ResourceManager resource_manager;
 
 	public void addWindow(Window window, int width, int height) {
+		if (renderer.getWindowManager() == null) {
+			System.out.println("WARNING: Tried to add a window to a headless engine");
+			return;
+		}
 		renderer.getWindowManager().addWindow(window, width, height);
 	}
 
+	// -Dengine.headless=true makes a plain new Engine() headless, handy for CI
 	public Engine() {
+		this(Boolean.getBoolean("engine.headless"));
+	}
+
+	/*
+	 * Headless engines never open a window or touch GL: no GL probe, a
+	 * 	NullRenderer, and resources load without creating GL objects.
+	 * 	Physics, AI and collision callbacks all still run.
+	 */
+	public Engine(boolean headless) {
+		this.headless = headless;
+		RenderMode.setHeadless(headless);
+
 		//TODO:  This is bad practice
 		resource_manager = new ResourceManager(this);
 		
@@ -54,33 +86,50 @@ public class Engine {
 		physics = new Physics();
 		
 		entity_list.addListener(physics);
+		physics_scheduler = new PhysicsScheduler(physics.getFixedTimestep(), physics.getMaxSubsteps());
 		
-		//Find out what GL capabilities we have
-		try {
-			Display.create();
-		} catch (LWJGLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		String gl_version = GL11.glGetString(GL11.GL_VERSION).split(" ")[0].substring(0, 1);
-		Display.destroy();
-		
-		if(Float.valueOf(gl_version) >= 2.0){
-			renderer = new ProgrammableRenderer(entity_list);
+		if(headless){
+			renderer = new NullRenderer(entity_list);
 		}else{
-			renderer = new FixedRenderer(entity_list);
+			//Find out what GL capabilities we have
+			try {
+				Display.create();
+			} catch (LWJGLException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+			String gl_version = GL11.glGetString(GL11.GL_VERSION).split(" ")[0].substring(0, 1);
+			Display.destroy();
+			
+			if(Float.valueOf(gl_version) >= 2.0){
+				renderer = new ProgrammableRenderer(entity_list);
+			}else{
+				renderer = new FixedRenderer(entity_list);
+			}
 		}
 		
 		renderer.initGL();
 		entity_list.addListener(renderer);
+		render_snapshots = new SnapshotExchange();
+		renderer.setSnapshotExchange(render_snapshots);
 		
-		setKeyMap("default");
+		if(!headless){
+			setKeyMap("default");
+		}
 		
 		ai_manager = new AIManager();
 	}
 
 	public void run() {
 		startPhysics();
+		if(headless){
+			try {
+				physics_thread.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
 		startRendering();
 
 		try {
@@ -91,6 +140,15 @@ public class Engine {
 		}
 	}
 
+	// Makes run() return once the current tick/frame is done
+	public void stop() {
+		finished.set(true);
+	}
+
+	public boolean isHeadless() {
+		return headless;
+	}
+
 	/* Entity API */
 	public Entity addEntity(String name, float mass, boolean collidable, String model_name, String shader_name) {
 		Entity ent = new Entity(
@@ -161,8 +219,13 @@ public class Engine {
 	    return (Camera) getEntity(Camera.CAMERA_NAME);
 	}
 
+	// The entity can't be added again; its slot goes once physics and the renderer are done with it
 	public void removeEntity(String name) {
+		Entity ent = entity_list.getItem(name);
 		entity_list.removeEntity(name);
+		if (ent != null) {
+			ent.retire();
+		}
 	}
 	
 	public EntityList getEntityList() {
@@ -190,10 +253,22 @@ public class Engine {
 		physics_thread = new Thread() {
 			public void run() {
 				physics.parsePhysicsQueue();
-				while (!finished.get()) {
-					physicsOnce();
+				PhysicsScheduler.Tick tick = new PhysicsScheduler.Tick() {
+					public void tick(int substeps) {
+						physicsTick(substeps);
+						// No render thread to run the AI or finish loads for us;
+						// headless uploads don't touch GL, so this thread can
+						if(headless){
+							resource_manager.finishLoads(load_budget);
+							ai_manager.invokeAllMethodsForAllEnts(Engine.this);
+						}
+					}
+				};
+				if(headless && !paced){
+					physics_scheduler.runUnpaced(finished, tick);
+				}else{
+					physics_scheduler.run(finished, tick);
 				}
-				
 			}
 		};
 		physics_thread.start();
@@ -217,6 +292,9 @@ public class Engine {
 		InputMap new_map = (InputMap) resource_manager.getResource(name, "inputmaps");
 		new_map.setEntityList(entity_list);
 		
+		if (renderer.getWindowManager() == null) {
+			return false;
+		}
 		renderer.getWindowManager().setKeyMap(new_map);
 		
 		ret = true;
@@ -225,11 +303,18 @@ public class Engine {
 	}
 	
 	public void renderOnce(){
+		if (headless) {
+			renderer.parseRenderQueue();
+			resource_manager.finishLoads(load_budget);
+			ai_manager.invokeAllMethodsForAllEnts(this);
+			return;
+		}
 		// Check for close requests
 		if (Display.isCloseRequested()) {
 			finished.set(true);
 		} else{ 
 			renderer.parseRenderQueue();
+			resource_manager.finishLoads(load_budget);
 			if (Display.isActive()) {
 				// The window is in the foreground, so we should play the
 				// game
@@ -257,6 +342,74 @@ public class Engine {
 		physics.parsePhysicsQueue();
 		physics.clientUpdate();
 		physics.handleGhostCollisions(entity_list);
+		render_snapshots.publish(entity_list);
+	}
+
+	// One scheduled tick: same as physicsOnce, but with the time already worked out
+	private void physicsTick(int substeps) {
+		physics.parsePhysicsQueue();
+		if (substeps > 0) {
+			physics.stepFixed(substeps);
+			physics.handleGhostCollisions(entity_list);
+			if (!headless) {
+				render_snapshots.publish(entity_list);
+			}
+		}
+	}
+
+	/*
+	 * Headless only: false runs the simulation as fast as it will go, one
+	 * 	fixed timestep per tick, instead of in real time.
+	 */
+	public void setPhysicsPaced(boolean paced) {
+		this.paced = paced;
+	}
+
+	/*
+	 * How long each frame may spend finishing asynchronous loads (see
+	 * 	ResourceManager.getResourceAsync()); more loads faster, less keeps
+	 * 	frames steadier.  At least one is finished a frame regardless.
+	 */
+	public void setLoadBudget(long nanos) {
+		load_budget = nanos;
+	}
+
+	/*
+	 * fixed_timestep is seconds of simulation per step; max_substeps caps how
+	 * 	far one tick will go to catch up after a stall.
+	 */
+	public void setPhysicsTimestep(float fixed_timestep, int max_substeps) {
+		physics.setTimestep(fixed_timestep, max_substeps);
+		physics_scheduler.setTimestep(fixed_timestep, max_substeps);
+	}
+
+	// How many times a second the physics thread wakes up
+	public void setPhysicsTickRate(int ticks_per_second) {
+		physics_scheduler.setTickRate(ticks_per_second);
+	}
+
+	public PhysicsScheduler.Stats getPhysicsStats() {
+		return physics_scheduler.getStats();
+	}
+
+	// null unless drawing with the programmable renderer, which culls
+	public FrustumCuller.Stats getCullingStats() {
+		if (renderer instanceof ProgrammableRenderer) {
+			return ((ProgrammableRenderer)renderer).getCullingStats();
+		}
+		return null;
+	}
+
+	// null unless drawing with the programmable renderer, which sorts its draws by state
+	public RenderState.Stats getRenderStateStats() {
+		if (renderer instanceof ProgrammableRenderer) {
+			return ((ProgrammableRenderer)renderer).getStateStats();
+		}
+		return null;
+	}
+
+	public SnapshotExchange getRenderSnapshots() {
+		return render_snapshots;
 	}
 
 	public Camera addCamera(float mass, boolean collidable, String model_name) {
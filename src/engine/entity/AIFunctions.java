@@ -3,6 +3,7 @@ package engine.entity;
 import javax.vecmath.Vector3f;
 
 import engine.Engine;
+import engine.utils.Scratch;
 
 public class AIFunctions {
 	public static void testFunction(Engine engine, Entity ent){
@@ -13,9 +14,10 @@ public class AIFunctions {
 		Actor player = (Actor)engine.getEntity("player");
 		if( player != null ){
 			//ent.clearForces();
-			Vector3f towards_pos = new Vector3f();
-			Vector3f player_pos = (Vector3f) player.getProperty(Entity.POSITION);
-			player_pos.sub((Vector3f) ent.getProperty(Entity.POSITION));
+			Scratch scratch = Scratch.get();
+			Vector3f towards_pos = scratch.vector_a;
+			Vector3f player_pos = player.getPosition(scratch.vector_b);
+			player_pos.sub(ent.getPosition(scratch.vector_c));
 			ent.activate();
 			//ent.applyImpulse(player_pos, new Vector3f(0,0,0));
 			towards_pos.normalize(player_pos);
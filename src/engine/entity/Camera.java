@@ -13,6 +13,7 @@ import org.lwjgl.util.glu.GLU;
 import engine.render.Model;
 import engine.render.ubos.TransformationMatrices;
 import engine.render.ubos.UBOInterface;
+import engine.utils.Scratch;
 
 public class Camera extends Entity {
 	/* Static class variables */
@@ -57,6 +58,8 @@ public class Camera extends Entity {
 		default_focus = defFocus;
 		focus = default_focus;
 		setProperty(Entity.NAME, "camera");
+		// The camera places itself, physics doesn't get a say
+		store.setPhysicsDriven(id, false);
 		setProperty(Entity.POSITION,new Vector3f(0, 0, 0));
 		declination = 0;
 		rotation = 0;
@@ -93,13 +96,18 @@ public class Camera extends Entity {
 	}
 
 	public Vector3f getFocusPosition() {
-		Vector3f temp = new Vector3f();
-		if (focus != null) {
-			temp = (Vector3f)focus.getProperty(Entity.POSITION);
+		return getFocusPosition(new Vector3f());
+	}
+
+	// Same as above, but fills in the caller's vector
+	public Vector3f getFocusPosition(Vector3f out) {
+		Entity current = focus;
+		if (current != null) {
+			current.getPosition(out);
 		} else {
-			temp.set(0, 0, 0);
+			out.set(0, 0, 0);
 		}
-		return temp;
+		return out;
 	}
 
 	public Entity getFocus() {
@@ -218,9 +226,11 @@ public class Camera extends Entity {
 	public void updatePosition() {
 		float a = 0;
 
-		Vector3f adjusted_movementVector3f = new Vector3f(movement);
+		Scratch scratch = Scratch.get();
+		Vector3f adjusted_movementVector3f = scratch.vector_a;
+		adjusted_movementVector3f.set(movement);
 		adjusted_movementVector3f.scale(prev_time*speed_scale);
-		if(!movement.equals(new Vector3f(0,0,0))) {
+		if(movement.x != 0 || movement.y != 0 || movement.z != 0) {
 			incrementRotation(((Float)adjusted_movementVector3f.x).doubleValue());
 			incrementDeclination(((Float)adjusted_movementVector3f.y).doubleValue());
 			incrementDistance(((Float)adjusted_movementVector3f.z).doubleValue());
@@ -228,8 +238,8 @@ public class Camera extends Entity {
 		incrementDistance(prev_time*speed_scale*distance_movement);
 		prev_time = System.nanoTime();
 		
-		Vector3f position = new Vector3f();
-		Vector3f focPos = getFocusPosition();
+		Vector3f position = scratch.vector_b;
+		Vector3f focPos = getFocusPosition(scratch.vector_c);
 		
 		// calculate positions from angles as if focus were (0,0,0)
 		position.y = (float) ((distance * Math.sin(declination)));
@@ -240,7 +250,7 @@ public class Camera extends Entity {
 		setProperty(Entity.POSITION,position);
 
 		if(matrices != null) {
-			matrices.buildModelViewMatrix((Vector3f)getProperty(Entity.POSITION), getFocusPosition(), getUp());
+			matrices.buildModelViewMatrix(position, focPos, getUp());
 		  	matrices.buildProjectionMatrix(fov, aspect, minimum_distance, maximum_distance);
 		}
 	}
@@ -249,6 +259,11 @@ public class Camera extends Entity {
 		return matrices;
 	}
 
+	// Column major projection * modelview as of the last updatePosition()
+	public void getViewProjection(float[] out) {
+		matrices.getViewProjection(out);
+	}
+
 	/* debug functions */
 	public void debug() {
 		// Debug the camera
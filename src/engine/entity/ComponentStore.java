@@ -0,0 +1,382 @@
+/*
+ * Struct-of-arrays storage for the properties the engine touches every frame.
+ * 	Each Entity is handed an integer id when it is created and its typed
+ * 	properties (position, orientation, scale, should_draw, TTL, ...) live in
+ * 	dense primitive arrays at that index instead of in a HashMap<String,Object>.
+ *
+ * 	Hot loops (renderer, physics sync, AI) can either go through the typed
+ * 	accessors on Entity, or grab the arrays from here and walk them directly.
+ *
+ * 	//TODO: Arrays are swapped out when the store grows, so never hold on to one
+ * 			across an entity being created.
+ */
+package engine.entity;
+
+import com.bulletphysics.collision.dispatch.CollisionObject;
+import com.bulletphysics.linearmath.Transform;
+
+import engine.render.Model;
+
+public class ComponentStore {
+	/* Strides of the packed float components */
+	public static final int POSITION_STRIDE = 3;
+	public static final int BASIS_STRIDE = 9;
+	public static final int SCALE_STRIDE = 3;
+
+	/* Bits for keeping track of which typed properties have been set */
+	public static final int HAS_NAME = 1;
+	public static final int HAS_COLLIDABLE = 1 << 1;
+	public static final int HAS_TIME_TO_LIVE = 1 << 2;
+	public static final int HAS_SHOULD_DRAW = 1 << 3;
+	public static final int HAS_COLLISION_OBJECT = 1 << 4;
+	public static final int HAS_POSITION = 1 << 5;
+	public static final int HAS_MODEL = 1 << 6;
+	public static final int HAS_ADDED_TO_PHYSICS = 1 << 7;
+
+	private static final int DEFAULT_CAPACITY = 256;
+
+	// Shared by every entity, the same way the entity name counter is
+	private static final ComponentStore default_store = new ComponentStore(DEFAULT_CAPACITY);
+
+	// Packed float components
+	private volatile float[] positions;
+	private volatile float[] bases;
+	private volatile float[] scales;
+
+	// Flags and scalars
+	private volatile boolean[] should_draw;
+	private volatile boolean[] collidable;
+	private volatile boolean[] added_to_physics;
+	private volatile boolean[] physics_driven;
+	private volatile int[] time_to_live;
+	private volatile int[] present;
+
+	// References the engine uses a lot
+	private volatile String[] names;
+	private volatile Model[] models;
+	private volatile CollisionObject[] collision_objects;
+	private volatile Entity[] entities;
+
+	// Id bookkeeping
+	private volatile boolean[] alive;
+	private int[] free_ids;
+	private int free_count = 0;
+	private volatile int high_water = 0;
+	private int capacity;
+
+	public ComponentStore(int initial_capacity) {
+		capacity = Math.max(1, initial_capacity);
+		positions = new float[capacity * POSITION_STRIDE];
+		bases = new float[capacity * BASIS_STRIDE];
+		scales = new float[capacity * SCALE_STRIDE];
+		should_draw = new boolean[capacity];
+		collidable = new boolean[capacity];
+		added_to_physics = new boolean[capacity];
+		physics_driven = new boolean[capacity];
+		time_to_live = new int[capacity];
+		present = new int[capacity];
+		names = new String[capacity];
+		models = new Model[capacity];
+		collision_objects = new CollisionObject[capacity];
+		entities = new Entity[capacity];
+		alive = new boolean[capacity];
+		free_ids = new int[16];
+	}
+
+	public static ComponentStore getDefault() {
+		return default_store;
+	}
+
+	/*************** ID METHODS ***************/
+	public synchronized int allocate() {
+		int id;
+		if (free_count > 0) {
+			id = free_ids[--free_count];
+		} else {
+			if (high_water == capacity) {
+				grow(capacity * 2);
+			}
+			id = high_water;
+			high_water++;
+		}
+		reset(id);
+		alive[id] = true;
+		return id;
+	}
+
+	public synchronized void release(int id) {
+		if (id < 0 || id >= high_water || !alive[id]) {
+			return;
+		}
+		reset(id);
+		alive[id] = false;
+		if (free_count == free_ids.length) {
+			int[] bigger = new int[free_ids.length * 2];
+			System.arraycopy(free_ids, 0, bigger, 0, free_count);
+			free_ids = bigger;
+		}
+		free_ids[free_count++] = id;
+	}
+
+	// Put an id back to the defaults a brand new entity would have
+	public void reset(int id) {
+		int p = id * POSITION_STRIDE;
+		positions[p] = 0;
+		positions[p + 1] = 0;
+		positions[p + 2] = 0;
+
+		int b = id * BASIS_STRIDE;
+		for (int i = 0; i < BASIS_STRIDE; i++) {
+			bases[b + i] = 0;
+		}
+		bases[b] = 1;
+		bases[b + 4] = 1;
+		bases[b + 8] = 1;
+
+		int s = id * SCALE_STRIDE;
+		scales[s] = 1;
+		scales[s + 1] = 1;
+		scales[s + 2] = 1;
+
+		should_draw[id] = false;
+		collidable[id] = false;
+		added_to_physics[id] = false;
+		physics_driven[id] = true;
+		time_to_live[id] = 0;
+		present[id] = 0;
+		names[id] = null;
+		models[id] = null;
+		collision_objects[id] = null;
+		entities[id] = null;
+	}
+
+	private void grow(int new_capacity) {
+		positions = copyOf(positions, new_capacity * POSITION_STRIDE);
+		bases = copyOf(bases, new_capacity * BASIS_STRIDE);
+		scales = copyOf(scales, new_capacity * SCALE_STRIDE);
+		should_draw = copyOf(should_draw, new_capacity);
+		collidable = copyOf(collidable, new_capacity);
+		added_to_physics = copyOf(added_to_physics, new_capacity);
+		physics_driven = copyOf(physics_driven, new_capacity);
+		time_to_live = copyOf(time_to_live, new_capacity);
+		present = copyOf(present, new_capacity);
+
+		String[] new_names = new String[new_capacity];
+		System.arraycopy(names, 0, new_names, 0, capacity);
+		names = new_names;
+
+		Model[] new_models = new Model[new_capacity];
+		System.arraycopy(models, 0, new_models, 0, capacity);
+		models = new_models;
+
+		CollisionObject[] new_collision_objects = new CollisionObject[new_capacity];
+		System.arraycopy(collision_objects, 0, new_collision_objects, 0, capacity);
+		collision_objects = new_collision_objects;
+
+		Entity[] new_entities = new Entity[new_capacity];
+		System.arraycopy(entities, 0, new_entities, 0, capacity);
+		entities = new_entities;
+
+		// alive goes last so nobody sees a live id without its components
+		alive = copyOf(alive, new_capacity);
+		capacity = new_capacity;
+	}
+
+	private static float[] copyOf(float[] src, int length) {
+		float[] dst = new float[length];
+		System.arraycopy(src, 0, dst, 0, Math.min(src.length, length));
+		return dst;
+	}
+
+	private static int[] copyOf(int[] src, int length) {
+		int[] dst = new int[length];
+		System.arraycopy(src, 0, dst, 0, Math.min(src.length, length));
+		return dst;
+	}
+
+	private static boolean[] copyOf(boolean[] src, int length) {
+		boolean[] dst = new boolean[length];
+		System.arraycopy(src, 0, dst, 0, Math.min(src.length, length));
+		return dst;
+	}
+	/******************************************/
+
+	/*************** PRESENCE ***************/
+	public boolean has(int id, int component) {
+		return (present[id] & component) != 0;
+	}
+
+	public void clear(int id, int component) {
+		present[id] &= ~component;
+		if (component == HAS_NAME) names[id] = null;
+		if (component == HAS_MODEL) models[id] = null;
+		if (component == HAS_COLLISION_OBJECT) collision_objects[id] = null;
+	}
+	/******************************************/
+
+	/*************** ACCESSORS ***************/
+	public String getName(int id) {
+		return names[id];
+	}
+
+	public boolean getCollidable(int id) {
+		return collidable[id];
+	}
+
+	public int getTimeToLive(int id) {
+		return time_to_live[id];
+	}
+
+	public boolean getShouldDraw(int id) {
+		return should_draw[id];
+	}
+
+	public CollisionObject getCollisionObject(int id) {
+		return collision_objects[id];
+	}
+
+	public Model getModel(int id) {
+		return models[id];
+	}
+
+	public boolean getAddedToPhysics(int id) {
+		return added_to_physics[id];
+	}
+
+	public boolean getPhysicsDriven(int id) {
+		return physics_driven[id];
+	}
+
+	public Entity getEntity(int id) {
+		return entities[id];
+	}
+
+	public boolean isAlive(int id) {
+		return id >= 0 && id < high_water && alive[id];
+	}
+
+	// Every id below this has been handed out at some point
+	public int getHighWaterMark() {
+		return high_water;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/*
+	 * Raw arrays for dense iteration.  Index with id * STRIDE.
+	 */
+	public float[] getPositions() {
+		return positions;
+	}
+
+	public float[] getBases() {
+		return bases;
+	}
+
+	public float[] getScales() {
+		return scales;
+	}
+
+	public boolean[] getShouldDrawArray() {
+		return should_draw;
+	}
+
+	public int[] getTimeToLiveArray() {
+		return time_to_live;
+	}
+
+	public boolean[] getAliveArray() {
+		return alive;
+	}
+	/******************************************/
+
+	/*************** MUTATORS ***************/
+	public void setName(int id, String name) {
+		names[id] = name;
+		present[id] |= HAS_NAME;
+	}
+
+	public void setCollidable(int id, boolean value) {
+		collidable[id] = value;
+		present[id] |= HAS_COLLIDABLE;
+	}
+
+	public void setTimeToLive(int id, int value) {
+		time_to_live[id] = value;
+		present[id] |= HAS_TIME_TO_LIVE;
+	}
+
+	public void setShouldDraw(int id, boolean value) {
+		should_draw[id] = value;
+		present[id] |= HAS_SHOULD_DRAW;
+	}
+
+	public void setCollisionObject(int id, CollisionObject collision_object) {
+		collision_objects[id] = collision_object;
+		present[id] |= HAS_COLLISION_OBJECT;
+	}
+
+	public void setModel(int id, Model model) {
+		models[id] = model;
+		present[id] |= HAS_MODEL;
+	}
+
+	public void setAddedToPhysics(int id, boolean value) {
+		added_to_physics[id] = value;
+		present[id] |= HAS_ADDED_TO_PHYSICS;
+	}
+
+	public void setPhysicsDriven(int id, boolean value) {
+		physics_driven[id] = value;
+	}
+
+	public void setEntity(int id, Entity ent) {
+		entities[id] = ent;
+	}
+
+	public void setPosition(int id, float x, float y, float z) {
+		float[] pos = positions;
+		int p = id * POSITION_STRIDE;
+		pos[p] = x;
+		pos[p + 1] = y;
+		pos[p + 2] = z;
+		present[id] |= HAS_POSITION;
+	}
+
+	public void setScale(int id, float x, float y, float z) {
+		float[] scale = scales;
+		int s = id * SCALE_STRIDE;
+		scale[s] = x;
+		scale[s + 1] = y;
+		scale[s + 2] = z;
+	}
+
+	/*
+	 * Copy a bullet transform into the position and orientation components.
+	 * 	This is what physics writes, and it's as much the entity's position
+	 * 	as one set by hand, so it's flagged present the same way.
+	 */
+	public void setTransform(int id, Transform transform) {
+		float[] pos = positions;
+		int p = id * POSITION_STRIDE;
+		pos[p] = transform.origin.x;
+		pos[p + 1] = transform.origin.y;
+		pos[p + 2] = transform.origin.z;
+
+		float[] basis = bases;
+		int b = id * BASIS_STRIDE;
+		basis[b] = transform.basis.m00;
+		basis[b + 1] = transform.basis.m01;
+		basis[b + 2] = transform.basis.m02;
+		basis[b + 3] = transform.basis.m10;
+		basis[b + 4] = transform.basis.m11;
+		basis[b + 5] = transform.basis.m12;
+		basis[b + 6] = transform.basis.m20;
+		basis[b + 7] = transform.basis.m21;
+		basis[b + 8] = transform.basis.m22;
+		present[id] |= HAS_POSITION;
+	}
+	/******************************************/
+}
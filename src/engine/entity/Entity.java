@@ -12,11 +12,15 @@ package engine.entity;
 import engine.Engine;
 import engine.render.Model;
 import engine.render.Shader;
+import engine.utils.Scratch;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.vecmath.Vector3f;
 
@@ -33,7 +37,14 @@ import com.bulletphysics.linearmath.Transform;
 public class Entity{
 	// Properties
 	//protected CollisionObject collision_object;
+	// Typed properties live in the component store, this is for user defined extras
 	protected HashMap<String, Object> data;
+	protected final ComponentStore store = ComponentStore.getDefault();
+	protected final int id = store.allocate();
+	// Listeners still finishing this entity's removal on their own threads; see retire()
+	private final AtomicInteger removal_holds = new AtomicInteger();
+	private volatile boolean retired = false;
+	private final AtomicBoolean destroyed = new AtomicBoolean();
 	private ArrayList<EntityListener> listeners;
 	protected HashMap<String, TypedConstraint> constraints = new HashMap<String, TypedConstraint>();
 	protected Shader shader;
@@ -79,8 +90,9 @@ public class Entity{
 
 	/* Constructors */
 	protected Entity() {
+		store.setEntity(id, this);
 		data = new HashMap<String, Object>();
-		data.put(ADDED_TO_PHYSICS, false);
+		store.setAddedToPhysics(id, false);
 		collision_functions = new ArrayList<Method>(); 
 		subEntities = new EntityList();
 		listeners = new ArrayList<EntityListener>();
@@ -99,7 +111,9 @@ public class Entity{
 	}
 	
 	public Entity(Entity ent) {
-		data.put(ADDED_TO_PHYSICS, false);
+		store.setEntity(id, this);
+		data = new HashMap<String, Object>();
+		store.setAddedToPhysics(id, false);
 		String new_name = (String)ent.getProperty(Entity.NAME);
 		CollisionObject collision_object = (CollisionObject) ent.getProperty(Entity.COLLISION_OBJECT);
 		float mass = ((RigidBody)collision_object).getInvMass();
@@ -122,11 +136,13 @@ public class Entity{
 
 		num_entities++;
 		data = new HashMap<String, Object>();
-		data.put(NAME, name);
-		data.put(COLLIDABLE, c);
-		data.put(TIME_TO_LIVE, 0);
-		data.put(SHOULD_DRAW, true);
-		data.put(ADDED_TO_PHYSICS, false);
+		store.reset(id);
+		store.setEntity(id, this);
+		store.setName(id, name);
+		store.setCollidable(id, c);
+		store.setTimeToLive(id, 0);
+		store.setShouldDraw(id, true);
+		store.setAddedToPhysics(id, false);
 		data.put(CONSTRAINTS, new HashMap<String,TypedConstraint>());
 		//TODO: Generate this based on model instead
 		//this.model = model;
@@ -210,14 +226,14 @@ public class Entity{
 	 * /* MUTATORS
 	 */
 	public void setProperty(String key, Object val) {
-		Object old_value = data.get(key);
+		Object old_value = getProperty(key, false);
 		//TODO: This is a fucking filthy dirty hack to get around positioning
 		//replaced collision objects
-		if(val.getClass() == RigidBody.class && ((RigidBody)data.get(key)) != null) {
+		if(val.getClass() == RigidBody.class && old_value != null) {
 			Transform trans = ((RigidBody)old_value).getWorldTransform(new Transform());
 			((RigidBody)val).setWorldTransform(trans);
 		}
-		data.put(key, val);
+		putProperty(key, val);
 		for(EntityListener listener : listeners){
 			listener.entityPropertyChanged(key, this, old_value);
 		}
@@ -230,6 +246,57 @@ public class Entity{
 		}
 	}
 
+	// Route the engine's properties into the component store
+	private void putProperty(String key, Object val) {
+		switch(key) {
+			case NAME:
+				store.setName(id, (String)val);
+				break;
+			case COLLIDABLE:
+				store.setCollidable(id, (Boolean)val);
+				break;
+			case TIME_TO_LIVE:
+				store.setTimeToLive(id, ((Number)val).intValue());
+				break;
+			case SHOULD_DRAW:
+				store.setShouldDraw(id, (Boolean)val);
+				break;
+			case COLLISION_OBJECT:
+				// Lets EntityList find us from a bullet callback without a scan
+				((CollisionObject)val).setUserPointer(this);
+				store.setCollisionObject(id, (CollisionObject)val);
+				break;
+			case POSITION:
+				Vector3f pos = (Vector3f)val;
+				store.setPosition(id, pos.x, pos.y, pos.z);
+				break;
+			case MODEL:
+				store.setModel(id, (Model)val);
+				break;
+			case ADDED_TO_PHYSICS:
+				store.setAddedToPhysics(id, (Boolean)val);
+				break;
+			default:
+				data.put(key, val);
+				break;
+		}
+	}
+
+	// Returns the store bit for a typed property, or 0 if it lives in the HashMap
+	private static int componentFor(String key) {
+		switch(key) {
+			case NAME: return ComponentStore.HAS_NAME;
+			case COLLIDABLE: return ComponentStore.HAS_COLLIDABLE;
+			case TIME_TO_LIVE: return ComponentStore.HAS_TIME_TO_LIVE;
+			case SHOULD_DRAW: return ComponentStore.HAS_SHOULD_DRAW;
+			case COLLISION_OBJECT: return ComponentStore.HAS_COLLISION_OBJECT;
+			case POSITION: return ComponentStore.HAS_POSITION;
+			case MODEL: return ComponentStore.HAS_MODEL;
+			case ADDED_TO_PHYSICS: return ComponentStore.HAS_ADDED_TO_PHYSICS;
+			default: return 0;
+		}
+	}
+
 	public void removeProperty(String key) {
 		// Protect our required keys. Don't delete those, oh no!
 		boolean req = false;
@@ -237,54 +304,200 @@ public class Entity{
 			if (reqKeys[i].equals(key)) req = true;
 		}
 		if (!req) {
-			data.remove(key);
+			int component = componentFor(key);
+			if (component != 0) {
+				store.clear(id, component);
+			} else {
+				data.remove(key);
+			}
 		}
 	}
 
 	/* ACCESSORS */
 	public boolean keyExists(String prop_name) {
-		for (int i = 0; i < data.keySet().size(); i++) {
-			// TODO: Probably a better way to loop through the keys, but I'm
-			// lazy
-			if ((data.keySet().toArray())[i].equals(prop_name)) return true;
+		int component = componentFor(prop_name);
+		if (component != 0) {
+			return store.has(id, component);
 		}
-		return false;
+		return data.containsKey(prop_name);
 	}
 
 	public Object getProperty(String key) {
 		return getProperty(key, true);
 	}
 
+	/*
+	 * Positions of simulated entities are copied into the store at the end of
+	 * 	every physics tick, so the store is the place to read from.  One that
+	 * 	was never set or synced (before its first tick, or a body physics
+	 * 	doesn't move) is wherever its collision object is.  fromPhysics is
+	 * 	kept so old callers still compile.
+	 */
 	public Object getProperty(String key, boolean fromPhysics) {
-		Object ret = null;
-		
-		//TODO: Get rid of this mess
-		if((boolean) data.get(ADDED_TO_PHYSICS) && fromPhysics) {	
-			if( key.equals(Entity.POSITION) && !data.get(Entity.NAME).equals(Camera.CAMERA_NAME)){
-				Transform out = new Transform();
-				CollisionObject collision_object = (CollisionObject) getProperty(Entity.COLLISION_OBJECT);
-				out = collision_object.getWorldTransform(new Transform());
-				ret = out.origin;
-			}else { 
-				ret = data.get(key);
+		int component = componentFor(key);
+		if (component == 0) {
+			return data.get(key);
+		}
+		if (component == ComponentStore.HAS_POSITION) {
+			if (!store.has(id, component) && store.getCollisionObject(id) == null) {
+				return null;
 			}
-		} else {
-			ret = data.get(key);
+			return getPosition(new Vector3f());
+		}
+		if (!store.has(id, component)) {
+			return null;
+		}
+		switch(key) {
+			case NAME: return store.getName(id);
+			case COLLIDABLE: return store.getCollidable(id);
+			case TIME_TO_LIVE: return store.getTimeToLive(id);
+			case SHOULD_DRAW: return store.getShouldDraw(id);
+			case COLLISION_OBJECT: return store.getCollisionObject(id);
+			case MODEL: return store.getModel(id);
+			case ADDED_TO_PHYSICS: return store.getAddedToPhysics(id);
+			default: return null;
 		}
-		
-		return ret;
 	}
 	
 	public Set<String> getKeySet() {
-		return data.keySet();
+		Set<String> keys = new HashSet<String>(data.keySet());
+		for (String key : reqKeys) {
+			if (componentFor(key) != 0 && store.has(id, componentFor(key))) {
+				keys.add(key);
+			}
+		}
+		if (store.has(id, ComponentStore.HAS_COLLISION_OBJECT)) {
+			keys.add(COLLISION_OBJECT);
+		}
+		return keys;
+	}
+
+	/* Typed accessors; these skip the HashMap, boxing and casting */
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return store.getName(id);
+	}
+
+	public boolean shouldDraw() {
+		return store.getShouldDraw(id);
+	}
+
+	public boolean isCollidable() {
+		return store.getCollidable(id);
+	}
+
+	public int getTimeToLive() {
+		return store.getTimeToLive(id);
+	}
+
+	public boolean isAddedToPhysics() {
+		return store.getAddedToPhysics(id);
+	}
+
+	public Model getModel() {
+		return store.getModel(id);
+	}
+
+	public CollisionObject getCollisionObject() {
+		return store.getCollisionObject(id);
+	}
+
+	// null means draw with the model's own shader
+	public Shader getShader() {
+		return shader;
+	}
+
+	/*
+	 * Fill-in versions of getProperty(POSITION) and friends.  They write into
+	 * 	the caller's object and return it, so per-frame code can hold on to
+	 * 	one (or use Scratch.get()) instead of allocating every call.
+	 */
+	public Vector3f getPosition(Vector3f out) {
+		CollisionObject collision_object = store.getCollisionObject(id);
+		if (collision_object != null && !store.has(id, ComponentStore.HAS_POSITION)) {
+			// Only until physics syncs it, so the allocation doesn't matter
+			out.set(collision_object.getWorldTransform(new Transform()).origin);
+			return out;
+		}
+		float[] positions = store.getPositions();
+		int p = id * ComponentStore.POSITION_STRIDE;
+		out.set(positions[p], positions[p + 1], positions[p + 2]);
+		return out;
+	}
+
+	public Vector3f getScale(Vector3f out) {
+		CollisionObject collision_object = store.getCollisionObject(id);
+		if (collision_object != null) {
+			return collision_object.getCollisionShape().getLocalScaling(out);
+		}
+		float[] scales = store.getScales();
+		int s = id * ComponentStore.SCALE_STRIDE;
+		out.set(scales[s], scales[s + 1], scales[s + 2]);
+		return out;
+	}
+
+	// World transform straight from bullet, or identity at the stored position
+	public Transform getTransform(Transform out) {
+		CollisionObject collision_object = store.getCollisionObject(id);
+		if (collision_object != null) {
+			return collision_object.getWorldTransform(out);
+		}
+		out.setIdentity();
+		getPosition(out.origin);
+		return out;
+	}
+
+	/*
+	 * Copy the world transform and scale out of bullet into the store.
+	 * 	Physics calls this for every simulated entity once per tick.
+	 */
+	public void syncFromPhysics(Transform scratch_transform, Vector3f scratch_scale) {
+		CollisionObject collision_object = store.getCollisionObject(id);
+		if (collision_object == null || !store.getPhysicsDriven(id)) {
+			return;
+		}
+		collision_object.getWorldTransform(scratch_transform);
+		store.setTransform(id, scratch_transform);
+		collision_object.getCollisionShape().getLocalScaling(scratch_scale);
+		store.setScale(id, scratch_scale.x, scratch_scale.y, scratch_scale.z);
+	}
+
+	// Frees this entity's slot in the component store; don't use it afterwards
+	public void destroy() {
+		if (destroyed.compareAndSet(false, true)) {
+			store.release(id);
+		}
+	}
+
+	/*
+	 * Removed from the engine for good: destroy() it once physics and the
+	 * 	renderer have dealt with it being removed, which they do on their
+	 * 	own threads.  They holdRemoval() when told and releaseRemoval() once
+	 * 	done; with nothing holding it, it's destroyed straight away.
+	 */
+	public void retire() {
+		retired = true;
+		holdRemoval();
+		releaseRemoval();
+	}
+
+	public void holdRemoval() {
+		removal_holds.incrementAndGet();
+	}
+
+	public void releaseRemoval() {
+		if (removal_holds.decrementAndGet() == 0 && retired) {
+			destroy();
+		}
 	}
 
 	/* MISC */
 	public void drawFixedPipe() {
-		Boolean should_draw = (Boolean)getProperty(SHOULD_DRAW);
-		if (should_draw) {
-			//TODO: Error checking for model cast
-			Model model = (Model)getProperty("model");
+		if (shouldDraw()) {
+			Model model = getModel();
 			if(model != null) {
 				model.drawFixedPipe(this);
 			}
@@ -293,10 +506,8 @@ public class Entity{
 	
 	
 	public void drawProgrammablePipe() {
-		Boolean should_draw = (Boolean)getProperty(SHOULD_DRAW);
-		if (should_draw) {
-			//TODO: Error checking for model cast
-			Model model = (Model)getProperty("model");
+		if (shouldDraw()) {
+			Model model = getModel();
 			if(model != null) {
 				if(shader == null)
 					model.drawProgrammablePipe(this);
@@ -306,13 +517,31 @@ public class Entity{
 		}
 	}
 
+	/*
+	 * Draw with a transform the renderer already has (from a RenderSnapshot)
+	 * 	so nothing here has to touch physics state.
+	 */
+	public void drawFixedPipe(float[] body_matrix, Vector3f scale) {
+		Model model = getModel();
+		if(model != null) {
+			model.drawFixedPipe(this, body_matrix, scale);
+		}
+	}
+
+	public void drawProgrammablePipe(float[] body_matrix, Vector3f scale) {
+		Model model = getModel();
+		if(model != null) {
+			model.drawProgrammablePipe(this, shader, body_matrix, scale);
+		}
+	}
+
 	public void setCollisionFlags(int kinematic_object) {
-		CollisionObject collision_object = (CollisionObject) this.getProperty(Entity.COLLISION_OBJECT);
+		CollisionObject collision_object = getCollisionObject();
 		collision_object.setCollisionFlags(kinematic_object);
 	}
 
 	public void applyImpulse(Vector3f impulse, Vector3f position) {
-		CollisionObject collision_object = (CollisionObject) this.getProperty(Entity.COLLISION_OBJECT);
+		CollisionObject collision_object = getCollisionObject();
 		if (object_type == ObjectType.rigidbody){ 
 			((RigidBody) collision_object).applyImpulse(impulse, position);
 		} else {
@@ -321,7 +550,7 @@ public class Entity{
 	}
 	
 	public void applyTorqueImpulse(Vector3f impulse) {
-		CollisionObject collision_object = (CollisionObject) this.getProperty(Entity.COLLISION_OBJECT);
+		CollisionObject collision_object = getCollisionObject();
 		if (object_type == ObjectType.rigidbody){ 
 			((RigidBody) collision_object).applyTorqueImpulse(impulse);
 		} else {
@@ -330,7 +559,7 @@ public class Entity{
 	}
 	
 	public void clearForces() {
-		CollisionObject collision_object = (CollisionObject) this.getProperty(Entity.COLLISION_OBJECT);
+		CollisionObject collision_object = getCollisionObject();
 		if (object_type == ObjectType.rigidbody){ 
 			((RigidBody) collision_object).clearForces();
 		} else {
@@ -339,7 +568,7 @@ public class Entity{
 	}
 
 	public void setMotionState(DefaultMotionState defaultMotionState) {
-		CollisionObject collision_object = (CollisionObject) this.getProperty(Entity.COLLISION_OBJECT);
+		CollisionObject collision_object = getCollisionObject();
 		if (object_type == ObjectType.rigidbody){ 
 			((RigidBody) collision_object).setMotionState(defaultMotionState);
 		} else { 
@@ -352,13 +581,13 @@ public class Entity{
 	}
 
 	public void activate() {
-		CollisionObject collision_object = (CollisionObject) this.getProperty(Entity.COLLISION_OBJECT);
+		CollisionObject collision_object = getCollisionObject();
 		collision_object.activate();
 	}
 
 	public void setCollisionShape(CollisionShape createCollisionShape) {
 		// Sets the new collision shape
-		CollisionObject collision_object = (CollisionObject) this.getProperty(Entity.COLLISION_OBJECT);
+		CollisionObject collision_object = getCollisionObject();
 		Vector3f scalevec = collision_object.getCollisionShape().getLocalScaling(new Vector3f());
 		collision_object.setCollisionShape(createCollisionShape);
 		collision_object.getCollisionShape().setLocalScaling(scalevec);
@@ -378,7 +607,7 @@ public class Entity{
 	}
 
 	public void setAngularFactor(float factor, Vector3f velocity) {
-		CollisionObject collision_object = (CollisionObject) this.getProperty(Entity.COLLISION_OBJECT);
+		CollisionObject collision_object = getCollisionObject();
 		if (object_type == ObjectType.rigidbody) {
 			((RigidBody) collision_object).setAngularFactor(factor);
 			((RigidBody) collision_object).setAngularVelocity(velocity);
@@ -388,7 +617,7 @@ public class Entity{
 	}
 
 	public void setDamping(float linear_damping, float angular_damping) {
-		CollisionObject collision_object = (CollisionObject) this.getProperty(Entity.COLLISION_OBJECT);
+		CollisionObject collision_object = getCollisionObject();
 		if (object_type == ObjectType.rigidbody) {
 			// ((RigidBody)
 			// collision_object).setInterpolationLinearVelocity(velocity);
@@ -401,7 +630,7 @@ public class Entity{
 	}
 
 	public void setAngularIdentity() {
-		CollisionObject collision_object = (CollisionObject) this.getProperty(Entity.COLLISION_OBJECT);
+		CollisionObject collision_object = getCollisionObject();
 		if (object_type == ObjectType.rigidbody) {
 			// ((RigidBody)
 			// collision_object).setInterpolationLinearVelocity(velocity);
@@ -454,17 +683,15 @@ public class Entity{
 		return collision_functions;
 	}
 
+	// Column major, ready for glUniformMatrix4/glMultMatrix
 	public void getTransformation(float[] body_matrix) {
-		CollisionObject collision_object = (CollisionObject) this.getProperty(Entity.COLLISION_OBJECT);
-		Transform transform_matrix = new Transform();
-		transform_matrix = collision_object.getWorldTransform(new Transform());
-		transform_matrix.getOpenGLMatrix(body_matrix);
+		getTransform(Scratch.get().transform).getOpenGLMatrix(body_matrix);
 	}
 	
 	public void addListener(EntityListener listener){
 		listeners.add(listener);
-		for(String key: data.keySet())
-			listener.entityPropertyChanged(key, this, data.get(key));
+		for(String key: getKeySet())
+			listener.entityPropertyChanged(key, this, getProperty(key, false));
 	}
 	public void removeListener(EntityListener listener){
 		listeners.remove(listener);
@@ -3,7 +3,9 @@ package engine.entity;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import com.bulletphysics.collision.dispatch.CollisionObject;
@@ -16,10 +18,37 @@ public class EntityList implements EntityListener, Iterable<Entity> {
 	private ArrayList<ActionListener> action_listeners;
 	private ArrayList<EntityListListener> listeners;
 
+	/*
+	 * Entities plus every level of sub entities, flattened.  Rebuilt the first
+	 * 	time someone asks after an add/remove here or in any sub entity list,
+	 * 	instead of on every call.
+	 */
+	private static class FlatView {
+		final int version;
+		final ArrayList<Entity> entities;
+		final IdentityHashMap<Entity, Boolean> members;
+
+		FlatView(int version, ArrayList<Entity> entities) {
+			this.version = version;
+			this.entities = entities;
+			members = new IdentityHashMap<Entity, Boolean>(entities.size() * 2);
+			for (Entity ent : entities) {
+				members.put(ent, Boolean.TRUE);
+			}
+		}
+	}
+
+	private volatile FlatView flat_view;
+	// Bumped on every change so a view built during a change is never used
+	private volatile int version = 0;
+	// Lists holding an entity whose sub entity list this is
+	private ArrayList<EntityList> parents;
+
 	public EntityList() {
 		entities = new HashMap<Object, Entity>();
 		action_listeners = new ArrayList<ActionListener>();
 		listeners = new ArrayList<EntityListListener>();
+		parents = new ArrayList<EntityList>();
 	}
 	
 	/*************** QUEUE METHODS ***************/
@@ -30,7 +59,8 @@ public class EntityList implements EntityListener, Iterable<Entity> {
 		}
 		entities.put(ent.getProperty(Entity.NAME), ent);
 		ent.addListener(this);
-		
+		ent.getSubEntities().addParent(this);
+		invalidate();
 	}
 	
 	public void removeEntity(Object key) {
@@ -38,6 +68,8 @@ public class EntityList implements EntityListener, Iterable<Entity> {
 			Entity ent = (entities.get(key));
 
 			entities.remove(ent.getProperty(Entity.NAME));
+			ent.getSubEntities().removeParent(this);
+			invalidate();
 
 			fireActionEvent();
 			for(EntityListListener listener : listeners){
@@ -81,13 +113,46 @@ public class EntityList implements EntityListener, Iterable<Entity> {
 		return ents;
 	}
 	
+	/*
+	 * Cached; don't modify the list you get back.  It's thrown away, not
+	 * 	changed, when entities come and go, so it's fine to keep iterating it.
+	 */
 	public ArrayList<Entity> getEntitiesAndSubEntities() {
-		Set<Entity> ents = new HashSet<Entity>();
-		for(Entity e : entities.values()){
-			ents.add(e);
-			ents.addAll(getSubEntities(e));
+		return getFlatView().entities;
+	}
+
+	private FlatView getFlatView() {
+		FlatView view = flat_view;
+		int current = version;
+		if (view == null || view.version != current) {
+			Set<Entity> ents = new LinkedHashSet<Entity>();
+			for(Entity e : entities.values()){
+				ents.add(e);
+				ents.addAll(getSubEntities(e));
+			}
+			view = new FlatView(current, new ArrayList<Entity>(ents));
+			flat_view = view;
+		}
+		return view;
+	}
+
+	// Throw away the flattened view here and in every list above us
+	private void invalidate() {
+		version++;
+		flat_view = null;
+		for (int i = 0; i < parents.size(); i++) {
+			parents.get(i).invalidate();
 		}
-		return new ArrayList<Entity>(ents);
+	}
+
+	private void addParent(EntityList parent) {
+		if (!parents.contains(parent)) {
+			parents.add(parent);
+		}
+	}
+
+	private void removeParent(EntityList parent) {
+		parents.remove(parent);
 	}
 	/******************************************/	
 	
@@ -125,14 +190,21 @@ public class EntityList implements EntityListener, Iterable<Entity> {
 			String name = (String) entity.getProperty("name");
 			entities.values().remove(entity);
 			entities.put(name,entity);
+			invalidate();
 		}		
 	}
 	
+	/*
+	 * Entities stash themselves in their collision object's user pointer,
+	 * 	so this is a lookup plus a membership check rather than a scan.
+	 */
 	public Entity getEntityByCollisionObject(CollisionObject co) {
-		for(Entity ent: getEntitiesAndSubEntities()){
-			if(ent.getProperty(Entity.COLLISION_OBJECT).equals(co)) {
-				return ent;
-			}
+		if (co == null || !(co.getUserPointer() instanceof Entity)) {
+			return null;
+		}
+		Entity ent = (Entity)co.getUserPointer();
+		if (ent.getCollisionObject() == co && getFlatView().members.containsKey(ent)) {
+			return ent;
 		}
 		return null;
 	}
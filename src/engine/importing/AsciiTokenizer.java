@@ -0,0 +1,290 @@
+/*
+ * Reads numbers and words straight out of the bytes of a text file, for
+ * 	the importers that used to readLine() and split() everything.  Works on
+ * 	a slice [start, end) of a ByteBuffer, which can be a memory mapped file,
+ * 	so several tokenizers can share one buffer and each take a chunk.
+ *
+ * 	Nothing here allocates except readWord().
+ */
+package engine.importing;
+
+import java.nio.ByteBuffer;
+
+public class AsciiTokenizer {
+	// Exact powers of ten; anything past 22 isn't exact in a double
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	// The 29 mantissa bits a cast from double to float drops, and what they are at exactly half
+	private static final long FLOAT_DROPPED_BITS = (1L << 29) - 1;
+	private static final long FLOAT_HALFWAY = 1L << 28;
+
+	private ByteBuffer buffer;
+	private int end;
+	private int position;
+
+	public AsciiTokenizer(ByteBuffer buffer) {
+		this(buffer, buffer.position(), buffer.limit());
+	}
+
+	public AsciiTokenizer(ByteBuffer buffer, int start, int end) {
+		this.buffer = buffer;
+		this.position = start;
+		this.end = end;
+	}
+
+	// Start over on another slice, e.g. the next line of a streamed window
+	public void reset(ByteBuffer buffer, int start, int end) {
+		this.buffer = buffer;
+		this.position = start;
+		this.end = end;
+	}
+
+	/*************** POSITION ***************/
+	public boolean hasMore() {
+		return position < end;
+	}
+
+	public int getPosition() {
+		return position;
+	}
+
+	public void setPosition(int position) {
+		this.position = position;
+	}
+
+	// Next byte without moving past it, -1 at the end
+	public int peek() {
+		return position < end ? buffer.get(position) : -1;
+	}
+
+	public int peek(int ahead) {
+		return position + ahead < end ? buffer.get(position + ahead) : -1;
+	}
+
+	public void skip(int count) {
+		position = Math.min(end, position + count);
+	}
+
+	// Spaces and tabs, not newlines
+	public void skipBlanks() {
+		while (position < end) {
+			byte b = buffer.get(position);
+			if (b != ' ' && b != '\t' && b != '\r') {
+				return;
+			}
+			position++;
+		}
+	}
+
+	// Blanks and newlines
+	public void skipWhitespace() {
+		while (position < end && buffer.get(position) <= ' ') {
+			position++;
+		}
+	}
+
+	// Past the next newline
+	public void skipLine() {
+		while (position < end && buffer.get(position++) != '\n') {
+		}
+	}
+
+	// True if only blanks (or a # comment) are left on this line
+	public boolean atLineEnd() {
+		skipBlanks();
+		int b = peek();
+		return b == -1 || b == '\n' || b == '#';
+	}
+
+	// True if the next thing in the buffer is word, followed by whitespace or the end
+	public boolean startsWith(String word) {
+		int length = word.length();
+		if (position + length > end) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (buffer.get(position + i) != word.charAt(i)) {
+				return false;
+			}
+		}
+		return position + length == end || buffer.get(position + length) <= ' ';
+	}
+
+	// Skip whitespace then word, or complain that it wasn't there
+	public void expect(String word) throws Exception {
+		skipWhitespace();
+		if (!startsWith(word)) {
+			int start = position;
+			String found = readWord();
+			position = start;
+			throw error("expected '" + word + "' but got '" + found + "'");
+		}
+		position += word.length();
+	}
+	/******************************************/
+
+	/*************** READING ***************/
+	// Up to the next whitespace
+	public String readWord() {
+		skipBlanks();
+		int start = position;
+		while (position < end && buffer.get(position) > ' ') {
+			position++;
+		}
+		StringBuilder sb = new StringBuilder(position - start);
+		for (int i = start; i < position; i++) {
+			sb.append((char)(buffer.get(i) & 0xff));
+		}
+		return sb.toString();
+	}
+
+	public int readInt() throws Exception {
+		skipBlanks();
+		boolean negative = false;
+		if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+			negative = buffer.get(position) == '-';
+			position++;
+		}
+		int start = position;
+		long value = 0;
+		while (position < end) {
+			int digit = buffer.get(position) - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			value = value * 10 + digit;
+			if (value > Integer.MAX_VALUE) {
+				throw error("integer out of range");
+			}
+			position++;
+		}
+		if (position == start) {
+			throw error("expected an integer");
+		}
+		return (int)(negative ? -value : value);
+	}
+
+	/*
+	 * Decimal digits with an optional exponent, plus nan/inf spelled any
+	 * 	way Float.parseFloat would, and rounded the same way it would.  Short
+	 * 	numbers (what exporters write) are done with one exact multiply or
+	 * 	divide in double; anything with more digits than that is handed to
+	 * 	Float.parseFloat.
+	 */
+	public float readFloat() throws Exception {
+		skipBlanks();
+		int start = position;
+		boolean negative = false;
+		if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+			negative = buffer.get(position) == '-';
+			position++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		while (position < end) {
+			int digit = buffer.get(position) - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			any = true;
+			if (digits < 18) {
+				mantissa = mantissa * 10 + digit;
+				if (mantissa != 0) digits++;
+			} else {
+				exponent++;
+			}
+			position++;
+		}
+		if (position < end && buffer.get(position) == '.') {
+			position++;
+			while (position < end) {
+				int digit = buffer.get(position) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				any = true;
+				if (digits < 18) {
+					mantissa = mantissa * 10 + digit;
+					if (mantissa != 0) digits++;
+					exponent--;
+				}
+				position++;
+			}
+		}
+		if (!any) {
+			return readSlowFloat(start);
+		}
+		if (position < end && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+			position++;
+			boolean negative_exponent = false;
+			if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+				negative_exponent = buffer.get(position) == '-';
+				position++;
+			}
+			int exponent_start = position;
+			int value = 0;
+			while (position < end) {
+				int digit = buffer.get(position) - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				value = Math.min(value * 10 + digit, 100000);
+				position++;
+			}
+			if (position == exponent_start) {
+				throw error("malformed number");
+			}
+			exponent += negative_exponent ? -value : value;
+		}
+
+		/*
+		 * mantissa and the power of ten are both exact in double here, so
+		 * 	value is the correctly rounded double.  Narrowing it to float
+		 * 	rounds a second time, which only comes out wrong when value
+		 * 	landed exactly halfway between two floats (the 29 bits the cast
+		 * 	drops are 1 and then all 0s); those few go the slow way.
+		 */
+		if (digits <= 15 && exponent >= -22 && exponent <= 22) {
+			double value = (exponent < 0)
+				? mantissa / POWERS_OF_TEN[-exponent]
+				: mantissa * POWERS_OF_TEN[exponent];
+			if ((Double.doubleToRawLongBits(value) & FLOAT_DROPPED_BITS) != FLOAT_HALFWAY) {
+				return (float)(negative ? -value : value);
+			}
+		}
+		return readSlowFloat(start);
+	}
+
+	// Whatever's left of the token, through Float.parseFloat
+	private float readSlowFloat(int start) throws Exception {
+		position = start;
+		String word = readWord();
+		try {
+			return Float.parseFloat(word);
+		} catch (NumberFormatException e) {
+			position = start;
+			throw error("expected a number but got '" + word + "'");
+		}
+	}
+	/******************************************/
+
+	// Where in the file it went wrong, by line number
+	public Exception error(String message) {
+		int line = 1;
+		for (int i = 0; i < Math.min(position, end); i++) {
+			if (buffer.get(i) == '\n') {
+				line++;
+			}
+		}
+		return new Exception("Parse error on line " + line + ": " + message);
+	}
+}
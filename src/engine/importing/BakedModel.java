@@ -0,0 +1,327 @@
+/*
+ * Models saved the way the renderer wants them, so loading one is mapping
+ * 	the file and pointing at it: the VertexPacker buffers exactly as they
+ * 	get uploaded (normals and all), the bounds, the material and the
+ * 	points of the collision hull.  No text, no Faces, nothing on the heap
+ * 	per vertex.  See docs/internal_model_format.txt for the layout.
+ *
+ * 	Baked models live in the DerivedDataCache under the hash of the file
+ * 	they were made from.  FileLoader bakes a model the first time it's
+ * 	loaded and maps the baked copy after that; main() bakes a whole folder
+ * 	ahead of time.  One from another version or otherwise unreadable is
+ * 	just baked again.
+ */
+package engine.importing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
+
+import org.lwjgl.BufferUtils;
+
+import com.bulletphysics.util.ObjectArrayList;
+
+import engine.render.Model;
+import engine.render.model_pieces.Mesh;
+import engine.render.model_pieces.VertexPacker;
+import engine.render.ubos.Material;
+import engine.resource.DerivedDataCache;
+
+public class BakedModel extends Parser {
+	public static final String EXTENSION = "bake";
+	// Bump whenever the layout (or VertexPacker's) changes; older files get baked again
+	public static final int VERSION = 4;
+	// "JGBM" read as a little endian int
+	private static final int MAGIC = 0x4D42474A;
+	private static final int HEADER_BYTES = 72;
+	private static final int MATERIAL_BYTES = 56;
+	private static final int HULL_POINT_BYTES = 12;
+	// Most points a baked hull can have; see hull()
+	private static final int HULL_DIRECTIONS = 1024;
+	// Flags
+	private static final int COMPACT = 1;
+	private static final int SHORT_INDICES = 2;
+
+	/*************** READING ***************/
+	@Override
+	public void readFile(InputStream in) throws Exception {
+		model = read(readBuffer(in));
+	}
+
+	public void readFile(File file) throws Exception {
+		model = read(mapFile(file));
+	}
+
+	@Override
+	public void readUrl(String url) throws Exception {
+		InputStream in = this.getClass().getClassLoader().getResourceAsStream(url);
+		try {
+			readFile(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public static Model read(ByteBuffer file) throws Exception {
+		if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+			// The buffers go to GL as they are, so they'd come out backwards
+			throw new Exception("Baked models are little endian, this machine isn't");
+		}
+		ByteBuffer buffer = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int start = buffer.position();
+		if (buffer.remaining() < HEADER_BYTES || buffer.getInt(start) != MAGIC) {
+			throw new Exception("Not a baked model");
+		}
+		int version = buffer.getInt(start + 4);
+		if (version != VERSION) {
+			throw new Exception("Baked model is version " + version + ", expected " + VERSION);
+		}
+
+		buffer.position(start + 8);
+		int flags = buffer.getInt();
+		int vertex_count = buffer.getInt();
+		int index_count = buffer.getInt();
+		Vector3f min = new Vector3f(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+		Vector3f max = new Vector3f(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+		float[] color = {buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat()};
+		int hull_count = buffer.getInt();
+		int vertex_bytes = buffer.getInt();
+		int index_bytes = buffer.getInt();
+
+		long needed = HEADER_BYTES + MATERIAL_BYTES + (long)hull_count * HULL_POINT_BYTES
+			+ vertex_bytes + index_bytes;
+		if (hull_count < 0 || vertex_count < 0 || index_count < 0 || needed > buffer.limit() - start) {
+			throw new Exception("Baked model is truncated or corrupt");
+		}
+
+		buffer.position(start + HEADER_BYTES);
+		Vector4f ambient = readVector4(buffer);
+		Vector4f diffuse = readVector4(buffer);
+		Vector4f specular = readVector4(buffer);
+		float shininess = buffer.getFloat();
+		float alpha = buffer.getFloat();
+		Material material = new Material(ambient, diffuse, specular, shininess, alpha);
+
+		ObjectArrayList<Vector3f> hull = new ObjectArrayList<Vector3f>(Math.max(1, hull_count));
+		for (int i = 0; i < hull_count; i++) {
+			hull.add(new Vector3f(buffer.getFloat(), buffer.getFloat(), buffer.getFloat()));
+		}
+
+		ByteBuffer vertices = slice(buffer, buffer.position(), vertex_bytes);
+		ByteBuffer indices = slice(buffer, buffer.position() + vertex_bytes, index_bytes);
+		VertexPacker packing = new VertexPacker(vertices, vertex_count, indices, index_count, (flags & COMPACT) != 0, color);
+		if (packing.isShortIndices() != ((flags & SHORT_INDICES) != 0)) {
+			throw new Exception("Baked model's index size doesn't match its vertex count");
+		}
+		return new Model(packing, material, min, max, hull);
+	}
+
+	private static Vector4f readVector4(ByteBuffer buffer) {
+		return new Vector4f(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+	}
+
+	// bytes of buffer from offset on, as a direct buffer GL can take
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int bytes) {
+		ByteBuffer part = buffer.duplicate();
+		part.limit(offset + bytes);
+		part.position(offset);
+		if (part.isDirect()) {
+			return part.slice().order(ByteOrder.nativeOrder());
+		}
+		// Read from a stream rather than mapped
+		ByteBuffer copy = BufferUtils.createByteBuffer(Math.max(1, bytes));
+		copy.put(part);
+		copy.flip();
+		return copy;
+	}
+
+	@Override
+	public Model createModel() {
+		return new Model(model);
+	}
+	/******************************************/
+
+	/*
+	 * The baked copy of the file with this hash, or null if there isn't
+	 * 	one that can be read.
+	 */
+	public static Model load(DerivedDataCache cache, String hash) {
+		ByteBuffer mapped = cache.map(hash, EXTENSION, VERSION);
+		if (mapped == null) {
+			return null;
+		}
+		try {
+			return read(mapped);
+		} catch (Exception e) {
+			System.out.println("Couldn't load baked model " + hash + ", parsing instead: " + e.getMessage());
+			return null;
+		}
+	}
+	/******************************************/
+
+	/*************** WRITING ***************/
+	// Bake model into the cache, as made from the file with this hash
+	public static void save(Model model, DerivedDataCache cache, String hash) throws IOException {
+		cache.write(hash, EXTENSION, VERSION, pack(model));
+	}
+
+	// Header, vertices and indices, ready to write
+	private static ByteBuffer[] pack(Model model) throws IOException {
+		if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+			throw new IOException("Baked models are little endian, this machine isn't");
+		}
+
+		// What the whole model draws with; each mesh's own colour goes in its vertices
+		Material material = (model.getMaterial() == null) ? new Material() : model.getMaterial();
+		VertexPacker packing;
+		if (model.isBaked()) {
+			packing = model.getPacking();
+		} else {
+			model.verify();
+			// The same as packBuffers()
+			packing = new VertexPacker(true);
+			for (Mesh mesh : model.getMeshes()) {
+				packing.addMesh(mesh);
+			}
+			if (model.getPackedMesh() != null) {
+				packing.addPackedMesh(model.getPackedMesh(), material);
+			}
+			packing.finish();
+		}
+
+		ByteBuffer vertices = packing.getVertexBuffer().duplicate();
+		ByteBuffer indices = packing.getIndexBuffer().duplicate();
+		vertices.rewind();
+		indices.rewind();
+		// An empty model still gets 1 byte buffers; don't save those
+		int vertex_bytes = packing.getVertexCount() * packing.getStride();
+		int index_bytes = packing.getIndexCount() * (packing.isShortIndices() ? 2 : 4);
+		vertices.limit(vertex_bytes);
+		indices.limit(index_bytes);
+		ObjectArrayList<Vector3f> hull = hull(vertices.duplicate().order(ByteOrder.nativeOrder()), packing.getVertexCount(), packing.getStride());
+
+		ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES + MATERIAL_BYTES + hull.size() * HULL_POINT_BYTES)
+			.order(ByteOrder.LITTLE_ENDIAN);
+		Vector3f min = model.getMinimums();
+		Vector3f max = model.getMaximums();
+		float[] color = packing.getColor();
+		head.putInt(MAGIC).putInt(VERSION);
+		head.putInt((packing.isCompact() ? COMPACT : 0) | (packing.isShortIndices() ? SHORT_INDICES : 0));
+		head.putInt(packing.getVertexCount()).putInt(packing.getIndexCount());
+		head.putFloat(min.x).putFloat(min.y).putFloat(min.z);
+		head.putFloat(max.x).putFloat(max.y).putFloat(max.z);
+		head.putFloat(color[0]).putFloat(color[1]).putFloat(color[2]).putFloat(color[3]);
+		head.putInt(hull.size());
+		head.putInt(vertex_bytes).putInt(index_bytes);
+		putVector4(head, material.getAmbient());
+		putVector4(head, material.getDiffuse());
+		putVector4(head, material.getSpecular());
+		head.putFloat(material.getShininess()).putFloat(material.getAlpha());
+		for (int i = 0; i < hull.size(); i++) {
+			Vector3f point = hull.getQuick(i);
+			head.putFloat(point.x).putFloat(point.y).putFloat(point.z);
+		}
+		head.flip();
+		return new ByteBuffer[] {head, vertices, indices};
+	}
+
+	private static void putVector4(ByteBuffer buffer, Vector4f vector) {
+		buffer.putFloat(vector.x).putFloat(vector.y).putFloat(vector.z).putFloat(vector.w);
+	}
+
+	/*
+	 * The vertices' positions that are furthest along one of HULL_DIRECTIONS
+	 * 	directions spread over a sphere.  A ConvexHullShape only ever uses its
+	 * 	outermost points, so this collides the same as all of them, give or
+	 * 	take a point that falls between two directions (on a sphere that's
+	 * 	about r / 700, well inside bullet's margin), with far fewer to look
+	 * 	through.  Models smaller than that keep every point.
+	 *
+	 * 	bullet's HullLibrary would find the exact hull, but takes seconds on
+	 * 	our bigger models and merges nearby points anyway.
+	 */
+	private static ObjectArrayList<Vector3f> hull(ByteBuffer vertices, int vertex_count, int stride) {
+		boolean[] keep = new boolean[vertex_count];
+		if (vertex_count <= HULL_DIRECTIONS) {
+			Arrays.fill(keep, true);
+		} else {
+			for (int d = 0; d < HULL_DIRECTIONS; d++) {
+				// Fibonacci sphere
+				float y = 1 - (2 * d + 1) / (float)HULL_DIRECTIONS;
+				float radius = (float)Math.sqrt(1 - y * y);
+				double angle = d * Math.PI * (3 - Math.sqrt(5));
+				float x = radius * (float)Math.cos(angle);
+				float z = radius * (float)Math.sin(angle);
+				int best = 0;
+				float furthest = -Float.MAX_VALUE;
+				for (int i = 0; i < vertex_count; i++) {
+					int v = i * stride;
+					float distance = x * vertices.getFloat(v) + y * vertices.getFloat(v + 4) + z * vertices.getFloat(v + 8);
+					if (distance > furthest) {
+						furthest = distance;
+						best = i;
+					}
+				}
+				keep[best] = true;
+			}
+		}
+
+		ObjectArrayList<Vector3f> points = new ObjectArrayList<Vector3f>();
+		for (int i = 0; i < vertex_count; i++) {
+			if (keep[i]) {
+				int v = i * stride;
+				points.add(new Vector3f(vertices.getFloat(v), vertices.getFloat(v + 4), vertices.getFloat(v + 8)));
+			}
+		}
+		return points;
+	}
+	/******************************************/
+
+	/*************** OFFLINE ***************/
+	/*
+	 * Bake every model file under the folders (or files) given into the
+	 * 	cache, so nothing has to be parsed on the first load either.  Ones
+	 * 	already baked are skipped.
+	 */
+	public static void main(String[] args) {
+		for (String arg : args) {
+			bakeAll(new File(arg));
+		}
+	}
+
+	private static void bakeAll(File file) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					bakeAll(child);
+				}
+			}
+			return;
+		}
+		if (!FileLoader.isModelFile(file)) {
+			return;
+		}
+		DerivedDataCache cache = DerivedDataCache.getDefault();
+		String hash = DerivedDataCache.hash(file);
+		if (cache.getFile(hash, EXTENSION, VERSION).isFile()) {
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			Model model = FileLoader.parseFile(file);
+			save(model, cache, hash);
+			System.out.println(String.format("Baked %s: %d bytes in %.1f ms",
+				file.getPath(), cache.getFile(hash, EXTENSION, VERSION).length(), (System.nanoTime() - start) / 1e6));
+		} catch (Exception e) {
+			System.out.println("Couldn't bake " + file.getPath() + ": " + e.getMessage());
+		}
+	}
+	/******************************************/
+}
@@ -3,14 +3,21 @@
  * 		based on the file extension, which will load the file's data into a generic
  * 		Model object that the renederer/physics classes can understand.
  * 
+ * 	Given a path, a baked copy of the file is used when there is one (see
+ * 		BakedModel and DerivedDataCache).
+ * 
  * 	//TODO:  XGL parser isn't exactly complete
  * 	//TODO:  Implement parsers for formats other than shitty xgl.
  */
 package engine.importing;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 import engine.render.Model;
+import engine.resource.DerivedDataCache;
 
 import org.lwjgl.LWJGLException;
 import org.lwjgl.opengl.Display;
@@ -21,18 +28,7 @@ public class FileLoader {
 	}
 	
 	public static Model loadFile(InputStream in, String extension) {
-		Parser parser = new XGL_Parser();
-		
-		if(extension.equals("obj"))
-			parser = new Obj_Parser();
-		else if(extension.equals("xgl"))
-			parser = new XGL_Parser();
-		else if(extension.equals("ply"))
-			parser = new PLY_Parser();
-		else if(extension.equals("stl"))
-			parser = new STL_Parser();
-		else 
-			System.out.println("Unsuported model format");
+		Parser parser = createParser(extension);
 		
 		try {
 			parser.readFile(in);
@@ -42,6 +38,95 @@ public class FileLoader {
 		}
 		return parser.createModel();
 	}
+
+	public static Model loadFile(String path) {
+		return loadFile(new File(path));
+	}
+
+	/*
+	 * A model file by path.  If it's been baked (see BakedModel) the baked
+	 * 	copy is mapped from the cache instead of parsing anything; if not,
+	 * 	it's parsed and baked for next time.
+	 */
+	public static Model loadFile(File file) {
+		try {
+			return readFile(file, null, DerivedDataCache.getDefault());
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		return null;
+	}
+
+	/*
+	 * loadFile() for callers that handle a bad file themselves.  hash is
+	 * 	the file's SHA-1 if it's known already (the ResourceManager's
+	 * 	manifest has it), or null to work it out.
+	 */
+	public static Model readFile(File file, String hash, DerivedDataCache cache) throws Exception {
+		if (extension(file).equals(BakedModel.EXTENSION)) {
+			return parseFile(file);
+		}
+		if (hash == null) {
+			hash = DerivedDataCache.hash(file);
+		}
+		if (hash.isEmpty()) {
+			// Unreadable; let the parser say why
+			return parseFile(file);
+		}
+		Model baked = BakedModel.load(cache, hash);
+		if (baked != null) {
+			return baked;
+		}
+
+		Model model = parseFile(file);
+		try {
+			BakedModel.save(model, cache, hash);
+		} catch (IOException e) {
+			// Read only, most likely; it'll just be parsed again next time
+			System.out.println("Couldn't bake " + file.getPath() + ": " + e.getMessage());
+		}
+		return model;
+	}
+
+	// Just the parser, whether or not there's a baked copy
+	public static Model parseFile(File file) throws Exception {
+		Parser parser = createParser(extension(file));
+		InputStream in = new FileInputStream(file);
+		try {
+			parser.readFile(in);
+		} finally {
+			in.close();
+		}
+		return parser.createModel();
+	}
+
+	// Something one of the parsers can read
+	public static boolean isModelFile(File file) {
+		String extension = extension(file);
+		return extension.equals("obj") || extension.equals("xgl") || extension.equals("ply") || extension.equals("stl");
+	}
+
+	private static String extension(File file) {
+		String name = file.getName();
+		return name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+	}
+
+	private static Parser createParser(String extension) {
+		if(extension.equals("obj"))
+			return new Obj_Parser();
+		else if(extension.equals("xgl"))
+			return new XGL_Parser();
+		else if(extension.equals("ply"))
+			return new PLY_Parser();
+		else if(extension.equals("stl"))
+			return new STL_Parser();
+		else if(extension.equals(BakedModel.EXTENSION))
+			return new BakedModel();
+		
+		System.out.println("Unsuported model format");
+		return new XGL_Parser();
+	}
 	
 	/*
 	 * Create a display list from the parser, rather than returning a model This
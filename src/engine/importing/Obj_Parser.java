@@ -1,142 +1,532 @@
 /*
  * 	Reads in obj files, a fairly simplistic model format.
- * 
- * 
+ *
+ * 	Goes straight from the bytes to a PackedMesh: no lines, no Strings, no
+ * 		Face objects.  Every distinct v/vt/vn combination becomes one vertex
+ * 		and faces become indices into them, so a vertex shared by six
+ * 		triangles is stored once instead of six times.  Polygons are split
+ * 		into triangle fans.  Faces without vn are shaded flat, each with its
+ * 		own normal, the same as when the parser made Faces.
+ *
+ * 	Big files are cut into chunks at line breaks and the chunks are read on
+ * 		separate threads; putting the vertices and indices together after
+ * 		that is one pass on this thread.
  */
 package engine.importing;
 
 import engine.render.Model;
-import engine.render.model_pieces.*;
+import engine.render.model_pieces.PackedMesh;
 import engine.render.ubos.Material;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-
-import javax.vecmath.Vector3f;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Obj_Parser extends Parser {
+	// Anything smaller isn't worth starting threads for
+	private static final int PARALLEL_THRESHOLD = 4 << 20;
 
-	private ArrayList<Vector3f> vertices = new ArrayList<Vector3f>(); // Vertex
-																		// Coordinates
-	private ArrayList<Vector3f> vertexNormals = new ArrayList<Vector3f>(); // Vertex
-																			// Coordinates
-																			// Normals
-	private ArrayList<String> comments = new ArrayList<String>(); // Vertex
-	private ArrayList<String> objects = new ArrayList<String>(); 
-	// Coordinates
-	// Normals
-	// private ArrayList<Vector3f> vertexTextures = new ArrayList<Vector3f>();
-	// // Vertex Coordinates Textures
+	/*
+	 * How a chunk stores a face corner's index before it knows how many
+	 * 	vertices came before it in the file: absolute indices are stored
+	 * 	as-is (0 based), relative ones (-1 = the last vertex so far) as
+	 * 	RELATIVE plus the index within the chunk.
+	 */
+	private static final int MISSING = -1;
+	private static final int RELATIVE = Integer.MIN_VALUE / 2;
+	// A corner without vn uses its triangle's flat normal instead, FLAT - its id in FlatNormals
+	private static final int FLAT = -2;
 
 	private Model model;
+	private int threads = Runtime.getRuntime().availableProcessors();
 
 	public Obj_Parser() {
 		super();
 		model = new Model();
 	}
 
+	// 1 to always parse on the calling thread
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
 	@Override
 	public void readFile(InputStream in) throws Exception {
-		parseObj(
-			new BufferedReader(
-				new InputStreamReader(in)
-			)
-		);
+		parse(readBuffer(in));
+	}
+
+	public void readFile(File file) throws Exception {
+		parse(mapFile(file));
 	}
 
 	@Override
 	public void readUrl(String url) throws Exception {
-		BufferedReader file = new BufferedReader(
-			new InputStreamReader(
-				this.getClass().getClassLoader().getResourceAsStream(url)
-			)
-		);
-		parseObj(file);
-	}
-
-	public void parseObj(BufferedReader file) throws Exception {
-		Mesh mesh = new Mesh();
-		String currentLine = file.readLine();
-		
-		while(currentLine != null) {
-			switch(currentLine.split("\\s+")[0]) {
-				case "o":
-					objects.add(currentLine.split("\\s+")[1]);
-					break;
-				case "v":
-					vertices.add(parseVector(currentLine));
-					break;
-				case "vn":
-					vertexNormals.add(parseVector(currentLine));
-					break;
-				case "f":
-					mesh.addFace(readFace(currentLine));
-					break;
-				case "#":
-					comments.add(currentLine);
-					break;
-				case "s":
-					//I know this exists, but I really don't care about it
-					break;					
-				default:
-					System.out.println("Unknown def encountered while parsing obj");
-					System.out.println("\t"+currentLine);
-					break;
+		InputStream in = this.getClass().getClassLoader().getResourceAsStream(url);
+		try {
+			readFile(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/*************** PARSING ***************/
+	public void parse(ByteBuffer buffer) throws Exception {
+		final Chunk[] chunks = split(buffer);
+		if (chunks.length == 1) {
+			chunks[0].parse();
+		} else {
+			ExecutorService pool = Executors.newFixedThreadPool(chunks.length);
+			try {
+				ArrayList<Future<Void>> done = new ArrayList<Future<Void>>();
+				for (final Chunk chunk : chunks) {
+					done.add(pool.submit(new Callable<Void>() {
+						public Void call() throws Exception {
+							chunk.parse();
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> future : done) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof Exception) {
+							throw (Exception)e.getCause();
+						}
+						throw e;
+					}
+				}
+			} finally {
+				pool.shutdown();
 			}
-			currentLine = file.readLine();
 		}
-		
-		// Give mesh fake material
-		mesh.setMaterial(new Material());
-		model.addMesh(mesh);
+		model = new Model(assemble(chunks), new Material());
 	}
 
-	private Face readFace(String string) throws Exception {
-		Face f = new Face();
-		String[] verts;
+	// One chunk per thread, each ending just after a newline
+	private Chunk[] split(ByteBuffer buffer) {
+		int start = buffer.position();
+		int end = buffer.limit();
+		int count = (threads > 1 && end - start > PARALLEL_THRESHOLD) ? threads : 1;
+
+		Chunk[] chunks = new Chunk[count];
+		int chunk_start = start;
+		for (int i = 0; i < count; i++) {
+			int chunk_end = (i == count - 1) ? end : start + (int)((long)(end - start) * (i + 1) / count);
+			while (chunk_end < end && chunk_end > chunk_start && buffer.get(chunk_end - 1) != '\n') {
+				chunk_end++;
+			}
+			chunk_end = Math.max(chunk_end, chunk_start);
+			chunks[i] = new Chunk(buffer, chunk_start, chunk_end);
+			chunk_start = chunk_end;
+		}
+		return chunks;
+	}
 
-		// Split on white Spaces
-		String[] tokens = string.trim().split("\\s+");
+	/*
+	 * Everything one chunk of the file defines.  Face corners are already
+	 * 	fanned out into triangles, three (v, vt, vn) triples per triangle.
+	 */
+	private static class Chunk {
+		final AsciiTokenizer tokens;
+		float[] positions = new float[3 * 1024];
+		int position_count = 0;
+		float[] texture_coords = new float[2 * 64];
+		int texture_count = 0;
+		float[] normals = new float[3 * 64];
+		int normal_count = 0;
+		int[] corners = new int[3 * 3 * 1024];
+		int corner_count = 0;
+		LinkedHashSet<String> unknown = new LinkedHashSet<String>();
 
-		if( string.contains("/")) {
-			for (int i = 1; i < tokens.length; i++) {
-				verts = tokens[i].split("/");
-	
-				if (verts.length == 3) {
-					f.addVertex(vertices.get(Integer.parseInt(verts[0]) - 1));
-					f.addVertexNorm(vertexNormals.get(Integer.parseInt(verts[2]) - 1));
+		// First, previous and current corner of the polygon being read
+		private final int[] polygon = new int[9];
+
+		Chunk(ByteBuffer buffer, int start, int end) {
+			tokens = new AsciiTokenizer(buffer, start, end);
+		}
+
+		void parse() throws Exception {
+			while (true) {
+				tokens.skipWhitespace();
+				if (!tokens.hasMore()) {
+					return;
+				}
+				int c = tokens.peek();
+				int next = tokens.peek(1);
+				if (c == 'v' && isBlank(next)) {
+					tokens.skip(1);
+					readPosition();
+				} else if (c == 'v' && next == 't' && isBlank(tokens.peek(2))) {
+					tokens.skip(2);
+					readTextureCoord();
+				} else if (c == 'v' && next == 'n' && isBlank(tokens.peek(2))) {
+					tokens.skip(2);
+					readNormal();
+				} else if (c == 'f' && isBlank(next)) {
+					tokens.skip(1);
+					readFace();
+				} else if (c == '#' || tokens.startsWith("o") || tokens.startsWith("g")
+					|| tokens.startsWith("s") || tokens.startsWith("usemtl") || tokens.startsWith("mtllib"))
+				{
+					// Comments, names, smoothing groups and materials; nothing we use
 				} else {
-					System.out.println("Weird OBJ file.  Uses alternative face format");
-					throw new Exception();
+					unknown.add(tokens.readWord());
+				}
+				tokens.skipLine();
+			}
+		}
+
+		private static boolean isBlank(int c) {
+			return c == ' ' || c == '\t';
+		}
+
+		private void readPosition() throws Exception {
+			if (3 * (position_count + 1) > positions.length) {
+				positions = Arrays.copyOf(positions, positions.length * 2);
+			}
+			int p = 3 * position_count++;
+			positions[p] = tokens.readFloat();
+			positions[p + 1] = tokens.readFloat();
+			positions[p + 2] = tokens.readFloat();
+		}
+
+		private void readTextureCoord() throws Exception {
+			if (2 * (texture_count + 1) > texture_coords.length) {
+				texture_coords = Arrays.copyOf(texture_coords, texture_coords.length * 2);
+			}
+			int t = 2 * texture_count++;
+			texture_coords[t] = tokens.readFloat();
+			// v is optional
+			texture_coords[t + 1] = tokens.atLineEnd() ? 0 : tokens.readFloat();
+		}
+
+		private void readNormal() throws Exception {
+			if (3 * (normal_count + 1) > normals.length) {
+				normals = Arrays.copyOf(normals, normals.length * 2);
+			}
+			int n = 3 * normal_count++;
+			normals[n] = tokens.readFloat();
+			normals[n + 1] = tokens.readFloat();
+			normals[n + 2] = tokens.readFloat();
+		}
+
+		// v, v/vt, v//vn or v/vt/vn, three or more of them
+		private void readFace() throws Exception {
+			int count = 0;
+			while (!tokens.atLineEnd()) {
+				int corner = (count == 0) ? 0 : (count == 1) ? 3 : 6;
+				if (count >= 3) {
+					// Fan: the new corner goes last, the old last one becomes previous
+					polygon[3] = polygon[6];
+					polygon[4] = polygon[7];
+					polygon[5] = polygon[8];
+				}
+				polygon[corner] = encode(tokens.readInt(), position_count);
+				polygon[corner + 1] = MISSING;
+				polygon[corner + 2] = MISSING;
+				if (tokens.peek() == '/') {
+					tokens.skip(1);
+					if (tokens.peek() != '/') {
+						polygon[corner + 1] = encode(tokens.readInt(), texture_count);
+					}
+					if (tokens.peek() == '/') {
+						tokens.skip(1);
+						polygon[corner + 2] = encode(tokens.readInt(), normal_count);
+					}
+				}
+				count++;
+				if (count >= 3) {
+					addTriangle();
+				}
+			}
+			if (count < 3) {
+				throw tokens.error("face with only " + count + " corners");
+			}
+		}
+
+		private void addTriangle() {
+			if (corner_count + 9 > corners.length) {
+				corners = Arrays.copyOf(corners, corners.length * 2);
+			}
+			System.arraycopy(polygon, 0, corners, corner_count, 9);
+			corner_count += 9;
+		}
+
+		private int encode(int index, int count_so_far) throws Exception {
+			if (index > 0) {
+				return index - 1;
+			} else if (index < 0) {
+				return RELATIVE + count_so_far + index;
+			}
+			throw tokens.error("obj indices start at 1, not 0");
+		}
+	}
+	/******************************************/
+
+	/*************** ASSEMBLY ***************/
+	/*
+	 * Work out every corner's real indices now that the chunks' vertex
+	 * 	counts are known, and give each distinct v/vt/vn one vertex.  A
+	 * 	corner without vn is keyed on its triangle's normal instead, so it
+	 * 	only shares a vertex with triangles facing exactly the same way and
+	 * 	hard edges stay hard.
+	 */
+	private PackedMesh assemble(Chunk[] chunks) throws Exception {
+		int total_positions = 0, total_texture = 0, total_normals = 0, total_corners = 0;
+		for (Chunk chunk : chunks) {
+			total_positions += chunk.position_count;
+			total_texture += chunk.texture_count;
+			total_normals += chunk.normal_count;
+			total_corners += chunk.corner_count;
+		}
+		for (Chunk chunk : chunks) {
+			for (String word : chunk.unknown) {
+				System.out.println("Unknown def encountered while parsing obj: " + word);
+			}
+		}
+
+		int triangle_corners = total_corners / 3;
+		int[] indices = new int[triangle_corners];
+		// Flat shaded (no vn at all) curved surfaces barely weld, so expect a vertex per corner
+		int expected = (total_normals == 0) ? triangle_corners : Math.min(triangle_corners, total_positions * 2);
+		float[] vertices = new float[Math.max(16, expected) * PackedMesh.STRIDE];
+		int vertex_count = 0;
+
+		// Open addressing on (v, vt, vn), holding vertex + 1
+		int[] table = new int[tableSize(expected)];
+		int[] keys = new int[Math.max(16, vertices.length / PackedMesh.STRIDE) * 3];
+		FlatNormals flat = null;
+		int face_normal = 0;
+
+		int position_base = 0, texture_base = 0, normal_base = 0;
+		int index = 0;
+		for (Chunk chunk : chunks) {
+			int[] corners = chunk.corners;
+			for (int c = 0; c < chunk.corner_count; c += 3) {
+				int v = decode(corners[c], position_base, total_positions, "vertex");
+				// First corner of a triangle missing a vn: find the triangle's normal
+				if (c % 9 == 0 && (corners[c + 2] == MISSING || corners[c + 5] == MISSING || corners[c + 8] == MISSING)) {
+					if (flat == null) {
+						flat = new FlatNormals();
+					}
+					face_normal = flat.add(chunks, v,
+						decode(corners[c + 3], position_base, total_positions, "vertex"),
+						decode(corners[c + 6], position_base, total_positions, "vertex"));
+				}
+				int vt = decode(corners[c + 1], texture_base, total_texture, "texture coordinate");
+				int vn = decode(corners[c + 2], normal_base, total_normals, "normal");
+				if (vn == MISSING) {
+					vn = FLAT - face_normal;
+				}
+
+				int vertex;
+				if (vertex_count * 2 >= table.length) {
+					table = rehash(table, keys);
+				}
+				int mask = table.length - 1;
+				int slot = hash(v, vt, vn) & mask;
+				while (true) {
+					int entry = table[slot];
+					if (entry == 0) {
+						vertex = vertex_count;
+						table[slot] = vertex + 1;
+						break;
+					}
+					int k = (entry - 1) * 3;
+					if (keys[k] == v && keys[k + 1] == vt && keys[k + 2] == vn) {
+						vertex = entry - 1;
+						break;
+					}
+					slot = (slot + 1) & mask;
+				}
+				if (vertex == vertex_count) {
+					if ((vertex + 1) * 3 > keys.length) {
+						keys = Arrays.copyOf(keys, keys.length * 2);
+					}
+					keys[vertex * 3] = v;
+					keys[vertex * 3 + 1] = vt;
+					keys[vertex * 3 + 2] = vn;
+				}
+
+				if (vertex == vertex_count) {
+					if ((vertex_count + 1) * PackedMesh.STRIDE > vertices.length) {
+						vertices = Arrays.copyOf(vertices, vertices.length * 2);
+					}
+					writeVertex(vertices, vertex_count++, chunks, v, vt, vn, flat);
 				}
+				indices[index++] = vertex;
 			}
+			position_base += chunk.position_count;
+			texture_base += chunk.texture_count;
+			normal_base += chunk.normal_count;
+		}
+
+		PackedMesh.calcNormals(vertices, vertex_count, indices, index);
+		return new PackedMesh(vertices, vertex_count, indices, index);
+	}
+
+	private static int decode(int stored, int base, int total, String what) throws Exception {
+		if (stored == MISSING) {
+			return MISSING;
+		}
+		int index = (stored < RELATIVE / 2) ? base + (stored - RELATIVE) : stored;
+		if (index < 0 || index >= total) {
+			throw new Exception(
+				"Face refers to " + what + " " + (index + 1) + " but the file only has " + total
+			);
+		}
+		return index;
+	}
+
+	// Chunks keep their own arrays, so find which one holds the index
+	private static void writeVertex(float[] vertices, int vertex, Chunk[] chunks, int v, int vt, int vn, FlatNormals flat) {
+		int out = vertex * PackedMesh.STRIDE;
+		readPosition(chunks, v, vertices, out);
+		if (vn <= FLAT) {
+			System.arraycopy(flat.normals, (FLAT - vn) * 3, vertices, out + PackedMesh.NORMAL_OFFSET, 3);
 		} else {
-			if (tokens.length == 4) {
-				f.addVertex(vertices.get(Integer.parseInt(tokens[1])-1));
-				f.addVertex(vertices.get(Integer.parseInt(tokens[2])-1));
-				f.addVertex(vertices.get(Integer.parseInt(tokens[3])-1));
-			} else {
-				System.out.println("Weird OBJ file.  Uses alternative face format");
-				throw new Exception();
+			for (Chunk chunk : chunks) {
+				if (vn < chunk.normal_count) {
+					System.arraycopy(chunk.normals, vn * 3, vertices, out + PackedMesh.NORMAL_OFFSET, 3);
+					break;
+				}
+				vn -= chunk.normal_count;
 			}
 		}
-		//faceCount++;
-		return f;
+		if (vt != MISSING) {
+			for (Chunk chunk : chunks) {
+				if (vt < chunk.texture_count) {
+					System.arraycopy(chunk.texture_coords, vt * 2, vertices, out + PackedMesh.TEXTURE_OFFSET, 2);
+					break;
+				}
+				vt -= chunk.texture_count;
+			}
+		}
+	}
+
+	private static void readPosition(Chunk[] chunks, int v, float[] out, int offset) {
+		for (Chunk chunk : chunks) {
+			if (v < chunk.position_count) {
+				System.arraycopy(chunk.positions, v * 3, out, offset, 3);
+				return;
+			}
+			v -= chunk.position_count;
+		}
+	}
+
+	/*
+	 * The distinct normals of the triangles that had no vn, each once, so
+	 * 	corners can be keyed on which one they use.  Equal means bit for
+	 * 	bit; two that only nearly match just get a vertex each.
+	 */
+	private static class FlatNormals {
+		float[] normals = new float[64 * 3];
+		int count;
+		// Open addressing on the normal, holding id + 1
+		private int[] table = new int[128];
+		private final float[] triangle = new float[9];
+
+		// The id of the normal of triangle a, b, c (position indices)
+		int add(Chunk[] chunks, int a, int b, int c) {
+			readPosition(chunks, a, triangle, 0);
+			readPosition(chunks, b, triangle, 3);
+			readPosition(chunks, c, triangle, 6);
+			float e1x = triangle[3] - triangle[0], e1y = triangle[4] - triangle[1], e1z = triangle[5] - triangle[2];
+			float e2x = triangle[6] - triangle[0], e2y = triangle[7] - triangle[1], e2z = triangle[8] - triangle[2];
+			float nx = e1y * e2z - e1z * e2y;
+			float ny = e1z * e2x - e1x * e2z;
+			float nz = e1x * e2y - e1y * e2x;
+			float len = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (len > 0) {
+				nx /= len;
+				ny /= len;
+				nz /= len;
+			}
+			// + 0f so -0 and 0 are the same normal
+			int x = Float.floatToIntBits(nx + 0f), y = Float.floatToIntBits(ny + 0f), z = Float.floatToIntBits(nz + 0f);
+
+			if (count * 2 >= table.length) {
+				grow();
+			}
+			int mask = table.length - 1;
+			int slot = hash(x, y, z) & mask;
+			while (table[slot] != 0) {
+				int n = (table[slot] - 1) * 3;
+				if (Float.floatToIntBits(normals[n]) == x && Float.floatToIntBits(normals[n + 1]) == y
+					&& Float.floatToIntBits(normals[n + 2]) == z) {
+					return table[slot] - 1;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if ((count + 1) * 3 > normals.length) {
+				normals = Arrays.copyOf(normals, normals.length * 2);
+			}
+			normals[count * 3] = Float.intBitsToFloat(x);
+			normals[count * 3 + 1] = Float.intBitsToFloat(y);
+			normals[count * 3 + 2] = Float.intBitsToFloat(z);
+			table[slot] = ++count;
+			return count - 1;
+		}
+
+		private void grow() {
+			int[] bigger = new int[table.length * 2];
+			int mask = bigger.length - 1;
+			for (int id = 0; id < count; id++) {
+				int n = id * 3;
+				int slot = hash(Float.floatToIntBits(normals[n]), Float.floatToIntBits(normals[n + 1]),
+					Float.floatToIntBits(normals[n + 2])) & mask;
+				while (bigger[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				bigger[slot] = id + 1;
+			}
+			table = bigger;
+		}
 	}
 
-	private Vector3f parseVector(String string) throws Exception {
-		String[] line = string.trim().split("\\s+");
+	// Twice the size, same entries
+	private static int[] rehash(int[] table, int[] keys) {
+		int[] bigger = new int[table.length * 2];
+		int mask = bigger.length - 1;
+		for (int entry : table) {
+			if (entry != 0) {
+				int k = (entry - 1) * 3;
+				int slot = hash(keys[k], keys[k + 1], keys[k + 2]) & mask;
+				while (bigger[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				bigger[slot] = entry;
+			}
+		}
+		return bigger;
+	}
+
+	private static int tableSize(int entries) {
+		int size = 16;
+		while (size < entries * 2 && size < (1 << 30)) {
+			size <<= 1;
+		}
+		return size;
+	}
 
-		return new Vector3f(
-			Float.parseFloat(line[1]), Float.parseFloat(line[2]), Float.parseFloat(line[3])
-		);
+	private static int hash(int v, int vt, int vn) {
+		int h = v * 0x9E3779B1 + vt * 0x85EBCA77 + vn * 0xC2B2AE3D;
+		return h ^ (h >>> 16);
 	}
+	/******************************************/
 
 	@Override
 	public Model createModel() {
 		return new Model(model);
 	}
 
-}
\ No newline at end of file
+}
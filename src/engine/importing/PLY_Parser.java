@@ -1,24 +1,73 @@
+/*
+ * 	Reads in ply files: ascii, binary_little_endian and binary_big_endian.
+ *
+ * 	The header says what each element looks like, property by property, and
+ * 		the body is read by walking those descriptions, so extra properties
+ * 		(confidence, colours, flags...) and extra elements are skipped rather
+ * 		than confusing the parser.  Vertices keep x y z, nx ny nz and u v (or
+ * 		s t); faces come from the vertex_indices list and are fanned into
+ * 		triangles.  A file with no faces is a point cloud and loads as just
+ * 		vertices.
+ *
+ * 	Normally the whole file is mapped (or read) into one buffer.  With
+ * 		setStreaming(true) it's read through a fixed size window instead, so a
+ * 		scan too big to map never sits in memory all at once; only the
+ * 		vertices and indices it turns into do.
+ */
 package engine.importing;
 
 import engine.render.Model;
-import engine.render.model_pieces.*;
+import engine.render.model_pieces.PackedMesh;
 import engine.render.ubos.Material;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
-
-import javax.vecmath.Vector3f;
+import java.util.Arrays;
 
 public class PLY_Parser extends Parser {
+	// Bytes read at a time when streaming
+	private static final int WINDOW = 1 << 20;
+	// Vertices per bulk get
+	private static final int BATCH = 4096;
+
+	protected enum DataType {
+		CHAR(1), UCHAR(1), SHORT(2), USHORT(2), INT(4), UINT(4), FLOAT(4), DOUBLE(8);
+
+		public final int size;
+
+		DataType(int size) {
+			this.size = size;
+		}
+
+		// Both the old names and the sized ones newer exporters write
+		public static DataType forName(String name) {
+			switch (name) {
+				case "char": case "int8": return CHAR;
+				case "uchar": case "uint8": return UCHAR;
+				case "short": case "int16": return SHORT;
+				case "ushort": case "uint16": return USHORT;
+				case "int": case "int32": return INT;
+				case "uint": case "uint32": return UINT;
+				case "float": case "float32": return FLOAT;
+				case "double": case "float64": return DOUBLE;
+				default: return null;
+			}
+		}
+	}
+
 	protected class Element {
 		public ArrayList<Property> properties;
 		public int num_elements = 0;
 		public String name = "";
-		
+
 		public Element(String name, int num_elements) {
 			this.name = name;
 			this.num_elements = num_elements;
@@ -27,192 +76,569 @@ public class PLY_Parser extends Parser {
 	}
 	protected class Property {
 		public boolean list = false;
-		public Type list_indices;
-		public Type value;
+		public DataType list_indices;
+		public DataType value;
 		public String name;
-		
-		public Property(String name, Type list_indices, Type value) {
+
+		public Property(String name, DataType list_indices, DataType value) {
 			this.list = true;
 			this.name = name;
 			this.list_indices = list_indices;
 			this.value = value;
 		}
-		
-		public Property(String name, Type value) {
+
+		public Property(String name, DataType value) {
 			this.list = false;
 			this.name = name;
 			this.value = value;
 		}
 	}
-	
+
 	public ArrayList<Element> elements;
 	private ArrayList<String> comments = new ArrayList<String>();
 	private String format;
 	private float version;
-	private BufferedReader file;
+	private boolean streaming = false;
 	private Model model;
-	private ArrayList<Vector3f> vertices;
+
+	// What's been built so far
+	private Input input;
+	private AsciiTokenizer tokens;
+	private float[] vertices;
+	private int vertex_count;
+	private int[] indices;
+	private int index_count;
+	private int[] polygon = new int[16];
 
 	public PLY_Parser() {
 		super();
 		model = new Model();
 		elements = new ArrayList<Element>();
-		vertices = new ArrayList<Vector3f>();
+	}
+
+	// Read through a small window instead of holding the whole file
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
 	}
 
 	@Override
 	public void readFile(InputStream in) throws Exception {
-		file = new BufferedReader(
-			new InputStreamReader(in)
-		);
-		
-		parsePly();
+		parsePly(streaming ? new Input(in) : new Input(readBuffer(in)));
+	}
+
+	public void readFile(File file) throws Exception {
+		if (!streaming) {
+			parsePly(new Input(mapFile(file)));
+			return;
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			parsePly(new Input(in));
+		} finally {
+			in.close();
+		}
 	}
 
 	@Override
 	public void readUrl(String url) throws Exception {
-		file = new BufferedReader(
-			new InputStreamReader(
-				this.getClass().getClassLoader().getResourceAsStream(url)
-			)
-		);
-		parsePly();
-	}
-
-	public void parsePly() throws Exception {
-		parseHeader();
-		parseBody();
-	}
-
-	private void parseHeader() throws IOException {
-		String currentLine = file.readLine();
-		if(!currentLine.equals("ply")) {
-			System.out.println("Error: valid ply file's first line must be 'ply'");
-			System.exit(1);
-		}
-		
-		currentLine = file.readLine();
-		while(currentLine != null) {
-			String split_line[] = currentLine.split("\\s+");
-			switch(split_line[0]) {
+		InputStream in = this.getClass().getClassLoader().getResourceAsStream(url);
+		try {
+			readFile(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public void parsePly(ByteBuffer buffer) throws Exception {
+		parsePly(new Input(buffer));
+	}
+
+	private void parsePly(Input input) throws Exception {
+		this.input = input;
+		try {
+			parseHeader();
+			parseBody();
+			if (index_count > 0) {
+				PackedMesh.calcNormals(vertices, vertex_count, indices, index_count);
+			}
+			model = new Model(new PackedMesh(vertices, vertex_count, indices, index_count), new Material());
+		} finally {
+			this.input = null;
+			tokens = null;
+		}
+	}
+
+	/*************** HEADER ***************/
+	private void parseHeader() throws Exception {
+		if (!"ply".equals(input.readLine().trim())) {
+			throw new Exception("Error: valid ply file's first line must be 'ply'");
+		}
+
+		Element element = null;
+		while (true) {
+			String line = input.readLine();
+			if (line == null) {
+				throw new Exception("Error: ply header has no end_header");
+			}
+			String[] split_line = line.trim().split("\\s+");
+			switch (split_line[0]) {
 				case "comment":
-					comments.add(split_line[1]);
-					currentLine = file.readLine();
+					comments.add(line.trim().substring(7).trim());
+					break;
+				case "obj_info":
+				case "":
 					break;
 				case "format":
 					format = split_line[1];
 					version = Float.parseFloat(split_line[2]);
-					currentLine = file.readLine();
 					break;
 				case "element":
-					//String split_line[] = currentLine.split("\\s+");
-					Element element = new Element(split_line[1], Integer.parseInt(split_line[2]));
-					currentLine = file.readLine();
-					while(currentLine != null &&
-						 !currentLine.contains("element") &&
-						 !currentLine.contains("end_header"))
-					{
-						readProperty(element, currentLine);			
-						currentLine = file.readLine();
-					}
+					element = new Element(split_line[1], Integer.parseInt(split_line[2]));
 					elements.add(element);
 					break;
+				case "property":
+					if (element == null) {
+						throw new Exception("Error: ply property before any element: " + line);
+					}
+					element.properties.add(readProperty(split_line, line));
+					break;
 				case "end_header":
+					if (format == null) {
+						throw new Exception("Error: ply header has no format");
+					}
 					return;
 				default:
 					System.out.println("Unknown def encountered while parsing ply");
-					System.out.println("\t"+currentLine);
+					System.out.println("\t" + line);
 					break;
 			}
 		}
 	}
-	
+
+	private Property readProperty(String[] split_line, String line) throws Exception {
+		if (split_line[1].equals("list") && split_line.length >= 5) {
+			DataType count = DataType.forName(split_line[2]);
+			DataType value = DataType.forName(split_line[3]);
+			if (count == null || value == null) {
+				throw new Exception("Error: unknown ply data type in: " + line);
+			}
+			return new Property(split_line[4], count, value);
+		}
+		DataType value = (split_line.length >= 3) ? DataType.forName(split_line[1]) : null;
+		if (value == null) {
+			throw new Exception("Error: unknown ply data type in: " + line);
+		}
+		return new Property(split_line[2], value);
+	}
+	/******************************************/
+
+	/*************** BODY ***************/
 	private void parseBody() throws Exception {
-		String currentLine = file.readLine();
-		Mesh mesh = new Mesh();
-		for(Element element: elements) {
-			switch(element.name) {
+		boolean ascii = format.equals("ascii");
+		if (format.equals("binary_little_endian")) {
+			input.order(ByteOrder.LITTLE_ENDIAN);
+		} else if (format.equals("binary_big_endian")) {
+			input.order(ByteOrder.BIG_ENDIAN);
+		} else if (!ascii) {
+			throw new Exception("Error: unknown ply format " + format);
+		}
+
+		int faces = 0;
+		vertex_count = 0;
+		for (Element element : elements) {
+			if (element.name.equals("vertex")) {
+				vertex_count = element.num_elements;
+			} else if (element.name.equals("face")) {
+				faces = element.num_elements;
+			}
+		}
+		vertices = new float[Math.max(1, vertex_count) * PackedMesh.STRIDE];
+		indices = new int[Math.max(1, faces * 3)];
+		index_count = 0;
+
+		if (ascii) {
+			tokens = new AsciiTokenizer(input.buffer);
+		}
+		for (Element element : elements) {
+			switch (element.name) {
 				case "vertex":
-					for(int i=0; i < element.num_elements; i++) {
-						parseVector(currentLine);
-						currentLine = file.readLine();
+					if (ascii) {
+						readAsciiVertices(element);
+					} else {
+						readBinaryVertices(element);
 					}
 					break;
 				case "face":
-					for(int i=0; i < element.num_elements; i++) {
-						parseIndex(currentLine, mesh);
-						currentLine = file.readLine();
+					if (ascii) {
+						readAsciiFaces(element);
+					} else {
+						readBinaryFaces(element);
 					}
 					break;
 				default:
-					System.out.println("unknown element type: " + element.name);
+					if (ascii) {
+						for (int i = 0; i < element.num_elements; i++) {
+							beginLine();
+							tokens.skipLine();
+						}
+					} else {
+						skipBinary(element);
+					}
 					break;
 			}
 		}
-		mesh.setMaterial(new Material());
-		model.addMesh(mesh);
-	}
-	
-	private void readProperty(Element element, String currentLine) throws IOException {
-		String split_line[] = currentLine.split("\\s+");
-
-		if(currentLine.contains("list")) {
-			element.properties.add(
-				new Property(
-					split_line[4],
-					getDataType(split_line[2]),
-					getDataType(split_line[3])
-				)
-			);
-		} else {
-			element.properties.add(
-				new Property(
-					split_line[2],
-					getDataType(split_line[1])
-				)
-			);
-		}
-	}
-
-	private Type getDataType(String type) {
-		switch(type) {
-			case "char": return Character.TYPE;
-			case "uchar": return Character.TYPE;
-			case "short": return Short.TYPE;
-			case "ushort": return Short.TYPE;
-			case "int":	return Integer.TYPE;
-			case "uint": return Integer.TYPE;
-			case "float": return Float.TYPE;
-			case "double": return Double.TYPE;
-			default:
-				//System.out.println("Unknown datatype: " + type);
-				return null;
+	}
+
+	// Where each vertex property goes in a PackedMesh vertex, -1 to drop it
+	private static int[] vertexSlots(Element element) {
+		int[] slots = new int[element.properties.size()];
+		for (int i = 0; i < slots.length; i++) {
+			Property property = element.properties.get(i);
+			slots[i] = property.list ? -1 : vertexSlot(property.name);
+		}
+		return slots;
+	}
+
+	private static int vertexSlot(String name) {
+		switch (name) {
+			case "x": return 0;
+			case "y": return 1;
+			case "z": return 2;
+			case "nx": return PackedMesh.NORMAL_OFFSET;
+			case "ny": return PackedMesh.NORMAL_OFFSET + 1;
+			case "nz": return PackedMesh.NORMAL_OFFSET + 2;
+			case "u": case "s": case "texture_u": case "texture_s": return PackedMesh.TEXTURE_OFFSET;
+			case "v": case "t": case "texture_v": case "texture_t": return PackedMesh.TEXTURE_OFFSET + 1;
+			default: return -1;
+		}
+	}
+
+	private static boolean isFaceIndices(Property property) {
+		return property.list && (property.name.equals("vertex_indices") || property.name.equals("vertex_index"));
+	}
+
+	// Fan whatever polygon is in polygon[0..corners) into triangles
+	private void addPolygon(int corners) throws Exception {
+		for (int i = 0; i < corners; i++) {
+			if (polygon[i] < 0 || polygon[i] >= vertex_count) {
+				throw new Exception("Error: ply face uses vertex " + polygon[i] + " of " + vertex_count);
+			}
+		}
+		int triangles = corners - 2;
+		if (triangles <= 0) {
+			return;
+		}
+		if (index_count + triangles * 3 > indices.length) {
+			indices = Arrays.copyOf(indices, Math.max(indices.length * 2, index_count + triangles * 3));
+		}
+		for (int i = 2; i < corners; i++) {
+			indices[index_count++] = polygon[0];
+			indices[index_count++] = polygon[i - 1];
+			indices[index_count++] = polygon[i];
+		}
+	}
+
+	private void growPolygon(int corners) {
+		if (corners > polygon.length) {
+			polygon = new int[Math.max(corners, polygon.length * 2)];
+		}
+	}
+	/******************************************/
+
+	/*************** ASCII ***************/
+	// Streaming needs the whole line in the window before tokenizing it
+	private void beginLine() throws Exception {
+		if (!input.isStreaming()) {
+			tokens.skipWhitespace();
+			return;
+		}
+		while (true) {
+			int line_end = input.lineEnd();
+			int limit = input.buffer.limit();
+			tokens.reset(input.buffer, input.buffer.position(), Math.min(line_end + 1, limit));
+			tokens.skipWhitespace();
+			if (tokens.hasMore() || line_end >= limit) {
+				return;
+			}
+			// Blank line
+			input.buffer.position(tokens.getPosition());
 		}
 	}
-	
-	public void parseVector(String string) throws Exception {
-		String[] line = string.trim().split("\\s+");
 
-		vertices.add(
-			new Vector3f(
-				Float.parseFloat(line[0]),
-				Float.parseFloat(line[1]),
-				Float.parseFloat(line[2])
-			)
-		);
+	private void endLine() {
+		tokens.skipLine();
+		if (input.isStreaming()) {
+			input.buffer.position(tokens.getPosition());
+		}
+	}
+
+	private void readAsciiVertices(Element element) throws Exception {
+		int[] slots = vertexSlots(element);
+		for (int i = 0; i < element.num_elements; i++) {
+			beginLine();
+			int v = i * PackedMesh.STRIDE;
+			for (int p = 0; p < slots.length; p++) {
+				Property property = element.properties.get(p);
+				if (property.list) {
+					for (int n = tokens.readInt(); n > 0; n--) {
+						tokens.readFloat();
+					}
+				} else if (slots[p] >= 0) {
+					vertices[v + slots[p]] = tokens.readFloat();
+				} else {
+					tokens.readFloat();
+				}
+			}
+			endLine();
+		}
+	}
+
+	private void readAsciiFaces(Element element) throws Exception {
+		for (int i = 0; i < element.num_elements; i++) {
+			beginLine();
+			for (Property property : element.properties) {
+				if (!property.list) {
+					tokens.readFloat();
+				} else if (isFaceIndices(property)) {
+					int corners = tokens.readInt();
+					growPolygon(corners);
+					for (int c = 0; c < corners; c++) {
+						polygon[c] = tokens.readInt();
+					}
+					addPolygon(corners);
+				} else {
+					for (int n = tokens.readInt(); n > 0; n--) {
+						tokens.readFloat();
+					}
+				}
+			}
+			endLine();
+		}
+	}
+	/******************************************/
+
+	/*************** BINARY ***************/
+	private void readBinaryVertices(Element element) throws Exception {
+		int[] slots = vertexSlots(element);
+		boolean all_floats = true;
+		for (Property property : element.properties) {
+			all_floats &= !property.list && property.value == DataType.FLOAT;
+		}
+		if (all_floats) {
+			readFloatVertices(element.num_elements, slots);
+			return;
+		}
+
+		ByteBuffer buffer;
+		for (int i = 0; i < element.num_elements; i++) {
+			int v = i * PackedMesh.STRIDE;
+			for (int p = 0; p < slots.length; p++) {
+				Property property = element.properties.get(p);
+				if (property.list) {
+					skipList(property);
+					continue;
+				}
+				buffer = input.need(property.value.size);
+				if (slots[p] >= 0) {
+					vertices[v + slots[p]] = (float)read(buffer, property.value);
+				} else {
+					buffer.position(buffer.position() + property.value.size);
+				}
+			}
+		}
+	}
+
+	// The usual case: every property a float, so pull whole batches of vertices out at once
+	private void readFloatVertices(int count, int[] slots) throws Exception {
+		int properties = slots.length;
+		int record = properties * 4;
+		float[] batch = new float[Math.min(count, BATCH) * properties];
+		for (int first = 0; first < count; first += BATCH) {
+			int size = Math.min(BATCH, count - first);
+			ByteBuffer buffer = input.need(size * record);
+			FloatBuffer floats = buffer.asFloatBuffer();
+			floats.get(batch, 0, size * properties);
+			buffer.position(buffer.position() + size * record);
+
+			for (int i = 0; i < size; i++) {
+				int v = (first + i) * PackedMesh.STRIDE;
+				int b = i * properties;
+				for (int p = 0; p < properties; p++) {
+					if (slots[p] >= 0) {
+						vertices[v + slots[p]] = batch[b + p];
+					}
+				}
+			}
+		}
+	}
+
+	private void readBinaryFaces(Element element) throws Exception {
+		ByteBuffer buffer;
+		for (int i = 0; i < element.num_elements; i++) {
+			for (Property property : element.properties) {
+				if (!property.list) {
+					input.skip(property.value.size);
+				} else if (isFaceIndices(property)) {
+					buffer = input.need(property.list_indices.size);
+					int corners = (int)read(buffer, property.list_indices);
+					growPolygon(corners);
+					buffer = input.need(corners * property.value.size);
+					for (int c = 0; c < corners; c++) {
+						polygon[c] = readIndex(buffer, property.value);
+					}
+					addPolygon(corners);
+				} else {
+					skipList(property);
+				}
+			}
+		}
+	}
+
+	private void skipBinary(Element element) throws Exception {
+		for (int i = 0; i < element.num_elements; i++) {
+			for (Property property : element.properties) {
+				if (property.list) {
+					skipList(property);
+				} else {
+					input.skip(property.value.size);
+				}
+			}
+		}
+	}
+
+	private void skipList(Property property) throws Exception {
+		ByteBuffer buffer = input.need(property.list_indices.size);
+		long count = (long)read(buffer, property.list_indices);
+		input.skip(count * property.value.size);
+	}
+
+	private static double read(ByteBuffer buffer, DataType type) {
+		switch (type) {
+			case CHAR: return buffer.get();
+			case UCHAR: return buffer.get() & 0xff;
+			case SHORT: return buffer.getShort();
+			case USHORT: return buffer.getShort() & 0xffff;
+			case INT: return buffer.getInt();
+			case UINT: return buffer.getInt() & 0xffffffffL;
+			case FLOAT: return buffer.getFloat();
+			default: return buffer.getDouble();
+		}
 	}
-	
-	private void parseIndex(String currentLine, Mesh mesh) {
-		String split_line[] = currentLine.split("\\s+");
-		
-		Face face = new Face();
-		for(int i=0; i < Integer.parseInt(split_line[0]); i++) {
-			face.addVertex(vertices.get(Integer.parseInt(split_line[i+1]))); 
+
+	// Same as read() without going through a double for the common types
+	private static int readIndex(ByteBuffer buffer, DataType type) {
+		switch (type) {
+			case INT: case UINT: return buffer.getInt();
+			case SHORT: return buffer.getShort();
+			case USHORT: return buffer.getShort() & 0xffff;
+			case CHAR: return buffer.get();
+			case UCHAR: return buffer.get() & 0xff;
+			default: return (int)read(buffer, type);
 		}
-		
-		mesh.addFace(new Face(face));
 	}
-	
+	/******************************************/
+
+	/*************** INPUT ***************/
+	/*
+	 * The bytes of the file: either all of it in one buffer, or a window
+	 * 	onto a channel that's refilled (compacted and read into) whenever a
+	 * 	read needs more than is left in it.
+	 */
+	private static class Input {
+		private ByteBuffer buffer;
+		private final ReadableByteChannel channel;
+
+		public Input(ByteBuffer whole) {
+			// Our own view, so the caller's position and byte order are left alone
+			buffer = whole.duplicate();
+			channel = null;
+		}
+
+		public Input(InputStream in) {
+			buffer = ByteBuffer.allocate(WINDOW);
+			buffer.limit(0);
+			channel = Channels.newChannel(in);
+		}
+
+		public boolean isStreaming() {
+			return channel != null;
+		}
+
+		public void order(ByteOrder order) {
+			buffer.order(order);
+		}
+
+		// The buffer, with at least count bytes left in it
+		public ByteBuffer need(int count) throws IOException {
+			if (buffer.remaining() < count && !fill(count)) {
+				throw new IOException("Unexpected end of ply file");
+			}
+			return buffer;
+		}
+
+		public void skip(long count) throws IOException {
+			while (count > 0) {
+				need(1);
+				int step = (int)Math.min(count, buffer.remaining());
+				buffer.position(buffer.position() + step);
+				count -= step;
+			}
+		}
+
+		// Index of the next newline (or the end of the file), with the whole line in the buffer
+		public int lineEnd() throws IOException {
+			int from = buffer.position();
+			while (true) {
+				for (int i = from; i < buffer.limit(); i++) {
+					if (buffer.get(i) == '\n') {
+						return i;
+					}
+				}
+				int scanned = buffer.limit() - buffer.position();
+				if (!fill(scanned + 1)) {
+					return buffer.limit();
+				}
+				from = buffer.position() + scanned;
+			}
+		}
+
+		// Header lines; null at the end of the file
+		public String readLine() throws IOException {
+			int end = lineEnd();
+			if (end == buffer.position() && !buffer.hasRemaining()) {
+				return null;
+			}
+			StringBuilder sb = new StringBuilder(end - buffer.position());
+			for (int i = buffer.position(); i < end; i++) {
+				sb.append((char)(buffer.get(i) & 0xff));
+			}
+			buffer.position(Math.min(buffer.limit(), end + 1));
+			return sb.toString();
+		}
+
+		// Try to get count bytes past position into the window
+		private boolean fill(int count) throws IOException {
+			if (channel == null) {
+				return false;
+			}
+			if (count > buffer.capacity()) {
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(count, buffer.capacity() * 2)).order(buffer.order());
+				bigger.put(buffer);
+				bigger.flip();
+				buffer = bigger;
+			}
+			buffer.compact();
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					break;
+				}
+			}
+			buffer.flip();
+			return buffer.remaining() >= count;
+		}
+	}
+	/******************************************/
+
 	public String getFormat() {
 		return format;
 	}
@@ -220,9 +646,13 @@ public class PLY_Parser extends Parser {
 		return version;
 	}
 
+	public ArrayList<String> getComments() {
+		return comments;
+	}
+
 	@Override
 	public Model createModel() {
 		return new Model(model);
 	}
 
-}
\ No newline at end of file
+}
@@ -6,7 +6,14 @@
 
 package engine.importing;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import engine.render.Model;
 
@@ -26,4 +33,33 @@ public abstract class Parser {
 	public abstract void readUrl(String url) throws Exception;
 
 	public abstract Model createModel();
+
+	/*
+	 * The whole stream as a buffer, for parsers that work on bytes.  Files
+	 * 	are memory mapped instead of copied onto the heap.
+	 */
+	protected static ByteBuffer readBuffer(InputStream in) throws IOException {
+		if (in instanceof FileInputStream) {
+			FileChannel channel = ((FileInputStream)in).getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, channel.position(), channel.size() - channel.position());
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(8192, in.available()));
+		byte[] buf = new byte[65536];
+		int read;
+		while ((read = in.read(buf)) != -1) {
+			out.write(buf, 0, read);
+		}
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	protected static ByteBuffer mapFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// Stays valid after the file is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+	}
 }
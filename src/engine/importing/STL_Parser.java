@@ -1,136 +1,300 @@
 /*
- * 	Reads in obj files, a fairly simplistic model format.
- * 
- * 
+ * 	Reads in stl files, both the ascii and the binary kind.
+ *
+ * 	Binary files are an 80 byte header, a triangle count, then 50 bytes per
+ * 		triangle (normal, three corners, two unused bytes), so they're read
+ * 		straight out of the (usually memory mapped) buffer.  A file is binary
+ * 		if its size matches that layout, since plenty of binary exporters
+ * 		start the header with "solid" anyway.
+ *
+ * 	Every triangle gets its own three vertices with the facet's normal, so
+ * 		it looks faceted like the CAD program showed it.  setWeld(true) merges
+ * 		corners at exactly the same position into one vertex instead, with
+ * 		smooth normals; about a sixth of the vertices for a closed mesh.
  */
 package engine.importing;
 
 import engine.render.Model;
-import engine.render.model_pieces.*;
+import engine.render.model_pieces.PackedMesh;
 import engine.render.ubos.Material;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-
-import javax.vecmath.Vector3f;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 public class STL_Parser extends Parser {
+	private static final int HEADER_SIZE = 84;
+	private static final int FACET_SIZE = 50;
+
 	private Model model;
-	private Mesh mesh;
-	private BufferedReader file;
-	private String name;	
-	
+	private String name;
+	private boolean weld = false;
+
+	// What's been built so far
+	private float[] vertices;
+	private int vertex_count;
+	private int[] indices;
+	private int index_count;
+	// Welding: open addressing on position, holding vertex + 1
+	private int[] weld_table;
+
 	public STL_Parser() {
 		super();
 		model = new Model();
 	}
 
+	// Share one vertex between every triangle touching a position
+	public void setWeld(boolean weld) {
+		this.weld = weld;
+	}
+
 	@Override
 	public void readFile(InputStream in) throws Exception {
-		file = new BufferedReader(
-			new InputStreamReader(in)
-		);
-		
-		parseSTL();
+		parseSTL(readBuffer(in));
+	}
+
+	public void readFile(File file) throws Exception {
+		parseSTL(mapFile(file));
 	}
 
 	@Override
 	public void readUrl(String url) throws Exception {
-		file = new BufferedReader(
-			new InputStreamReader(
-				this.getClass().getClassLoader().getResourceAsStream(url)
-			)
-		);
-		parseSTL();
-	}
-
-	public void parseSTL() throws Exception {
-		String currentLine = file.readLine();
-		String[] split_line = currentLine.trim().split("\\s+");
-		if(currentLine.contains("solid")) {
-			split_line = currentLine.trim().split("\\s+");
-			if (split_line.length == 2)
-				name = split_line[1];
+		InputStream in = this.getClass().getClassLoader().getResourceAsStream(url);
+		try {
+			readFile(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public void parseSTL(ByteBuffer buffer) throws Exception {
+		if (isBinary(buffer)) {
+			parseBinary(buffer);
 		} else {
-			System.out.println("Error: valid STL file's first line must be 'solid [name]'");
-			System.exit(1);
-		}
-		
-		mesh = new Mesh();
-		currentLine = file.readLine();
-		while(!currentLine.contains("endsolid")) {
-			parseFacet(currentLine);
-			currentLine = file.readLine();
-		}
-		
-		mesh.setMaterial(new Material());
-		model.addMesh(mesh);
-	}
-	
-	private void parseFacet(String currentLine) throws Exception {
-		String[] split_line;
-		Face face = new Face();
-		while(!currentLine.contains("endfacet")) {
-			split_line = currentLine.trim().split("\\s+");
-			if(currentLine.contains("facet normal")) {
-				face.addVertexNorm(
-					new Vector3f(
-						Float.parseFloat(split_line[2]),
-						Float.parseFloat(split_line[3]),
-						Float.parseFloat(split_line[4])
-					)
-				);
-			} else if(currentLine.contains("facet") && !currentLine.contains("normal")) {
-				currentLine = file.readLine();
+			parseAscii(buffer);
+		}
+		if (weld) {
+			PackedMesh.calcNormals(vertices, vertex_count, indices, index_count);
+		}
+		model = new Model(new PackedMesh(vertices, vertex_count, indices, index_count), new Material());
+		weld_table = null;
+	}
+
+	public static boolean isBinary(ByteBuffer buffer) {
+		int size = buffer.limit() - buffer.position();
+		if (size < HEADER_SIZE) {
+			return false;
+		}
+		long count = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(buffer.position() + 80) & 0xffffffffL;
+		return size == HEADER_SIZE + count * FACET_SIZE;
+	}
+
+	/*************** BINARY ***************/
+	private void parseBinary(ByteBuffer buffer) throws Exception {
+		// Our own view, so the caller's byte order is left alone
+		ByteBuffer data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int base = data.position();
+		int count = data.getInt(base + 80);
+
+		StringBuilder header = new StringBuilder();
+		for (int i = 0; i < 80 && data.get(base + i) != 0; i++) {
+			header.append((char)(data.get(base + i) & 0xff));
+		}
+		name = header.toString().trim();
+
+		begin(count);
+		float[] facet = new float[12];
+		for (int i = 0; i < count; i++) {
+			int offset = base + HEADER_SIZE + i * FACET_SIZE;
+			for (int f = 0; f < 12; f++) {
+				facet[f] = data.getFloat(offset + f * 4);
+			}
+			addTriangle(facet, 3, 6, 9);
+		}
+	}
+	/******************************************/
+
+	/*************** ASCII ***************/
+	private void parseAscii(ByteBuffer buffer) throws Exception {
+		AsciiTokenizer tokens = new AsciiTokenizer(buffer);
+		tokens.expect("solid");
+		name = tokens.atLineEnd() ? null : tokens.readWord();
+		tokens.skipLine();
+
+		// Roughly 250 bytes of text per facet
+		begin(Math.max(16, (buffer.limit() - buffer.position()) / 250));
+		float[] facet = new float[12];
+		while (true) {
+			tokens.skipWhitespace();
+			if (!tokens.hasMore() || tokens.startsWith("endsolid")) {
+				break;
+			}
+			tokens.expect("facet");
+			if (!tokens.atLineEnd()) {
+				tokens.expect("normal");
+				facet[0] = tokens.readFloat();
+				facet[1] = tokens.readFloat();
+				facet[2] = tokens.readFloat();
 			} else {
-				System.out.println("STL parsing failed: expected facet [normal], but got" + currentLine);
-				System.exit(1);
+				facet[0] = facet[1] = facet[2] = 0;
 			}
-		
-			parseLoop(face, currentLine);
-			currentLine = file.readLine();
-		}
-		mesh.addFace(face);
-	}
-	
-	private void parseLoop(Face face, String currentLine) throws Exception {
-		currentLine = file.readLine();
-		if(currentLine.contains("outer loop")) {
-			currentLine = file.readLine();
-			while(!currentLine.contains("endloop")) {
-				face.addVertex(parseVertex(currentLine));
-				currentLine = file.readLine();
-			}				
-		} else {
-			System.out.println("STL parsing failed: expected 'outer loop', but got" + currentLine);
-			System.exit(1);
+			tokens.expect("outer");
+			tokens.expect("loop");
+
+			// Should be a triangle, but fan anything bigger
+			int corners = 0;
+			while (true) {
+				tokens.skipWhitespace();
+				if (tokens.startsWith("endloop")) {
+					break;
+				}
+				tokens.expect("vertex");
+				int slot = (corners < 3) ? 3 + corners * 3 : 9;
+				if (corners >= 3) {
+					facet[6] = facet[9];
+					facet[7] = facet[10];
+					facet[8] = facet[11];
+				}
+				facet[slot] = tokens.readFloat();
+				facet[slot + 1] = tokens.readFloat();
+				facet[slot + 2] = tokens.readFloat();
+				corners++;
+				if (corners >= 3) {
+					addTriangle(facet, 3, 6, 9);
+				}
+			}
+			if (corners < 3) {
+				throw tokens.error("facet with only " + corners + " vertices");
+			}
+			tokens.expect("endloop");
+			tokens.expect("endfacet");
 		}
 	}
+	/******************************************/
 
-	public Vector3f parseVertex(String string) throws Exception {
-		Vector3f vertex = new Vector3f();
-		String[] line = string.trim().split("\\s+");
-		if(line[0].equals("vertex")) {
-			vertex = new Vector3f(
-				Float.parseFloat(line[1]),
-				Float.parseFloat(line[2]),
-				Float.parseFloat(line[3])
-			);
-		} else {
-			System.out.println("STL parsing failed: expected 'vertex <f1> <f2> <f3>', but got" + string);
-			System.exit(1);
+	/*************** BUILDING ***************/
+	private void begin(int triangles) {
+		vertices = new float[Math.max(1, weld ? triangles : triangles * 3) * PackedMesh.STRIDE];
+		vertex_count = 0;
+		indices = new int[Math.max(1, triangles * 3)];
+		index_count = 0;
+		weld_table = weld ? new int[tableSize(triangles)] : null;
+	}
+
+	// facet[0..2] is the normal, a, b and c where the corners start
+	private void addTriangle(float[] facet, int a, int b, int c) {
+		if (index_count + 3 > indices.length) {
+			indices = Arrays.copyOf(indices, indices.length * 2);
+		}
+		if (weld) {
+			indices[index_count++] = weldVertex(facet, a);
+			indices[index_count++] = weldVertex(facet, b);
+			indices[index_count++] = weldVertex(facet, c);
+			return;
 		}
+
+		float nx = facet[0], ny = facet[1], nz = facet[2];
+		if (nx == 0 && ny == 0 && nz == 0) {
+			// Lots of exporters don't bother, so work it out from the winding
+			float e1x = facet[b] - facet[a], e1y = facet[b + 1] - facet[a + 1], e1z = facet[b + 2] - facet[a + 2];
+			float e2x = facet[c] - facet[a], e2y = facet[c + 1] - facet[a + 1], e2z = facet[c + 2] - facet[a + 2];
+			nx = e1y * e2z - e1z * e2y;
+			ny = e1z * e2x - e1x * e2z;
+			nz = e1x * e2y - e1y * e2x;
+			float len = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (len > 0) {
+				nx /= len;
+				ny /= len;
+				nz /= len;
+			}
+		}
+		addVertex(facet, a, nx, ny, nz);
+		addVertex(facet, b, nx, ny, nz);
+		addVertex(facet, c, nx, ny, nz);
+	}
+
+	private int addVertex(float[] facet, int corner, float nx, float ny, float nz) {
+		if ((vertex_count + 1) * PackedMesh.STRIDE > vertices.length) {
+			vertices = Arrays.copyOf(vertices, vertices.length * 2);
+		}
+		int v = vertex_count * PackedMesh.STRIDE;
+		vertices[v] = facet[corner];
+		vertices[v + 1] = facet[corner + 1];
+		vertices[v + 2] = facet[corner + 2];
+		vertices[v + 3] = nx;
+		vertices[v + 4] = ny;
+		vertices[v + 5] = nz;
+		if (!weld) {
+			indices[index_count++] = vertex_count;
+		}
+		return vertex_count++;
+	}
+
+	// The vertex already at this exact position, or a new one (normal left for calcNormals)
+	private int weldVertex(float[] facet, int corner) {
+		if (vertex_count * 2 >= weld_table.length) {
+			rehash();
+		}
+		float x = facet[corner] + 0f, y = facet[corner + 1] + 0f, z = facet[corner + 2] + 0f;
+		int mask = weld_table.length - 1;
+		int slot = hash(x, y, z) & mask;
+		while (weld_table[slot] != 0) {
+			int v = (weld_table[slot] - 1) * PackedMesh.STRIDE;
+			if (vertices[v] == x && vertices[v + 1] == y && vertices[v + 2] == z) {
+				return weld_table[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		int vertex = addVertex(facet, corner, 0, 0, 0);
+		// + 0f above turned any -0 into 0, so the stored position hashes the same way
+		vertices[vertex * PackedMesh.STRIDE] = x;
+		vertices[vertex * PackedMesh.STRIDE + 1] = y;
+		vertices[vertex * PackedMesh.STRIDE + 2] = z;
+		weld_table[slot] = vertex + 1;
 		return vertex;
 	}
-	
+
+	private void rehash() {
+		int[] bigger = new int[weld_table.length * 2];
+		int mask = bigger.length - 1;
+		for (int entry : weld_table) {
+			if (entry != 0) {
+				int v = (entry - 1) * PackedMesh.STRIDE;
+				int slot = hash(vertices[v], vertices[v + 1], vertices[v + 2]) & mask;
+				while (bigger[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				bigger[slot] = entry;
+			}
+		}
+		weld_table = bigger;
+	}
+
+	private static int tableSize(int entries) {
+		int size = 16;
+		while (size < entries * 2 && size < (1 << 30)) {
+			size <<= 1;
+		}
+		return size;
+	}
+
+	private static int hash(float x, float y, float z) {
+		int h = Float.floatToIntBits(x) * 0x9E3779B1
+			+ Float.floatToIntBits(y) * 0x85EBCA77
+			+ Float.floatToIntBits(z) * 0xC2B2AE3D;
+		return h ^ (h >>> 16);
+	}
+	/******************************************/
+
 	public String getName() {
 		return name;
 	}
-	
+
 	@Override
 	public Model createModel() {
 		return new Model(model);
 	}
 
-}
\ No newline at end of file
+}
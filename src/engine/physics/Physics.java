@@ -32,6 +32,7 @@ import engine.entity.EntityCallbackFunctions;
 import engine.entity.QueueItem;
 import engine.entity.Entity.ObjectType;
 import engine.entity.EntityList;
+import engine.utils.Scratch;
 
 public class Physics extends PhysicsInterface{
 	// World Definitions
@@ -47,14 +48,27 @@ public class Physics extends PhysicsInterface{
 	float deltaT;
 	long frames = 0;
 
+	// Seconds per simulation step, and how many steps one update may take
+	private volatile float fixed_timestep = 1/60f;
+	private volatile int max_substeps = 10;
+	private int last_substeps = 0;
+
 	// For holding the previous time in microseconds to calculate deltaT
 	private long prev_time;
 	
 	//Keeping track of entities that need added/removed
 	private ConcurrentLinkedQueue<QueueItem> physicsQueue;
+	
+	//Entities currently in the dynamics world, synced to the component store each tick
+	private ArrayList<Entity> simulated_entities;
+	private Transform sync_transform;
+	private Vector3f sync_scale;
 
 	public Physics() {
 		physicsQueue = new ConcurrentLinkedQueue<QueueItem>();
+		simulated_entities = new ArrayList<Entity>();
+		sync_transform = new Transform();
+		sync_scale = new Vector3f();
 		
 		// Default collision constructor
 		collisionConfiguration = new DefaultCollisionConfiguration();
@@ -100,8 +114,55 @@ public class Physics extends PhysicsInterface{
 		frames++;
 		// step the simulation
 		if (dynamicsWorld != null) {
-			//TODO: This should be configurable
-			dynamicsWorld.stepSimulation(deltaT / 1000000000f, 10, 1/60f); 
+			last_substeps = dynamicsWorld.stepSimulation(deltaT / 1000000000f, max_substeps, fixed_timestep); 
+		}
+		syncComponentStore();
+	}
+
+	/*
+	 * Advance exactly substeps steps of fixed_timestep, for when something
+	 * 	else (PhysicsScheduler) is keeping track of time instead of us.
+	 */
+	public int stepFixed(int substeps) {
+		prev_time = System.nanoTime();
+		frames++;
+		deltaT = substeps * fixed_timestep * 1000000000f;
+		if (dynamicsWorld != null) {
+			for (int i = 0; i < substeps; i++) {
+				// maxSubSteps of 0 makes bullet take one step of exactly fixed_timestep
+				dynamicsWorld.stepSimulation(fixed_timestep, 0, fixed_timestep);
+			}
+		}
+		last_substeps = substeps;
+		syncComponentStore();
+		return substeps;
+	}
+
+	public void setTimestep(float fixed_timestep, int max_substeps) {
+		this.fixed_timestep = fixed_timestep;
+		this.max_substeps = max_substeps;
+	}
+
+	public float getFixedTimestep() {
+		return fixed_timestep;
+	}
+
+	public int getMaxSubsteps() {
+		return max_substeps;
+	}
+
+	// Substeps bullet took in the last clientUpdate/stepFixed
+	public int getLastSubsteps() {
+		return last_substeps;
+	}
+	
+	/*
+	 * Copy every simulated body's transform into the component store so
+	 * 	nobody else has to go poking at bullet to find out where things are.
+	 */
+	public void syncComponentStore() {
+		for (int i = 0; i < simulated_entities.size(); i++) {
+			simulated_entities.get(i).syncFromPhysics(sync_transform, sync_scale);
 		}
 	}
 
@@ -122,10 +183,12 @@ public class Physics extends PhysicsInterface{
 	}
 
 	public void handleGhostCollisions(EntityList entity_list) {
-		for(Entity entity : entity_list.getEntitiesAndSubEntities()){
-			if(entity.getProperty(Entity.COLLISION_OBJECT).getClass() != RigidBody.class &&
-				(Boolean)entity.getProperty(Entity.COLLIDABLE) == false) {
-				com.bulletphysics.collision.dispatch.GhostObject ghost = (GhostObject) entity.getProperty(Entity.COLLISION_OBJECT);
+		ArrayList<Entity> entities = entity_list.getEntitiesAndSubEntities();
+		for(int e=0;e<entities.size();e++){
+			Entity entity = entities.get(e);
+			if(entity.getCollisionObject().getClass() != RigidBody.class &&
+				entity.isCollidable() == false) {
+				com.bulletphysics.collision.dispatch.GhostObject ghost = (GhostObject) entity.getCollisionObject();
 				for(int i=0;i<ghost.getNumOverlappingObjects();i++){
 					entCollidedWith(entity, entity_list.getEntityByCollisionObject(ghost.getOverlappingObject(i)));
 				}
@@ -156,7 +219,7 @@ public class Physics extends PhysicsInterface{
 		dynamicsWorld.rayTest(ray_from, ray_to, resultCallback);
 		if(resultCallback.collisionObject != null){
 			for(Entity ent : entity_list){
-				if(resultCallback.collisionObject == ent.getProperty(Entity.COLLISION_OBJECT)){
+				if(resultCallback.collisionObject == ent.getCollisionObject()){
 					return ent;
 				}
 			}
@@ -173,6 +236,7 @@ public class Physics extends PhysicsInterface{
 	@Override
 	public void entityRemoved(Entity ent) {
 		ent.removeListener(this);
+		ent.holdRemoval();
 		physicsQueue.add(new QueueItem(ent, QueueItem.REMOVE));
 	}
 	
@@ -180,17 +244,19 @@ public class Physics extends PhysicsInterface{
 		Object[] itemArray = (Object[]) physicsQueue.toArray();
 		for (Object obj_item : itemArray) {
 			QueueItem item = (QueueItem)obj_item;
-			CollisionObject collision_object = (CollisionObject) item.getEnt().getProperty(Entity.COLLISION_OBJECT);
+			CollisionObject collision_object = item.getEnt().getCollisionObject();
 			item.getEnt().setProperty(Entity.ADDED_TO_PHYSICS, true);
 			if (QueueItem.ADD == ((QueueItem) item).getAction()) {
 				if (collision_object != null) {
 					dynamicsWorld.addCollisionObject(collision_object);
+					simulated_entities.add(item.getEnt());
 					if(item.getEnt().getObjectType() == ObjectType.actor) {
 						//TODO: I'm not sure why this line isn't necessary; leave it until we figure that out
 						dynamicsWorld.addAction(((Actor)item.getEnt()).getActor());
 					}
 				}
 			} else if (QueueItem.REMOVE == ((QueueItem) item).getAction()) {
+				simulated_entities.remove(item.getEnt());
 				if (item.getEnt().getObjectType() == ObjectType.rigidbody){
 					dynamicsWorld.removeRigidBody((RigidBody) collision_object);
 				} else {
@@ -199,6 +265,7 @@ public class Physics extends PhysicsInterface{
 				if(item.getEnt().getObjectType() == ObjectType.actor) {
 					dynamicsWorld.removeAction(((Actor)item.getEnt()).getActor());
 				}
+				item.getEnt().releaseRemoval();
 			}
 			physicsQueue.remove(item);
 		}
@@ -237,6 +304,10 @@ public class Physics extends PhysicsInterface{
 	}
 
 	private void entityCollisionChanged(Entity entity, Object old_value) {
+		// addListener() replays the current one; that's added from the queue, not here
+		if(old_value == entity.getProperty(Entity.COLLISION_OBJECT)) {
+			return;
+		}
 		if(old_value != null && (old_value.getClass() == CollisionObject.class ||
 			old_value.getClass() == RigidBody.class)	) {	
 			dynamicsWorld.removeCollisionObject((CollisionObject)old_value);
@@ -253,13 +324,11 @@ public class Physics extends PhysicsInterface{
 	}
 
 	private void entityPositionChanged(Entity entity) {
-		//TODO: Unchecked casts
-		Vector3f pos = ((Vector3f) entity.getProperty(Entity.POSITION, false));
-		CollisionObject collision_object = (CollisionObject) entity.getProperty(Entity.COLLISION_OBJECT);
-		Transform trans = collision_object.getWorldTransform(new Transform());
+		CollisionObject collision_object = entity.getCollisionObject();
+		Transform trans = Scratch.get().transform;
 
 		trans.setIdentity();
-		trans.origin.set(pos);
+		entity.getPosition(trans.origin);
 		collision_object.setWorldTransform(trans);
 	}
 
@@ -10,6 +10,14 @@ import engine.entity.EntityListener;
 public abstract class PhysicsInterface implements EntityListListener, EntityListener {
 	public abstract void clientUpdate();
 
+	public abstract int stepFixed(int substeps);
+
+	public abstract void setTimestep(float fixed_timestep, int max_substeps);
+
+	public abstract float getFixedTimestep();
+
+	public abstract int getMaxSubsteps();
+
 	public abstract void handleGhostCollisions(EntityList entity_list);
 
 	public abstract Entity pickEntityWithRay(Vector3f position, Vector3f ray_to, EntityList entity_list);
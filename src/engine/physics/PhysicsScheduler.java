@@ -0,0 +1,190 @@
+/*
+ * Runs the physics loop at a fixed rate instead of as fast as possible.
+ * 	Wakes up tick_rate times a second, works out how many fixed timesteps
+ * 	of simulation are due, hands that to the Tick, then parks until the
+ * 	next tick is due.
+ *
+ * 	If the simulation falls behind (a slow tick, the machine was busy, a
+ * 	debugger was attached) it catches up with extra substeps, but never
+ * 	more than max_substeps in one tick.  Anything past that is dropped and
+ * 	counted, so one bad frame can't turn into every frame being bad.
+ */
+package engine.physics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+public class PhysicsScheduler {
+	// How early to wake up and spin, since parkNanos oversleeps a little
+	private static final long SPIN_NANOS = 1000000L;
+
+	/*
+	 * What the scheduler calls each tick.  substeps is how many fixed
+	 * 	timesteps to advance; it can be 0 if the tick rate is higher than
+	 * 	the simulation rate.
+	 */
+	public interface Tick {
+		void tick(int substeps);
+	}
+
+	/*
+	 * Basically just a struct of what happened in one tick
+	 */
+	public static class Stats {
+		public long tick;
+		public int substeps;
+		public long step_nanos;			// time spent inside the Tick
+		public double average_step_nanos;
+		public long dropped_nanos;		// simulation time thrown away this tick
+		public long total_dropped_nanos;
+		public long late_nanos;			// how late we woke up
+
+		public String toString() {
+			return String.format(
+				"tick %d: %d substeps, step %.3fms (avg %.3fms), dropped %.3fms (total %.3fms), late %.3fms",
+				tick, substeps, step_nanos / 1e6, average_step_nanos / 1e6,
+				dropped_nanos / 1e6, total_dropped_nanos / 1e6, late_nanos / 1e6
+			);
+		}
+	}
+
+	private volatile long step_nanos;
+	private volatile long tick_nanos;
+	private volatile int max_substeps;
+	// Swapped each tick, the one not being read gets filled
+	private final Stats[] stats_buffers = {new Stats(), new Stats()};
+	private volatile Stats stats = stats_buffers[0];
+
+	public PhysicsScheduler(float fixed_timestep, int max_substeps) {
+		this(fixed_timestep, max_substeps, Math.round(1 / fixed_timestep));
+	}
+
+	public PhysicsScheduler(float fixed_timestep, int max_substeps, int ticks_per_second) {
+		setTimestep(fixed_timestep, max_substeps);
+		setTickRate(ticks_per_second);
+	}
+
+	/*************** CONFIG ***************/
+	public void setTimestep(float fixed_timestep, int max_substeps) {
+		this.step_nanos = Math.max(1L, (long)(fixed_timestep * 1e9));
+		this.max_substeps = Math.max(1, max_substeps);
+	}
+
+	// At most this many ticks a second; lower it to host more instances per box
+	public void setTickRate(int ticks_per_second) {
+		this.tick_nanos = 1000000000L / Math.max(1, ticks_per_second);
+	}
+
+	public float getFixedTimestep() {
+		return step_nanos / 1e9f;
+	}
+
+	public int getMaxSubsteps() {
+		return max_substeps;
+	}
+
+	public int getTickRate() {
+		return (int)(1000000000L / tick_nanos);
+	}
+
+	// Stats from the most recent tick; don't modify.  Only good until the
+	// tick after next, the two get reused
+	public Stats getStats() {
+		return stats;
+	}
+	/******************************************/
+
+	/*
+	 * Loop until finished is set.  Blocks the calling thread, which should
+	 * 	be the physics thread.
+	 */
+	public void run(AtomicBoolean finished, Tick tick) {
+		long last = System.nanoTime();
+		long next_tick = last + tick_nanos;
+		long accumulator = 0;
+		long total_dropped = 0;
+		long ticks = 0;
+		double average = 0;
+
+		while (!finished.get()) {
+			long now = System.nanoTime();
+			long late = Math.max(0, now - next_tick);
+			accumulator += now - last;
+			last = now;
+
+			// Spiral of death guard; never try to catch up more than this in one go
+			long step = step_nanos;
+			int cap = Math.max(max_substeps, (int)((tick_nanos + step - 1) / step));
+			long dropped = 0;
+			if (accumulator > cap * step) {
+				dropped = accumulator - cap * step;
+				accumulator = cap * step;
+				total_dropped += dropped;
+			}
+			int substeps = (int)(accumulator / step);
+			accumulator -= substeps * step;
+
+			long start = System.nanoTime();
+			tick.tick(substeps);
+			long elapsed = System.nanoTime() - start;
+
+			ticks++;
+			average = (ticks == 1) ? elapsed : average * 0.95 + elapsed * 0.05;
+			Stats tick_stats = (stats == stats_buffers[0]) ? stats_buffers[1] : stats_buffers[0];
+			tick_stats.tick = ticks;
+			tick_stats.substeps = substeps;
+			tick_stats.step_nanos = elapsed;
+			tick_stats.average_step_nanos = average;
+			tick_stats.dropped_nanos = dropped;
+			tick_stats.total_dropped_nanos = total_dropped;
+			tick_stats.late_nanos = late;
+			stats = tick_stats;
+
+			// Keep a steady cadence, but don't try to make up for missed wakeups
+			next_tick += tick_nanos;
+			if (next_tick < System.nanoTime()) {
+				next_tick = System.nanoTime() + tick_nanos;
+			}
+			sleepUntil(next_tick, finished);
+		}
+	}
+
+	/*
+	 * One fixed timestep per tick, back to back, no sleeping.  For headless
+	 * 	runs where simulated time doesn't need to line up with the wall clock.
+	 */
+	public void runUnpaced(AtomicBoolean finished, Tick tick) {
+		long ticks = 0;
+		double average = 0;
+		while (!finished.get()) {
+			long start = System.nanoTime();
+			tick.tick(1);
+			long elapsed = System.nanoTime() - start;
+
+			ticks++;
+			average = (ticks == 1) ? elapsed : average * 0.95 + elapsed * 0.05;
+			Stats tick_stats = (stats == stats_buffers[0]) ? stats_buffers[1] : stats_buffers[0];
+			tick_stats.tick = ticks;
+			tick_stats.substeps = 1;
+			tick_stats.step_nanos = elapsed;
+			tick_stats.average_step_nanos = average;
+			tick_stats.dropped_nanos = 0;
+			tick_stats.total_dropped_nanos = 0;
+			tick_stats.late_nanos = 0;
+			stats = tick_stats;
+		}
+	}
+
+	// Park most of the way, then yield the last bit so we wake up on time
+	private static void sleepUntil(long deadline, AtomicBoolean finished) {
+		long remaining = deadline - System.nanoTime();
+		while (remaining > 0 && !finished.get()) {
+			if (remaining > SPIN_NANOS) {
+				LockSupport.parkNanos(remaining - SPIN_NANOS);
+			} else {
+				Thread.yield();
+			}
+			remaining = deadline - System.nanoTime();
+		}
+	}
+}
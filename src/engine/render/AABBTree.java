@@ -0,0 +1,389 @@
+/*
+ * A dynamic bounding volume hierarchy over axis aligned boxes, the same
+ * 	shape as bullet's btDbvt or Box2D's dynamic tree.  Leaves hold the
+ * 	boxes, every inner node holds the box around its two children, and it's
+ * 	kept balanced with tree rotations as leaves come and go.
+ *
+ * 	Each leaf is stored a margin bigger than asked for, so something that
+ * 	moves a little each tick stays inside its box and the tree doesn't
+ * 	change at all; only once it leaves the box is it taken out and put back.
+ *
+ * 	Nodes live in flat arrays, indexed by int, with a free list, so nothing
+ * 	is allocated once it's grown to fit.
+ */
+package engine.render;
+
+import java.util.Arrays;
+
+public class AABBTree {
+	public static final int NULL = -1;
+	private static final int BOUNDS = 6;
+
+	private final float margin;
+
+	// min x y z, max x y z per node
+	private float[] bounds;
+	private int[] parent;
+	private int[] child1;
+	private int[] child2;
+	// 0 for a leaf, -1 for a free node
+	private int[] height;
+	// What the leaf is for, handed back from queries
+	private int[] data;
+	private int capacity;
+	private int node_count;
+	private int leaf_count;
+	private int free_list = NULL;
+	private int root = NULL;
+
+	// Query traversal; node and the frustum planes it still crosses
+	private int[] stack = new int[64];
+	private int[] stack_mask = new int[64];
+
+	public AABBTree(float margin) {
+		this.margin = margin;
+		grow(16);
+	}
+
+	/*************** LEAVES ***************/
+	// box is min x y z, max x y z from offset; returns the leaf for move()/remove()
+	public int insert(float[] box, int offset, int leaf_data) {
+		int leaf = allocate();
+		fatten(box, offset, leaf);
+		data[leaf] = leaf_data;
+		height[leaf] = 0;
+		insertLeaf(leaf);
+		leaf_count++;
+		return leaf;
+	}
+
+	public void remove(int leaf) {
+		removeLeaf(leaf);
+		release(leaf);
+		leaf_count--;
+	}
+
+	/*
+	 * The leaf's thing is now in box.  Nothing happens if it's still inside
+	 * 	the leaf's fattened box; otherwise it's reinserted and true returned.
+	 */
+	public boolean move(int leaf, float[] box, int offset) {
+		int b = leaf * BOUNDS;
+		if (bounds[b] <= box[offset] && bounds[b + 1] <= box[offset + 1] && bounds[b + 2] <= box[offset + 2]
+			&& bounds[b + 3] >= box[offset + 3] && bounds[b + 4] >= box[offset + 4] && bounds[b + 5] >= box[offset + 5]) {
+			return false;
+		}
+		removeLeaf(leaf);
+		fatten(box, offset, leaf);
+		insertLeaf(leaf);
+		return true;
+	}
+
+	public int getData(int leaf) {
+		return data[leaf];
+	}
+
+	private void fatten(float[] box, int offset, int node) {
+		int b = node * BOUNDS;
+		bounds[b] = box[offset] - margin;
+		bounds[b + 1] = box[offset + 1] - margin;
+		bounds[b + 2] = box[offset + 2] - margin;
+		bounds[b + 3] = box[offset + 3] + margin;
+		bounds[b + 4] = box[offset + 4] + margin;
+		bounds[b + 5] = box[offset + 5] + margin;
+	}
+	/******************************************/
+
+	/*************** QUERIES ***************/
+	/*
+	 * The data of every leaf whose box is at least partly inside the
+	 * 	frustum, into out (which needs room for getLeafCount()).  Returns how
+	 * 	many.  Once a node is wholly inside, its leaves go in untested.
+	 */
+	public int query(Frustum frustum, int[] out) {
+		int found = 0;
+		if (root == NULL) {
+			return 0;
+		}
+		int top = 0;
+		stack[top] = root;
+		stack_mask[top++] = Frustum.ALL_PLANES;
+		while (top > 0) {
+			top--;
+			int node = stack[top];
+			int mask = stack_mask[top];
+			if (mask != Frustum.INSIDE) {
+				mask = frustum.classify(bounds, node * BOUNDS, mask);
+				if (mask == Frustum.OUTSIDE) {
+					continue;
+				}
+			}
+			if (height[node] == 0) {
+				out[found++] = data[node];
+				continue;
+			}
+			if (top + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+				stack_mask = Arrays.copyOf(stack_mask, stack_mask.length * 2);
+			}
+			stack[top] = child1[node];
+			stack_mask[top++] = mask;
+			stack[top] = child2[node];
+			stack_mask[top++] = mask;
+		}
+		return found;
+	}
+
+	public int getLeafCount() {
+		return leaf_count;
+	}
+
+	public int getNodeCount() {
+		return node_count;
+	}
+
+	// 0 for a single leaf, -1 when empty
+	public int getHeight() {
+		return root == NULL ? -1 : height[root];
+	}
+
+	// Sum of inner node surface areas over the root's; lower is a better tree
+	public float getAreaRatio() {
+		if (root == NULL || height[root] == 0) {
+			return 0;
+		}
+		float total = 0;
+		for (int node = 0; node < capacity; node++) {
+			if (height[node] > 0) {
+				total += area(node);
+			}
+		}
+		return total / area(root);
+	}
+	/******************************************/
+
+	/*************** TREE ***************/
+	private void insertLeaf(int leaf) {
+		if (root == NULL) {
+			root = leaf;
+			parent[leaf] = NULL;
+			return;
+		}
+
+		// Walk down to the cheapest sibling, by surface area
+		int l = leaf * BOUNDS;
+		int index = root;
+		while (height[index] > 0) {
+			int left = child1[index];
+			int right = child2[index];
+			float area = area(index);
+			float combined = unionArea(index, l);
+			// Making a new parent for this node and the leaf
+			float cost = 2 * combined;
+			// What every ancestor below here grows by if we go further down
+			float inheritance = 2 * (combined - area);
+			float cost_left = descendCost(left, l) + inheritance;
+			float cost_right = descendCost(right, l) + inheritance;
+			if (cost < cost_left && cost < cost_right) {
+				break;
+			}
+			index = (cost_left < cost_right) ? left : right;
+		}
+		int sibling = index;
+
+		int old_parent = parent[sibling];
+		int new_parent = allocate();
+		parent[new_parent] = old_parent;
+		data[new_parent] = NULL;
+		union(sibling, leaf, new_parent);
+		height[new_parent] = height[sibling] + 1;
+		if (old_parent != NULL) {
+			if (child1[old_parent] == sibling) {
+				child1[old_parent] = new_parent;
+			} else {
+				child2[old_parent] = new_parent;
+			}
+		} else {
+			root = new_parent;
+		}
+		child1[new_parent] = sibling;
+		child2[new_parent] = leaf;
+		parent[sibling] = new_parent;
+		parent[leaf] = new_parent;
+
+		refit(parent[leaf]);
+	}
+
+	private void removeLeaf(int leaf) {
+		if (leaf == root) {
+			root = NULL;
+			return;
+		}
+		int old_parent = parent[leaf];
+		int grand_parent = parent[old_parent];
+		int sibling = (child1[old_parent] == leaf) ? child2[old_parent] : child1[old_parent];
+
+		if (grand_parent != NULL) {
+			// The sibling takes the parent's place
+			if (child1[grand_parent] == old_parent) {
+				child1[grand_parent] = sibling;
+			} else {
+				child2[grand_parent] = sibling;
+			}
+			parent[sibling] = grand_parent;
+			release(old_parent);
+			refit(grand_parent);
+		} else {
+			root = sibling;
+			parent[sibling] = NULL;
+			release(old_parent);
+		}
+	}
+
+	// Rebalance and recompute boxes and heights from index up to the root
+	private void refit(int index) {
+		while (index != NULL) {
+			index = balance(index);
+			int left = child1[index];
+			int right = child2[index];
+			height[index] = 1 + Math.max(height[left], height[right]);
+			union(left, right, index);
+			index = parent[index];
+		}
+	}
+
+	/*
+	 * If one child of a is more than one taller than the other, rotate the
+	 * 	taller child up into a's place.  Returns whichever node is now where
+	 * 	a was.
+	 */
+	private int balance(int a) {
+		if (height[a] < 2) {
+			return a;
+		}
+		int b = child1[a];
+		int c = child2[a];
+		int difference = height[c] - height[b];
+		if (difference > 1) {
+			return rotate(a, c, b);
+		}
+		if (difference < -1) {
+			return rotate(a, b, c);
+		}
+		return a;
+	}
+
+	// up (a child of a) replaces a; a takes up's shorter child
+	private int rotate(int a, int up, int other) {
+		int f = child1[up];
+		int g = child2[up];
+
+		child1[up] = a;
+		parent[up] = parent[a];
+		parent[a] = up;
+		if (parent[up] != NULL) {
+			if (child1[parent[up]] == a) {
+				child1[parent[up]] = up;
+			} else {
+				child2[parent[up]] = up;
+			}
+		} else {
+			root = up;
+		}
+
+		// The taller of up's children stays with it
+		int keep = (height[f] > height[g]) ? f : g;
+		int give = (keep == f) ? g : f;
+		child2[up] = keep;
+		if (child1[a] == up) {
+			child1[a] = give;
+		} else {
+			child2[a] = give;
+		}
+		parent[give] = a;
+
+		union(other, give, a);
+		height[a] = 1 + Math.max(height[other], height[give]);
+		union(a, keep, up);
+		height[up] = 1 + Math.max(height[a], height[keep]);
+		return up;
+	}
+
+	// Cost of putting the leaf (bounds at l) somewhere under node
+	private float descendCost(int node, int l) {
+		float combined = unionArea(node, l);
+		return (height[node] == 0) ? combined : combined - area(node);
+	}
+	/******************************************/
+
+	/*************** BOXES ***************/
+	// Half the surface area, which is all the cost comparisons need
+	private float area(int node) {
+		int b = node * BOUNDS;
+		float x = bounds[b + 3] - bounds[b];
+		float y = bounds[b + 4] - bounds[b + 1];
+		float z = bounds[b + 5] - bounds[b + 2];
+		return x * y + y * z + z * x;
+	}
+
+	private float unionArea(int node, int l) {
+		int b = node * BOUNDS;
+		float x = Math.max(bounds[b + 3], bounds[l + 3]) - Math.min(bounds[b], bounds[l]);
+		float y = Math.max(bounds[b + 4], bounds[l + 4]) - Math.min(bounds[b + 1], bounds[l + 1]);
+		float z = Math.max(bounds[b + 5], bounds[l + 5]) - Math.min(bounds[b + 2], bounds[l + 2]);
+		return x * y + y * z + z * x;
+	}
+
+	private void union(int first, int second, int into) {
+		int a = first * BOUNDS, b = second * BOUNDS, o = into * BOUNDS;
+		for (int k = 0; k < 3; k++) {
+			bounds[o + k] = Math.min(bounds[a + k], bounds[b + k]);
+			bounds[o + 3 + k] = Math.max(bounds[a + 3 + k], bounds[b + 3 + k]);
+		}
+	}
+
+	// Copy of one node's box, min x y z then max, into out at offset
+	public void getBounds(int node, float[] out, int offset) {
+		System.arraycopy(bounds, node * BOUNDS, out, offset, BOUNDS);
+	}
+	/******************************************/
+
+	/*************** NODES ***************/
+	private int allocate() {
+		if (free_list == NULL) {
+			grow(capacity * 2);
+		}
+		int node = free_list;
+		free_list = child1[node];
+		parent[node] = NULL;
+		child1[node] = NULL;
+		child2[node] = NULL;
+		height[node] = 0;
+		node_count++;
+		return node;
+	}
+
+	private void release(int node) {
+		child1[node] = free_list;
+		height[node] = -1;
+		free_list = node;
+		node_count--;
+	}
+
+	private void grow(int new_capacity) {
+		bounds = (bounds == null) ? new float[new_capacity * BOUNDS] : Arrays.copyOf(bounds, new_capacity * BOUNDS);
+		parent = (parent == null) ? new int[new_capacity] : Arrays.copyOf(parent, new_capacity);
+		child1 = (child1 == null) ? new int[new_capacity] : Arrays.copyOf(child1, new_capacity);
+		child2 = (child2 == null) ? new int[new_capacity] : Arrays.copyOf(child2, new_capacity);
+		height = (height == null) ? new int[new_capacity] : Arrays.copyOf(height, new_capacity);
+		data = (data == null) ? new int[new_capacity] : Arrays.copyOf(data, new_capacity);
+		// New nodes go on the free list, lowest first
+		for (int node = new_capacity - 1; node >= capacity; node--) {
+			child1[node] = free_list;
+			height[node] = -1;
+			free_list = node;
+		}
+		capacity = new_capacity;
+	}
+	/******************************************/
+}
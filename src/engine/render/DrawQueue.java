@@ -0,0 +1,182 @@
+/*
+ * A frame's draws, each with a 64 bit sort key, sorted so that draws
+ * 	sharing GL state end up next to each other.
+ *
+ * 	Opaque keys are shader, texture, material and then depth, so the
+ * 	program changes least, then the texture, then the Material UBO, and
+ * 	within those things are drawn front to back (the depth test throws away
+ * 	more of what's behind).  Translucent keys sort after every opaque one
+ * 	and lead with their depth, inverted, so they're drawn back to front
+ * 	over everything else; state only groups between draws at the same
+ * 	depth.
+ *
+ * 	  62     61        50 49       38 37        24 23          0
+ * 	 [ 0 ] [   shader   ] [  texture  ] [ material  ] [   depth    ]
+ * 	 [ 1 ] [  far - depth (24)  ] [ shader ] [ texture ] [ material ]
+ *
+ * 	Bit 63 stays clear, so keys sort the same signed or unsigned.  Ids are
+ * 	masked down to their bits; two things that collide only cost a bind.
+ *
+ * 	The sort is an LSD radix sort a byte at a time, skipping bytes that are
+ * 	the same in every key (the top ones usually are).  No GL calls, and
+ * 	nothing is allocated once the arrays have grown to fit.
+ */
+package engine.render;
+
+import java.util.Arrays;
+
+public class DrawQueue {
+	public static final int SHADER_BITS = 12;
+	public static final int TEXTURE_BITS = 12;
+	public static final int MATERIAL_BITS = 14;
+	public static final int DEPTH_BITS = 24;
+	public static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+	public static final long TRANSLUCENT = 1L << 62;
+
+	private static final int SHADER_MASK = (1 << SHADER_BITS) - 1;
+	private static final int TEXTURE_MASK = (1 << TEXTURE_BITS) - 1;
+	private static final int MATERIAL_MASK = (1 << MATERIAL_BITS) - 1;
+	private static final int PASSES = 8;
+	private static final int RADIX = 256;
+
+	private long[] keys = new long[64];
+	private int[] items = new int[64];
+	private long[] sorted_keys = new long[64];
+	private int[] sorted_items = new int[64];
+	private int count;
+
+	private final int[] histograms = new int[PASSES * RADIX];
+
+	/*************** KEYS ***************/
+	public static long opaqueKey(int shader, int texture, int material, int depth) {
+		return ((long)(shader & SHADER_MASK) << 50)
+			| ((long)(texture & TEXTURE_MASK) << 38)
+			| ((long)(material & MATERIAL_MASK) << 24)
+			| (depth & MAX_DEPTH);
+	}
+
+	public static long translucentKey(int shader, int texture, int material, int depth) {
+		return TRANSLUCENT
+			| ((long)(MAX_DEPTH - (depth & MAX_DEPTH)) << 38)
+			| ((long)(shader & SHADER_MASK) << 26)
+			| ((long)(texture & TEXTURE_MASK) << 14)
+			| (material & MATERIAL_MASK);
+	}
+
+	// distance along the view, 0 to far, into the key's depth bits
+	public static int quantizeDepth(float distance, float far) {
+		if (!(distance > 0)) {
+			return 0;
+		}
+		if (distance >= far) {
+			return MAX_DEPTH;
+		}
+		return (int)(distance / far * MAX_DEPTH);
+	}
+
+	public static boolean isTranslucent(long key) {
+		return (key & TRANSLUCENT) != 0;
+	}
+
+	public static int getShader(long key) {
+		return (int)(isTranslucent(key) ? key >>> 26 : key >>> 50) & SHADER_MASK;
+	}
+
+	public static int getTexture(long key) {
+		return (int)(isTranslucent(key) ? key >>> 14 : key >>> 38) & TEXTURE_MASK;
+	}
+
+	public static int getMaterial(long key) {
+		return (int)(isTranslucent(key) ? key : key >>> 24) & MATERIAL_MASK;
+	}
+
+	public static int getDepth(long key) {
+		return isTranslucent(key) ? MAX_DEPTH - ((int)(key >>> 38) & MAX_DEPTH) : (int)key & MAX_DEPTH;
+	}
+	/******************************************/
+
+	/*************** QUEUE ***************/
+	public void clear() {
+		count = 0;
+	}
+
+	// item is whatever the caller wants back, e.g. a batch index
+	public void add(long key, int item) {
+		if (count == keys.length) {
+			keys = Arrays.copyOf(keys, count * 2);
+			items = Arrays.copyOf(items, count * 2);
+		}
+		keys[count] = key;
+		items[count++] = item;
+	}
+
+	/*
+	 * Sort by key, smallest first.  Stable, so draws with equal keys keep
+	 * 	the order they were added in.
+	 */
+	public void sort() {
+		if (count < 2) {
+			return;
+		}
+		if (sorted_keys.length < count) {
+			sorted_keys = new long[keys.length];
+			sorted_items = new int[keys.length];
+		}
+
+		// Every byte's histogram in one pass over the keys
+		Arrays.fill(histograms, 0);
+		for (int i = 0; i < count; i++) {
+			long key = keys[i];
+			for (int pass = 0; pass < PASSES; pass++) {
+				histograms[pass * RADIX + (int)((key >>> (pass * 8)) & 0xFF)]++;
+			}
+		}
+
+		long[] from_keys = keys, to_keys = sorted_keys;
+		int[] from_items = items, to_items = sorted_items;
+		for (int pass = 0; pass < PASSES; pass++) {
+			int base = pass * RADIX;
+			int shift = pass * 8;
+			// All in one bucket: this byte doesn't change the order
+			if (histograms[base + (int)((from_keys[0] >>> shift) & 0xFF)] == count) {
+				continue;
+			}
+			int offset = 0;
+			for (int b = 0; b < RADIX; b++) {
+				int bucket = histograms[base + b];
+				histograms[base + b] = offset;
+				offset += bucket;
+			}
+			for (int i = 0; i < count; i++) {
+				long key = from_keys[i];
+				int slot = histograms[base + (int)((key >>> shift) & 0xFF)]++;
+				to_keys[slot] = key;
+				to_items[slot] = from_items[i];
+			}
+			long[] swap_keys = from_keys;
+			from_keys = to_keys;
+			to_keys = swap_keys;
+			int[] swap_items = from_items;
+			from_items = to_items;
+			to_items = swap_items;
+		}
+		// Whichever arrays ended up holding the result become the queue
+		keys = from_keys;
+		items = from_items;
+		sorted_keys = to_keys;
+		sorted_items = to_items;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getKey(int index) {
+		return keys[index];
+	}
+
+	public int getItem(int index) {
+		return items[index];
+	}
+	/******************************************/
+}
@@ -47,6 +47,10 @@ public class FixedRenderer extends RendererInterface {
 	
 	private Canvas display_parent;
 
+	// Filled from the render snapshot for each entity drawn
+	private final float[] draw_matrix = new float[16];
+	private final Vector3f draw_scale = new Vector3f();
+
 	public FixedRenderer(EntityList objectList) {
 		this(objectList, null);
 	}
@@ -80,10 +84,18 @@ public class FixedRenderer extends RendererInterface {
 
 		// Draw the 3d stuff
 		// Have to change keySet into array so that a clone will be made
-		for (Entity ent : objectList.getEntities()){
-			Boolean should_draw = (Boolean)ent.getProperty(Entity.SHOULD_DRAW);
-			if(should_draw)
-				ent.drawFixedPipe();
+		RenderSnapshot snapshot = (snapshots != null) ? snapshots.acquire() : null;
+		if (snapshot == null || snapshot.isEmpty()) {
+			for (Entity ent : objectList.getEntities()){
+				if(ent.shouldDraw())
+					ent.drawFixedPipe();
+			}
+		} else {
+			float alpha = snapshots.isInterpolating() ? snapshot.getAlpha(System.nanoTime()) : 1f;
+			for (int i = 0; i < snapshot.getCount(); i++) {
+				snapshot.getInterpolatedMatrix(i, alpha, draw_matrix);
+				snapshot.getEntity(i).drawFixedPipe(draw_matrix, snapshot.getScale(i, draw_scale));
+			}
 		}
 
 		// Draw the window manager stuff
@@ -0,0 +1,98 @@
+/*
+ * The six planes of what a camera can see, pulled straight out of its view
+ * 	projection matrix (Gribb and Hartmann): each plane is the last row of
+ * 	the matrix plus or minus one of the others.  Normals point inward, so a
+ * 	point is inside when it's in front of all six.
+ *
+ * 	Boxes are tested against the planes with their nearest and farthest
+ * 	corners, which is conservative: a box near a frustum corner can be kept
+ * 	when it's really just outside, but nothing visible is ever dropped.
+ */
+package engine.render;
+
+public class Frustum {
+	public static final int LEFT = 0, RIGHT = 1, BOTTOM = 2, TOP = 3, NEAR = 4, FAR = 5;
+	public static final int PLANES = 6;
+	// classify() results: which planes the box still straddles, or OUTSIDE
+	public static final int ALL_PLANES = (1 << PLANES) - 1;
+	public static final int INSIDE = 0;
+	public static final int OUTSIDE = -1;
+
+	// a b c d per plane, normalized so d is a distance
+	private final float[] planes = new float[PLANES * 4];
+
+	/*
+	 * From a column major view projection (projection * modelview), as
+	 * 	TransformationMatrices builds it.
+	 */
+	public void set(float[] m) {
+		// Row r of a column major matrix is m[r], m[4 + r], m[8 + r], m[12 + r]
+		for (int p = 0; p < PLANES; p++) {
+			int row = p / 2;
+			float sign = (p % 2 == 0) ? 1f : -1f;
+			float a = m[3] + sign * m[row];
+			float b = m[7] + sign * m[4 + row];
+			float c = m[11] + sign * m[8 + row];
+			float d = m[15] + sign * m[12 + row];
+			float length = (float)Math.sqrt(a * a + b * b + c * c);
+			if (length > 0) {
+				a /= length;
+				b /= length;
+				c /= length;
+				d /= length;
+			}
+			planes[p * 4] = a;
+			planes[p * 4 + 1] = b;
+			planes[p * 4 + 2] = c;
+			planes[p * 4 + 3] = d;
+		}
+	}
+
+	/*
+	 * Test a box against the planes in mask (a bit per plane, ALL_PLANES to
+	 * 	start with).  Returns OUTSIDE, or the planes the box crosses; INSIDE
+	 * 	(0) when it's inside all of them.  Pass the result down to the boxes
+	 * 	inside this one, since they can't cross a plane it didn't.
+	 */
+	public int classify(float[] bounds, int offset, int mask) {
+		float min_x = bounds[offset], min_y = bounds[offset + 1], min_z = bounds[offset + 2];
+		float max_x = bounds[offset + 3], max_y = bounds[offset + 4], max_z = bounds[offset + 5];
+		int crossing = 0;
+		for (int p = 0; p < PLANES; p++) {
+			int bit = 1 << p;
+			if ((mask & bit) == 0) {
+				continue;
+			}
+			float a = planes[p * 4], b = planes[p * 4 + 1], c = planes[p * 4 + 2], d = planes[p * 4 + 3];
+			// The corner furthest along the normal; if that's behind, all of it is
+			float far = a * (a > 0 ? max_x : min_x) + b * (b > 0 ? max_y : min_y) + c * (c > 0 ? max_z : min_z) + d;
+			if (far < 0) {
+				return OUTSIDE;
+			}
+			float near = a * (a > 0 ? min_x : max_x) + b * (b > 0 ? min_y : max_y) + c * (c > 0 ? min_z : max_z) + d;
+			if (near < 0) {
+				crossing |= bit;
+			}
+		}
+		return crossing;
+	}
+
+	// min x y z, max x y z
+	public boolean intersects(float[] bounds, int offset) {
+		return classify(bounds, offset, ALL_PLANES) != OUTSIDE;
+	}
+
+	public boolean contains(float x, float y, float z) {
+		for (int p = 0; p < PLANES; p++) {
+			if (planes[p * 4] * x + planes[p * 4 + 1] * y + planes[p * 4 + 2] * z + planes[p * 4 + 3] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// a b c d of one plane, inward facing
+	public float getPlane(int plane, int component) {
+		return planes[plane * 4 + component];
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Works out which of a snapshot's entities the camera can see, so the
+ * 	renderer only batches and draws those.
+ *
+ * 	Every entity with bounds has a leaf in an AABBTree holding its world
+ * 	space box.  The tree is brought up to date from each new snapshot (one
+ * 	per physics tick); most things haven't left their leaf's margin, so
+ * 	most ticks change little of it.  Culling is then a walk down the tree
+ * 	against the camera's frustum, skipping whole branches that are out of
+ * 	view and not testing branches that are entirely in it.
+ *
+ * 	Models that haven't been measured yet (no verify(), so no bounds) can't
+ * 	be culled and are always visible.
+ *
+ * 	Everything runs on the render thread; no GL calls.
+ */
+package engine.render;
+
+import java.util.Arrays;
+
+import javax.vecmath.Vector3f;
+
+import engine.entity.Entity;
+
+public class FrustumCuller {
+	// How far past its box a leaf reaches, so small moves don't touch the tree
+	public static final float DEFAULT_MARGIN = 0.5f;
+
+	/*
+	 * Basically just a struct of what happened in one update and cull
+	 */
+	public static class Stats {
+		public int entities;
+		public int visible;
+		public int culled;
+		public int unbounded;			// no bounds yet, always drawn
+		public int moved;				// leaves reinserted by the last update
+		public int tree_nodes;
+		public int tree_height;
+		public long update_nanos;		// last time the tree was updated
+		public long cull_nanos;
+
+		public String toString() {
+			return String.format(
+				"%d entities: %d visible, %d culled, %d unbounded; update %.3fms (%d moved), cull %.3fms; tree %d nodes, height %d",
+				entities, visible, culled, unbounded, update_nanos / 1e6, moved, cull_nanos / 1e6, tree_nodes, tree_height
+			);
+		}
+	}
+
+	private final AABBTree tree;
+	private final Frustum frustum = new Frustum();
+
+	// By entity id: its leaf (or AABBTree.NULL), the update it was last in, and where it is in the snapshot
+	private int[] leaf_of = new int[0];
+	private long[] seen = new long[0];
+	private int[] index_of = new int[0];
+	// Entity ids that have a leaf
+	private int[] tracked = new int[64];
+	private int tracked_count;
+	// Snapshot indices without bounds
+	private int[] unbounded = new int[16];
+	private int unbounded_count;
+
+	private RenderSnapshot snapshot;
+	private long sequence = 0;
+	private long updates = 0;
+	private int moved;
+	private long update_nanos;
+
+	private int[] found = new int[64];
+	private int[] visible = new int[64];
+	private int visible_count;
+
+	private final float[] matrix = new float[16];
+	private final float[] previous = new float[16];
+	private final float[] box = new float[6];
+	private final Vector3f scale = new Vector3f();
+
+	// Filled alternately so a cull doesn't write over what getStats() just gave out
+	private final Stats[] stats_buffers = {new Stats(), new Stats()};
+	private volatile Stats stats = stats_buffers[0];
+
+	public FrustumCuller() {
+		this(DEFAULT_MARGIN);
+	}
+
+	public FrustumCuller(float margin) {
+		tree = new AABBTree(margin);
+	}
+
+	/*************** UPDATE ***************/
+	/*
+	 * Bring the tree up to date with snapshot.  Does nothing if it's the
+	 * 	snapshot it was last updated from, so it's fine to call every frame.
+	 */
+	public void update(RenderSnapshot snapshot) {
+		if (snapshot == this.snapshot && snapshot.getSequence() == sequence) {
+			return;
+		}
+		long start = System.nanoTime();
+		this.snapshot = snapshot;
+		sequence = snapshot.getSequence();
+		updates++;
+		moved = 0;
+		unbounded_count = 0;
+
+		for (int i = 0; i < snapshot.getCount(); i++) {
+			Entity ent = snapshot.getEntity(i);
+			int id = ent.getId();
+			if (id >= leaf_of.length) {
+				grow(id + 1);
+			}
+			index_of[id] = i;
+			seen[id] = updates;
+
+			if (!worldBounds(snapshot, i, ent.getModel())) {
+				if (leaf_of[id] != AABBTree.NULL) {
+					// Stays tracked until the sweep below, which removes it
+					seen[id] = 0;
+				}
+				if (unbounded_count == unbounded.length) {
+					unbounded = Arrays.copyOf(unbounded, unbounded.length * 2);
+				}
+				unbounded[unbounded_count++] = i;
+			} else if (leaf_of[id] == AABBTree.NULL) {
+				leaf_of[id] = tree.insert(box, 0, id);
+				if (tracked_count == tracked.length) {
+					tracked = Arrays.copyOf(tracked, tracked.length * 2);
+				}
+				tracked[tracked_count++] = id;
+				moved++;
+			} else if (tree.move(leaf_of[id], box, 0)) {
+				moved++;
+			}
+		}
+
+		// Anything that wasn't in this snapshot (removed, or hidden) loses its leaf
+		int kept = 0;
+		for (int t = 0; t < tracked_count; t++) {
+			int id = tracked[t];
+			if (seen[id] == updates) {
+				tracked[kept++] = id;
+			} else {
+				tree.remove(leaf_of[id]);
+				leaf_of[id] = AABBTree.NULL;
+			}
+		}
+		tracked_count = kept;
+		update_nanos = System.nanoTime() - start;
+	}
+
+	/*
+	 * Entity i's world box into box: the model's bounds scaled, rotated and
+	 * 	moved by this tick's matrix, stretched back to where it was last
+	 * 	tick so the interpolated draw in between is covered too.  False if
+	 * 	there aren't any bounds.
+	 */
+	private boolean worldBounds(RenderSnapshot snapshot, int i, Model model) {
+		if (model == null) {
+			return false;
+		}
+		Vector3f min = model.getMinimums();
+		Vector3f max = model.getMaximums();
+		if (min.x == max.x && min.y == max.y && min.z == max.z) {
+			return false;
+		}
+		snapshot.getMatrix(i, matrix);
+		snapshot.getPreviousMatrix(i, previous);
+		snapshot.getScale(i, scale);
+
+		// Scaled like the vertex shader does, before the transform
+		float cx = (min.x + max.x) * 0.5f * scale.x;
+		float cy = (min.y + max.y) * 0.5f * scale.y;
+		float cz = (min.z + max.z) * 0.5f * scale.z;
+		float ex = (max.x - min.x) * 0.5f * Math.abs(scale.x);
+		float ey = (max.y - min.y) * 0.5f * Math.abs(scale.y);
+		float ez = (max.z - min.z) * 0.5f * Math.abs(scale.z);
+
+		float[] m = matrix;
+		float wx = m[0] * cx + m[4] * cy + m[8] * cz + m[12];
+		float wy = m[1] * cx + m[5] * cy + m[9] * cz + m[13];
+		float wz = m[2] * cx + m[6] * cy + m[10] * cz + m[14];
+		// Half size of the rotated box's box
+		float hx = Math.abs(m[0]) * ex + Math.abs(m[4]) * ey + Math.abs(m[8]) * ez;
+		float hy = Math.abs(m[1]) * ex + Math.abs(m[5]) * ey + Math.abs(m[9]) * ez;
+		float hz = Math.abs(m[2]) * ex + Math.abs(m[6]) * ey + Math.abs(m[10]) * ez;
+
+		float dx = previous[12] - m[12];
+		float dy = previous[13] - m[13];
+		float dz = previous[14] - m[14];
+		box[0] = wx - hx + Math.min(0, dx);
+		box[1] = wy - hy + Math.min(0, dy);
+		box[2] = wz - hz + Math.min(0, dz);
+		box[3] = wx + hx + Math.max(0, dx);
+		box[4] = wy + hy + Math.max(0, dy);
+		box[5] = wz + hz + Math.max(0, dz);
+		return true;
+	}
+
+	private void grow(int ids) {
+		int size = Math.max(ids, Math.max(64, leaf_of.length * 2));
+		int old = leaf_of.length;
+		leaf_of = Arrays.copyOf(leaf_of, size);
+		Arrays.fill(leaf_of, old, size, AABBTree.NULL);
+		seen = Arrays.copyOf(seen, size);
+		index_of = Arrays.copyOf(index_of, size);
+	}
+	/******************************************/
+
+	/*************** CULLING ***************/
+	/*
+	 * Which of the last updated snapshot's entries are in view of a camera
+	 * 	with this view projection (column major, see Camera).  Returns how
+	 * 	many; getVisible() has their snapshot indices.
+	 */
+	public int cull(float[] view_projection) {
+		long start = System.nanoTime();
+		frustum.set(view_projection);
+		int tracked_leaves = tree.getLeafCount();
+		if (found.length < tracked_leaves) {
+			found = new int[Math.max(tracked_leaves, found.length * 2)];
+		}
+		int needed = tracked_leaves + unbounded_count;
+		if (visible.length < needed) {
+			visible = new int[Math.max(needed, visible.length * 2)];
+		}
+
+		int count = tree.query(frustum, found);
+		for (int f = 0; f < count; f++) {
+			visible[f] = index_of[found[f]];
+		}
+		System.arraycopy(unbounded, 0, visible, count, unbounded_count);
+		visible_count = count + unbounded_count;
+
+		Stats frame_stats = (stats == stats_buffers[0]) ? stats_buffers[1] : stats_buffers[0];
+		frame_stats.entities = (snapshot == null) ? 0 : snapshot.getCount();
+		frame_stats.visible = visible_count;
+		frame_stats.culled = frame_stats.entities - visible_count;
+		frame_stats.unbounded = unbounded_count;
+		frame_stats.moved = moved;
+		frame_stats.tree_nodes = tree.getNodeCount();
+		frame_stats.tree_height = tree.getHeight();
+		frame_stats.update_nanos = update_nanos;
+		frame_stats.cull_nanos = System.nanoTime() - start;
+		stats = frame_stats;
+		return visible_count;
+	}
+
+	// Snapshot indices, in no particular order
+	public int[] getVisible() {
+		return visible;
+	}
+
+	public int getVisibleCount() {
+		return visible_count;
+	}
+
+	public Frustum getFrustum() {
+		return frustum;
+	}
+
+	public AABBTree getTree() {
+		return tree;
+	}
+
+	// Stats from the most recent cull; don't modify.  Only good until the
+	// cull after next, the two get reused
+	public Stats getStats() {
+		return stats;
+	}
+	/******************************************/
+}
@@ -0,0 +1,58 @@
+package engine.render;
+
+import java.nio.IntBuffer;
+
+import org.lwjgl.opengl.ARBUniformBufferObject;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GLContext;
+
+// ProgramQueries straight to the current GL context
+public class GLProgramQueries implements ProgramQueries {
+	@Override
+	public int getProgrami(int program, int parameter) {
+		return GL20.glGetProgrami(program, parameter);
+	}
+
+	@Override
+	public String getProgramInfoLog(int program, int max_length) {
+		return GL20.glGetProgramInfoLog(program, max_length);
+	}
+
+	@Override
+	public String getActiveAttrib(int program, int index, int max_length, IntBuffer size_type) {
+		return GL20.glGetActiveAttrib(program, index, max_length, size_type);
+	}
+
+	@Override
+	public int getAttribLocation(int program, String name) {
+		return GL20.glGetAttribLocation(program, name);
+	}
+
+	@Override
+	public String getActiveUniform(int program, int index, int max_length, IntBuffer size_type) {
+		return GL20.glGetActiveUniform(program, index, max_length, size_type);
+	}
+
+	@Override
+	public int getUniformLocation(int program, String name) {
+		return GL20.glGetUniformLocation(program, name);
+	}
+
+	@Override
+	public int getActiveUniformBlocks(int program) {
+		if (!GLContext.getCapabilities().GL_ARB_uniform_buffer_object) {
+			return 0;
+		}
+		return GL20.glGetProgrami(program, ARBUniformBufferObject.GL_ACTIVE_UNIFORM_BLOCKS);
+	}
+
+	@Override
+	public String getActiveUniformBlockName(int program, int index, int max_length) {
+		return ARBUniformBufferObject.glGetActiveUniformBlockName(program, index, max_length);
+	}
+
+	@Override
+	public int getActiveUniformBlocki(int program, int index, int parameter) {
+		return ARBUniformBufferObject.glGetActiveUniformBlocki(program, index, parameter);
+	}
+}
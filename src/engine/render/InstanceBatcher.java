@@ -0,0 +1,262 @@
+/*
+ * Sorts a frame's snapshot into batches of entities that can be drawn
+ * 	together: same geometry (VBO), shader and texture.  The material comes
+ * 	along with the geometry, since models only share it while their
+ * 	materials match (see Model.shareGeometry).
+ * 	Each batch's instances (world matrix and scale) end up next to each
+ * 	other in one array, ready to be streamed into an instance buffer, so
+ * 	the renderer binds and draws once per batch instead of once per entity.
+ *
+ * 	Translucent entities each get a batch of their own, since they have to
+ * 	be drawn back to front one at a time (see DrawQueue).
+ *
+ * 	No GL calls.  Nothing is allocated per frame once the arrays have grown
+ * 	to fit the scene.
+ */
+package engine.render;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import javax.vecmath.Vector3f;
+
+import org.lwjgl.BufferUtils;
+
+import engine.entity.Entity;
+import engine.render.model_pieces.Texture;
+
+public class InstanceBatcher {
+	// Column major world matrix, then the scale (x y z 1)
+	public static final int INSTANCE_FLOATS = 20;
+	public static final int INSTANCE_STRIDE = INSTANCE_FLOATS * 4;
+	public static final int SCALE_OFFSET = 16;
+
+	public static class Batch {
+		private Model geometry;
+		private Shader shader;
+		private Texture texture;
+		private int hash;
+		private boolean translucent;
+		// The first entity in it; its model has everything the batch shares
+		private Entity entity;
+		private int first, count, written;
+
+		public Model getGeometry() {
+			return geometry;
+		}
+
+		public Shader getShader() {
+			return shader;
+		}
+
+		public Texture getTexture() {
+			return texture;
+		}
+
+		public Entity getEntity() {
+			return entity;
+		}
+
+		// Where its instances start in getInstances(), in instances
+		public int getFirst() {
+			return first;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		// A single translucent entity
+		public boolean isTranslucent() {
+			return translucent;
+		}
+	}
+
+	private Batch[] batches = new Batch[16];
+	private int batch_count;
+	// Open addressing on the batch key, holding batch + 1
+	private int[] table = new int[32];
+	// Which batch each entry built went in, -1 for none
+	private int[] batch_of = new int[64];
+	// Entries with a model but no shader, for the caller to draw on their own
+	private int[] unbatched = new int[16];
+	private int unbatched_count;
+
+	private float[] instances = new float[64 * INSTANCE_FLOATS];
+	private int instance_count;
+	private FloatBuffer instance_buffer = BufferUtils.createFloatBuffer(64 * INSTANCE_FLOATS);
+	private final float[] matrix = new float[16];
+	private final Vector3f scale = new Vector3f();
+
+	/*************** BUILDING ***************/
+	/*
+	 * Two passes: find every entry's batch and count them, then give each
+	 * 	batch its range and write the interpolated instances into it.
+	 */
+	public void build(RenderSnapshot snapshot, float alpha) {
+		build(snapshot, alpha, null, snapshot.getCount());
+	}
+
+	// Only the snapshot entries listed in indices, e.g. what FrustumCuller found visible
+	public void build(RenderSnapshot snapshot, float alpha, int[] indices, int count) {
+		for (int b = 0; b < batch_count; b++) {
+			batches[b].entity = null;
+		}
+		Arrays.fill(table, 0);
+		batch_count = 0;
+		unbatched_count = 0;
+
+		if (count > batch_of.length) {
+			batch_of = new int[Math.max(count, batch_of.length * 2)];
+		}
+		for (int n = 0; n < count; n++) {
+			int i = (indices == null) ? n : indices[n];
+			batch_of[n] = assign(snapshot.getEntity(i), i);
+		}
+
+		int total = 0;
+		for (int b = 0; b < batch_count; b++) {
+			batches[b].first = total;
+			batches[b].written = 0;
+			total += batches[b].count;
+		}
+		instance_count = total;
+		if (total * INSTANCE_FLOATS > instances.length) {
+			instances = new float[Math.max(total, instances.length / INSTANCE_FLOATS * 2) * INSTANCE_FLOATS];
+		}
+
+		for (int n = 0; n < count; n++) {
+			if (batch_of[n] < 0) {
+				continue;
+			}
+			int i = (indices == null) ? n : indices[n];
+			Batch batch = batches[batch_of[n]];
+			int offset = (batch.first + batch.written++) * INSTANCE_FLOATS;
+			snapshot.getInterpolatedMatrix(i, alpha, matrix);
+			System.arraycopy(matrix, 0, instances, offset, 16);
+			snapshot.getScale(i, scale);
+			instances[offset + SCALE_OFFSET] = scale.x;
+			instances[offset + SCALE_OFFSET + 1] = scale.y;
+			instances[offset + SCALE_OFFSET + 2] = scale.z;
+			instances[offset + SCALE_OFFSET + 3] = 1f;
+		}
+
+		if (instance_buffer.capacity() < instances.length) {
+			instance_buffer = BufferUtils.createFloatBuffer(instances.length);
+		}
+		instance_buffer.clear();
+		instance_buffer.put(instances, 0, total * INSTANCE_FLOATS);
+		instance_buffer.flip();
+	}
+
+	// Which batch the entry goes in, or -1
+	private int assign(Entity ent, int index) {
+		Model model = ent.getModel();
+		if (model == null) {
+			return -1;
+		}
+		Shader shader = (ent.getShader() != null) ? ent.getShader() : model.getShader();
+		if (shader == null) {
+			if (unbatched_count == unbatched.length) {
+				unbatched = Arrays.copyOf(unbatched, unbatched.length * 2);
+			}
+			unbatched[unbatched_count++] = index;
+			return -1;
+		}
+		Model geometry = model.getGeometry();
+		Texture texture = model.getTexture();
+		if (model.isTranslucent()) {
+			return add(ent, geometry, shader, texture, 0, true);
+		}
+
+		int hash = System.identityHashCode(geometry);
+		hash = hash * 31 + System.identityHashCode(shader);
+		hash = hash * 31 + System.identityHashCode(texture);
+		hash ^= hash >>> 16;
+
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0) {
+			Batch batch = batches[table[slot] - 1];
+			if (batch.hash == hash && batch.geometry == geometry && batch.shader == shader
+				&& batch.texture == texture) {
+				batch.count++;
+				return table[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		table[slot] = add(ent, geometry, shader, texture, hash, false) + 1;
+		if (batch_count * 2 > table.length) {
+			rehash();
+		}
+		return batch_count - 1;
+	}
+
+	private int add(Entity ent, Model geometry, Shader shader, Texture texture, int hash, boolean translucent) {
+		if (batch_count == batches.length) {
+			batches = Arrays.copyOf(batches, batches.length * 2);
+		}
+		Batch batch = batches[batch_count];
+		if (batch == null) {
+			batch = batches[batch_count] = new Batch();
+		}
+		batch.geometry = geometry;
+		batch.shader = shader;
+		batch.texture = texture;
+		batch.hash = hash;
+		batch.translucent = translucent;
+		batch.entity = ent;
+		batch.count = 1;
+		return batch_count++;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+		for (int b = 0; b < batch_count; b++) {
+			if (batches[b].translucent) {
+				continue;
+			}
+			int slot = batches[b].hash & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = b + 1;
+		}
+	}
+	/******************************************/
+
+	/*************** RESULTS ***************/
+	public int getBatchCount() {
+		return batch_count;
+	}
+
+	public Batch getBatch(int index) {
+		return batches[index];
+	}
+
+	public int getUnbatchedCount() {
+		return unbatched_count;
+	}
+
+	// Snapshot index of an entry that has to be drawn on its own
+	public int getUnbatched(int index) {
+		return unbatched[index];
+	}
+
+	public int getInstanceCount() {
+		return instance_count;
+	}
+
+	// INSTANCE_FLOATS per instance, batch by batch
+	public float[] getInstances() {
+		return instances;
+	}
+
+	// The same, flipped and ready to upload
+	public FloatBuffer getInstanceBuffer() {
+		return instance_buffer;
+	}
+	/******************************************/
+}
@@ -2,21 +2,31 @@
 package engine.render;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 
 import java.util.ArrayList;
 
 import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
 
 import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ARBDrawInstanced;
+import org.lwjgl.opengl.ARBInstancedArrays;
 import org.lwjgl.opengl.ARBVertexBufferObject;
+import org.lwjgl.opengl.ContextCapabilities;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL12;
 import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GLContext;
 
 import com.bulletphysics.collision.dispatch.CollisionObject;
 import com.bulletphysics.collision.shapes.BoxShape;
@@ -30,20 +40,45 @@ import engine.importing.FileLoader;
 
 import engine.render.model_pieces.Face;
 import engine.render.model_pieces.Mesh;
+import engine.render.model_pieces.PackedMesh;
 import engine.render.model_pieces.Texture;
-import engine.resource.Resource;
+import engine.render.model_pieces.VertexPacker;
+import engine.render.ubos.Material;
+import engine.resource.AsyncResource;
+import engine.resource.DerivedDataCache;
+import engine.resource.EvictableResource;
 import engine.resource.ResourceManager;
+import engine.utils.Scratch;
 
-public class Model implements RenderObject, Resource {
+public class Model implements RenderObject, AsyncResource, EvictableResource {
 	private ArrayList<Mesh> meshes;
 	private volatile Vector3f max, min, center;
 	private boolean hasVBO = false;
 	private int modelVBOID;
 	private int modelVBOindexID;
-	private FloatBuffer vertex_buffer;
-	private IntBuffer index_buffer;
+	private ByteBuffer vertex_buffer;
+	private ByteBuffer index_buffer;
+	// How vertex_buffer and index_buffer are laid out, and what that saved
+	private VertexPacker packing;
+	private boolean compact_vertices = false;
+	// packBuffers() was already run (see prepareBuffers) and the geometry hasn't changed since
+	private boolean packed_ahead = false;
+	// Likewise verify(), so every entity using the model doesn't do it again
+	private boolean verified = false;
+	// What reduceHull() builds hulls from, null until it's found them (or the geometry changes)
+	private ObjectArrayList<Vector3f> hull_points;
+	// Lowest and highest index in index_buffer, for glDrawRangeElements
+	private int index_min, index_max;
+	// Another model whose VBO this one draws instead of uploading its own copy
+	private Model geometry_source;
+	private boolean shared_vbo = false;
+	// Geometry an importer packed itself; drawn along with any meshes
+	private PackedMesh packed;
+	// Bound instead of the material when the colours are in the vertices; see getDrawMaterial()
+	private Material white_material;
+	// The buffers, bounds and hull were loaded ready made (BakedModel); the meshes only carry materials
+	private boolean baked = false;
 	//private Integer pointIndex = 0;
-	private FloatBuffer buf;
 	private Shader shader;
 	private CollisionShape shape;
 	private int total_vertices=0;
@@ -79,6 +114,35 @@ public class Model implements RenderObject, Resource {
 		init();
 	}
 
+	/*
+	 * Already packed geometry.  The model still gets one (empty) mesh to
+	 * 	carry the material, since that's where everything looks for it.
+	 */
+	public Model(PackedMesh packed, Material material) {
+		meshes = new ArrayList<Mesh>();
+		Mesh mesh = new Mesh();
+		mesh.setMaterial(material);
+		meshes.add(mesh);
+		this.packed = packed;
+		init();
+	}
+
+	/*
+	 * Buffers packed ahead of time, usually mapped straight from a baked
+	 * 	file, which get uploaded as they are.  One empty mesh again, to carry
+	 * 	the material the whole model draws with.
+	 */
+	public Model(VertexPacker packing, Material material, Vector3f min, Vector3f max, ObjectArrayList<Vector3f> hull_points) {
+		meshes = new ArrayList<Mesh>();
+		Mesh mesh = new Mesh();
+		mesh.setMaterial(material);
+		meshes.add(mesh);
+		init();
+		adoptBaked(packing, min, max);
+		this.hull_points = hull_points;
+		this.shape = new ConvexHullShape(hull_points);
+	}
+
 	// Copy Constructor
 	public Model(Model model) {
 		init();
@@ -88,11 +152,34 @@ public class Model implements RenderObject, Resource {
 		}
 		//modelVBOID = model.getVBOID();
 		//modelVBOindexID = model.getVBOindexID();
+		this.packed = model.packed;
 		this.shape = model.getCollisionShape();
+		// The same geometry, so the same points to build hulls from
+		this.hull_points = model.hull_points;
 		this.shader = model.shader;
-		
-		if(meshes.get(0).getFace(0).getNormals().size() == 0)
+		this.geometry_source = model.geometry_source;
+		if (model.baked) {
+			// Buffers are never written to once packed, so they can be shared
+			adoptBaked(model.packing, model.min, model.max);
+		} else if(packed != null || (meshes.get(0).getFaceCount() > 0 && meshes.get(0).getFace(0).getNormals().size() == 0)) {
+			// Packed geometry already has normals, but still needs its bounds measured
 			verify();
+		}
+	}
+
+	private void adoptBaked(VertexPacker packing, Vector3f min, Vector3f max) {
+		this.packing = packing;
+		vertex_buffer = packing.getVertexBuffer();
+		index_buffer = packing.getIndexBuffer();
+		index_min = 0;
+		index_max = Math.max(0, packing.getVertexCount() - 1);
+		this.min = new Vector3f(min);
+		this.max = new Vector3f(max);
+		center = new Vector3f();
+		center.add(max, min);
+		center.scale(0.5f);
+		baked = true;
+		packed_ahead = true;
 	}
 
 	public void init() {
@@ -104,11 +191,43 @@ public class Model implements RenderObject, Resource {
 	/* Setters */
 	public void addMesh(Mesh m) {
 		meshes.add(m);
+		geometry_source = null;
+		packed_ahead = false;
+		verified = false;
+		hull_points = null;
 		//reduceHull();
 	}
 	
 	public void deleteMeshes() {
 		meshes.clear();
+		geometry_source = null;
+		packed_ahead = false;
+		verified = false;
+		hull_points = null;
+	}
+
+	/*
+	 * Draw source's VBO instead of packing and uploading these meshes again,
+	 * 	for lots of models with the same geometry (see Box).  Only while the
+	 * 	two have the same material, since the colour is in the vertices;
+	 * 	adding meshes stops it.
+	 */
+	public void shareGeometry(Model source) {
+		geometry_source = (source == this) ? null : source;
+	}
+
+	// The model whose VBO gets drawn; models with the same one can be batched
+	public Model getGeometry() {
+		return sharesGeometry() ? geometry_source : this;
+	}
+
+	private boolean sharesGeometry() {
+		if (geometry_source == null) {
+			return false;
+		}
+		Material material = getMaterial();
+		Material source_material = geometry_source.getMaterial();
+		return material == null ? source_material == null : material.sameAs(source_material);
 	}
 
 	/* Getters */
@@ -120,6 +239,15 @@ public class Model implements RenderObject, Resource {
 		return center;
 	}
 
+	// Corners of the box around the model in its own coordinates; zero until verify()
+	public Vector3f getMaximums() {
+		return max;
+	}
+
+	public Vector3f getMinimums() {
+		return min;
+	}
+
 	public ArrayList<Mesh> getMeshes() {
 		return this.meshes;
 	}
@@ -128,6 +256,15 @@ public class Model implements RenderObject, Resource {
 		return meshes.size();
 	}
 
+	// null unless an importer packed the geometry itself
+	public PackedMesh getPackedMesh() {
+		return packed;
+	}
+
+	public boolean isBaked() {
+		return baked;
+	}
+
 	public boolean getHasVBO() {
 		return hasVBO;
 	}
@@ -144,23 +281,22 @@ public class Model implements RenderObject, Resource {
 	private void rotateAndScaleImmediate(CollisionObject collision_object) {
 		// Retrieve the current motionstate to get the transform
 		// versus the world
-		Transform transform_matrix = new Transform();
-		
-		transform_matrix.set(collision_object.getWorldTransform(new Transform()));
+		Scratch scratch = Scratch.get();
+		Transform transform_matrix = collision_object.getWorldTransform(scratch.transform);
+		transform_matrix.getOpenGLMatrix(scratch.matrix);
+		rotateAndScaleImmediate(scratch.matrix, collision_object.getCollisionShape().getLocalScaling(scratch.vector_a));
+	}
 
+	private void rotateAndScaleImmediate(float[] body_matrix, Vector3f halfExtent) {
 		// Adjust the position and rotation of the object from physics
-		float[] body_matrix = new float[16];
-		buf = BufferUtils.createFloatBuffer(16);
-		
-		transform_matrix.getOpenGLMatrix(body_matrix);
+		FloatBuffer buf = Scratch.get().matrix_buffer;
+		buf.clear();
 		buf.put(body_matrix);
 		buf.flip();
 		GL11.glMultMatrix(buf);
 		buf.clear();
 
 		// Scaling code (testing)
-		Vector3f halfExtent = new Vector3f();
-		collision_object.getCollisionShape().getLocalScaling(halfExtent);
 		GL11.glScalef(
 			1.0f * halfExtent.x, 
 			1.0f * halfExtent.y,
@@ -172,6 +308,11 @@ public class Model implements RenderObject, Resource {
 	// This function will verify whether the file had normals defined
 	// and also check for shading groups and normalize if possible
 	public void verify() {
+		if (baked || verified) {
+			// Measured when it was baked (the normals are in the buffer), or since the last change
+			return;
+		}
+		verified = true;
 		ArrayList<Vector3f> maxes = new ArrayList<Vector3f>();
 		ArrayList<Vector3f> mins = new ArrayList<Vector3f>();
 
@@ -179,13 +320,26 @@ public class Model implements RenderObject, Resource {
 		// we also calculate normals since we're going through the
 		// whole list anyway
 		for (Mesh m : meshes) {
+			if (m.getFaceCount() == 0) {
+				// Nothing in it to measure; would drag the bounds to the origin
+				continue;
+			}
 			maxes.add(m.getMaximums());
 			mins.add(m.getMinimums());
 			m.calcNormals(true);
 		}
+		if (packed != null && packed.getVertexCount() > 0) {
+			maxes.add(packed.getMaximums());
+			mins.add(packed.getMinimums());
+		}
 
 		max = new Vector3f();
 		min = new Vector3f();
+		if (maxes.isEmpty()) {
+			// Nothing to draw (empty.xgl); leave it a point at the origin
+			center = new Vector3f();
+			return;
+		}
 
 		// create a vector for making a surrounding shape that
 		// matches the largest and smallest points exactly
@@ -278,6 +432,46 @@ public class Model implements RenderObject, Resource {
 		return meshes.get(0).getMaterial().getColor();
 	}
 
+	// The first mesh's, which is what the Material UBO gets; null with no meshes
+	public Material getMaterial() {
+		return meshes.isEmpty() ? null : meshes.get(0).getMaterial();
+	}
+
+	/*
+	 * What the Material UBO should get.  Once VertexPacker has put each
+	 * 	mesh's colour in its vertices the shaders multiply by that, so the
+	 * 	block is white then, with only the shininess and alpha of the first
+	 * 	mesh's; the first colour again would tint every mesh with it.
+	 */
+	public Material getDrawMaterial() {
+		Material material = getMaterial();
+		if (material == null || packing == null || !packing.hasVertexColors()) {
+			return material;
+		}
+		if (white_material == null) {
+			white_material = new Material(new Vector4f(1, 1, 1, 1), new Vector4f(1, 1, 1, 1), new Vector4f(1, 1, 1, 1),
+				material.getShininess(), material.getAlpha());
+		}
+		// The setters bump the UBO version, so only when they've changed
+		if (white_material.getShininess() != material.getShininess()) {
+			white_material.setShininess(material.getShininess());
+		}
+		if (white_material.getAlpha() != material.getAlpha()) {
+			white_material.setAlpha(material.getAlpha());
+		}
+		return white_material;
+	}
+
+	/*
+	 * Blended over what's behind it, so it has to be drawn after the opaque
+	 * 	things and back to front.  Alpha 0 is discarded by the shaders, so
+	 * 	that isn't.
+	 */
+	public boolean isTranslucent() {
+		Material material = getMaterial();
+		return material != null && material.getAlpha() > 0f && material.getAlpha() < 1f;
+	}
+
 	// *******************VBO METHODS**************************
 	public int createVBOID(int i) {
 		IntBuffer buffer = BufferUtils.createIntBuffer(i);
@@ -295,6 +489,26 @@ public class Model implements RenderObject, Resource {
 			ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, 0);
 	}
 
+	public void bufferData(int id, ByteBuffer buffer) {
+		ARBVertexBufferObject.glBindBufferARB(
+			ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, id);
+		ARBVertexBufferObject.glBufferDataARB(
+			ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, buffer,
+			ARBVertexBufferObject.GL_STATIC_DRAW_ARB);
+		ARBVertexBufferObject.glBindBufferARB(
+			ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, 0);
+	}
+
+	public void bufferElementData(int id, ByteBuffer buffer) {
+		ARBVertexBufferObject.glBindBufferARB(
+			ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB, id);
+		ARBVertexBufferObject.glBufferDataARB(
+			ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB, buffer,
+			ARBVertexBufferObject.GL_STATIC_DRAW_ARB);
+		ARBVertexBufferObject.glBindBufferARB(
+			ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB, 0);
+	}
+
 	public void bufferElementData(int id, IntBuffer buffer) {
 		ARBVertexBufferObject.glBindBufferARB(
 			ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB, id);
@@ -306,14 +520,33 @@ public class Model implements RenderObject, Resource {
 	}
 
 	public void createVBO() {
-		verify();
+		if (!packed_ahead) {
+			verify();
+		}
+		if (RenderMode.isHeadless()) {
+			// Nowhere to upload it to
+			return;
+		}
 		
-		// if we support VBOs we need to precompute the thing now
-		// that we have normals and the model is fully loaded
-		int num_faces_all_meshes = 0;
-		int num_vertices = 0;
-		int pointIndex = 0;
-		if (meshes.size() != 0) {
+		if (sharesGeometry()) {
+			if (hasVBO) {
+				destroyVBO();
+			}
+			Model source = geometry_source;
+			if (!source.hasVBO) {
+				source.createVBO();
+			}
+			modelVBOID = source.modelVBOID;
+			modelVBOindexID = source.modelVBOindexID;
+			packing = source.packing;
+			vertex_buffer = source.vertex_buffer;
+			index_buffer = source.index_buffer;
+			index_min = source.index_min;
+			index_max = source.index_max;
+			total_vertices = source.total_vertices;
+			shared_vbo = true;
+			hasVBO = true;
+		} else if (meshes.size() != 0 || packed != null) {
 			if (hasVBO) {
 				//System.out.println("DestroyingVBO: " + modelVBOID + ":" + modelVBOindexID);
 				destroyVBO();
@@ -322,33 +555,10 @@ public class Model implements RenderObject, Resource {
 			modelVBOindexID = createVBOID(1);
 			//System.out.println("CreatingVBO: " + modelVBOID + ":" + modelVBOindexID);
 			
-			for (Mesh m : meshes) {
-				num_faces_all_meshes += m.getFaceCount();
-				for(Face face: m.getFaces()) {
-					if(face.getVertexCount() > num_vertices) {
-						num_vertices = face.getVertexCount();
-					}
-				}
-			}
-			vertex_buffer = BufferUtils.createFloatBuffer(num_faces_all_meshes
-				* num_vertices * 12);
-			index_buffer = BufferUtils.createIntBuffer(num_faces_all_meshes
-				* num_vertices);
-			for (Mesh m : meshes) {
-				for (Face f : m.getFaces()) {
-					vertex_buffer.put(f.createFaceBufferVNTC(m));
-					index_buffer.put(f.createIndexBufferVNTC(pointIndex));
-					pointIndex += num_vertices;
-				}
+			if (!packed_ahead) {
+				packBuffers();
 			}
 
-			//System.out.println("NumVerts: " + index_buffer.limit() + ":" + vertex_buffer.limit());
-			
-			// NEVER FLIP AGAIN PAST THIS POINT UNLESS YOU'RE LOADING IN
-			// COMPLETELY NEW DATA
-			vertex_buffer.flip();
-			index_buffer.flip();
-
 			// Put data in allocated buffers
 			bufferData(modelVBOID, vertex_buffer);
 			bufferElementData(modelVBOindexID, index_buffer);
@@ -356,16 +566,76 @@ public class Model implements RenderObject, Resource {
 			// Set the notifier
 			hasVBO = true;
 			// buf = BufferUtils.createFloatBuffer(16);
-			total_vertices = getVertexCount();			
+			total_vertices = packing.getIndexCount();
 		} else {
 			System.out.println("WARNING: Tried to create VBO with no available meshes.");
 		}
 	}
+
+	/*
+	 * Fill vertex_buffer and index_buffer from the meshes, ready to upload.
+	 * 	No GL calls, so it can run (and be benchmarked) without a context.
+	 * 	See VertexPacker for the layout.
+	 */
+	public void packBuffers() {
+		if (baked) {
+			// Already packed, and the meshes have no faces to add
+			return;
+		}
+		VertexPacker packer = new VertexPacker(compact_vertices);
+		for (Mesh m : meshes) {
+			packer.addMesh(m);
+		}
+		if (packed != null) {
+			Material material = meshes.isEmpty() ? new Material() : meshes.get(0).getMaterial();
+			packer.addPackedMesh(packed, material);
+		}
+		packer.finish();
+
+		packing = packer;
+		vertex_buffer = packer.getVertexBuffer();
+		index_buffer = packer.getIndexBuffer();
+		index_min = 0;
+		index_max = Math.max(0, packer.getVertexCount() - 1);
+	}
+
+	/*
+	 * verify() and packBuffers() now, e.g. on a loading thread, so createVBO()
+	 * 	on the render thread only has to upload.  Holds until the geometry changes.
+	 */
+	public void prepareBuffers() {
+		verify();
+		packBuffers();
+		packed_ahead = true;
+	}
+
+	// Position, byte normal and texture coords only, colour set per draw; takes effect on the next createVBO
+	public void setCompactVertices(boolean compact) {
+		compact_vertices = compact;
+		packed_ahead = false;
+	}
+
+	// null until packBuffers(); vertex counts and bytes saved
+	public VertexPacker getPacking() {
+		return packing;
+	}
+
+	public ByteBuffer getVertexBuffer() {
+		return vertex_buffer;
+	}
+
+	public ByteBuffer getIndexBuffer() {
+		return index_buffer;
+	}
 	
 	public void drawFixedPipe(Entity ent) {
-		//get number of vertices in a face
-		int num_verts = meshes.get(0).getFace(0).getVertices().size();
-		
+		drawFixedPipe(ent, null, null);
+	}
+
+	// body_matrix/scale come from a RenderSnapshot; null means ask physics
+	public void drawFixedPipe(Entity ent, float[] body_matrix, Vector3f scale) {
+		int stride = packing.getStride();
+
 		//Non VBO drawing
 		/*
 		 * GL11.glPushMatrix();
@@ -379,13 +649,18 @@ public class Model implements RenderObject, Resource {
 		
 		// http://www.solariad.com/blog/8-posts/37-preparing-an-lwjgl-application-for-opengl-core-spec
 		GL11.glPushMatrix();
-		//TODO: Uncheck cast
-		rotateAndScaleImmediate((CollisionObject)ent.getProperty("collision_object"));
+		if(body_matrix != null) {
+			rotateAndScaleImmediate(body_matrix, scale);
+		} else {
+			rotateAndScaleImmediate(ent.getCollisionObject());
+		}
 	
 		GL11.glEnable(GL11.GL_VERTEX_ARRAY);
 		GL11.glEnable(GL11.GL_NORMAL_ARRAY);
 		GL11.glEnable(GL11.GL_TEXTURE_COORD_ARRAY);
-		GL11.glEnable(GL11.GL_COLOR_ARRAY);
+		if (packing.getColorOffset() != -1) {
+			GL11.glEnable(GL11.GL_COLOR_ARRAY);
+		}
 
 		// Bind the index of the object
 		ARBVertexBufferObject.glBindBufferARB(
@@ -397,24 +672,27 @@ public class Model implements RenderObject, Resource {
 		// vertices
 		int offset = 0 * 4; // 0 as its the first in the chunk, i.e. no offset.
 							// * 4 to convert to bytes.
-		GL11.glVertexPointer(num_verts, GL11.GL_FLOAT, Face.VERTEX_STRIDE, offset);
+		GL11.glVertexPointer(3, GL11.GL_FLOAT, stride, offset);
 
 		// normals
-		offset = 3 * 4; // 3 components is the initial offset from 0, then
-						// convert to bytes
-		GL11.glNormalPointer(GL11.GL_FLOAT, Face.VERTEX_STRIDE, offset);
+		offset = VertexPacker.NORMAL_OFFSET;
+		GL11.glNormalPointer(packing.getNormalType(), stride, offset);
 
 		// texture coordinates
-		offset = (3 + 3) * 4;
-		GL11.glTexCoordPointer(2, GL11.GL_FLOAT, Face.VERTEX_STRIDE, offset);
+		offset = packing.getTextureOffset();
+		GL11.glTexCoordPointer(2, GL11.GL_FLOAT, stride, offset);
 
-		// colors
-		offset = (3 + 3 + 2) * 4; // (6*4) is the number of byte to skip to get
-									// to the colour chunk
-		GL11.glColorPointer(4, GL11.GL_FLOAT, Face.VERTEX_STRIDE, offset);
+		// colors, or one colour for the whole draw if they weren't packed
+		offset = packing.getColorOffset();
+		if (offset != -1) {
+			GL11.glColorPointer(4, GL11.GL_FLOAT, stride, offset);
+		} else {
+			float[] color = packing.getColor();
+			GL11.glColor4f(color[0], color[1], color[2], color[3]);
+		}
 
-		int first = index_buffer.get(0);
-		int last = index_buffer.get(index_buffer.limit() - 1);
+		int first = index_min;
+		int last = index_max;
 
 		/*
 		//Use this call instead of the one below if the one below isn't working
@@ -425,7 +703,7 @@ public class Model implements RenderObject, Resource {
 			index_buffer
 		);
 		*/
-		GL12.glDrawRangeElements(GL11.GL_TRIANGLES, first, last, total_vertices, GL11.GL_UNSIGNED_INT, 0);
+		GL12.glDrawRangeElements(GL11.GL_TRIANGLES, first, last, total_vertices, packing.getIndexType(), 0);
 
 		GL11.glDisable(GL11.GL_VERTEX_ARRAY);
 		GL11.glDisable(GL11.GL_NORMAL_ARRAY);
@@ -436,131 +714,211 @@ public class Model implements RenderObject, Resource {
 	}
 
 	public void drawProgrammablePipe(Entity ent, Shader shader) {
-		//get number of vertices in a face
-		int num_verts = meshes.get(0).getFace(0).getVertices().size();
-		
+		drawProgrammablePipe(ent, shader, null, null);
+	}
+
+	// body_matrix/scale come from a RenderSnapshot; null means ask physics
+	public void drawProgrammablePipe(Entity ent, Shader shader, float[] body_matrix, Vector3f scale) {
 		if(shader == null) {
 			shader = this.shader;
 		}
 		if(shader != null) {
-			int vertex = GL20.glGetAttribLocation(
-				shader.getShaderID(),
-				new String("vertex")
-			);
-			int normal = GL20.glGetAttribLocation(
-				shader.getShaderID(),
-				new String("normal")
-			);
-			int texture = GL20.glGetAttribLocation(
-				shader.getShaderID(),
-				new String("texture")
-			);	
-			int color = GL20.glGetAttribLocation(
-				shader.getShaderID(),
-				new String("color")
-			);
-			
-			GL20.glEnableVertexAttribArray(vertex);
-			GL20.glEnableVertexAttribArray(normal);
-			GL20.glEnableVertexAttribArray(texture);
-			if(color != -1 ) GL20.glEnableVertexAttribArray(color);
-	
-			// Bind the index of the object
-			ARBVertexBufferObject.glBindBufferARB(
-				ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, modelVBOID);
-	
-			ARBVertexBufferObject.glBindBufferARB(
-				ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB, modelVBOindexID);
-	
-			// vertices
-			long offset = 0 * 4; // 0 as its the first in the chunk, i.e. no offset.
-								// * 4 to convert to bytes.
-			GL20.glVertexAttribPointer(
-				vertex, 
-				3,
-				GL11.GL_FLOAT,
-				false,
-				Face.VERTEX_STRIDE, 
-				offset
-			);
-	
-			// normals
-			offset = 3 * 4; // 3 components is the initial offset from 0, then
-							// convert to bytes
-			GL20.glVertexAttribPointer(
-				normal, 
-				3,
-				GL11.GL_FLOAT,
-				false,
-				Face.VERTEX_STRIDE, 
-				offset
-			);
-	
-			// texture coordinates
-			offset = (3 + 3) * 4;
-			GL20.glVertexAttribPointer(
-				texture, 
-				2,
-				GL11.GL_FLOAT,
-				false,
-				Face.VERTEX_STRIDE, 
-				offset
-			);
-	
-			// colors
-			if(color != -1 ) {
-				offset = (3 + 3 + 2) * 4; // (6*4) skip to color bytes
-				GL20.glVertexAttribPointer(
-					color, 
-					4,
-					GL11.GL_FLOAT,
-					false,
-					Face.VERTEX_STRIDE, 
-					offset		
-				);
-			}	
+			bindAttributes(shader);
 
-			int first = index_buffer.get(0);
-			int last = index_buffer.get(index_buffer.limit() - 1);
-	
-			shader.startShader(modelVBOID, ent);
+			if(body_matrix != null)
+				shader.startShader(modelVBOID, ent, body_matrix, scale);
+			else
+				shader.startShader(modelVBOID, ent);
 				if(opengl_tex != null)
 					opengl_tex.draw(shader);
-				
-				//check for wireframe rendering
-				if(wire_frame ) {
-					GL12.glDrawRangeElements(GL11.GL_LINES, first, last, total_vertices, GL11.GL_UNSIGNED_INT, 0);
-				} else {
-					if(num_verts == 3) 
-						GL12.glDrawRangeElements(GL11.GL_TRIANGLES, first, last, total_vertices, GL11.GL_UNSIGNED_INT, 0);
-					else if(num_verts == 4)
-						GL12.glDrawRangeElements(GL11.GL_QUADS, first, last, total_vertices, GL11.GL_UNSIGNED_INT, 0);
-				}
+
+				drawElements();
 				if(opengl_tex != null)
 					opengl_tex.unbind();
 			shader.stopShader();
-		
-			ARBVertexBufferObject.glBindBufferARB(
-				ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, 0);
-			ARBVertexBufferObject.glBindBufferARB(
-				ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB, 0);
-			
-			if(color != -1 ) GL20.glDisableVertexAttribArray(color);
-			GL20.glDisableVertexAttribArray(texture);
-			GL20.glDisableVertexAttribArray(normal);
-			GL20.glDisableVertexAttribArray(vertex);
-			
-			//if there is an error
-			if(GL20.glGetProgrami(shader.getShaderID(), GL20.GL_LINK_STATUS)!=GL11.GL_TRUE) {
-				//find out how large it is and print
-				int maxLength = GL20.glGetProgrami(shader.getShaderID(), GL20.GL_LINK_STATUS) + 1;
-				System.out.println("length: " + maxLength + " " + GL20.glGetProgramInfoLog(shader.getShaderID(), maxLength));
-			}
+
+			unbindAttributes(shader);
 		} else {
 			System.out.println("Missing shader [rendering direct]:\nmodelVBOID:"+modelVBOID+" modelVBOIDXID:"+modelVBOindexID+"\n");
 		}
 	}
-	
+
+	/*
+	 * Draw every instance in one of the batcher's batches, which all have
+	 * 	this model's geometry, texture and material.  With an instance_vbo
+	 * 	(the batcher's instances, already uploaded) and a shader that reads
+	 * 	instance_transform/instance_scale, that's a single instanced draw.
+	 * 	Otherwise it's still one bind, and just the transform uniforms and a
+	 * 	draw for each instance.
+	 *
+	 * 	The program, material and texture go through state, which skips
+	 * 	them when the previous batch left them bound; the caller ends it.
+	 */
+	public void drawBatch(InstanceBatcher batcher, InstanceBatcher.Batch batch, int instance_vbo, RenderState state) {
+		Shader shader = batch.getShader();
+		bindAttributes(shader);
+
+		boolean started = state.useShader(shader, this);
+		state.useTexture(opengl_tex, shader);
+
+		if(started && instance_vbo != 0 && shader.isInstanced()) {
+			drawInstanced(shader, batch, instance_vbo);
+		} else {
+			float[] instances = batcher.getInstances();
+			for(int i = 0; i < batch.getCount(); i++) {
+				if(started)
+					shader.setInstanceTransform(instances, (batch.getFirst() + i) * InstanceBatcher.INSTANCE_FLOATS);
+				drawElements();
+			}
+		}
+
+		unbindAttributes(shader);
+	}
+
+	private void drawInstanced(Shader shader, InstanceBatcher.Batch batch, int instance_vbo) {
+		int transform = shader.getAttributeLocation("instance_transform");
+		int scale = shader.getAttributeLocation("instance_scale");
+		int stride = InstanceBatcher.INSTANCE_STRIDE;
+		long offset = batch.getFirst() * (long)stride;
+		ContextCapabilities caps = GLContext.getCapabilities();
+
+		ARBVertexBufferObject.glBindBufferARB(
+			ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, instance_vbo);
+		// A mat4 attribute takes four locations, one per column
+		for(int c = 0; c < 4; c++) {
+			GL20.glEnableVertexAttribArray(transform + c);
+			GL20.glVertexAttribPointer(transform + c, 4, GL11.GL_FLOAT, false, stride, offset + c * 16);
+			setDivisor(caps, transform + c, 1);
+		}
+		GL20.glEnableVertexAttribArray(scale);
+		GL20.glVertexAttribPointer(scale, 4, GL11.GL_FLOAT, false, stride, offset + InstanceBatcher.SCALE_OFFSET * 4);
+		setDivisor(caps, scale, 1);
+
+		shader.setInstanced(true);
+		int mode = wire_frame ? GL11.GL_LINES : GL11.GL_TRIANGLES;
+		if(caps.OpenGL31) {
+			GL31.glDrawElementsInstanced(mode, total_vertices, packing.getIndexType(), 0, batch.getCount());
+		} else {
+			ARBDrawInstanced.glDrawElementsInstancedARB(mode, total_vertices, packing.getIndexType(), 0, batch.getCount());
+		}
+		shader.setInstanced(false);
+
+		// Divisors stick to the attribute, so put them back for the next model
+		for(int c = 0; c < 4; c++) {
+			setDivisor(caps, transform + c, 0);
+			GL20.glDisableVertexAttribArray(transform + c);
+		}
+		setDivisor(caps, scale, 0);
+		GL20.glDisableVertexAttribArray(scale);
+	}
+
+	private static void setDivisor(ContextCapabilities caps, int index, int divisor) {
+		if(caps.OpenGL33) {
+			GL33.glVertexAttribDivisor(index, divisor);
+		} else {
+			ARBInstancedArrays.glVertexAttribDivisorARB(index, divisor);
+		}
+	}
+
+	// Point the shader's vertex attributes into this model's VBO
+	private void bindAttributes(Shader shader) {
+		int stride = packing.getStride();
+		boolean vertex_colors = packing.hasVertexColors();
+
+		//looked up when the shader was linked, not asked of the driver every draw
+		int vertex = shader.getAttributeLocation("vertex");
+		int normal = shader.getAttributeLocation("normal");
+		int texture = shader.getAttributeLocation("texture");
+		int color = shader.getAttributeLocation("color");
+
+		GL20.glEnableVertexAttribArray(vertex);
+		GL20.glEnableVertexAttribArray(normal);
+		GL20.glEnableVertexAttribArray(texture);
+		if(color != -1 && vertex_colors) GL20.glEnableVertexAttribArray(color);
+
+		// Bind the index of the object
+		ARBVertexBufferObject.glBindBufferARB(
+			ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, modelVBOID);
+
+		ARBVertexBufferObject.glBindBufferARB(
+			ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB, modelVBOindexID);
+
+		// vertices
+		long offset = 0 * 4; // 0 as its the first in the chunk, i.e. no offset.
+							// * 4 to convert to bytes.
+		GL20.glVertexAttribPointer(
+			vertex,
+			3,
+			GL11.GL_FLOAT,
+			false,
+			stride,
+			offset
+		);
+
+		// normals; bytes in the compact layout, scaled back to -1..1
+		offset = VertexPacker.NORMAL_OFFSET;
+		GL20.glVertexAttribPointer(
+			normal,
+			3,
+			packing.getNormalType(),
+			packing.isCompact(),
+			stride,
+			offset
+		);
+
+		// texture coordinates
+		offset = packing.getTextureOffset();
+		GL20.glVertexAttribPointer(
+			texture,
+			2,
+			GL11.GL_FLOAT,
+			false,
+			stride,
+			offset
+		);
+
+		// colors when they differ (the Material block is white then, see
+		// getDrawMaterial), otherwise white and the block has the one colour
+		if(color != -1 ) {
+			if (vertex_colors) {
+				GL20.glVertexAttribPointer(
+					color,
+					4,
+					GL11.GL_FLOAT,
+					false,
+					stride,
+					packing.getColorOffset()
+				);
+			} else {
+				GL20.glVertexAttrib4f(color, 1f, 1f, 1f, 1f);
+			}
+		}
+	}
+
+	private void unbindAttributes(Shader shader) {
+		int color = shader.getAttributeLocation("color");
+
+		ARBVertexBufferObject.glBindBufferARB(
+			ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, 0);
+		ARBVertexBufferObject.glBindBufferARB(
+			ARBVertexBufferObject.GL_ELEMENT_ARRAY_BUFFER_ARB, 0);
+
+		if(color != -1 && packing.hasVertexColors()) GL20.glDisableVertexAttribArray(color);
+		GL20.glDisableVertexAttribArray(shader.getAttributeLocation("texture"));
+		GL20.glDisableVertexAttribArray(shader.getAttributeLocation("normal"));
+		GL20.glDisableVertexAttribArray(shader.getAttributeLocation("vertex"));
+	}
+
+	private void drawElements() {
+		//check for wireframe rendering
+		if(wire_frame ) {
+			GL12.glDrawRangeElements(GL11.GL_LINES, index_min, index_max, total_vertices, packing.getIndexType(), 0);
+		} else {
+			// Everything's fanned into triangles when packed
+			GL12.glDrawRangeElements(GL11.GL_TRIANGLES, index_min, index_max, total_vertices, packing.getIndexType(), 0);
+		}
+	}
+
 	public void drawProgrammablePipe(Entity ent) {
 		drawProgrammablePipe(ent,null);
 	}
@@ -570,17 +928,36 @@ public class Model implements RenderObject, Resource {
 		for(Mesh m : this.getMeshes())
 			for(Face f : m.getFaces())
 				count += f.getVertexCount();
+		if (packed != null)
+			count += packed.getVertexCount();
+		if (baked)
+			count += packing.getVertexCount();
 		return count;
 	}
 
 	public void destroyVBO() {
-		ARBVertexBufferObject.glDeleteBuffersARB(modelVBOID);
-		ARBVertexBufferObject.glDeleteBuffersARB(modelVBOindexID);
+		// Shared buffers belong to the source model
+		if (!shared_vbo) {
+			ARBVertexBufferObject.glDeleteBuffersARB(modelVBOID);
+			ARBVertexBufferObject.glDeleteBuffersARB(modelVBOindexID);
+		}
+		shared_vbo = false;
 		hasVBO = false;
 	}
 	// *****************END VBO METHODS***********************
 	
+	/*
+	 * A new hull around the model, so each entity gets its own to scale.
+	 * 	The points are only found once (or loaded with a baked model).
+	 */
 	public void reduceHull() {
+		if (hull_points == null) {
+			hull_points = findHullPoints();
+		}
+		shape = new ConvexHullShape(hull_points);
+	}
+	
+	private ObjectArrayList<Vector3f> findHullPoints() {
 		ObjectArrayList<Vector3f> vertices = new ObjectArrayList<Vector3f>();
 		
 		//System.out.println("\n\n\nHURR");
@@ -595,8 +972,21 @@ public class Model implements RenderObject, Resource {
 			}
 		}
 		//System.out.println("###HURR\n\n\n");
-		ConvexHullShape cvs = new ConvexHullShape(vertices);
-		shape = cvs;
+		if (packed != null) {
+			// Only the unique vertices, so there's less for bullet to chew on
+			for (int i = 0; i < packed.getVertexCount(); i++) {
+				vertices.add(packed.getPosition(i, new Vector3f()));
+			}
+		}
+		if (baked) {
+			// Only if it's been changed since it was baked, which loses the baked hull
+			ByteBuffer buffer = packing.getVertexBuffer().duplicate().order(ByteOrder.nativeOrder());
+			for (int i = 0; i < packing.getVertexCount(); i++) {
+				int v = i * packing.getStride();
+				vertices.add(new Vector3f(buffer.getFloat(v), buffer.getFloat(v + 4), buffer.getFloat(v + 8)));
+			}
+		}
+		return vertices;
 	}
 	
 	public CollisionShape getCollisionShape() {
@@ -617,6 +1007,10 @@ public class Model implements RenderObject, Resource {
 	public void setTexture(Texture texture) {
 		this.opengl_tex = texture;  
 	}
+
+	public Texture getTexture() {
+		return opengl_tex;
+	}
 	
 	public void setCollisionShape(CollisionShape shape) {
 		this.shape = shape;		
@@ -631,9 +1025,7 @@ public class Model implements RenderObject, Resource {
 	}
 	
 	public void combineModels(Model model) {
-		for(Mesh mesh: model.getMeshes()) {
-			meshes.add(mesh);
-		}
+		merge(model);
 		//num_vertices=getVertexCount();
 		if(hasVBO){
 			destroyVBO();
@@ -641,6 +1033,25 @@ public class Model implements RenderObject, Resource {
 		createVBO();
 	}
 	
+	// combineModels() without the VBO, so no GL
+	private void merge(Model model) {
+		for(Mesh mesh: model.getMeshes()) {
+			meshes.add(mesh);
+		}
+		geometry_source = null;
+		packed_ahead = false;
+		verified = false;
+		hull_points = null;
+		if (model.packed != null) {
+			packed = (packed == null) ? model.packed : packed.append(model.packed);
+		}
+		if (model.baked) {
+			// Baked buffers can't be merged with anything, so they're the geometry from now on
+			adoptBaked(model.packing, model.min, model.max);
+			hull_points = model.hull_points;
+		}
+	}
+	
 	public void setWireFrame(boolean enabled) {
 		wire_frame = enabled;
 	}
@@ -657,4 +1068,66 @@ public class Model implements RenderObject, Resource {
 		Shader shader = (Shader)resource_manager.getResource("default", "shaders");
 		this.setShader(shader);
 	}
+
+	// By path, so a baked copy of the file can be loaded instead (see FileLoader)
+	public void loadFromFile(ResourceManager resource_manager, File file) throws Exception {
+		this.combineModels(FileLoader.readFile(file, resource_manager.getHash(file), DerivedDataCache.getDefault()));
+		Shader shader = (Shader)resource_manager.getResource("default", "shaders");
+		this.setShader(shader);
+	}
+
+	// Parsing (or mapping the baked copy), normals, hull and packing; no GL
+	@Override
+	public void prepare(ResourceManager resource_manager, File file, String extension) throws Exception {
+		merge(FileLoader.readFile(file, resource_manager.getHash(file), DerivedDataCache.getDefault()));
+		getCollisionShape();
+		prepareBuffers();
+	}
+
+	@Override
+	public void upload(ResourceManager resource_manager) throws Exception {
+		createVBO();
+		Shader shader = (Shader)resource_manager.getResource("default", "shaders");
+		this.setShader(shader);
+	}
+
+	// Roughly: each corner of a face is three vector objects, plus the lists holding them
+	@Override
+	public long getHeapBytes() {
+		long bytes = 0;
+		for (Mesh m : meshes) {
+			for (Face f : m.getFaces()) {
+				bytes += 96 + f.getVertexCount() * 96L;
+			}
+		}
+		if (packed != null) {
+			bytes += packed.getVertices().length * 4L + packed.getIndices().length * 4L;
+			if (packed.getColors() != null) {
+				bytes += packed.getColors().length * 4L;
+			}
+		}
+		if (shape instanceof ConvexHullShape) {
+			bytes += ((ConvexHullShape)shape).getNumPoints() * 32L;
+		}
+		return bytes;
+	}
+
+	// The packed buffers, unless they're another model's
+	@Override
+	public long getDirectBytes() {
+		return packing == null || sharesGeometry() ? 0 : packing.getBytes();
+	}
+
+	@Override
+	public long getGpuBytes() {
+		return hasVBO && !shared_vbo ? packing.getBytes() : 0;
+	}
+
+	// The VBO goes; the rest goes with the model
+	@Override
+	public void unload() {
+		if (hasVBO) {
+			destroyVBO();
+		}
+	}
 }
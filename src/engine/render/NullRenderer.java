@@ -0,0 +1,79 @@
+/*
+ *	Renderer for headless mode; draws nothing and never touches GL.
+ *
+ *	It still does the non-drawing half of what ProgrammableRenderer does
+ *	when an entity is added (verify the model, reduce its hull and hand the
+ *	shape to physics), so a headless simulation collides exactly like a
+ *	windowed one.
+ */
+package engine.render;
+
+import engine.entity.Camera;
+import engine.entity.Entity;
+import engine.entity.EntityList;
+import engine.window.WindowManager;
+
+public class NullRenderer extends RendererInterface {
+	private EntityList object_list;
+	private Camera camera;
+
+	public NullRenderer(EntityList objectList) {
+		this.object_list = objectList;
+	}
+
+	public void draw() {
+	}
+
+	public void initGL() {
+	}
+
+	// There's no window, so nothing to manage
+	public WindowManager getWindowManager() {
+		return null;
+	}
+
+	public void setCamera(Camera camera) {
+		this.camera = camera;
+	}
+
+	public Camera getCamera() {
+		return camera;
+	}
+
+	public EntityList getEntityList() {
+		return object_list;
+	}
+
+	public void parseRenderQueue() {
+	}
+
+	// addListener replays the current model to us, which sets up the shape
+	public void entityAdded(Entity ent) {
+		ent.addListener(this);
+	}
+
+	/*
+	 * Done right away rather than queued; there's no render thread to hand
+	 * 	it to and physics should see the final shape before the first step.
+	 */
+	private void updateCollisionShape(Entity ent) {
+		Model ent_model = ent.getModel();
+		if (ent_model != null) {
+			ent_model.verify();
+			if (!ent_model.getCollisionShape().isConcave()) {
+				ent_model.reduceHull();
+			}
+			ent.setCollisionShape(ent_model.getCollisionShape());
+		}
+	}
+
+	public void entityRemoved(Entity ent) {
+		ent.removeListener(this);
+	}
+
+	public void entityPropertyChanged(String property, Entity entity, Object old_value) {
+		if(property == Entity.MODEL){
+			updateCollisionShape(entity);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package engine.render;
+
+import java.nio.IntBuffer;
+
+/*
+ * The questions Shader asks GL about a linked program: whether it linked,
+ * 	and what attributes, uniforms and uniform blocks it has.  Shader asks
+ * 	them once, when the program is linked, through whichever of these it's
+ * 	been given; GLProgramQueries normally, or something that counts calls
+ * 	or pretends to be a driver when there's no context.
+ */
+public interface ProgramQueries {
+	// glGetProgrami
+	public int getProgrami(int program, int parameter);
+
+	public String getProgramInfoLog(int program, int max_length);
+
+	// Name of the index'th active attribute; size_type gets its array size and GL type
+	public String getActiveAttrib(int program, int index, int max_length, IntBuffer size_type);
+
+	public int getAttribLocation(int program, String name);
+
+	// Name of the index'th active uniform; size_type gets its array size and GL type
+	public String getActiveUniform(int program, int index, int max_length, IntBuffer size_type);
+
+	public int getUniformLocation(int program, String name);
+
+	// 0 when uniform blocks aren't supported
+	public int getActiveUniformBlocks(int program);
+
+	public String getActiveUniformBlockName(int program, int index, int max_length);
+
+	// glGetActiveUniformBlocki
+	public int getActiveUniformBlocki(int program, int index, int parameter);
+}
@@ -9,9 +9,15 @@ package engine.render;
 import java.awt.Canvas;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.IdentityHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
+import javax.vecmath.Vector3f;
+
 import org.lwjgl.LWJGLException;
+import org.lwjgl.opengl.ARBVertexBufferObject;
+import org.lwjgl.opengl.ContextCapabilities;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.DisplayMode;
 import org.lwjgl.opengl.GL11;
@@ -22,6 +28,7 @@ import engine.entity.Camera;
 import engine.entity.Entity;
 import engine.entity.EntityList;
 import engine.entity.QueueItem;
+import engine.render.ubos.Material;
 import engine.window.WindowManager;
 
 public class ProgrammableRenderer extends RendererInterface {
@@ -29,6 +36,7 @@ public class ProgrammableRenderer extends RendererInterface {
 	private EntityList object_list;
 	private Camera camera;
 	private static boolean supports_vbo = false;
+	private static boolean supports_instancing = false;
 	// private float x=0,y=0,z=0;
 
 	public static float near_clipping = 1f;
@@ -38,6 +46,27 @@ public class ProgrammableRenderer extends RendererInterface {
 	private Canvas display_parent;
 	
 	private ConcurrentLinkedQueue<QueueItem> render_queue;
+	// The model each entity was added with, and how many entities use each; a VBO goes with its last user
+	private final IdentityHashMap<Entity, Model> entity_models = new IdentityHashMap<Entity, Model>();
+	private final IdentityHashMap<Model, Integer> model_users = new IdentityHashMap<Model, Integer>();
+
+	// Filled from the render snapshot for each entity drawn
+	private final float[] draw_matrix = new float[16];
+	private final Vector3f draw_scale = new Vector3f();
+
+	// Drops what the camera can't see, then groups the rest so each group is one draw
+	private final FrustumCuller culler = new FrustumCuller();
+	private final float[] view_projection = new float[16];
+	private boolean culling = true;
+	private final InstanceBatcher batcher = new InstanceBatcher();
+	// Batches in state order (opaque front to back, then translucent back to front)
+	private final DrawQueue draw_queue = new DrawQueue();
+	private final RenderState state = new RenderState();
+	// Every material drawn in a frame, streamed into one buffer (see UBO)
+	private UniformRing uniform_ring;
+	// Every instance the batcher wrote, streamed in each frame
+	private int instance_vbo = 0;
+	private long instance_vbo_size = 0;
 
 	public ProgrammableRenderer(EntityList objectList) {
 		this(objectList, null);
@@ -66,12 +95,40 @@ public class ProgrammableRenderer extends RendererInterface {
 		}
 		
 		// Draw the 3d stuff
-		for (Entity ent : object_list.getEntitiesAndSubEntities()){
-			Boolean should_draw = (Boolean)ent.getProperty(Entity.SHOULD_DRAW);
-			if(should_draw == null)
-				should_draw = false;
-			if(should_draw)
-				ent.drawProgrammablePipe();
+		RenderSnapshot snapshot = (snapshots != null) ? snapshots.acquire() : null;
+		if (snapshot == null || snapshot.isEmpty()) {
+			// Physics hasn't published anything yet
+			for (Entity ent : object_list.getEntitiesAndSubEntities()){
+				if(ent.shouldDraw())
+					ent.drawProgrammablePipe();
+			}
+		} else {
+			float alpha = snapshots.isInterpolating() ? snapshot.getAlpha(System.nanoTime()) : 1f;
+			camera.getViewProjection(view_projection);
+			if (culling) {
+				culler.update(snapshot);
+				culler.cull(view_projection);
+				batcher.build(snapshot, alpha, culler.getVisible(), culler.getVisibleCount());
+			} else {
+				batcher.build(snapshot, alpha);
+			}
+			int instances = supports_instancing ? uploadInstances() : 0;
+			if (uniform_ring != null) {
+				uniform_ring.begin();
+			}
+			queueBatches();
+			state.begin();
+			for (int d = 0; d < draw_queue.getCount(); d++) {
+				InstanceBatcher.Batch batch = batcher.getBatch(draw_queue.getItem(d));
+				batch.getEntity().getModel().drawBatch(batcher, batch, instances, state);
+			}
+			state.end();
+			// No shader to batch by; these go the old way
+			for (int u = 0; u < batcher.getUnbatchedCount(); u++) {
+				int i = batcher.getUnbatched(u);
+				snapshot.getInterpolatedMatrix(i, alpha, draw_matrix);
+				snapshot.getEntity(i).drawProgrammablePipe(draw_matrix, snapshot.getScale(i, draw_scale));
+			}
 		}
 
 		// Draw the window manager stuff
@@ -80,6 +137,63 @@ public class ProgrammableRenderer extends RendererInterface {
 		Display.update();
 	}
 
+	/*
+	 * A sort key for every batch the batcher made.  Depth is how far along
+	 * 	the view the nearest instance is, which is the fourth row of the view
+	 * 	projection (clip space w).
+	 */
+	private void queueBatches() {
+		draw_queue.clear();
+		float[] instances = batcher.getInstances();
+		float[] m = view_projection;
+		float far = camera.getFar();
+		for (int b = 0; b < batcher.getBatchCount(); b++) {
+			InstanceBatcher.Batch batch = batcher.getBatch(b);
+			float nearest = Float.MAX_VALUE;
+			for (int i = batch.getFirst(); i < batch.getFirst() + batch.getCount(); i++) {
+				int offset = i * InstanceBatcher.INSTANCE_FLOATS;
+				float w = m[3] * instances[offset + 12] + m[7] * instances[offset + 13]
+					+ m[11] * instances[offset + 14] + m[15];
+				nearest = Math.min(nearest, w);
+			}
+			int depth = DrawQueue.quantizeDepth(nearest, far);
+			int shader = batch.getShader().getShaderID();
+			int texture = (batch.getTexture() != null && batch.getTexture().getTexture() != null)
+				? batch.getTexture().getTexture().getTextureID() : 0;
+			Material material = batch.getEntity().getModel().getDrawMaterial();
+			int material_hash = (material != null) ? material.valueHash() : 0;
+			draw_queue.add(batch.isTranslucent()
+				? DrawQueue.translucentKey(shader, texture, material_hash, depth)
+				: DrawQueue.opaqueKey(shader, texture, material_hash, depth), b);
+		}
+		draw_queue.sort();
+	}
+
+	/*
+	 * The batcher's instances into instance_vbo.  The old contents are
+	 * 	orphaned first, so the driver hands back fresh storage instead of
+	 * 	waiting on last frame's draws that still read it.
+	 */
+	private int uploadInstances() {
+		if (instance_vbo == 0) {
+			instance_vbo = ARBVertexBufferObject.glGenBuffersARB();
+		}
+		FloatBuffer data = batcher.getInstanceBuffer();
+		// Only ever grows, so the driver can keep reusing the same size
+		instance_vbo_size = Math.max(instance_vbo_size, data.capacity() * 4L);
+
+		ARBVertexBufferObject.glBindBufferARB(
+			ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, instance_vbo);
+		ARBVertexBufferObject.glBufferDataARB(
+			ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, instance_vbo_size,
+			ARBVertexBufferObject.GL_STREAM_DRAW_ARB);
+		ARBVertexBufferObject.glBufferSubDataARB(
+			ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, 0, data);
+		ARBVertexBufferObject.glBindBufferARB(
+			ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, 0);
+		return instance_vbo;
+	}
+
 	public void initGL() {
 		// Setup Display
 		try {
@@ -118,11 +232,21 @@ public class ProgrammableRenderer extends RendererInterface {
 		ByteBuffer temp = ByteBuffer.allocateDirect(16);
 		temp.order(ByteOrder.nativeOrder());
 
-		if (GLContext.getCapabilities().GL_ARB_vertex_buffer_object) {
+		ContextCapabilities caps = GLContext.getCapabilities();
+		if (caps.GL_ARB_vertex_buffer_object) {
 			supports_vbo = true;
 		} else {
 			supports_vbo = false;
 		}
+		// Per instance attributes and a draw call to go with them
+		supports_instancing = supports_vbo && (caps.OpenGL33
+			|| (caps.GL_ARB_instanced_arrays && (caps.OpenGL31 || caps.GL_ARB_draw_instanced)));
+
+		if (caps.GL_ARB_uniform_buffer_object) {
+			uniform_ring = new UniformRing();
+			uniform_ring.create();
+			UBO.setRing(uniform_ring);
+		}
 
 		// Blending functions so we can have transparency
 		GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
@@ -150,12 +274,40 @@ public class ProgrammableRenderer extends RendererInterface {
 	public static boolean supportsVBO() {
 		return supports_vbo;
 	}
+
+	public static boolean supportsInstancing() {
+		return supports_instancing;
+	}
+
+	// On by default; off draws everything in the snapshot
+	public void setCulling(boolean culling) {
+		this.culling = culling;
+	}
+
+	// Binds made drawing the most recent frame; don't modify
+	public RenderState.Stats getStateStats() {
+		return state.getStats();
+	}
+
+	// Stats from the most recent frame's cull; don't modify
+	public FrustumCuller.Stats getCullingStats() {
+		return culler.getStats();
+	}
 	
 	public WindowManager getWindowManager() {
 		return window_manager;
 	}
 
 	public void destroy() {
+		if (instance_vbo != 0) {
+			ARBVertexBufferObject.glDeleteBuffersARB(instance_vbo);
+			instance_vbo = 0;
+		}
+		if (uniform_ring != null) {
+			UBO.setRing(null);
+			uniform_ring.destroy();
+			uniform_ring = null;
+		}
 		window_manager.destroy();
 	}
 
@@ -172,6 +324,7 @@ public class ProgrammableRenderer extends RendererInterface {
 					addRenderItem(((QueueItem) item).getEnt());
 				} else if (QueueItem.REMOVE == ((QueueItem) item).getAction()) {
 					removeRenderItem(((QueueItem) item).getEnt());
+					((QueueItem) item).getEnt().releaseRemoval();
 				}
 	
 				render_queue.remove(item);
@@ -187,11 +340,18 @@ public class ProgrammableRenderer extends RendererInterface {
 				Model ent_model = (Model)e.getProperty("model");
 				
 				if (ent_model != null) {
-					ent_model.verify();
-					ent_model.createVBO();
-					ent_model.reduceHull();
+					// Entities share their model, so only the first one added uploads it
+					if (!ent_model.getHasVBO()) {
+						ent_model.verify();
+						ent_model.createVBO();
+					}
+					// A triangle mesh (terrain) is already what it should be; a hull would fill it in
+					if (!ent_model.getCollisionShape().isConcave()) {
+						ent_model.reduceHull();
+					}
 					
 					e.setCollisionShape(ent_model.getCollisionShape());
+					use(e, ent_model);
 				} else {
 					System.out.println("Trying to add/update render object of NULL model");
 				}
@@ -203,11 +363,8 @@ public class ProgrammableRenderer extends RendererInterface {
 	
 	private void removeRenderItem(Entity e) {
 		if (e.keyExists("name")) {
-			//TODO: Check to make sure actually is a Model class
-			Model ent_model = (Model)e.getProperty("model");
-			
-			if (ent_model != null) {
-				ent_model.destroyVBO();
+			if (entity_models.containsKey(e)) {
+				use(e, null);
 			} else {
 				System.out.println("Trying to delete render object of NULL model");
 			}
@@ -215,6 +372,31 @@ public class ProgrammableRenderer extends RendererInterface {
 			System.out.println("Trying to delete render object of unnamed entity");
 		}
 	}
+	
+	/*
+	 * e draws model from now on (null once it's removed).  Resource models
+	 * 	are shared by every entity with the same one, so the model it had
+	 * 	before only loses its VBO if nothing else draws it.
+	 */
+	private void use(Entity e, Model model) {
+		Model old = (model == null) ? entity_models.remove(e) : entity_models.put(e, model);
+		if (old == model) {
+			return;
+		}
+		if (model != null) {
+			Integer users = model_users.get(model);
+			model_users.put(model, (users == null) ? 1 : users + 1);
+		}
+		if (old != null) {
+			int users = model_users.get(old) - 1;
+			if (users == 0) {
+				model_users.remove(old);
+				old.destroyVBO();
+			} else {
+				model_users.put(old, users);
+			}
+		}
+	}
 		
 	public void entityAdded(Entity ent) {
 		render_queue.add(new QueueItem(ent, QueueItem.ADD));
@@ -222,6 +404,7 @@ public class ProgrammableRenderer extends RendererInterface {
 	}
 
 	public void entityRemoved(Entity ent) {
+		ent.holdRemoval();
 		render_queue.add(new QueueItem(ent, QueueItem.REMOVE));
 		ent.removeListener(this);
 	}
@@ -229,6 +412,7 @@ public class ProgrammableRenderer extends RendererInterface {
 	@Override
 	public void entityPropertyChanged(String property, Entity entity, Object old_value) {
 		if(property == "model"){
+			// Also lets go of the old one (e.g. another level of detail swapped in)
 			render_queue.add(new QueueItem(entity, QueueItem.ADD));
 		}
 	}
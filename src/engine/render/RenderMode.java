@@ -0,0 +1,19 @@
+/*
+ * Whether there's a GL context to talk to.  Engine turns this off in
+ * 	headless mode, and anything that would create GL objects (VBOs, shader
+ * 	programs, textures) checks it and skips that part.  Everything the
+ * 	simulation needs (meshes, bounds, collision hulls) still gets loaded.
+ */
+package engine.render;
+
+public class RenderMode {
+	private static volatile boolean headless = false;
+
+	public static boolean isHeadless() {
+		return headless;
+	}
+
+	public static void setHeadless(boolean value) {
+		headless = value;
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Everything the renderer needs to know about where things are for one
+ * 	physics tick, packed into flat arrays.  The physics thread fills one in
+ * 	and hands it over through SnapshotExchange; after that nobody writes to
+ * 	it until the renderer gives it back, so draw code can read it without
+ * 	locking and without asking bullet anything.
+ *
+ * 	Each drawable entity gets its world matrix (column major, 16 floats),
+ * 	its matrix from the tick before (for interpolating), and its scale.
+ */
+package engine.render;
+
+import javax.vecmath.Vector3f;
+
+import engine.entity.Entity;
+
+public class RenderSnapshot {
+	public static final int MATRIX_STRIDE = 16;
+	public static final int SCALE_STRIDE = 3;
+
+	private Entity[] entities;
+	private float[] matrices;
+	private float[] previous_matrices;
+	private float[] scales;
+	private int count = 0;
+
+	// System.nanoTime() of this tick and the one before it
+	private long time = 0;
+	private long previous_time = 0;
+	// 0 means nothing has ever been published into this snapshot
+	long sequence = 0;
+
+	public RenderSnapshot() {
+		this(64);
+	}
+
+	public RenderSnapshot(int capacity) {
+		entities = new Entity[capacity];
+		matrices = new float[capacity * MATRIX_STRIDE];
+		previous_matrices = new float[capacity * MATRIX_STRIDE];
+		scales = new float[capacity * SCALE_STRIDE];
+	}
+
+	/*************** WRITING (physics thread) ***************/
+	void begin(long time, long previous_time) {
+		// Drop references so removed entities can be collected
+		for (int i = 0; i < count; i++) {
+			entities[i] = null;
+		}
+		count = 0;
+		this.time = time;
+		this.previous_time = previous_time;
+	}
+
+	// Returns the index to write the entity's matrices and scale at
+	int add(Entity ent) {
+		if (count == entities.length) {
+			grow(entities.length * 2);
+		}
+		entities[count] = ent;
+		return count++;
+	}
+
+	float[] getMatricesForWrite() {
+		return matrices;
+	}
+
+	float[] getPreviousMatricesForWrite() {
+		return previous_matrices;
+	}
+
+	float[] getScalesForWrite() {
+		return scales;
+	}
+
+	private void grow(int capacity) {
+		Entity[] new_entities = new Entity[capacity];
+		System.arraycopy(entities, 0, new_entities, 0, count);
+		entities = new_entities;
+
+		float[] new_matrices = new float[capacity * MATRIX_STRIDE];
+		System.arraycopy(matrices, 0, new_matrices, 0, count * MATRIX_STRIDE);
+		matrices = new_matrices;
+
+		float[] new_previous = new float[capacity * MATRIX_STRIDE];
+		System.arraycopy(previous_matrices, 0, new_previous, 0, count * MATRIX_STRIDE);
+		previous_matrices = new_previous;
+
+		float[] new_scales = new float[capacity * SCALE_STRIDE];
+		System.arraycopy(scales, 0, new_scales, 0, count * SCALE_STRIDE);
+		scales = new_scales;
+	}
+	/******************************************/
+
+	/*************** READING (render thread) ***************/
+	public int getCount() {
+		return count;
+	}
+
+	public Entity getEntity(int index) {
+		return entities[index];
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public boolean isEmpty() {
+		return sequence == 0;
+	}
+
+	/*
+	 * How far to blend from the previous tick to this one when drawing at
+	 * 	time now.  Drawing is one tick behind physics this way, but never has
+	 * 	to guess where something is going.
+	 */
+	public float getAlpha(long now) {
+		long tick = time - previous_time;
+		if (tick <= 0) {
+			return 1f;
+		}
+		float alpha = (now - time) / (float)tick;
+		if (alpha < 0) return 0f;
+		if (alpha > 1) return 1f;
+		return alpha;
+	}
+
+	public void getMatrix(int index, float[] out) {
+		System.arraycopy(matrices, index * MATRIX_STRIDE, out, 0, MATRIX_STRIDE);
+	}
+
+	// The tick before's; the same as getMatrix() for anything new this tick
+	public void getPreviousMatrix(int index, float[] out) {
+		System.arraycopy(previous_matrices, index * MATRIX_STRIDE, out, 0, MATRIX_STRIDE);
+	}
+
+	/*
+	 * Blend the previous and current matrix.  Translation is lerped, the
+	 * 	rotation columns are lerped and then re-orthonormalized, which is
+	 * 	plenty for the small angles covered by one tick.
+	 */
+	public void getInterpolatedMatrix(int index, float alpha, float[] out) {
+		if (alpha >= 1f) {
+			getMatrix(index, out);
+			return;
+		}
+		int m = index * MATRIX_STRIDE;
+		float beta = 1f - alpha;
+		for (int i = 0; i < MATRIX_STRIDE; i++) {
+			out[i] = previous_matrices[m + i] * beta + matrices[m + i] * alpha;
+		}
+		orthonormalize(out);
+	}
+
+	public Vector3f getScale(int index, Vector3f out) {
+		int s = index * SCALE_STRIDE;
+		out.set(scales[s], scales[s + 1], scales[s + 2]);
+		return out;
+	}
+
+	// Gram-Schmidt on the upper 3x3 of a column major matrix
+	private static void orthonormalize(float[] m) {
+		float len = (float)Math.sqrt(m[0] * m[0] + m[1] * m[1] + m[2] * m[2]);
+		if (len == 0) return;
+		m[0] /= len; m[1] /= len; m[2] /= len;
+
+		float dot = m[0] * m[4] + m[1] * m[5] + m[2] * m[6];
+		m[4] -= dot * m[0]; m[5] -= dot * m[1]; m[6] -= dot * m[2];
+		len = (float)Math.sqrt(m[4] * m[4] + m[5] * m[5] + m[6] * m[6]);
+		if (len == 0) return;
+		m[4] /= len; m[5] /= len; m[6] /= len;
+
+		// Third column is just the cross product of the first two
+		m[8] = m[1] * m[6] - m[2] * m[5];
+		m[9] = m[2] * m[4] - m[0] * m[6];
+		m[10] = m[0] * m[5] - m[1] * m[4];
+	}
+	/******************************************/
+}
@@ -0,0 +1,113 @@
+/*
+ * The program, texture and material the renderer last bound, so draws that
+ * 	share them (which DrawQueue puts next to each other) don't bind them
+ * 	again.  Only good for one frame: begin() forgets everything, since
+ * 	other code binds things between frames.
+ *
+ * 	Render thread only.
+ */
+package engine.render;
+
+import engine.render.model_pieces.Texture;
+import engine.render.ubos.Material;
+
+public class RenderState {
+	/*
+	 * Basically just a struct of how many binds a frame actually made
+	 */
+	public static class Stats {
+		public int draws;
+		public int programs;
+		public int textures;
+		public int materials;
+
+		public String toString() {
+			return String.format(
+				"%d draws: %d program binds, %d texture binds, %d material uploads",
+				draws, programs, textures, materials
+			);
+		}
+	}
+
+	private Shader shader;
+	private Material material;
+	private Texture texture;
+	// texture is only known once something's been bound under this program
+	private boolean texture_known;
+
+	private int draws, programs, textures, materials;
+	// end() fills whichever isn't published, no garbage per frame
+	private final Stats[] stats_buffers = {new Stats(), new Stats()};
+	private volatile Stats stats = stats_buffers[0];
+
+	public void begin() {
+		shader = null;
+		material = null;
+		texture = null;
+		texture_known = false;
+		draws = programs = textures = materials = 0;
+	}
+
+	/*
+	 * Make shader current with model's material.  Returns false (and binds
+	 * 	nothing) if shader can't draw it, the same as Shader.startBatch().
+	 */
+	public boolean useShader(Shader shader, Model model) {
+		draws++;
+		if (!shader.canStart(model)) {
+			return false;
+		}
+		if (shader != this.shader) {
+			shader.bind();
+			this.shader = shader;
+			material = null;
+			// Sampler uniforms belong to the program, so the texture has to be set up again
+			texture_known = false;
+			programs++;
+		}
+		Material model_material = model.getDrawMaterial();
+		if (material == null || !material.sameAs(model_material)) {
+			shader.setMaterial(model_material);
+			material = model_material;
+			materials++;
+		}
+		return true;
+	}
+
+	public void useTexture(Texture texture, Shader shader) {
+		if (texture_known && texture == this.texture) {
+			return;
+		}
+		if (texture != null) {
+			texture.draw(shader);
+		} else if (this.texture != null) {
+			this.texture.unbind();
+		}
+		this.texture = texture;
+		texture_known = true;
+		textures++;
+	}
+
+	// Put GL back how drawing outside the queue expects it
+	public void end() {
+		if (texture != null) {
+			texture.unbind();
+		}
+		if (shader != null) {
+			shader.stopShader();
+		}
+		Stats frame_stats = (stats == stats_buffers[0]) ? stats_buffers[1] : stats_buffers[0];
+		frame_stats.draws = draws;
+		frame_stats.programs = programs;
+		frame_stats.textures = textures;
+		frame_stats.materials = materials;
+		stats = frame_stats;
+		begin();
+	}
+
+	// Binds made by the most recent frame; don't modify.  Only good until the
+	// frame after next, the two get reused
+	public Stats getStats() {
+		return stats;
+	}
+}
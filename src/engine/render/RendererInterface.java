@@ -6,6 +6,13 @@ import engine.entity.EntityListener;
 import engine.window.WindowManager;
 
 public abstract class RendererInterface implements EntityListListener, EntityListener{
+	// Where the physics thread leaves transforms for us; null draws straight from physics
+	protected SnapshotExchange snapshots;
+
+	public void setSnapshotExchange(SnapshotExchange snapshots) {
+		this.snapshots = snapshots;
+	}
+
 	public abstract void draw();
 	public abstract WindowManager getWindowManager();
 	public abstract void initGL();
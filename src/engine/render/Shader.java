@@ -1,14 +1,18 @@
 package engine.render;
 
-import engine.resource.Resource;
+import engine.resource.AsyncResource;
 import engine.resource.ResourceManager;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.Collection;
 import java.util.HashMap;
 
 import javax.vecmath.Vector3f;
@@ -17,14 +21,17 @@ import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.ARBFragmentShader;
 import org.lwjgl.opengl.ARBGeometryShader4;
 import org.lwjgl.opengl.ARBShaderObjects;
+import org.lwjgl.opengl.ARBUniformBufferObject;
 import org.lwjgl.opengl.ARBVertexShader;
-
-import com.bulletphysics.collision.dispatch.CollisionObject;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
 
 import engine.entity.Entity;
+import engine.render.ubos.Material;
 import engine.render.ubos.UBOInterface;
+import engine.utils.Scratch;
 
-public class Shader implements Resource{
+public class Shader implements AsyncResource{
 	/*
     * if the shaders are setup ok we can use shaders, otherwise we just
     * use default settings
@@ -41,6 +48,22 @@ public class Shader implements Resource{
     private int fragShader=0;
     private int geomShader=0;
     private HashMap<String, UBO> ubo_interfaces;
+    //read by prepare(), compiled by upload()
+    private String vert_source, frag_source, geom_source;
+
+    /*
+    * Everything active in the program, looked up once when it's linked so
+    * drawing never has to ask the driver where things are
+    */
+    private static ProgramQueries queries = new GLProgramQueries();
+    private HashMap<String, ShaderVariable> attributes = new HashMap<String, ShaderVariable>();
+    private HashMap<String, ShaderVariable> uniforms = new HashMap<String, ShaderVariable>();
+    private HashMap<String, ShaderVariable> uniform_blocks = new HashMap<String, ShaderVariable>();
+    private int transform_location = -1;
+    private int scale_location = -1;
+    //set while drawing an instanced batch, so the transform comes from attributes
+    private int instanced_location = -1;
+    private boolean instanced = false;
     
     public Shader() {
     	
@@ -52,14 +75,37 @@ public class Shader implements Resource{
     	this.geomShader = shader.geomShader;
     	this.shader = shader.shader;
     	this.useShader = shader.useShader;
+    	//same program, so the same locations; never changed after linking
+    	this.attributes = shader.attributes;
+    	this.uniforms = shader.uniforms;
+    	this.uniform_blocks = shader.uniform_blocks;
+    	this.transform_location = shader.transform_location;
+    	this.scale_location = shader.scale_location;
+    	this.instanced_location = shader.instanced_location;
+    	this.instanced = shader.instanced;
+    }
+
+    // Where program queries go; GL unless something's counting or faking them
+    public static void setQueries(ProgramQueries program_queries) {
+    	queries = program_queries;
+    }
+
+    public static ProgramQueries getQueries() {
+    	return queries;
     }
     
     public void addUBO(UBOInterface ubo_data) {
+    	//no GL, no uniform buffers
+    	if(RenderMode.isHeadless()) {
+    		return;
+    	}
     	//create a UBO from our ubo interface
     	UBO ubo = new UBO(this, ubo_data);
 
     	//put it in the ubo array for usage later
-    	ubo_interfaces.put(ubo_data.getName(), ubo);
+    	if(ubo.getHasUBO()) {
+    		ubo_interfaces.put(ubo_data.getName(), ubo);
+    	}
     }
     
     /*
@@ -142,43 +188,109 @@ public class Shader implements Resource{
     */
     public void startShader(int vbo_id, Entity ent){
     	if(useShader) {
-			Object ent_model = ent.getProperty("model");
-    		if(ent_model.getClass() == Model.class) {
-	     		//Adjust the position and rotation of the object from physics
-	    		FloatBuffer buf = BufferUtils.createFloatBuffer(16);
-	    		float[] body_matrix = new float[16];
-	    		ent.getTransformation(body_matrix);
-	    		buf.put(body_matrix);
-	    		buf.flip();
-	
-	        	//*****UBO setup*****//
-	    		//world space transform
-	    		ARBShaderObjects.glUseProgramObjectARB(shader);
-	    		int transform = ARBShaderObjects.glGetUniformLocationARB(shader, "transform");
-	    		ARBShaderObjects.glUniformMatrix4ARB(transform, false, buf);
-	    		
-	    		//world space scale op
-	    		buf.clear();
-	    		buf = BufferUtils.createFloatBuffer(4);
-	    		
-	    		Vector3f scalevec = ((CollisionObject)ent.getProperty("collision_object")).getCollisionShape().getLocalScaling(new Vector3f());
-	    		buf.put(scalevec.x);
-	    		buf.put(scalevec.y);
-	    		buf.put(scalevec.z);
-	    		buf.put(1.0f);
-	    		buf.flip();
-	    		int scale = ARBShaderObjects.glGetUniformLocationARB(shader, "scale");
-	    		ARBShaderObjects.glUniform4ARB(scale, buf);
-	    		buf.clear();
-	    		
-	    		if(ubo_interfaces.containsKey("Material"))
-	    			ubo_interfaces.get("Material").setInterface(((Model)ent_model).getMesh(0).getMaterial());
-	    		
-	    		//parse material and light uniforms
-	    		for(UBO ubo: ubo_interfaces.values()) {
-	    			ubo.bufferData();
-	    		}
-	        }
+    		Scratch scratch = Scratch.get();
+    		ent.getTransformation(scratch.matrix);
+    		startShader(vbo_id, ent, scratch.matrix, ent.getScale(scratch.vector_a));
+    	}
+    }
+    
+    /*
+    * Same as above, but with the world matrix (column major) and scale
+    * handed in, e.g. from a RenderSnapshot, instead of read off the entity.
+    */
+    public void startShader(int vbo_id, Entity ent, float[] body_matrix, Vector3f scalevec){
+    	if(startBatch(ent)) {
+    		setTransform(body_matrix, 0, scalevec.x, scalevec.y, scalevec.z);
+    	}
+    }
+    
+    /*
+    * Everything startShader does except the transform: use the program and
+    * upload the material and the other UBOs.  For a batch of instances that
+    * all share those.  False if nothing was started.
+    */
+    public boolean startBatch(Entity ent) {
+    	if(canStart(ent.getModel())) {
+    		bind();
+    		setMaterial(ent.getModel().getDrawMaterial());
+    		return true;
+    	}
+    	return false;
+    }
+    
+    // Whether this program can draw model at all; nothing is bound otherwise
+    public boolean canStart(Model model) {
+    	return useShader && model != null && model.getClass() == Model.class;
+    }
+    
+    /*
+    * Use the program and upload every UBO but the material, which changes
+    * from draw to draw and goes through setMaterial().  See RenderState
+    * for skipping both when they're already current.
+    */
+    public void bind() {
+    	//*****UBO setup*****//
+    	ARBShaderObjects.glUseProgramObjectARB(shader);
+    	
+    	//parse light and other uniforms
+    	UBO material = ubo_interfaces.get("Material");
+    	for(UBO ubo: ubo_interfaces.values()) {
+    		if(ubo != material)
+    			ubo.bufferData();
+    	}
+    }
+    
+    // The Material UBO's contents, with the program already in use
+    public void setMaterial(Material material) {
+    	UBO ubo = ubo_interfaces.get("Material");
+    	if(ubo != null) {
+    		ubo.setInterface(material);
+    		ubo.bufferData();
+    	}
+    }
+    
+    /*
+    * World space transform (16 floats, column major, from offset) and scale
+    * for the next draw.  The program has to be in use already.
+    */
+    public void setTransform(float[] body_matrix, int offset, float scale_x, float scale_y, float scale_z) {
+    	Scratch scratch = Scratch.get();
+ 		//Adjust the position and rotation of the object from physics
+		FloatBuffer buf = scratch.matrix_buffer;
+		buf.clear();
+		buf.put(body_matrix, offset, 16);
+		buf.flip();
+		ARBShaderObjects.glUniformMatrix4ARB(transform_location, false, buf);
+		
+		//world space scale op
+		buf = scratch.vec4_buffer;
+		buf.clear();
+		buf.put(scale_x);
+		buf.put(scale_y);
+		buf.put(scale_z);
+		buf.put(1.0f);
+		buf.flip();
+		ARBShaderObjects.glUniform4ARB(scale_location, buf);
+		buf.clear();
+    }
+    
+    // One instance out of an InstanceBatcher's array
+    public void setInstanceTransform(float[] instances, int offset) {
+    	int scale = offset + InstanceBatcher.SCALE_OFFSET;
+    	setTransform(instances, offset, instances[scale], instances[scale + 1], instances[scale + 2]);
+    }
+    
+    /*
+    * Whether the program reads instance_transform and instance_scale, and
+    * has the instanced switch to make it do that instead of the uniforms.
+    */
+    public boolean isInstanced() {
+    	return instanced;
+    }
+    
+    public void setInstanced(boolean enabled) {
+    	if(instanced_location != -1) {
+    		ARBShaderObjects.glUniform1iARB(instanced_location, enabled ? 1 : 0);
     	}
     }
     
@@ -240,14 +352,131 @@ public class Shader implements Resource{
 		return shader;
 	}
 
+	public boolean isLinked() {
+		return useShader;
+	}
+
+	/*
+	 * Ask for every active attribute, uniform and uniform block and keep
+	 * 	them.  Done once after linking; call again only if the program is
+	 * 	relinked.
+	 */
+	public void introspect() {
+		HashMap<String, ShaderVariable> found_attributes = new HashMap<String, ShaderVariable>();
+		HashMap<String, ShaderVariable> found_uniforms = new HashMap<String, ShaderVariable>();
+		HashMap<String, ShaderVariable> found_blocks = new HashMap<String, ShaderVariable>();
+		IntBuffer size_type = BufferUtils.createIntBuffer(2);
+
+		int count = queries.getProgrami(shader, GL20.GL_ACTIVE_ATTRIBUTES);
+		int max_length = queries.getProgrami(shader, GL20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH);
+		for(int i = 0; i < count; i++) {
+			size_type.clear();
+			String name = queries.getActiveAttrib(shader, i, max_length, size_type);
+			int location = queries.getAttribLocation(shader, name);
+			found_attributes.put(name, new ShaderVariable(
+				ShaderVariable.Kind.ATTRIBUTE, name, location, size_type.get(1), size_type.get(0)));
+		}
+
+		count = queries.getProgrami(shader, GL20.GL_ACTIVE_UNIFORMS);
+		max_length = queries.getProgrami(shader, GL20.GL_ACTIVE_UNIFORM_MAX_LENGTH);
+		for(int i = 0; i < count; i++) {
+			size_type.clear();
+			String name = queries.getActiveUniform(shader, i, max_length, size_type);
+			//arrays come back as "name[0]"; the location of that is the array's
+			if(name.endsWith("[0]")) {
+				name = name.substring(0, name.length() - 3);
+			}
+			int location = queries.getUniformLocation(shader, name);
+			found_uniforms.put(name, new ShaderVariable(
+				ShaderVariable.Kind.UNIFORM, name, location, size_type.get(1), size_type.get(0)));
+		}
+
+		count = queries.getActiveUniformBlocks(shader);
+		if(count > 0) {
+			max_length = queries.getProgrami(shader, ARBUniformBufferObject.GL_ACTIVE_UNIFORM_BLOCK_MAX_NAME_LENGTH);
+		}
+		for(int i = 0; i < count; i++) {
+			String name = queries.getActiveUniformBlockName(shader, i, max_length);
+			int size = queries.getActiveUniformBlocki(shader, i, ARBUniformBufferObject.GL_UNIFORM_BLOCK_DATA_SIZE);
+			found_blocks.put(name, new ShaderVariable(
+				ShaderVariable.Kind.UNIFORM_BLOCK, name, i, 0, size));
+		}
+
+		attributes = found_attributes;
+		uniforms = found_uniforms;
+		uniform_blocks = found_blocks;
+		transform_location = getUniformLocation("transform");
+		scale_location = getUniformLocation("scale");
+		instanced_location = getUniformLocation("instanced");
+		instanced = instanced_location != -1
+			&& attributes.containsKey("instance_transform")
+			&& attributes.containsKey("instance_scale");
+	}
+
+	// null if the program doesn't have (or doesn't use) it
+	public ShaderVariable getAttribute(String name) {
+		return attributes.get(name);
+	}
+
+	public ShaderVariable getUniform(String name) {
+		return uniforms.get(name);
+	}
+
+	public ShaderVariable getUniformBlock(String name) {
+		return uniform_blocks.get(name);
+	}
+
+	// -1 if it isn't there, same as glGetAttribLocation
+	public int getAttributeLocation(String name) {
+		ShaderVariable variable = attributes.get(name);
+		return variable == null ? -1 : variable.location;
+	}
+
+	public int getUniformLocation(String name) {
+		ShaderVariable variable = uniforms.get(name);
+		return variable == null ? -1 : variable.location;
+	}
+
+	public Collection<ShaderVariable> getAttributes() {
+		return attributes.values();
+	}
+
+	public Collection<ShaderVariable> getUniforms() {
+		return uniforms.values();
+	}
+
+	public Collection<ShaderVariable> getUniformBlocks() {
+		return uniform_blocks.values();
+	}
+
+	// Checked once here rather than on every draw
+	private boolean checkLinked() {
+		if(queries.getProgrami(shader, GL20.GL_LINK_STATUS) == GL11.GL_TRUE) {
+			return true;
+		}
+		int length = queries.getProgrami(shader, GL20.GL_INFO_LOG_LENGTH);
+		System.out.println("Failed to link shader " + shader + ":\n" + queries.getProgramInfoLog(shader, Math.max(1, length)));
+		return false;
+	}
+
 	@Override
 	public void loadFromFile(ResourceManager resource_manager, InputStream is, String extension) throws Exception {
-		ubo_interfaces = new HashMap<String, UBO>();
-		
-        //create the shader program. If OK, create vertex
-        //and fragment shaders
-    	shader=ARBShaderObjects.glCreateProgramObjectARB();
-    	
+		readSource(is);
+		upload(resource_manager);
+	}
+
+	// The reading half of loadFromFile(), which doesn't need GL
+	@Override
+	public void prepare(ResourceManager resource_manager, File file, String extension) throws Exception {
+		InputStream is = new FileInputStream(file);
+		try {
+			readSource(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	private void readSource(InputStream is) throws IOException {
     	InputStreamReader isr = new InputStreamReader(is);
     	BufferedReader br = new BufferedReader(isr);
     	String line = br.readLine();
@@ -287,6 +516,27 @@ public class Shader implements Resource{
     				break;
     		}
     	}
+    	vert_source = vert;
+    	frag_source = frag;
+    	geom_source = geom;
+	}
+
+	// Compile and link what readSource() read; render thread only
+	@Override
+	public void upload(ResourceManager resource_manager) throws Exception {
+		ubo_interfaces = new HashMap<String, UBO>();
+		String vert = vert_source, frag = frag_source, geom = geom_source;
+		vert_source = frag_source = geom_source = null;
+		
+		//nothing to compile against in headless mode
+		if(RenderMode.isHeadless()) {
+			useShader=false;
+			return;
+		}
+		
+        //create the shader program. If OK, create vertex
+        //and fragment shaders
+    	shader=ARBShaderObjects.glCreateProgramObjectARB();
 
         if(shader!=0){
             vertShader=createVertShader(vert);
@@ -309,7 +559,10 @@ public class Shader implements Resource{
             	ARBShaderObjects.glAttachObjectARB(shader, geomShader);
             ARBShaderObjects.glLinkProgramARB(shader);
             ARBShaderObjects.glValidateProgramARB(shader);
-            useShader=printLogInfo(shader);
+            useShader=printLogInfo(shader) && checkLinked();
+            if(useShader) {
+            	introspect();
+            }
         } else {
         	useShader=false;
         	System.out.println("Failed to create shader");
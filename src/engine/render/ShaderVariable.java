@@ -0,0 +1,31 @@
+package engine.render;
+
+/*
+ * One active attribute, uniform or uniform block of a linked Shader, as
+ * 	found when it was linked.  location is what the GL calls take: the
+ * 	attribute or uniform location, or the uniform block's index.
+ */
+public class ShaderVariable {
+	public static enum Kind {ATTRIBUTE, UNIFORM, UNIFORM_BLOCK};
+
+	public final Kind kind;
+	public final String name;
+	public final int location;
+	// GL type (GL_FLOAT_VEC3, GL_SAMPLER_2D...); 0 for blocks
+	public final int type;
+	// Array length, or bytes of data for a block
+	public final int size;
+
+	public ShaderVariable(Kind kind, String name, int location, int type, int size) {
+		this.kind = kind;
+		this.name = name;
+		this.location = location;
+		this.type = type;
+		this.size = size;
+	}
+
+	@Override
+	public String toString() {
+		return kind + " " + name + " @" + location + " (type 0x" + Integer.toHexString(type) + ", size " + size + ")";
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Hands RenderSnapshots from the physics thread to the render thread.
+ * 	Triple buffered: physics always has one to write into, the renderer
+ * 	always has one to read from, and the newest finished one sits in the
+ * 	middle.  Both sides swap with the middle through an AtomicReference,
+ * 	so neither ever waits on the other.
+ *
+ * 	Only one thread may publish and only one thread may acquire.
+ */
+package engine.render;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import engine.entity.ComponentStore;
+import engine.entity.Entity;
+import engine.entity.EntityList;
+import engine.utils.Scratch;
+
+public class SnapshotExchange {
+	private final AtomicReference<RenderSnapshot> middle;
+	private RenderSnapshot back;
+	private RenderSnapshot front;
+	private long sequence = 0;
+	private long last_time = 0;
+
+	/*
+	 * Last published matrix for each entity id, so the next snapshot can
+	 * 	carry it as the "previous" state.  Only touched by the publisher.
+	 */
+	private float[] last_matrices = new float[0];
+	private long[] last_sequence = new long[0];
+
+	private volatile boolean interpolate = true;
+
+	public SnapshotExchange() {
+		middle = new AtomicReference<RenderSnapshot>(new RenderSnapshot());
+		back = new RenderSnapshot();
+		front = new RenderSnapshot();
+	}
+
+	/*************** PHYSICS SIDE ***************/
+	/*
+	 * Capture every drawable entity in the list and make it the latest
+	 * 	snapshot.  Call from the physics thread once the tick is done.
+	 */
+	public void publish(EntityList entity_list) {
+		long now = System.nanoTime();
+		RenderSnapshot snapshot = back;
+		snapshot.begin(now, last_time == 0 ? now : last_time);
+		last_time = now;
+		long next_sequence = sequence + 1;
+
+		Scratch scratch = Scratch.get();
+		ArrayList<Entity> entities = entity_list.getEntitiesAndSubEntities();
+		ensureCapacity(ComponentStore.getDefault().getCapacity());
+		for (int i = 0; i < entities.size(); i++) {
+			Entity ent = entities.get(i);
+			if (!ent.shouldDraw() || ent.getModel() == null) {
+				continue;
+			}
+			int index = snapshot.add(ent);
+			int m = index * RenderSnapshot.MATRIX_STRIDE;
+			float[] matrices = snapshot.getMatricesForWrite();
+			ent.getTransform(scratch.transform).getOpenGLMatrix(scratch.matrix);
+			System.arraycopy(scratch.matrix, 0, matrices, m, RenderSnapshot.MATRIX_STRIDE);
+
+			// Entities that weren't in the last snapshot don't move on their first frame
+			int id = ent.getId();
+			if (id >= last_sequence.length) {
+				ensureCapacity(id + 1);
+			}
+			int last = id * RenderSnapshot.MATRIX_STRIDE;
+			float[] previous = snapshot.getPreviousMatricesForWrite();
+			if (last_sequence[id] == sequence && sequence != 0) {
+				System.arraycopy(last_matrices, last, previous, m, RenderSnapshot.MATRIX_STRIDE);
+			} else {
+				System.arraycopy(scratch.matrix, 0, previous, m, RenderSnapshot.MATRIX_STRIDE);
+			}
+			System.arraycopy(scratch.matrix, 0, last_matrices, last, RenderSnapshot.MATRIX_STRIDE);
+			last_sequence[id] = next_sequence;
+
+			ent.getScale(scratch.vector_a);
+			float[] scales = snapshot.getScalesForWrite();
+			int s = index * RenderSnapshot.SCALE_STRIDE;
+			scales[s] = scratch.vector_a.x;
+			scales[s + 1] = scratch.vector_a.y;
+			scales[s + 2] = scratch.vector_a.z;
+		}
+
+		sequence = next_sequence;
+		snapshot.sequence = next_sequence;
+		back = middle.getAndSet(snapshot);
+	}
+
+	private void ensureCapacity(int ids) {
+		if (ids <= last_sequence.length) {
+			return;
+		}
+		int size = Math.max(ids, last_sequence.length * 2);
+		float[] new_matrices = new float[size * RenderSnapshot.MATRIX_STRIDE];
+		System.arraycopy(last_matrices, 0, new_matrices, 0, last_matrices.length);
+		last_matrices = new_matrices;
+		long[] new_sequence = new long[size];
+		System.arraycopy(last_sequence, 0, new_sequence, 0, last_sequence.length);
+		last_sequence = new_sequence;
+	}
+	/******************************************/
+
+	/*************** RENDER SIDE ***************/
+	/*
+	 * The newest snapshot published so far.  It stays valid (and unchanged)
+	 * 	until the next call to acquire().  isEmpty() is true until physics
+	 * 	has published at least once.
+	 */
+	public RenderSnapshot acquire() {
+		if (middle.get().sequence > front.sequence) {
+			front = middle.getAndSet(front);
+		}
+		return front;
+	}
+
+	public boolean isInterpolating() {
+		return interpolate;
+	}
+
+	// Off draws exactly the latest physics state instead of blending
+	public void setInterpolating(boolean interpolate) {
+		this.interpolate = interpolate;
+	}
+	/******************************************/
+}
@@ -19,9 +19,8 @@ import org.lwjgl.opengl.ARBGeometryShader4;
 import org.lwjgl.opengl.ARBShaderObjects;
 import org.lwjgl.opengl.ARBVertexShader;
 
-import com.bulletphysics.collision.dispatch.CollisionObject;
-
 import engine.entity.Entity;
+import engine.utils.Scratch;
 
 public class TextureBuffer implements Resource{
 	/*
@@ -134,11 +133,12 @@ public class TextureBuffer implements Resource{
     public void startShader(int vbo_id, Entity ent){
     	if(useShader) {            
      		//Adjust the position and rotation of the object from physics
-    		FloatBuffer buf = BufferUtils.createFloatBuffer(16);
-    		float[] body_matrix = new float[16];
+    		Scratch scratch = Scratch.get();
+    		FloatBuffer buf = scratch.matrix_buffer;
+    		buf.clear();
     		
-    		ent.getTransformation(body_matrix);
-    		buf.put(body_matrix);
+    		ent.getTransformation(scratch.matrix);
+    		buf.put(scratch.matrix);
     		buf.flip();
 
         	//*****UBO setup*****//
@@ -148,10 +148,10 @@ public class TextureBuffer implements Resource{
     		ARBShaderObjects.glUniformMatrix4ARB(transform, false, buf);
     		
     		//world space scale op
+    		buf = scratch.vec4_buffer;
     		buf.clear();
-    		buf = BufferUtils.createFloatBuffer(4);
     		
-    		Vector3f scalevec = ((CollisionObject)ent.getProperty("collision_object")).getCollisionShape().getLocalScaling(new Vector3f());
+    		Vector3f scalevec = ent.getScale(scratch.vector_a);
     		buf.put(scalevec.x);
     		buf.put(scalevec.y);
     		buf.put(scalevec.z);
@@ -162,9 +162,9 @@ public class TextureBuffer implements Resource{
     		buf.clear();
     		
     		//TODO: Check to make sure actually is model class
-    		Object ent_model = ent.getProperty("model");
+    		Model ent_model = ent.getModel();
 
-    		ubo_interfaces.get("Material").setInterface(((Model)ent_model).getMesh(0).getMaterial());
+    		ubo_interfaces.get("Material").setInterface(ent_model.getDrawMaterial());
     		
     		//parse material and light uniforms
     		for(UBO ubo: ubo_interfaces.values()) {
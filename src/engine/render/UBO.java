@@ -20,6 +20,12 @@ public class UBO {
 	private IntBuffer offsets;
 	private IntBuffer indices;
 	private int shader;
+	// Staging and what was last uploaded, so unchanged blocks aren't sent again
+	private UniformBlock uniform_block;
+	// Material blocks go in here for the frame when there is one
+	private static UniformRing ring;
+	private int ring_frame = -1;
+	private int ring_offset = -1;
 
 	public UBO(Shader shader, UBOInterface ubo) {
 		createUBO(ubo, shader);
@@ -44,22 +50,18 @@ public class UBO {
 		ubo_interface = ubo;
 		this.shader = shader.getShaderID();
 		
+		//where the block is and how big, from when the shader was linked
+		ShaderVariable block = shader.getUniformBlock(ubo.getName());
+		if(block == null) {
+			System.out.println("WARNING: shader " + this.shader + " has no uniform block " + ubo.getName());
+			return;
+		}
+		block_index = block.location;
+		block_size = block.size;
+
 		//create a new UBO reference
 		uboID = createUBOID(1);
 		
-		//create a reference to the data definition in the shader
-		block_index = ARBUniformBufferObject.glGetUniformBlockIndex(
-			shader.getShaderID(),
-			ubo.getName()
-		);
-		
-		//get the size of the block you just found
-		block_size = ARBUniformBufferObject.glGetActiveUniformBlocki(
-			shader.getShaderID(),
-			block_index,
-			ARBUniformBufferObject.GL_UNIFORM_BLOCK_DATA_SIZE
-		);
-		
 		//put the index of each variable in the block into an array
 		indices = BufferUtils.createIntBuffer(ubo.getSize());
 		ARBUniformBufferObject.glGetUniformIndices(
@@ -83,11 +85,15 @@ public class UBO {
 			uboID
 		);
 
+		uniform_block = new UniformBlock(block_size, offsets);
+		uniform_block.invalidate();
+		uniform_block.update(ubo_interface);
 		ARBBufferObject.glBufferDataARB(
 			ARBUniformBufferObject.GL_UNIFORM_BUFFER, 
-			ubo_interface.createBuffer(block_size, offsets), 
+			uniform_block.getBlock(), 
 			ARBBufferObject.GL_DYNAMIC_DRAW_ARB
 		);
+		uniform_block.markUploaded();
 		
 		//bind the block to the buffer object
 		ARBUniformBufferObject.glBindBufferBase(
@@ -122,28 +128,71 @@ public class UBO {
 		return buffer.get(0);
 	}
 	
+	/*
+	 * Make the block's binding point hold this UBO's data for the next draw.
+	 * 	Only what changed since the last upload is sent; a material goes in
+	 * 	the frame's UniformRing (once per frame unless it changes) and is
+	 * 	bound by range.  The binding point is set every time, since another
+	 * 	program's block may have been using the same one.
+	 */
 	public void bufferData() {
-		//put data into the buffer
-		ARBBufferObject.glBindBufferARB(
-			ARBUniformBufferObject.GL_UNIFORM_BUFFER,
-			uboID
-		);
+		if (!hasUBO) {
+			return;
+		}
+		boolean dirty = uniform_block.update(ubo_interface);
+
+		if (ring != null && ubo_interface.getType() == Type.MATERIAL) {
+			if (dirty || ring_frame != ring.getFrame()) {
+				ring_offset = ring.append(uniform_block.getBlock());
+				ring_frame = ring.getFrame();
+				if (ring_offset != -1) {
+					uniform_block.markUploaded();
+				}
+			}
+			if (ring_offset != -1) {
+				ARBUniformBufferObject.glBindBufferRange(
+					ARBUniformBufferObject.GL_UNIFORM_BUFFER,
+					block_index,
+					ring.getBufferID(),
+					ring_offset,
+					block_size
+				);
+				return;
+			}
+			// Ring's full this frame; this UBO's own buffer has to have all of it
+			uniform_block.invalidate();
+			dirty = uniform_block.update(ubo_interface);
+		}
+
+		if (dirty) {
+			//put just the changed part into the buffer
+			ARBBufferObject.glBindBufferARB(
+				ARBUniformBufferObject.GL_UNIFORM_BUFFER,
+				uboID
+			);
+			ARBBufferObject.glBufferSubDataARB(
+				ARBUniformBufferObject.GL_UNIFORM_BUFFER, 
+				uniform_block.getDirtyOffset(), 
+				uniform_block.getDirty()
+			);
+			uniform_block.markUploaded();
+		}
 
-		ARBBufferObject.glBufferSubDataARB(
-			ARBUniformBufferObject.GL_UNIFORM_BUFFER, 
-			0, 
-			ubo_interface.createBuffer(block_size, offsets)
-		);
-		/*
 		//bind the block to the buffer object
 		ARBUniformBufferObject.glBindBufferBase(
 			ARBUniformBufferObject.GL_UNIFORM_BUFFER,
 			block_index,
 			uboID
 		);
-		
-		ARBUniformBufferObject.glUniformBlockBinding(shader, block_index, block_index);
-		*/
+	}
+	
+	// Where material blocks are streamed each frame; null for each UBO's own buffer
+	public static void setRing(UniformRing uniform_ring) {
+		ring = uniform_ring;
+	}
+	
+	public static UniformRing getRing() {
+		return ring;
 	}
 	
 	public void destroyUBO() {
@@ -155,6 +204,10 @@ public class UBO {
 		this.ubo_interface = ubo_interface; 
 	}
 	
+	public UniformBlock getUniformBlock() {
+		return uniform_block;
+	}
+	
 	public UBOInterface getInterface() {
 		return ubo_interface; 
 	}
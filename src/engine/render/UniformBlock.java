@@ -0,0 +1,112 @@
+/*
+ * The CPU side of a UBO: a staging copy of the block that UBOInterfaces
+ * 	write into, and a copy of what was last uploaded, so only the floats
+ * 	that actually changed get sent to GL.
+ *
+ * 	Both are allocated once, with the block; updating never allocates.  An
+ * 	interface whose version hasn't moved since it was last written isn't
+ * 	even written again.  No GL calls.
+ */
+package engine.render;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+
+import engine.render.ubos.UBOInterface;
+
+public class UniformBlock {
+	private final int block_size;
+	private final IntBuffer offsets;
+	private final float[] staging;
+	private final float[] uploaded;
+	private final FloatBuffer buffer;
+
+	// What staging was last written from
+	private UBOInterface source;
+	private int version;
+	// In floats, first changed and one past the last; first == last is clean
+	private int dirty_first, dirty_last;
+
+	// block_size in bytes, offsets in bytes in the interface's getNames() order
+	public UniformBlock(int block_size, IntBuffer offsets) {
+		this.block_size = block_size;
+		this.offsets = offsets;
+		staging = new float[block_size / 4];
+		uploaded = new float[block_size / 4];
+		buffer = BufferUtils.createFloatBuffer(block_size / 4);
+	}
+
+	/*
+	 * Write ubo into staging, unless it's the interface last written and its
+	 * 	version hasn't changed.  Returns whether anything now differs from
+	 * 	what was last uploaded.
+	 */
+	public boolean update(UBOInterface ubo) {
+		if (ubo != source || ubo.getVersion() != version) {
+			ubo.write(staging, offsets);
+			source = ubo;
+			version = ubo.getVersion();
+			int first = 0, last = staging.length;
+			while (first < last && staging[first] == uploaded[first]) {
+				first++;
+			}
+			while (last > first && staging[last - 1] == uploaded[last - 1]) {
+				last--;
+			}
+			// Grow the pending range rather than forget one that wasn't uploaded yet
+			if (dirty_first == dirty_last) {
+				dirty_first = first;
+				dirty_last = last;
+			} else if (first != last) {
+				dirty_first = Math.min(dirty_first, first);
+				dirty_last = Math.max(dirty_last, last);
+			}
+		}
+		return isDirty();
+	}
+
+	public boolean isDirty() {
+		return dirty_first != dirty_last;
+	}
+
+	// The changed floats, ready for glBufferSubData at getDirtyOffset()
+	public FloatBuffer getDirty() {
+		buffer.clear();
+		buffer.put(staging, dirty_first, dirty_last - dirty_first);
+		buffer.flip();
+		return buffer;
+	}
+
+	// In bytes
+	public long getDirtyOffset() {
+		return dirty_first * 4L;
+	}
+
+	// The whole block, e.g. for a fresh copy in a UniformRing
+	public FloatBuffer getBlock() {
+		buffer.clear();
+		buffer.put(staging);
+		buffer.flip();
+		return buffer;
+	}
+
+	// What was handed out has been uploaded; nothing's dirty until the next change
+	public void markUploaded() {
+		System.arraycopy(staging, dirty_first, uploaded, dirty_first, dirty_last - dirty_first);
+		dirty_first = dirty_last = 0;
+	}
+
+	// Forget what was uploaded, e.g. for a new buffer; the next update sends all of it
+	public void invalidate() {
+		source = null;
+		for (int i = 0; i < uploaded.length; i++) {
+			uploaded[i] = Float.NaN;
+		}
+	}
+
+	public int getBlockSize() {
+		return block_size;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * One big uniform buffer that a frame's blocks are appended to, each bound
+ * 	with glBindBufferRange at its own offset, instead of every shader
+ * 	rewriting its own small UBO between draws.  Every material drawn in a
+ * 	frame gets a slice, so the driver never has to wait for a draw still
+ * 	reading the previous contents.
+ *
+ * 	The storage is allocated once; begin() orphans it at the start of each
+ * 	frame so the driver can hand back fresh memory while last frame's draws
+ * 	finish with the old.  When a frame needs more than fits, append()
+ * 	returns -1 and the caller falls back to its own buffer.
+ */
+package engine.render;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.opengl.ARBBufferObject;
+import org.lwjgl.opengl.ARBUniformBufferObject;
+import org.lwjgl.opengl.ARBVertexBufferObject;
+import org.lwjgl.opengl.GL11;
+
+public class UniformRing {
+	public static final int DEFAULT_SIZE = 256 * 1024;
+
+	private final int size;
+	private int buffer_id = 0;
+	private int alignment = 256;
+	private int offset = 0;
+	private int frame = 0;
+
+	public UniformRing() {
+		this(DEFAULT_SIZE);
+	}
+
+	// size in bytes
+	public UniformRing(int size) {
+		this.size = size;
+	}
+
+	// Needs a current context with uniform buffers
+	public void create() {
+		alignment = Math.max(1, GL11.glGetInteger(ARBUniformBufferObject.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT));
+		buffer_id = ARBVertexBufferObject.glGenBuffersARB();
+		ARBBufferObject.glBindBufferARB(ARBUniformBufferObject.GL_UNIFORM_BUFFER, buffer_id);
+		ARBBufferObject.glBufferDataARB(ARBUniformBufferObject.GL_UNIFORM_BUFFER, size, ARBBufferObject.GL_STREAM_DRAW_ARB);
+		ARBBufferObject.glBindBufferARB(ARBUniformBufferObject.GL_UNIFORM_BUFFER, 0);
+	}
+
+	// Start of a frame: orphan last frame's storage and start again from 0
+	public void begin() {
+		if (buffer_id == 0) {
+			return;
+		}
+		frame++;
+		if (offset > 0) {
+			ARBBufferObject.glBindBufferARB(ARBUniformBufferObject.GL_UNIFORM_BUFFER, buffer_id);
+			ARBBufferObject.glBufferDataARB(ARBUniformBufferObject.GL_UNIFORM_BUFFER, size, ARBBufferObject.GL_STREAM_DRAW_ARB);
+		}
+		offset = 0;
+	}
+
+	/*
+	 * Copy block in at the next aligned offset and return that offset, or
+	 * 	-1 if this frame has used it all up.  Leaves the uniform buffer
+	 * 	binding pointing at the ring.
+	 */
+	public int append(FloatBuffer block) {
+		int bytes = block.remaining() * 4;
+		if (buffer_id == 0 || offset + bytes > size) {
+			return -1;
+		}
+		int at = offset;
+		ARBBufferObject.glBindBufferARB(ARBUniformBufferObject.GL_UNIFORM_BUFFER, buffer_id);
+		ARBBufferObject.glBufferSubDataARB(ARBUniformBufferObject.GL_UNIFORM_BUFFER, at, block);
+		offset = alignUp(at + bytes, alignment);
+		return at;
+	}
+
+	public static int alignUp(int value, int alignment) {
+		return (value + alignment - 1) / alignment * alignment;
+	}
+
+	// Goes up with every begin(); a slice from an earlier frame is gone
+	public int getFrame() {
+		return frame;
+	}
+
+	public int getBufferID() {
+		return buffer_id;
+	}
+
+	public int getUsed() {
+		return offset;
+	}
+
+	public void destroy() {
+		if (buffer_id != 0) {
+			ARBBufferObject.glDeleteBuffersARB(buffer_id);
+			buffer_id = 0;
+		}
+	}
+}
@@ -115,7 +115,7 @@ public class Face {
 	}
 
 	public void setUVCoords(ArrayList<Vector2f> UVCoords) {
-		this.UVcoords = new ArrayList<Vector2f>(UVcoords);
+		this.UVcoords = new ArrayList<Vector2f>(UVCoords);
 	}
 	
 	public void setNorm(Vector3f norm) {
@@ -244,52 +244,62 @@ public class Face {
 
 	// *************VBO methods************************
 	public FloatBuffer createFaceBufferVNTC(Mesh mesh) {
-		float faceVNTC[] = new float[vertices.size()*12];
 		// Make sure that the face is at least a triangle
-		if (vertices.size() >= 3) {
-			for (int i = 0; i < vertices.size() * 12; i += 12) {
-				faceVNTC[i] = vertices.get(i / 12).x + mesh.getTransform().x;
-				faceVNTC[1 + i] = vertices.get(i / 12).y + mesh.getTransform().y;
-				faceVNTC[2 + i] = vertices.get(i / 12).z + mesh.getTransform().z;
-				try{
-					faceVNTC[3 + i] = vertexNormals.get(i / 12).x;// + mesh.location.x;
-					faceVNTC[4 + i] = vertexNormals.get(i / 12).y;// + mesh.location.y;
-					faceVNTC[5 + i] = vertexNormals.get(i / 12).z;// + mesh.location.z;
-				}catch(Exception e){
-					Vector3f normal = calculateNormal(
-						vertices.get(0),
-						vertices.get(1),
-						vertices.get(2)
-					);
-					faceVNTC[3 + i] = normal.x;// + mesh.location.x;
-					faceVNTC[4 + i] = normal.y;// + mesh.location.y;
-					faceVNTC[5 + i] = normal.z;// + mesh.location.z;
-				}
-				try {
-					faceVNTC[6 + i] = UVcoords.get(i/12).x;
-					faceVNTC[7 + i] = UVcoords.get(i/12).y;
-				} catch(Exception e) {
-					calculateTextureCoords();
-					faceVNTC[6 + i] = UVcoords.get(i/12).x;
-					faceVNTC[7 + i] = UVcoords.get(i/12).y;
-				}
-
-				faceVNTC[8 + i] = mesh.getMaterial().getFloatColor().get(0);
-				faceVNTC[9 + i] = mesh.getMaterial().getFloatColor().get(1);
-				faceVNTC[10 + i] = mesh.getMaterial().getFloatColor().get(2);
-				faceVNTC[11 + i] = mesh.getMaterial().getAlpha();
-			}
-		} else {
+		if (vertices.size() < 3) {
 			System.out.println(
 				"Tried to parse face, but it has only "
 				+ vertices.size() + " verts"
 			);
 			return null;
 		}
-
+		ArrayList<Float> color = mesh.getMaterial().getFloatColor();
+		float[] rgba = {color.get(0), color.get(1), color.get(2), mesh.getMaterial().getAlpha()};
+		float faceVNTC[] = new float[vertices.size()*12];
+		writeVNTC(mesh, rgba, faceVNTC);
 		return FloatBuffer.wrap(faceVNTC);
 	}
 
+	/*
+	 * 12 floats per corner (position, normal, texture coords, rgba) into
+	 * 	out, which needs room for getVertexCount() * 12.  Missing normals and
+	 * 	texture coords get made up the same way as always.
+	 */
+	public void writeVNTC(Mesh mesh, float[] rgba, float[] out) {
+		Vector3f transform = mesh.getTransform();
+		for (int i = 0; i < vertices.size() * 12; i += 12) {
+			out[i] = vertices.get(i / 12).x + transform.x;
+			out[1 + i] = vertices.get(i / 12).y + transform.y;
+			out[2 + i] = vertices.get(i / 12).z + transform.z;
+			try{
+				out[3 + i] = vertexNormals.get(i / 12).x;// + mesh.location.x;
+				out[4 + i] = vertexNormals.get(i / 12).y;// + mesh.location.y;
+				out[5 + i] = vertexNormals.get(i / 12).z;// + mesh.location.z;
+			}catch(Exception e){
+				Vector3f normal = calculateNormal(
+					vertices.get(0),
+					vertices.get(1),
+					vertices.get(2)
+				);
+				out[3 + i] = normal.x;// + mesh.location.x;
+				out[4 + i] = normal.y;// + mesh.location.y;
+				out[5 + i] = normal.z;// + mesh.location.z;
+			}
+			try {
+				out[6 + i] = UVcoords.get(i/12).x;
+				out[7 + i] = UVcoords.get(i/12).y;
+			} catch(Exception e) {
+				calculateTextureCoords();
+				out[6 + i] = UVcoords.get(i/12).x;
+				out[7 + i] = UVcoords.get(i/12).y;
+			}
+
+			out[8 + i] = rgba[0];
+			out[9 + i] = rgba[1];
+			out[10 + i] = rgba[2];
+			out[11 + i] = rgba[3];
+		}
+	}
+
 	private static boolean last_coord = false;
 	public void calculateTextureCoords() {
 		if(last_coord) {
@@ -230,44 +230,47 @@ public class Mesh implements Cloneable {
 		return data;
 	}
 
+	/*
+	 * Bounds of every vertex, moved by location the same as they are when
+	 * 	they're packed for drawing.  Zero for a mesh without vertices.
+	 */
 	public Vector3f getMaximums() {
-		Vector3f max = new Vector3f();
+		Vector3f max = null;
 		for (Face f : this.faces) {
-			if (f.getVertices().size() > 0) {
-				// find the max and min vertices for each dimension
-				if (f.getVertex(0).x > max.x) max.x = f.getVertex(0).x;
-				if (f.getVertex(1).x > max.x) max.x = f.getVertex(1).x;
-				if (f.getVertex(2).x > max.x) max.x = f.getVertex(2).x;
-
-				if (f.getVertex(0).y > max.y) max.y = f.getVertex(0).y;
-				if (f.getVertex(1).y > max.y) max.y = f.getVertex(1).y;
-				if (f.getVertex(2).y > max.y) max.y = f.getVertex(2).y;
-
-				if (f.getVertex(0).z > max.z) max.z = f.getVertex(0).z;
-				if (f.getVertex(1).z > max.z) max.z = f.getVertex(1).z;
-				if (f.getVertex(2).x > max.x) max.z = f.getVertex(2).z;
+			for (Vector3f v : f.getVertices()) {
+				if (max == null) {
+					max = new Vector3f(v);
+				} else {
+					if (v.x > max.x) max.x = v.x;
+					if (v.y > max.y) max.y = v.y;
+					if (v.z > max.z) max.z = v.z;
+				}
 			}
 		}
+		if (max == null) {
+			return new Vector3f();
+		}
+		max.add(location);
 		return max;
 	}
 
 	public Vector3f getMinimums() {
-		Vector3f min = new Vector3f();
+		Vector3f min = null;
 		for (Face f : this.faces) {
-			if (f.getVertices().size() > 0) {
-				if (f.getVertex(0).x < min.x) min.x = f.getVertex(0).x;
-				if (f.getVertex(1).x < min.x) min.x = f.getVertex(1).x;
-				if (f.getVertex(2).x < min.x) min.x = f.getVertex(2).x;
-
-				if (f.getVertex(0).y < min.y) min.y = f.getVertex(0).y;
-				if (f.getVertex(1).y < min.y) min.y = f.getVertex(1).y;
-				if (f.getVertex(2).y < min.x) min.y = f.getVertex(2).y;
-
-				if (f.getVertex(0).z < min.z) min.z = f.getVertex(0).z;
-				if (f.getVertex(1).z < min.z) min.z = f.getVertex(1).z;
-				if (f.getVertex(2).z < min.z) min.z = f.getVertex(2).z;
+			for (Vector3f v : f.getVertices()) {
+				if (min == null) {
+					min = new Vector3f(v);
+				} else {
+					if (v.x < min.x) min.x = v.x;
+					if (v.y < min.y) min.y = v.y;
+					if (v.z < min.z) min.z = v.z;
+				}
 			}
 		}
+		if (min == null) {
+			return new Vector3f();
+		}
+		min.add(location);
 		return min;
 	}
 
@@ -0,0 +1,189 @@
+/*
+ * Geometry that's already in the shape the VBO wants: one interleaved
+ * 	array of unique vertices (position, normal, texture coords) and an index
+ * 	array of triangles into it.  Importers that can build this directly skip
+ * 	the Face/Mesh objects entirely, which is most of the memory and time for
+ * 	big files.
+ *
+ * 	Colours come from the model's material, unless the mesh has its own
+ * 	per vertex (r g b a) for things like a star field in one draw.
+ *
+ * 	Treated as read only once built, so Models copied from each other can
+ * 	share one.
+ */
+package engine.render.model_pieces;
+
+import java.util.Arrays;
+
+import javax.vecmath.Vector3f;
+
+public class PackedMesh {
+	// x y z, nx ny nz, u v
+	public static final int STRIDE = 8;
+	public static final int NORMAL_OFFSET = 3;
+	public static final int TEXTURE_OFFSET = 6;
+	public static final int COLOR_STRIDE = 4;
+
+	private final float[] vertices;
+	private final int vertex_count;
+	private final int[] indices;
+	private final int index_count;
+	// r g b a per vertex, or null for the material's
+	private final float[] colors;
+	private final Vector3f max = new Vector3f();
+	private final Vector3f min = new Vector3f();
+
+	/*
+	 * The arrays are kept, not copied, and may be longer than needed; only
+	 * 	the first vertex_count vertices and index_count indices are used.
+	 */
+	public PackedMesh(float[] vertices, int vertex_count, int[] indices, int index_count) {
+		this(vertices, vertex_count, indices, index_count, null);
+	}
+
+	// colors is COLOR_STRIDE per vertex, kept the same way
+	public PackedMesh(float[] vertices, int vertex_count, int[] indices, int index_count, float[] colors) {
+		this.vertices = vertices;
+		this.vertex_count = vertex_count;
+		this.indices = indices;
+		this.index_count = index_count;
+		this.colors = colors;
+		calcBounds();
+	}
+
+	private void calcBounds() {
+		if (vertex_count == 0) {
+			return;
+		}
+		max.set(vertices[0], vertices[1], vertices[2]);
+		min.set(max);
+		for (int i = 1; i < vertex_count; i++) {
+			int v = i * STRIDE;
+			max.x = Math.max(max.x, vertices[v]);
+			max.y = Math.max(max.y, vertices[v + 1]);
+			max.z = Math.max(max.z, vertices[v + 2]);
+			min.x = Math.min(min.x, vertices[v]);
+			min.y = Math.min(min.y, vertices[v + 1]);
+			min.z = Math.min(min.z, vertices[v + 2]);
+		}
+	}
+
+	/*
+	 * Smooth normals for vertices that don't have one yet (all zero), by
+	 * 	adding up the normals of every triangle using the vertex.  Bigger
+	 * 	triangles count for more since the cross product isn't normalized
+	 * 	until the end.
+	 */
+	public static void calcNormals(float[] vertices, int vertex_count, int[] indices, int index_count) {
+		boolean[] missing = new boolean[vertex_count];
+		boolean any = false;
+		for (int i = 0; i < vertex_count; i++) {
+			int n = i * STRIDE + NORMAL_OFFSET;
+			missing[i] = vertices[n] == 0 && vertices[n + 1] == 0 && vertices[n + 2] == 0;
+			any |= missing[i];
+		}
+		if (!any) {
+			return;
+		}
+
+		for (int i = 0; i + 2 < index_count; i += 3) {
+			int a = indices[i] * STRIDE;
+			int b = indices[i + 1] * STRIDE;
+			int c = indices[i + 2] * STRIDE;
+			float e1x = vertices[b] - vertices[a], e1y = vertices[b + 1] - vertices[a + 1], e1z = vertices[b + 2] - vertices[a + 2];
+			float e2x = vertices[c] - vertices[a], e2y = vertices[c + 1] - vertices[a + 1], e2z = vertices[c + 2] - vertices[a + 2];
+			float nx = e1y * e2z - e1z * e2y;
+			float ny = e1z * e2x - e1x * e2z;
+			float nz = e1x * e2y - e1y * e2x;
+			for (int k = 0; k < 3; k++) {
+				int vertex = indices[i + k];
+				if (missing[vertex]) {
+					int n = vertex * STRIDE + NORMAL_OFFSET;
+					vertices[n] += nx;
+					vertices[n + 1] += ny;
+					vertices[n + 2] += nz;
+				}
+			}
+		}
+
+		for (int i = 0; i < vertex_count; i++) {
+			if (missing[i]) {
+				int n = i * STRIDE + NORMAL_OFFSET;
+				float len = (float)Math.sqrt(vertices[n] * vertices[n] + vertices[n + 1] * vertices[n + 1] + vertices[n + 2] * vertices[n + 2]);
+				if (len > 0) {
+					vertices[n] /= len;
+					vertices[n + 1] /= len;
+					vertices[n + 2] /= len;
+				}
+			}
+		}
+	}
+
+	// Both meshes' geometry in one, for Model.combineModels
+	public PackedMesh append(PackedMesh other) {
+		float[] new_vertices = new float[(vertex_count + other.vertex_count) * STRIDE];
+		System.arraycopy(vertices, 0, new_vertices, 0, vertex_count * STRIDE);
+		System.arraycopy(other.vertices, 0, new_vertices, vertex_count * STRIDE, other.vertex_count * STRIDE);
+		int[] new_indices = new int[index_count + other.index_count];
+		System.arraycopy(indices, 0, new_indices, 0, index_count);
+		for (int i = 0; i < other.index_count; i++) {
+			new_indices[index_count + i] = other.indices[i] + vertex_count;
+		}
+		// One with colours and one without: the one without goes white
+		float[] new_colors = null;
+		if (colors != null || other.colors != null) {
+			new_colors = new float[(vertex_count + other.vertex_count) * COLOR_STRIDE];
+			Arrays.fill(new_colors, 1f);
+			if (colors != null) {
+				System.arraycopy(colors, 0, new_colors, 0, vertex_count * COLOR_STRIDE);
+			}
+			if (other.colors != null) {
+				System.arraycopy(other.colors, 0, new_colors, vertex_count * COLOR_STRIDE, other.vertex_count * COLOR_STRIDE);
+			}
+		}
+		return new PackedMesh(new_vertices, vertex_count + other.vertex_count, new_indices, index_count + other.index_count, new_colors);
+	}
+
+	/*************** ACCESSORS ***************/
+	public int getVertexCount() {
+		return vertex_count;
+	}
+
+	public int getIndexCount() {
+		return index_count;
+	}
+
+	public int getFaceCount() {
+		return index_count / 3;
+	}
+
+	// Don't modify
+	public float[] getVertices() {
+		return vertices;
+	}
+
+	// Don't modify
+	public int[] getIndices() {
+		return indices;
+	}
+
+	// null when the material colours it; don't modify
+	public float[] getColors() {
+		return colors;
+	}
+
+	public Vector3f getPosition(int vertex, Vector3f out) {
+		int v = vertex * STRIDE;
+		out.set(vertices[v], vertices[v + 1], vertices[v + 2]);
+		return out;
+	}
+
+	public Vector3f getMaximums() {
+		return new Vector3f(max);
+	}
+
+	public Vector3f getMinimums() {
+		return new Vector3f(min);
+	}
+	/******************************************/
+}
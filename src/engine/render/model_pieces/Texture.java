@@ -1,5 +1,7 @@
 package engine.render.model_pieces;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 
@@ -7,21 +9,57 @@ import org.lwjgl.BufferUtils;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL13;
 import org.lwjgl.opengl.GL20;
-import org.newdawn.slick.opengl.TextureLoader;
+import org.newdawn.slick.opengl.ImageDataFactory;
+import org.newdawn.slick.opengl.InternalTextureLoader;
+import org.newdawn.slick.opengl.LoadableImageData;
 
+import engine.render.RenderMode;
 import engine.render.Shader;
-import engine.resource.Resource;
+import engine.resource.AsyncResource;
+import engine.resource.EvictableResource;
 import engine.resource.ResourceManager;
 
-public class Texture implements Resource {
+public class Texture implements AsyncResource, EvictableResource {
 	private org.newdawn.slick.opengl.Texture opengl_texture;
 	private String extension;
+	// Decoded by prepare(), waiting for upload()
+	private LoadableImageData image_data;
 	
 	@Override
 	public void loadFromFile(ResourceManager resource_manager, InputStream is,
 			String extension) throws Exception {
-		opengl_texture = TextureLoader.getTexture(extension, is);
+		decode(is, extension);
+		upload(resource_manager);
+	}
+	
+	// Decoding the image needs no GL, so it can be done on a loading thread
+	@Override
+	public void prepare(ResourceManager resource_manager, File file, String extension) throws Exception {
+		InputStream is = new FileInputStream(file);
+		try {
+			decode(is, extension);
+		} finally {
+			is.close();
+		}
+	}
+	
+	private void decode(InputStream is, String extension) throws Exception {
 		this.extension = extension;
+		// Only the GL texture is kept, so there's nothing to do headless
+		if (RenderMode.isHeadless()) {
+			return;
+		}
+		image_data = ImageDataFactory.getImageDataFor("." + extension);
+		image_data.loadImage(is, false, null);
+	}
+	
+	@Override
+	public void upload(ResourceManager resource_manager) throws Exception {
+		if (RenderMode.isHeadless()) {
+			return;
+		}
+		opengl_texture = InternalTextureLoader.get().getTexture(image_data, GL11.GL_LINEAR);
+		image_data = null;
 
         int width = opengl_texture.getImageWidth();
         int height = opengl_texture.getImageHeight();
@@ -44,7 +82,7 @@ public class Texture implements Resource {
 	}
 	
 	public void draw(Shader shader) {
-		int base_tex = GL20.glGetUniformLocation(shader.getShaderID(), "texture_data");
+		int base_tex = shader.getUniformLocation("texture_data");
 		GL20.glUniform1i(base_tex, 0); //Texture unit 0 is for base images.
 		GL13.glActiveTexture(GL13.GL_TEXTURE0);
 		GL11.glBindTexture(GL11.GL_TEXTURE_2D, opengl_texture.getTextureID());
@@ -54,6 +92,33 @@ public class Texture implements Resource {
 		GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
 	}
 	
+	@Override
+	public long getHeapBytes() {
+		return 0;
+	}
+	
+	// The decoded image, only between prepare() and upload()
+	@Override
+	public long getDirectBytes() {
+		return image_data == null ? 0 : image_data.getImageBufferData().capacity();
+	}
+	
+	@Override
+	public long getGpuBytes() {
+		if (opengl_texture == null) {
+			return 0;
+		}
+		return (long)opengl_texture.getTextureWidth() * opengl_texture.getTextureHeight() * (opengl_texture.hasAlpha() ? 4 : 3);
+	}
+	
+	@Override
+	public void unload() {
+		if (opengl_texture != null) {
+			opengl_texture.release();
+			opengl_texture = null;
+		}
+	}
+	
 	@Override
 	public String toXML() {
 		return "<texture><extension>"+extension+"</extension></texture>";
@@ -0,0 +1,347 @@
+/*
+ * Turns a Model's geometry into what goes in its VBO: each distinct vertex
+ * 	once, and triangles indexing into them.  Corners are welded when every
+ * 	float of the vertex (position, normal, texture coords, colour) matches,
+ * 	so nothing visible changes; a smooth mesh ends up with about a sixth of
+ * 	the vertices it had as one per corner.  Faces of any size are fanned
+ * 	into triangles.
+ *
+ * 	Indices are 16 bit when there are few enough vertices.  The compact
+ * 	layout also drops the colour (the same in every vertex of a one
+ * 	material model, so it's set per draw instead) and stores the normal as
+ * 	signed bytes: 24 bytes a vertex instead of 48.
+ *
+ * 	No GL calls, so it can be run and benchmarked without a context.
+ */
+package engine.render.model_pieces;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+
+import engine.render.ubos.Material;
+
+public class VertexPacker {
+	// position, normal, texture coords, rgba; all floats
+	public static final int FULL_STRIDE = 48;
+	// position, normal as 4 signed bytes, texture coords
+	public static final int COMPACT_STRIDE = 24;
+	public static final int NORMAL_OFFSET = 12;
+	private static final int FLOATS = 12;
+
+	private final boolean compact;
+
+	// Welded vertices, FLOATS each, and the triangles using them
+	private float[] vertices = new float[64 * FLOATS];
+	private int vertex_count;
+	private int[] indices = new int[64];
+	private int index_count;
+	// Open addressing on the whole vertex, holding vertex + 1
+	private int[] table = new int[128];
+	private float[] face = new float[4 * FLOATS];
+	private int[] polygon = new int[4];
+	// The colour every vertex has, until one doesn't
+	private float[] color;
+	private boolean one_color = true;
+	// What the one vertex per corner layout would have taken
+	private long unpacked_bytes;
+
+	private ByteBuffer vertex_buffer;
+	private ByteBuffer index_buffer;
+	private boolean packed_compact;
+
+	// compact is a request; it's ignored if the meshes have different colours
+	public VertexPacker(boolean compact) {
+		this.compact = compact;
+	}
+
+	/*
+	 * Buffers packed some other time (see BakedModel), kept as they are.
+	 * 	Nothing can be added; color is the draw colour for the compact layout.
+	 */
+	public VertexPacker(ByteBuffer vertex_buffer, int vertex_count, ByteBuffer index_buffer, int index_count, boolean compact, float[] color) {
+		this.compact = compact;
+		this.vertex_buffer = vertex_buffer;
+		this.vertex_count = vertex_count;
+		this.index_buffer = index_buffer;
+		this.index_count = index_count;
+		this.color = color;
+		// Baking asks for compact, so full vertices mean the colours differed
+		one_color = compact;
+		packed_compact = compact;
+		unpacked_bytes = getBytes();
+		vertices = null;
+		indices = null;
+		table = null;
+	}
+
+	/*************** ADDING ***************/
+	public void addMesh(Mesh mesh) {
+		float[] rgba = rgba(mesh.getMaterial());
+		for (Face f : mesh.getFaces()) {
+			int corners = f.getVertexCount();
+			if (corners < 3) {
+				System.out.println("Tried to pack face, but it has only " + corners + " verts");
+				continue;
+			}
+			if (corners * FLOATS > face.length) {
+				face = new float[corners * FLOATS];
+				polygon = new int[corners];
+			}
+			f.writeVNTC(mesh, rgba, face);
+			for (int c = 0; c < corners; c++) {
+				polygon[c] = weld(face, c * FLOATS);
+			}
+			for (int c = 2; c < corners; c++) {
+				addTriangle(polygon[0], polygon[c - 1], polygon[c]);
+			}
+			unpacked_bytes += corners * (FULL_STRIDE + 4L);
+		}
+	}
+
+	// Already unique, so its vertices go straight in without welding
+	public void addPackedMesh(PackedMesh packed, Material material) {
+		float[] rgba = rgba(material);
+		float[] colors = packed.getColors();
+		if (colors != null) {
+			// Every vertex its own colour, so they have to stay in the vertices
+			one_color = false;
+		}
+		int first = vertex_count;
+		float[] source = packed.getVertices();
+		ensureVertices(vertex_count + packed.getVertexCount());
+		for (int i = 0; i < packed.getVertexCount(); i++) {
+			int v = vertex_count++ * FLOATS;
+			System.arraycopy(source, i * PackedMesh.STRIDE, vertices, v, PackedMesh.STRIDE);
+			if (colors != null) {
+				System.arraycopy(colors, i * PackedMesh.COLOR_STRIDE, vertices, v + PackedMesh.STRIDE, 4);
+			} else {
+				System.arraycopy(rgba, 0, vertices, v + PackedMesh.STRIDE, 4);
+			}
+		}
+		int[] source_indices = packed.getIndices();
+		for (int i = 0; i + 2 < packed.getIndexCount(); i += 3) {
+			addTriangle(first + source_indices[i], first + source_indices[i + 1], first + source_indices[i + 2]);
+		}
+		unpacked_bytes += packed.getVertexCount() * (long)FULL_STRIDE + packed.getIndexCount() * 4L;
+	}
+
+	private float[] rgba(Material material) {
+		ArrayList<Float> rgb = material.getFloatColor();
+		float[] rgba = {rgb.get(0), rgb.get(1), rgb.get(2), material.getAlpha()};
+		if (color == null) {
+			color = rgba;
+		} else if (!Arrays.equals(color, rgba)) {
+			one_color = false;
+		}
+		return rgba;
+	}
+
+	private void addTriangle(int a, int b, int c) {
+		if (index_count + 3 > indices.length) {
+			indices = Arrays.copyOf(indices, indices.length * 2);
+		}
+		indices[index_count++] = a;
+		indices[index_count++] = b;
+		indices[index_count++] = c;
+	}
+
+	private void ensureVertices(int count) {
+		if (count * FLOATS > vertices.length) {
+			vertices = Arrays.copyOf(vertices, Math.max(count * FLOATS, vertices.length * 2));
+		}
+	}
+	/******************************************/
+
+	/*************** WELDING ***************/
+	// The vertex already holding exactly these FLOATS floats, or a new one
+	private int weld(float[] source, int offset) {
+		if (vertex_count * 2 >= table.length) {
+			rehash();
+		}
+		for (int k = 0; k < FLOATS; k++) {
+			// No -0, so equal vertices hash the same
+			source[offset + k] += 0f;
+		}
+		int mask = table.length - 1;
+		int slot = hash(source, offset) & mask;
+		while (table[slot] != 0) {
+			int v = (table[slot] - 1) * FLOATS;
+			if (matches(source, offset, v)) {
+				return table[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		ensureVertices(vertex_count + 1);
+		System.arraycopy(source, offset, vertices, vertex_count * FLOATS, FLOATS);
+		table[slot] = vertex_count + 1;
+		return vertex_count++;
+	}
+
+	private boolean matches(float[] source, int offset, int v) {
+		for (int k = 0; k < FLOATS; k++) {
+			if (vertices[v + k] != source[offset + k]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash() {
+		int[] bigger = new int[table.length * 2];
+		int mask = bigger.length - 1;
+		for (int entry : table) {
+			if (entry != 0) {
+				int slot = hash(vertices, (entry - 1) * FLOATS) & mask;
+				while (bigger[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				bigger[slot] = entry;
+			}
+		}
+		table = bigger;
+	}
+
+	private static int hash(float[] source, int offset) {
+		int h = 0;
+		for (int k = 0; k < FLOATS; k++) {
+			h = (h + Float.floatToIntBits(source[offset + k])) * 0x9E3779B1;
+		}
+		// Round numbers have all zero low bits, and so would h; mix the high ones down
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		return h ^ (h >>> 16);
+	}
+	/******************************************/
+
+	/*************** PACKING ***************/
+	// Build the buffers; nothing can be added after this
+	public void finish() {
+		packed_compact = compact && one_color;
+		int stride = packed_compact ? COMPACT_STRIDE : FULL_STRIDE;
+		vertex_buffer = BufferUtils.createByteBuffer(Math.max(1, vertex_count) * stride);
+		if (packed_compact) {
+			for (int i = 0; i < vertex_count; i++) {
+				int v = i * FLOATS;
+				vertex_buffer.putFloat(vertices[v]).putFloat(vertices[v + 1]).putFloat(vertices[v + 2]);
+				vertex_buffer.put(toByte(vertices[v + 3])).put(toByte(vertices[v + 4])).put(toByte(vertices[v + 5])).put((byte)0);
+				vertex_buffer.putFloat(vertices[v + 6]).putFloat(vertices[v + 7]);
+			}
+		} else {
+			FloatBuffer floats = vertex_buffer.asFloatBuffer();
+			floats.put(vertices, 0, vertex_count * FLOATS);
+			vertex_buffer.position(vertex_count * FLOATS * 4);
+		}
+		vertex_buffer.flip();
+
+		if (isShortIndices()) {
+			index_buffer = BufferUtils.createByteBuffer(Math.max(1, index_count) * 2);
+			ShortBuffer shorts = index_buffer.asShortBuffer();
+			for (int i = 0; i < index_count; i++) {
+				shorts.put((short)indices[i]);
+			}
+			index_buffer.position(index_count * 2);
+		} else {
+			index_buffer = BufferUtils.createByteBuffer(Math.max(1, index_count) * 4);
+			IntBuffer ints = index_buffer.asIntBuffer();
+			ints.put(indices, 0, index_count);
+			index_buffer.position(index_count * 4);
+		}
+		index_buffer.flip();
+
+		vertices = null;
+		indices = null;
+		table = null;
+	}
+
+	// -1..1 to a normalized GL_BYTE
+	private static byte toByte(float value) {
+		return (byte)Math.round(Math.max(-1f, Math.min(1f, value)) * 127f);
+	}
+	/******************************************/
+
+	/*************** RESULTS ***************/
+	public ByteBuffer getVertexBuffer() {
+		return vertex_buffer;
+	}
+
+	public ByteBuffer getIndexBuffer() {
+		return index_buffer;
+	}
+
+	public int getVertexCount() {
+		return vertex_count;
+	}
+
+	public int getIndexCount() {
+		return index_count;
+	}
+
+	public boolean isCompact() {
+		return packed_compact;
+	}
+
+	// Every index fits in an unsigned short
+	public boolean isShortIndices() {
+		return vertex_count <= 65536;
+	}
+
+	public int getIndexType() {
+		return isShortIndices() ? GL11.GL_UNSIGNED_SHORT : GL11.GL_UNSIGNED_INT;
+	}
+
+	public int getStride() {
+		return packed_compact ? COMPACT_STRIDE : FULL_STRIDE;
+	}
+
+	public int getNormalType() {
+		return packed_compact ? GL11.GL_BYTE : GL11.GL_FLOAT;
+	}
+
+	public int getTextureOffset() {
+		return packed_compact ? 16 : 24;
+	}
+
+	// -1 when the colour isn't in the vertices; use getColor() for the draw
+	public int getColorOffset() {
+		return packed_compact ? -1 : 32;
+	}
+
+	// Whether the vertices' colours differ; if not, it's the material's one colour
+	public boolean hasVertexColors() {
+		return !one_color;
+	}
+
+	public float[] getColor() {
+		return color == null ? new float[] {1, 1, 1, 1} : color.clone();
+	}
+
+	public long getBytes() {
+		return vertex_buffer.limit() + (long)index_buffer.limit();
+	}
+
+	// Vertex and index bytes the old one vertex per corner packing used
+	public long getUnpackedBytes() {
+		return unpacked_bytes;
+	}
+
+	public long getSavedBytes() {
+		return unpacked_bytes - getBytes();
+	}
+	/******************************************/
+
+	@Override
+	public String toString() {
+		return vertex_count + " vertices, " + index_count + " indices ("
+			+ (isShortIndices() ? 16 : 32) + " bit, " + (packed_compact ? "compact" : "full") + "), "
+			+ getBytes() + " bytes instead of " + unpacked_bytes;
+	}
+}
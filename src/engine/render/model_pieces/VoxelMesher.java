@@ -0,0 +1,205 @@
+/*
+ * Turns a cube of voxels into one PackedMesh, drawing only the faces that
+ * 	can be seen and merging them into as few quads as it can.
+ *
+ * 	Voxels are ARGB ints, x + size * y + size^2 * z, with an alpha of 0
+ * 	meaning empty.  A face is kept when its voxel is solid and the one on
+ * 	the other side of it is empty (or off the edge).  Each slice of faces
+ * 	pointing the same way is then covered greedily: from the first face
+ * 	left, grow a rectangle along the row while the colour matches, then
+ * 	down while every face of the next row matches, and emit that as one
+ * 	quad.  A solid one colour cube is 6 quads however big it is.
+ *
+ * 	Colours go in the vertices rather than a material per voxel.  Voxel
+ * 	x, y, z is a unit cube centred on x, -y, z, where the editor has always
+ * 	put them (layers go down).  No GL calls.
+ */
+package engine.render.model_pieces;
+
+import java.util.Arrays;
+
+public class VoxelMesher {
+	// A quad's corners in order, as fractions of its width and height
+	private static final int[][] CORNERS = {{0, 0}, {1, 0}, {1, 1}, {0, 1}};
+
+	// Quads the last mesh() made, and how many visible voxel faces they cover
+	private int quads, faces;
+	private int[] mask = new int[0];
+	private float[] vertices = new float[64 * PackedMesh.STRIDE];
+	private float[] colors = new float[64 * PackedMesh.COLOR_STRIDE];
+	private int vertex_count;
+	private int[] indices = new int[96];
+	private int index_count;
+	// Scratch for quad()
+	private final float[] corner = new float[12];
+	private final float[] grid = new float[3];
+	private final float[] normal = new float[3];
+
+	public static boolean isSolid(int argb) {
+		return (argb >>> 24) != 0;
+	}
+
+	public PackedMesh mesh(int[] voxels, int size) {
+		quads = 0;
+		faces = 0;
+		vertex_count = 0;
+		index_count = 0;
+		if (mask.length < size * size) {
+			mask = new int[size * size];
+		}
+
+		int[] x = new int[3];
+		int[] step = new int[3];
+		// Each axis, and the faces pointing down it then up it
+		for (int d = 0; d < 3; d++) {
+			int u = (d + 1) % 3;
+			int v = (d + 2) % 3;
+			Arrays.fill(step, 0);
+			step[d] = 1;
+			for (int side = -1; side <= 1; side += 2) {
+				for (x[d] = 0; x[d] < size; x[d]++) {
+					// Which faces of this slice show, and their colours
+					int n = 0;
+					for (x[v] = 0; x[v] < size; x[v]++) {
+						for (x[u] = 0; x[u] < size; x[u]++) {
+							int color = voxels[x[0] + size * x[1] + size * size * x[2]];
+							int next = x[d] + side;
+							boolean covered = next >= 0 && next < size
+								&& isSolid(voxels[x[0] + step[0] * side + size * (x[1] + step[1] * side) + size * size * (x[2] + step[2] * side)]);
+							mask[n++] = (isSolid(color) && !covered) ? color : 0;
+						}
+					}
+					greedy(mask, size, d, u, v, x[d], side);
+				}
+			}
+		}
+
+		return new PackedMesh(
+			Arrays.copyOf(vertices, vertex_count * PackedMesh.STRIDE), vertex_count,
+			Arrays.copyOf(indices, index_count), index_count,
+			Arrays.copyOf(colors, vertex_count * PackedMesh.COLOR_STRIDE)
+		);
+	}
+
+	// Cover one slice's faces with rectangles of one colour each
+	private void greedy(int[] mask, int size, int d, int u, int v, int slice, int side) {
+		for (int j = 0; j < size; j++) {
+			for (int i = 0; i < size; ) {
+				int color = mask[i + j * size];
+				if (color == 0) {
+					i++;
+					continue;
+				}
+				int width = 1;
+				while (i + width < size && mask[i + width + j * size] == color) {
+					width++;
+				}
+				int height = 1;
+				grow:
+				while (j + height < size) {
+					for (int k = 0; k < width; k++) {
+						if (mask[i + k + (j + height) * size] != color) {
+							break grow;
+						}
+					}
+					height++;
+				}
+				for (int h = 0; h < height; h++) {
+					for (int k = 0; k < width; k++) {
+						mask[i + k + (j + h) * size] = 0;
+					}
+				}
+				faces += width * height;
+				quad(d, u, v, side > 0 ? slice + 1 : slice, i, j, width, height, side, color);
+				i += width;
+			}
+		}
+	}
+
+	/*
+	 * A quad on the plane at grid coordinate plane along d, covering i to
+	 * 	i + width along u and j to j + height along v, facing side.  Grid
+	 * 	coordinates are the voxels' corners; world is shifted half a voxel
+	 * 	and has y flipped.
+	 */
+	private void quad(int d, int u, int v, int plane, int i, int j, int width, int height, int side, int color) {
+		ensure(vertex_count + 4, index_count + 6);
+		for (int c = 0; c < 4; c++) {
+			grid[d] = plane;
+			grid[u] = i + CORNERS[c][0] * width;
+			grid[v] = j + CORNERS[c][1] * height;
+			corner[c * 3] = grid[0] - 0.5f;
+			corner[c * 3 + 1] = 0.5f - grid[1];
+			corner[c * 3 + 2] = grid[2] - 0.5f;
+		}
+		normal[0] = normal[1] = normal[2] = 0;
+		normal[d] = side;
+		// y is flipped going into the world
+		normal[1] = -normal[1];
+
+		// Wind it counter clockwise seen from where it faces
+		float e1x = corner[3] - corner[0], e1y = corner[4] - corner[1], e1z = corner[5] - corner[2];
+		float e2x = corner[6] - corner[0], e2y = corner[7] - corner[1], e2z = corner[8] - corner[2];
+		float facing = (e1y * e2z - e1z * e2y) * normal[0] + (e1z * e2x - e1x * e2z) * normal[1] + (e1x * e2y - e1y * e2x) * normal[2];
+
+		float r = ((color >> 16) & 0xFF) / 255f;
+		float g = ((color >> 8) & 0xFF) / 255f;
+		float b = (color & 0xFF) / 255f;
+		float a = ((color >>> 24) & 0xFF) / 255f;
+		int first = vertex_count;
+		for (int c = 0; c < 4; c++) {
+			int at = vertex_count * PackedMesh.STRIDE;
+			vertices[at] = corner[c * 3];
+			vertices[at + 1] = corner[c * 3 + 1];
+			vertices[at + 2] = corner[c * 3 + 2];
+			vertices[at + PackedMesh.NORMAL_OFFSET] = normal[0];
+			vertices[at + PackedMesh.NORMAL_OFFSET + 1] = normal[1];
+			vertices[at + PackedMesh.NORMAL_OFFSET + 2] = normal[2];
+			// In voxels, so a texture repeats once a voxel
+			vertices[at + PackedMesh.TEXTURE_OFFSET] = CORNERS[c][0] * width;
+			vertices[at + PackedMesh.TEXTURE_OFFSET + 1] = CORNERS[c][1] * height;
+			int col = vertex_count * PackedMesh.COLOR_STRIDE;
+			colors[col] = r;
+			colors[col + 1] = g;
+			colors[col + 2] = b;
+			colors[col + 3] = a;
+			vertex_count++;
+		}
+		if (facing > 0) {
+			addTriangle(first, first + 1, first + 2);
+			addTriangle(first, first + 2, first + 3);
+		} else {
+			addTriangle(first, first + 2, first + 1);
+			addTriangle(first, first + 3, first + 2);
+		}
+		quads++;
+	}
+
+	private void addTriangle(int a, int b, int c) {
+		indices[index_count++] = a;
+		indices[index_count++] = b;
+		indices[index_count++] = c;
+	}
+
+	private void ensure(int vertex_total, int index_total) {
+		if (vertex_total * PackedMesh.STRIDE > vertices.length) {
+			int grown = Math.max(vertex_total, vertices.length / PackedMesh.STRIDE * 2);
+			vertices = Arrays.copyOf(vertices, grown * PackedMesh.STRIDE);
+			colors = Arrays.copyOf(colors, grown * PackedMesh.COLOR_STRIDE);
+		}
+		if (index_total > indices.length) {
+			indices = Arrays.copyOf(indices, Math.max(index_total, indices.length * 2));
+		}
+	}
+
+	/*************** RESULTS ***************/
+	public int getQuadCount() {
+		return quads;
+	}
+
+	// Visible voxel faces, i.e. the quads there'd be without merging
+	public int getFaceCount() {
+		return faces;
+	}
+	/******************************************/
+}
@@ -1,5 +1,7 @@
 package engine.render.primitives;
 
+import java.util.HashMap;
+
 import javax.vecmath.Vector3f;
 
 import com.bulletphysics.collision.shapes.BoxShape;
@@ -13,6 +15,9 @@ import engine.render.model_pieces.Mesh;
 import engine.render.ubos.Material;
 
 public class Box extends Entity {
+	// One model per size that every box that size draws from, so they share a VBO and batch together
+	private static final HashMap<Vector3f, Model> geometry = new HashMap<Vector3f, Model>();
+
 	private Model model;
 	private Vector3f halfExtent;
 	
@@ -21,92 +26,108 @@ public class Box extends Entity {
 		halfExtent.scale(0.5f);
 		model = new Model(shader);
 		createModel();
+		model.shareGeometry(getGeometry(halfExtent));
 		CollisionShape shape = new BoxShape(halfExtent);
 		shape.setMargin(0.04f);
 		model.setCollisionShape(shape);
 		this.setProperty(Entity.MODEL, model);
-		initialSetup((String)data.get(Entity.NAME), mass, collidable, model, shader);
+		initialSetup(getName(), mass, collidable, model, shader);
 	}
 	
 	public Model createModel() {
 		if(halfExtent != null) {
-			Mesh mesh = new Mesh();
-			
-			//left side top triangle
-			Vector3f[] vertices = new Vector3f[3];
-			vertices[0] = new Vector3f(-halfExtent.x,halfExtent.y,-halfExtent.z);
-			vertices[1] = new Vector3f(-halfExtent.x,-halfExtent.y,-halfExtent.z);
-			vertices[2] = new Vector3f(-halfExtent.x,halfExtent.y,halfExtent.z);
-			mesh.addFace(new Face(vertices));
-			//left side bottom triangle
-			vertices[0] = new Vector3f(-halfExtent.x,-halfExtent.y,-halfExtent.z);
-			vertices[1] = new Vector3f(-halfExtent.x,-halfExtent.y,halfExtent.z);
-			vertices[2] = new Vector3f(-halfExtent.x,halfExtent.y,halfExtent.z);
-			mesh.addFace(new Face(vertices));
-			
-			//right side top triangle
-			vertices[0] = new Vector3f(halfExtent.x,halfExtent.y,halfExtent.z);
-			vertices[1] = new Vector3f(halfExtent.x,-halfExtent.y,halfExtent.z);
-			vertices[2] = new Vector3f(halfExtent.x,halfExtent.y,-halfExtent.z);
-			mesh.addFace(new Face(vertices));
-			//right side bottom triangle
-			vertices[0] = new Vector3f(halfExtent.x,-halfExtent.y,halfExtent.z);
-			vertices[1] = new Vector3f(halfExtent.x,-halfExtent.y,-halfExtent.z);
-			vertices[2] = new Vector3f(halfExtent.x,halfExtent.y,-halfExtent.z);
-			mesh.addFace(new Face(vertices));
-			
-			//top side left triangle
-			vertices[0] = new Vector3f(-halfExtent.x,halfExtent.y,-halfExtent.z);
-			vertices[1] = new Vector3f(-halfExtent.x,halfExtent.y,halfExtent.z);
-			vertices[2] = new Vector3f(halfExtent.x,halfExtent.y,-halfExtent.z);
-			mesh.addFace(new Face(vertices));
-			//top side right triangle
-			vertices[0] = new Vector3f(-halfExtent.x,halfExtent.y,halfExtent.z);
-			vertices[1] = new Vector3f(halfExtent.x,halfExtent.y,halfExtent.z);
-			vertices[2] = new Vector3f(halfExtent.x,halfExtent.y,-halfExtent.z);
-			mesh.addFace(new Face(vertices));
-			
-			//bottom side left triangle
-			vertices[0] = new Vector3f(-halfExtent.x,-halfExtent.y,halfExtent.z);
-			vertices[1] = new Vector3f(-halfExtent.x,-halfExtent.y,-halfExtent.z);
-			vertices[2] = new Vector3f(halfExtent.x,-halfExtent.y,-halfExtent.z);
-			mesh.addFace(new Face(vertices));
-			//bottom side right triangle
-			vertices[0] = new Vector3f(-halfExtent.x,-halfExtent.y,halfExtent.z);
-			vertices[1] = new Vector3f(halfExtent.x,-halfExtent.y,halfExtent.z);
-			vertices[2] = new Vector3f(halfExtent.x,-halfExtent.y,-halfExtent.z);
-			mesh.addFace(new Face(vertices));
-			
-			//front side top triangle
-			vertices[0] = new Vector3f(-halfExtent.x,halfExtent.y,halfExtent.z);
-			vertices[1] = new Vector3f(-halfExtent.x,-halfExtent.y,halfExtent.z);
-			vertices[2] = new Vector3f(halfExtent.x,halfExtent.y,halfExtent.z);
-			mesh.addFace(new Face(vertices));
-			//front side bottom triangle
-			vertices[0] = new Vector3f(-halfExtent.x,-halfExtent.y,halfExtent.z);
-			vertices[1] = new Vector3f(halfExtent.x,-halfExtent.y,halfExtent.z);
-			vertices[2] = new Vector3f(halfExtent.x,halfExtent.y,halfExtent.z);
-			mesh.addFace(new Face(vertices));
-			
-			//rear side top triangle
-			vertices[0] = new Vector3f(halfExtent.x,-halfExtent.y,-halfExtent.z);
-			vertices[1] = new Vector3f(halfExtent.x,halfExtent.y,-halfExtent.z);
-			vertices[2] = new Vector3f(-halfExtent.x,-halfExtent.y,-halfExtent.z);
-			mesh.addFace(new Face(vertices));
-			//rear side bottom triangle
-			vertices[0] = new Vector3f(halfExtent.x,halfExtent.y,-halfExtent.z);
-			vertices[1] = new Vector3f(-halfExtent.x,halfExtent.y,-halfExtent.z);
-			vertices[2] = new Vector3f(-halfExtent.x,-halfExtent.y,-halfExtent.z);
-			mesh.addFace(new Face(vertices));
-			mesh.setMaterial(new Material());
-			
-			mesh.calcNormals(true);
-			
-			model.addMesh(mesh);
+			model.addMesh(createMesh(halfExtent));
 		}
 		
 		return model;
 	}
+
+	private static synchronized Model getGeometry(Vector3f halfExtent) {
+		Model source = geometry.get(halfExtent);
+		if(source == null) {
+			source = new Model();
+			source.addMesh(createMesh(halfExtent));
+			geometry.put(new Vector3f(halfExtent), source);
+		}
+		return source;
+	}
+	
+	// Two triangles a side, centred on the origin
+	public static Mesh createMesh(Vector3f halfExtent) {
+		Mesh mesh = new Mesh();
+		
+		//left side top triangle
+		Vector3f[] vertices = new Vector3f[3];
+		vertices[0] = new Vector3f(-halfExtent.x,halfExtent.y,-halfExtent.z);
+		vertices[1] = new Vector3f(-halfExtent.x,-halfExtent.y,-halfExtent.z);
+		vertices[2] = new Vector3f(-halfExtent.x,halfExtent.y,halfExtent.z);
+		mesh.addFace(new Face(vertices));
+		//left side bottom triangle
+		vertices[0] = new Vector3f(-halfExtent.x,-halfExtent.y,-halfExtent.z);
+		vertices[1] = new Vector3f(-halfExtent.x,-halfExtent.y,halfExtent.z);
+		vertices[2] = new Vector3f(-halfExtent.x,halfExtent.y,halfExtent.z);
+		mesh.addFace(new Face(vertices));
+		
+		//right side top triangle
+		vertices[0] = new Vector3f(halfExtent.x,halfExtent.y,halfExtent.z);
+		vertices[1] = new Vector3f(halfExtent.x,-halfExtent.y,halfExtent.z);
+		vertices[2] = new Vector3f(halfExtent.x,halfExtent.y,-halfExtent.z);
+		mesh.addFace(new Face(vertices));
+		//right side bottom triangle
+		vertices[0] = new Vector3f(halfExtent.x,-halfExtent.y,halfExtent.z);
+		vertices[1] = new Vector3f(halfExtent.x,-halfExtent.y,-halfExtent.z);
+		vertices[2] = new Vector3f(halfExtent.x,halfExtent.y,-halfExtent.z);
+		mesh.addFace(new Face(vertices));
+		
+		//top side left triangle
+		vertices[0] = new Vector3f(-halfExtent.x,halfExtent.y,-halfExtent.z);
+		vertices[1] = new Vector3f(-halfExtent.x,halfExtent.y,halfExtent.z);
+		vertices[2] = new Vector3f(halfExtent.x,halfExtent.y,-halfExtent.z);
+		mesh.addFace(new Face(vertices));
+		//top side right triangle
+		vertices[0] = new Vector3f(-halfExtent.x,halfExtent.y,halfExtent.z);
+		vertices[1] = new Vector3f(halfExtent.x,halfExtent.y,halfExtent.z);
+		vertices[2] = new Vector3f(halfExtent.x,halfExtent.y,-halfExtent.z);
+		mesh.addFace(new Face(vertices));
+		
+		//bottom side left triangle
+		vertices[0] = new Vector3f(-halfExtent.x,-halfExtent.y,halfExtent.z);
+		vertices[1] = new Vector3f(-halfExtent.x,-halfExtent.y,-halfExtent.z);
+		vertices[2] = new Vector3f(halfExtent.x,-halfExtent.y,-halfExtent.z);
+		mesh.addFace(new Face(vertices));
+		//bottom side right triangle
+		vertices[0] = new Vector3f(-halfExtent.x,-halfExtent.y,halfExtent.z);
+		vertices[1] = new Vector3f(halfExtent.x,-halfExtent.y,halfExtent.z);
+		vertices[2] = new Vector3f(halfExtent.x,-halfExtent.y,-halfExtent.z);
+		mesh.addFace(new Face(vertices));
+		
+		//front side top triangle
+		vertices[0] = new Vector3f(-halfExtent.x,halfExtent.y,halfExtent.z);
+		vertices[1] = new Vector3f(-halfExtent.x,-halfExtent.y,halfExtent.z);
+		vertices[2] = new Vector3f(halfExtent.x,halfExtent.y,halfExtent.z);
+		mesh.addFace(new Face(vertices));
+		//front side bottom triangle
+		vertices[0] = new Vector3f(-halfExtent.x,-halfExtent.y,halfExtent.z);
+		vertices[1] = new Vector3f(halfExtent.x,-halfExtent.y,halfExtent.z);
+		vertices[2] = new Vector3f(halfExtent.x,halfExtent.y,halfExtent.z);
+		mesh.addFace(new Face(vertices));
+		
+		//rear side top triangle
+		vertices[0] = new Vector3f(halfExtent.x,-halfExtent.y,-halfExtent.z);
+		vertices[1] = new Vector3f(halfExtent.x,halfExtent.y,-halfExtent.z);
+		vertices[2] = new Vector3f(-halfExtent.x,-halfExtent.y,-halfExtent.z);
+		mesh.addFace(new Face(vertices));
+		//rear side bottom triangle
+		vertices[0] = new Vector3f(halfExtent.x,halfExtent.y,-halfExtent.z);
+		vertices[1] = new Vector3f(-halfExtent.x,halfExtent.y,-halfExtent.z);
+		vertices[2] = new Vector3f(-halfExtent.x,-halfExtent.y,-halfExtent.z);
+		mesh.addFace(new Face(vertices));
+		mesh.setMaterial(new Material());
+		
+		mesh.calcNormals(true);
+		
+		return mesh;
+	}
 	
 	public Model getModel() {
 		return model;
@@ -1,13 +1,10 @@
 package engine.render.ubos;
 
-import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 
 import javax.vecmath.Vector3f;
 import javax.vecmath.Vector4f;
 
-import org.lwjgl.BufferUtils;
-
 import engine.render.UBO.Type;
 
 public class Light implements UBOInterface {
@@ -23,6 +20,8 @@ public class Light implements UBOInterface {
     private float spot_exponent;
     private int num_lights=0;
     private int light_index=0;
+    // Bumped by the setters; see UBOInterface.getVersion()
+    private int version;
     //private static final int size = 24;
     private static final String name = "light";
     
@@ -64,64 +63,65 @@ public class Light implements UBOInterface {
 			this.spot_exponent=0;
 		}
 		
-	public FloatBuffer createBuffer(int block_size, IntBuffer offsets) {
-		FloatBuffer buf = BufferUtils.createFloatBuffer(block_size/4);
-		float[] copy_array = new float[block_size/4];
-		
-		int i=0;
-		copy_array[offsets.get(i)/4 + 0] = position.x;
-		copy_array[offsets.get(i)/4 + 1] = position.y;
-		copy_array[offsets.get(i)/4 + 2] = position.z;
-		copy_array[offsets.get(i)/4 + 3] = position.w;
+	public void write(float[] block, IntBuffer offsets) {
+		write(block, offsets, 0);
+	}
+	
+	// As one of Lights' array, whose offsets start at first
+	public void write(float[] block, IntBuffer offsets, int first) {
+		int i=first;
+		block[offsets.get(i)/4 + 0] = position.x;
+		block[offsets.get(i)/4 + 1] = position.y;
+		block[offsets.get(i)/4 + 2] = position.z;
+		block[offsets.get(i)/4 + 3] = position.w;
 		
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = ambient.x;
-		copy_array[offsets.get(i)/4 + 1] = ambient.y;
-		copy_array[offsets.get(i)/4 + 2] = ambient.z;
-		copy_array[offsets.get(i)/4 + 3] = ambient.w;
+		block[offsets.get(i)/4 + 0] = ambient.x;
+		block[offsets.get(i)/4 + 1] = ambient.y;
+		block[offsets.get(i)/4 + 2] = ambient.z;
+		block[offsets.get(i)/4 + 3] = ambient.w;
 		
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = diffuse.x;
-		copy_array[offsets.get(i)/4 + 1] = diffuse.y;
-		copy_array[offsets.get(i)/4 + 2] = diffuse.z;
-		copy_array[offsets.get(i)/4 + 3] = diffuse.w;
+		block[offsets.get(i)/4 + 0] = diffuse.x;
+		block[offsets.get(i)/4 + 1] = diffuse.y;
+		block[offsets.get(i)/4 + 2] = diffuse.z;
+		block[offsets.get(i)/4 + 3] = diffuse.w;
 		
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = specular.x;
-		copy_array[offsets.get(i)/4 + 1] = specular.y;
-		copy_array[offsets.get(i)/4 + 2] = specular.z;
-		copy_array[offsets.get(i)/4 + 3] = specular.w;
+		block[offsets.get(i)/4 + 0] = specular.x;
+		block[offsets.get(i)/4 + 1] = specular.y;
+		block[offsets.get(i)/4 + 2] = specular.z;
+		block[offsets.get(i)/4 + 3] = specular.w;
 	
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = constant_attenuation;
+		block[offsets.get(i)/4 + 0] = constant_attenuation;
 	
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = linear_attenuation;
+		block[offsets.get(i)/4 + 0] = linear_attenuation;
 		
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = quadratic_attenuation;
+		block[offsets.get(i)/4 + 0] = quadratic_attenuation;
 		
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = spot_direction.x;
-		copy_array[offsets.get(i)/4 + 1] = spot_direction.y;
-		copy_array[offsets.get(i)/4 + 2] = spot_direction.z;
+		block[offsets.get(i)/4 + 0] = spot_direction.x;
+		block[offsets.get(i)/4 + 1] = spot_direction.y;
+		block[offsets.get(i)/4 + 2] = spot_direction.z;
 
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = spot_cutoff;
+		block[offsets.get(i)/4 + 0] = spot_cutoff;
 
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = spot_exponent;
+		block[offsets.get(i)/4 + 0] = spot_exponent;
 		
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = light_index;
+		block[offsets.get(i)/4 + 0] = light_index;
 		
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = num_lights;
-		
-		buf.put(copy_array);
-		buf.flip();
-
-		return buf;
+		block[offsets.get(i)/4 + 0] = num_lights;
+	}
+	
+	public int getVersion() {
+		return version;
 	}
 	
 	public int getSize() {
@@ -149,10 +149,12 @@ public class Light implements UBOInterface {
 
 	public void setLightIndex(int index) {
 		this.light_index=index;
+		version++;
 	}
 	
 	public void setNumLights(int num_lights) {
 		this.num_lights=num_lights;
+		version++;
 	}
 	
 	public void setLight(
@@ -178,6 +180,7 @@ public class Light implements UBOInterface {
 			this.spot_direction=new Vector3f(spot_direction);
 			this.spot_cutoff=new Float(spot_cutoff);
 			this.spot_exponent=new Float(spot_exponent);
+			version++;
 		}
 	
 	public Type getType() {
@@ -1,11 +1,8 @@
 package engine.render.ubos;
 
-import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 
-import org.lwjgl.BufferUtils;
-
 import engine.render.UBO.Type;
 
 public class Lights implements UBOInterface {
@@ -13,6 +10,7 @@ public class Lights implements UBOInterface {
     //private static final int size = 24;
     private static final String name = "Lights";
     private int num_lights=0;
+    private int version;
     
 	public Lights()	{
 		lights = new ArrayList<Light>();
@@ -22,58 +20,29 @@ public class Lights implements UBOInterface {
 		light.setLightIndex(num_lights);
 		num_lights++;
 		lights.add(light);
+		version++;
 		for(Light current: lights) {
 			current.setNumLights(num_lights);
 		}
 	}
 	
-	public FloatBuffer createBuffer(int block_size, IntBuffer offsets) {
-		int sub_block_size=0;
+	// Each light's names follow the one before's, so its offsets start per_light further on
+	public void write(float[] block, IntBuffer offsets) {
 		if(lights.size() > 0) {
-			FloatBuffer combined_buffers = BufferUtils.createFloatBuffer(
-				block_size/4
-			);
-			IntBuffer sub_offset = BufferUtils.createIntBuffer(
-				offsets.capacity()/lights.size()
-			);
-			
+			int per_light = offsets.capacity()/lights.size();
 			for(int j=0; j<lights.size();j++) {
-				for(int i=0;i<offsets.capacity()/lights.size();i++) {
-					sub_offset.put(
-						offsets.get(j*(offsets.capacity()/lights.size())+i)
-						-
-						offsets.get((j*(offsets.capacity()/lights.size())))
-					);
-				}
-				sub_offset.flip();
-				
-				if(j < lights.size()-1) {
-					sub_block_size = 
-						offsets.get((j+1)*(offsets.capacity()/lights.size()))
-						-
-						offsets.get(j*(offsets.capacity()/lights.size()));
-				} else {
-					sub_block_size = 
-						block_size
-						-
-						offsets.get(j*(offsets.capacity()/lights.size()));
-				}
-				
-				combined_buffers.put(
-					lights.get(j).createBuffer(
-						sub_block_size,
-						sub_offset
-					)
-				);
-				
-				sub_offset.clear();
+				lights.get(j).write(block, offsets, j*per_light);
 			}
-			
-			combined_buffers.flip();
-
-			return combined_buffers;
 		}
-		return null;
+	}
+	
+	// Changes with any of the lights too
+	public int getVersion() {
+		int total = version;
+		for(int j=0; j<lights.size();j++) {
+			total += lights.get(j).getVersion();
+		}
+		return total;
 	}
 	
 	public int getSize() {
@@ -16,6 +16,8 @@ public class Material implements UBOInterface {
     private Vector4f specular;
     private float shininess;
     private float alpha;
+    // Bumped by the setters; see UBOInterface.getVersion()
+    private int version;
 
     private static final String name = "Material";
     private static final String names[] = {
@@ -55,38 +57,34 @@ public class Material implements UBOInterface {
 			this.alpha=alpha;
 	}
 	
-	public FloatBuffer createBuffer(int block_size, IntBuffer offsets) {
-		FloatBuffer buf = BufferUtils.createFloatBuffer(block_size/4);
-		float[] copy_array = new float[block_size/4];
-		
+	public void write(float[] block, IntBuffer offsets) {
 		int i=0;
-		copy_array[offsets.get(i)/4 + 0] = ambient.x;
-		copy_array[offsets.get(i)/4 + 1] = ambient.y;
-		copy_array[offsets.get(i)/4 + 2] = ambient.z;
-		copy_array[offsets.get(i)/4 + 3] = ambient.w;
+		block[offsets.get(i)/4 + 0] = ambient.x;
+		block[offsets.get(i)/4 + 1] = ambient.y;
+		block[offsets.get(i)/4 + 2] = ambient.z;
+		block[offsets.get(i)/4 + 3] = ambient.w;
 
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = diffuse.x;
-		copy_array[offsets.get(i)/4 + 1] = diffuse.y;
-		copy_array[offsets.get(i)/4 + 2] = diffuse.z;
-		copy_array[offsets.get(i)/4 + 3] = diffuse.w;
+		block[offsets.get(i)/4 + 0] = diffuse.x;
+		block[offsets.get(i)/4 + 1] = diffuse.y;
+		block[offsets.get(i)/4 + 2] = diffuse.z;
+		block[offsets.get(i)/4 + 3] = diffuse.w;
 		
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = specular.x;
-		copy_array[offsets.get(i)/4 + 1] = specular.y;
-		copy_array[offsets.get(i)/4 + 2] = specular.z;
-		copy_array[offsets.get(i)/4 + 3] = specular.w;
+		block[offsets.get(i)/4 + 0] = specular.x;
+		block[offsets.get(i)/4 + 1] = specular.y;
+		block[offsets.get(i)/4 + 2] = specular.z;
+		block[offsets.get(i)/4 + 3] = specular.w;
 		
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = shininess;
+		block[offsets.get(i)/4 + 0] = shininess;
 		
 		i++;
-		copy_array[offsets.get(i)/4 + 0] = alpha;
-		
-		buf.put(copy_array);
-		buf.flip();
-		
-		return buf;
+		block[offsets.get(i)/4 + 0] = alpha;
+	}
+	
+	public int getVersion() {
+		return version;
 	}
 	
 	public int getSize() {
@@ -158,22 +156,27 @@ public class Material implements UBOInterface {
     
     public void setAmbient(Vector4f ambient) {
     	this.ambient=ambient;
+    	version++;
     }
     
     public void setDiffuse(Vector4f diffuse) {
     	this.diffuse=diffuse;
+    	version++;
     }
     
     public void setSpecular(Vector4f specular) {
     	this.specular=specular;
+    	version++;
     }
     
     public void setShininess(float shininess) {
     	this.shininess=shininess;
+    	version++;
     }
     
     public void setAlpha(float alpha) {
     	this.alpha=alpha;
+    	version++;
     }
     
 	public void setMaterial(
@@ -187,6 +190,7 @@ public class Material implements UBOInterface {
 			this.specular=specular;
 			this.shininess=shininess;
 			this.alpha=alpha;
+			version++;
 	}
     
     public FloatBuffer getAmbientAsBuffer() {
@@ -264,4 +268,24 @@ public class Material implements UBOInterface {
 	private byte byteAverage(float a, float b, float c) {
 		return (byte) (((a * 255) + (b * 255) + (c * 255)) / 3);
 	}
+
+	// Hash of the values, so materials that are sameAs() hash the same (DrawQueue keys)
+	public int valueHash() {
+		int hash = ambient.hashCode();
+		hash = hash * 31 + diffuse.hashCode();
+		hash = hash * 31 + specular.hashCode();
+		hash = hash * 31 + Float.floatToIntBits(shininess);
+		hash = hash * 31 + Float.floatToIntBits(alpha);
+		return hash ^ (hash >>> 16);
+	}
+
+	// Same values, so the same Material UBO contents; models can be batched together
+	public boolean sameAs(Material material) {
+		return material == this || (material != null
+			&& ambient.equals(material.ambient)
+			&& diffuse.equals(material.diffuse)
+			&& specular.equals(material.specular)
+			&& shininess == material.shininess
+			&& alpha == material.alpha);
+	}
 }
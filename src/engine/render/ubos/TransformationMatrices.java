@@ -5,8 +5,6 @@ import java.nio.IntBuffer;
 
 import javax.vecmath.Vector3f;
 
-import org.lwjgl.BufferUtils;
-
 import engine.render.UBO.Type;
 
 public class TransformationMatrices implements UBOInterface {
@@ -19,6 +17,8 @@ public class TransformationMatrices implements UBOInterface {
     		
     private float projection[];
     private float modelview[];
+    // Bumped whenever either matrix is rebuilt; see UBOInterface.getVersion()
+    private int version;
     
 	public TransformationMatrices(float fov, float aspect, float zNear, float zFar, Vector3f eye, Vector3f focus, Vector3f up) {
 		projection = new float[size];
@@ -27,16 +27,12 @@ public class TransformationMatrices implements UBOInterface {
 		buildModelViewMatrix(eye,focus,up);
 	}
 
-	public FloatBuffer createBuffer(int block_size, IntBuffer offsets) {
-		FloatBuffer buf = BufferUtils.createFloatBuffer(projection.length+modelview.length);
-		
-		float result[] = matmult(modelview, projection);
-		for(int i=0; i<result.length;i++) {
-			buf.put(result[i]);
-		}
-		buf.flip();
-
-		return buf;
+	public void write(float[] block, IntBuffer offsets) {
+		getViewProjection(block, offsets.get(0)/4);
+	}
+	
+	public int getVersion() {
+		return version;
 	}
 	
 	public void buildProjectionMatrix(float fov, float aspect, float zNear, float zFar) {
@@ -62,6 +58,7 @@ public class TransformationMatrices implements UBOInterface {
 		projection[13] = 0;
 		projection[14] = -(2*zFar*zNear)/(zFar-zNear);
 		projection[15] = 0;
+		version++;
 	}
 	
 	public void buildModelViewMatrix(Vector3f eye, Vector3f focus, Vector3f up) {
@@ -98,7 +95,7 @@ public class TransformationMatrices implements UBOInterface {
 		modelview[13] = -y.dot(translated_eye);
 		modelview[14] = z.dot(translated_eye);
 		modelview[15] = 1.0f;
-	
+		version++;
 	}
 	
 	public int getSize() {
@@ -117,37 +114,26 @@ public class TransformationMatrices implements UBOInterface {
 		return Type.PERSPECTIVE;
 	}
 	
-	private float[] matmult(float one[], float two[]) {
-		float R[] = { 
-			1.0f, 0.0f, 0.0f, 0.0f,
-			0.0f, 1.0f, 0.0f, 0.0f,
-			0.0f, 0.0f, 1.0f, 0.0f,
-			0.0f, 0.0f, 0.0f, 1.0f
-		};
-    
-		R[0] = one[0]*two[0] + one[1]*two[4] + one[2]*two[8] + one[3]*two[12];
-		R[1] = one[0]*two[1] + one[1]*two[5] + one[2]*two[9] + one[3]*two[13];
-		R[2] = one[0]*two[2] + one[1]*two[6] + one[2]*two[10] + one[3]*two[14];
-		R[3] = one[0]*two[3] + one[1]*two[7] + one[2]*two[11] + one[3]*two[15];
-		
-		R[4] = one[4]*two[0] + one[5]*two[4] + one[6]*two[8] + one[7]*two[12];
-		R[5] = one[4]*two[1] + one[5]*two[5] + one[6]*two[9] + one[7]*two[13];
-		R[6] = one[4]*two[2] + one[5]*two[6] + one[6]*two[10] + one[7]*two[14];
-		R[7] = one[4]*two[3] + one[5]*two[7] + one[6]*two[11] + one[7]*two[15];
-		
-		R[8] = one[8]*two[0] + one[9]*two[4] + one[10]*two[8] + one[11]*two[12];
-		R[9] = one[8]*two[1] + one[9]*two[5] + one[10]*two[9] + one[11]*two[13];
-		R[10] = one[8]*two[2] + one[9]*two[6] + one[10]*two[10] + one[11]*two[14];
-		R[11] = one[8]*two[3] + one[9]*two[7] + one[10]*two[11] + one[11]*two[15];
-		
-		R[12] = one[12]*two[0] + one[13]*two[4] + one[14]*two[8] + one[15]*two[12];
-		R[13] = one[12]*two[1] + one[13]*two[5] + one[14]*two[9] + one[15]*two[13];
-		R[14] = one[12]*two[2] + one[13]*two[6] + one[14]*two[10] + one[15]*two[14];
-		R[15] = one[12]*two[3] + one[13]*two[7] + one[14]*two[11] + one[15]*two[15];
-    
-	    return R;
+	/*
+	 * projection * modelview, column major, the same as the MVP write()
+	 * 	uploads; without allocating, for culling every frame.
+	 */
+	public void getViewProjection(float[] out) {
+		getViewProjection(out, 0);
 	}
-	
+
+	public void getViewProjection(float[] out, int offset) {
+		for (int column = 0; column < 4; column++) {
+			for (int row = 0; row < 4; row++) {
+				out[offset + column * 4 + row] =
+					projection[row] * modelview[column * 4]
+					+ projection[4 + row] * modelview[column * 4 + 1]
+					+ projection[8 + row] * modelview[column * 4 + 2]
+					+ projection[12 + row] * modelview[column * 4 + 3];
+			}
+		}
+	}
+
 	public FloatBuffer getProjectionBuffer() {
 		return FloatBuffer.wrap(projection);
 	}
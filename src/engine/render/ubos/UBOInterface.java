@@ -1,13 +1,22 @@
 package engine.render.ubos;
 
-import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 
 import engine.render.UBO.Type;
 
 public interface UBOInterface {
 	public String[] getNames();
-	public FloatBuffer createBuffer(int block_size, IntBuffer offsets);
+	/*
+	 * Write the block's values into block (block_size / 4 floats), each at
+	 * 	its offset in bytes from offsets, in getNames() order.  Leave the
+	 * 	rest of block alone.
+	 */
+	public void write(float[] block, IntBuffer offsets);
+	/*
+	 * Goes up every time something write() writes changes through a
+	 * 	setter, so an unchanged block doesn't have to be written again.
+	 */
+	public int getVersion();
 	public Type getType();
 	public int getSize();
 	public String getName();
@@ -0,0 +1,20 @@
+package engine.resource;
+
+import java.io.File;
+
+/*
+ * A resource that loads in two halves, so ResourceManager.getResourceAsync()
+ * 	can do most of the work off the render thread.  prepare() is the reading,
+ * 	parsing and anything else without GL, on a loading thread; upload() is
+ * 	what's left, on the render thread.  One then the other is the same as
+ * 	loadFromFile().
+ */
+public interface AsyncResource extends Resource {
+	public void prepare(
+		ResourceManager resource_manager,
+		File file,
+		String extension
+	) throws Exception;
+	
+	public void upload(ResourceManager resource_manager) throws Exception;
+}
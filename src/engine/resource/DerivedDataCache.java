@@ -0,0 +1,152 @@
+/*
+ * Things worked out from a resource's file (a model's normals, bounds,
+ * 	packed buffers and hull; see BakedModel) saved so they never have to be
+ * 	worked out again.  Entries are found by the SHA-1 of the file they came
+ * 	from plus a kind and a version, so a changed file, or a change to how
+ * 	it's processed, simply finds nothing; there's nothing to go stale.
+ * 	Files with the same contents share an entry wherever they are.
+ *
+ * 	Entries are mapped, not read.  They're written to a temporary file and
+ * 	moved into place, so any number of loading threads (or games) can fill
+ * 	the cache at once and a reader only ever sees a whole entry.  Nothing
+ * 	is ever deleted; remove the folder to start over.
+ *
+ * 	The cache folder is "cache" in the working directory, or
+ * 	-Dengine.cache=folder.
+ */
+package engine.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DerivedDataCache {
+	private static DerivedDataCache default_cache;
+
+	private final File directory;
+	// Hashes already worked out this run, by path, length and modified time
+	private static final ConcurrentHashMap<String, String> hashes = new ConcurrentHashMap<String, String>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+
+	public DerivedDataCache(File directory) {
+		this.directory = directory;
+	}
+
+	public static synchronized DerivedDataCache getDefault() {
+		if (default_cache == null) {
+			default_cache = new DerivedDataCache(new File(System.getProperty("engine.cache", "cache")));
+		}
+		return default_cache;
+	}
+
+	/*
+	 * The SHA-1 of a file, for callers without one from the manifest.
+	 * 	Only read once a run, unless it changes.
+	 */
+	public static String hash(File file) {
+		String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+		String hash = hashes.get(key);
+		if (hash == null) {
+			hash = ResourceManifest.hash(file);
+			hashes.put(key, hash);
+		}
+		return hash;
+	}
+
+	// Where an entry lives: split on the first two characters so no folder gets huge
+	public File getFile(String hash, String kind, int version) {
+		return new File(directory, hash.substring(0, 2) + File.separator + hash + "." + kind + version);
+	}
+
+	// The entry mapped read only, or null if there isn't one
+	public ByteBuffer map(String hash, String kind, int version) {
+		File file = getFile(hash, kind, version);
+		if (!file.isFile()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				// Stays mapped after the file is closed
+				ByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+				hits.incrementAndGet();
+				return mapped;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/*
+	 * Save an entry made of parts, one after the other.  If another thread
+	 * 	gets there first it's the same data, so either one can win.
+	 */
+	public void write(String hash, String kind, int version, ByteBuffer... parts) throws IOException {
+		File file = getFile(hash, kind, version);
+		File folder = file.getParentFile();
+		if (!folder.isDirectory() && !folder.mkdirs() && !folder.isDirectory()) {
+			throw new IOException("Couldn't make " + folder);
+		}
+		File temporary = File.createTempFile(file.getName(), ".tmp", folder);
+		try {
+			RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				for (ByteBuffer part : parts) {
+					ByteBuffer bytes = part.duplicate();
+					while (bytes.hasRemaining()) {
+						channel.write(bytes);
+					}
+				}
+			} finally {
+				raf.close();
+			}
+			try {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			writes.incrementAndGet();
+		} catch (IOException e) {
+			// Someone else's copy is as good as ours
+			if (!file.isFile()) {
+				throw e;
+			}
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getWrites() {
+		return writes.get();
+	}
+
+	public String toString() {
+		return directory + ": " + hits + " hits, " + misses + " misses, " + writes + " writes";
+	}
+}
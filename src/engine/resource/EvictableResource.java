@@ -0,0 +1,21 @@
+package engine.resource;
+
+/*
+ * A resource ResourceManager can measure and let go of when it's over its
+ * 	memory budget (see ResourceManager.acquire()).  Sizes are in bytes and
+ * 	can be estimates; unload() frees whatever GL objects it made, so it's
+ * 	called on the render thread.  It's loaded again from its file the next
+ * 	time it's asked for.
+ */
+public interface EvictableResource extends Resource {
+	// Arrays and objects on the Java heap
+	public long getHeapBytes();
+	
+	// Direct and mapped buffers, outside the heap
+	public long getDirectBytes();
+	
+	// Buffers and textures on the graphics card
+	public long getGpuBytes();
+	
+	public void unload();
+}
@@ -0,0 +1,133 @@
+package engine.resource;
+
+import java.util.concurrent.CountDownLatch;
+
+import engine.resource.ResourceManager.ResourceItem;
+
+/*
+ * A resource being loaded by ResourceManager.getResourceAsync(): what state
+ * 	it's in and how long each half took.  Poll isDone() from a loading screen,
+ * 	or get() it when it's needed.
+ */
+public class ResourceHandle {
+	public static final int QUEUED = 0;
+	public static final int PREPARING = 1;		// on a loading thread
+	public static final int UPLOADING = 2;		// prepared, waiting for the render thread
+	public static final int DONE = 3;
+	public static final int FAILED = 4;
+
+	private final ResourceManager manager;
+	private final String name;
+	private final String category;
+	final ResourceItem item;
+	// What prepare() made, for upload()
+	Resource resource;
+
+	private volatile int state = QUEUED;
+	private volatile Exception error;
+	private final CountDownLatch prepared = new CountDownLatch(1);
+	private final long requested = System.nanoTime();
+	private volatile long prepare_nanos, upload_nanos, latency_nanos;
+
+	ResourceHandle(ResourceManager manager, ResourceItem item, String name, String category) {
+		this.manager = manager;
+		this.item = item;
+		this.name = name;
+		this.category = category;
+	}
+
+	/*************** STATE CHANGES ***************/
+	void preparing() {
+		state = PREPARING;
+	}
+
+	void prepared(long nanos) {
+		prepare_nanos = nanos;
+		state = UPLOADING;
+		prepared.countDown();
+	}
+
+	void done(long nanos) {
+		upload_nanos = nanos;
+		latency_nanos = System.nanoTime() - requested;
+		state = DONE;
+		prepared.countDown();
+	}
+
+	void fail(Exception e) {
+		error = e;
+		latency_nanos = System.nanoTime() - requested;
+		state = FAILED;
+		prepared.countDown();
+	}
+	/******************************************/
+
+	/*
+	 * The resource, waiting for the loading thread if it has to.  Rather
+	 * 	than wait for a frame to upload it, it's uploaded right here, so like
+	 * 	getResource() call it where GL calls are allowed.  null if it failed.
+	 */
+	public Object get() throws InterruptedException {
+		finish();
+		return getResource();
+	}
+
+	void finish() throws InterruptedException {
+		prepared.await();
+		manager.finishLoad(this);
+	}
+
+	/*
+	 * null until it's done.  Like ResourceManager.getResource(), what's
+	 * 	handed out here is kept loaded for good.
+	 */
+	public Object getResource() {
+		if (state != DONE) {
+			return null;
+		}
+		manager.pin(item);
+		return item.data;
+	}
+
+	public boolean isDone() {
+		return state == DONE || state == FAILED;
+	}
+
+	public int getState() {
+		return state;
+	}
+
+	// Why it failed, or null
+	public Exception getError() {
+		return error;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getCategory() {
+		return category;
+	}
+
+	// Time on the loading thread
+	public long getPrepareNanos() {
+		return prepare_nanos;
+	}
+
+	// Time on the render thread
+	public long getUploadNanos() {
+		return upload_nanos;
+	}
+
+	// Asked for until done, including waiting for a thread and a frame
+	public long getLatencyNanos() {
+		return latency_nanos;
+	}
+
+	public String toString() {
+		String[] states = {"queued", "preparing", "uploading", "done", "failed"};
+		return String.format("(%s,%s) %s, %.1fms prepare, %.1fms upload, %.1fms total",
+			name, category, states[state], prepare_nanos / 1e6, upload_nanos / 1e6, latency_nanos / 1e6);
+	}
+}
@@ -9,8 +9,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import engine.Engine;
+import engine.importing.BakedModel;
 import engine.input.InputMap;
 import engine.render.Model;
 import engine.render.Shader;
@@ -25,26 +32,135 @@ public class ResourceManager {
 		public String name;
 		public String path;
 		public Class<? extends Resource> item_class;
-		public Resource data;
+		// Only set once it's fully loaded, since loading threads look at it
+		public volatile Resource data;
+		// Set while it's being loaded by getResourceAsync()
+		ResourceHandle loading;
+		// acquire()s not yet release()d
+		public int refs;
+		// Handed out by getResource(), which never gets it back, so it's never evicted
+		public boolean pinned;
+		// What it measured when it was loaded (see EvictableResource)
+		public long heap_bytes, direct_bytes, gpu_bytes;
+		// SHA-1 of the file, from the manifest; null if it isn't in it
+		public volatile String hash;
+		boolean evicted;
+	}
+	
+	/*
+	 * Basically just a struct for what one category has loaded and how
+	 * 	well it's being cached.
+	 */
+	public static class CategoryStats {
+		public int loaded;
+		public long heap_bytes;
+		public long direct_bytes;
+		public long gpu_bytes;
+		// Asked for and already loaded, or not
+		public long hits;
+		public long misses;
+		public long evictions;
+		// Misses for something that was evicted
+		public long reloads;
+		
+		public long getBytes() {
+			return heap_bytes + direct_bytes + gpu_bytes;
+		}
+		
+		public float getHitRate() {
+			return hits + misses == 0 ? 0 : hits / (float)(hits + misses);
+		}
+		
+		public String toString() {
+			return String.format("%d loaded, %.1fKB heap, %.1fKB direct, %.1fKB GPU, "
+				+ "%d hits, %d misses, %d evictions, %d reloads",
+				loaded, heap_bytes / 1024.0, direct_bytes / 1024.0, gpu_bytes / 1024.0,
+				hits, misses, evictions, reloads);
+		}
+	}
+	
+	/*
+	 * Basically just a struct for how asynchronous loading is going, e.g. for
+	 * 	a loading screen.  Times are in nanoseconds, summed over every load.
+	 */
+	public static class LoadStats {
+		public int requested;
+		public int finished;
+		public int failed;
+		// Still on a loading thread, or waiting for one
+		public int pending;
+		// Prepared, waiting for finishLoads() on the render thread
+		public int waiting_for_upload;
+		public long prepare_nanos;
+		public long upload_nanos;
+		public long max_upload_nanos;
+		// Render thread time the last finishLoads() took
+		public long last_frame_nanos;
+		
+		// 0 to 1, 1 when there's nothing left to load
+		public float getProgress() {
+			return requested == 0 ? 1f : (finished + failed) / (float)requested;
+		}
+		
+		public String toString() {
+			return String.format("%d/%d loaded, %d failed, %d preparing, %d to upload, "
+				+ "%.1fms prepare, %.1fms upload (max %.2fms)",
+				finished, requested, failed, pending, waiting_for_upload,
+				prepare_nanos / 1e6, upload_nanos / 1e6, max_upload_nanos / 1e6);
+		}
 	}
 	
 	//Path we are currently running from
 	String program_path;
 	
+	//What resources there are, saved for next time
+	private ResourceManifest manifest;
+	
 	//Holds the list of resources in each category.
 	HashMap<String,ArrayList<ResourceItem>> resources;
 	
+	//The same resources by category, then name, for findResource
+	HashMap<String,HashMap<String,ResourceItem>> index;
+	
 	//Used to convert categories into their class names
 	HashMap<String, Class<? extends Resource>> cat_to_class;
 
 	private Engine engine;
 	
+	/*
+	 * Asynchronous loading: the loading threads prepare() resources, and
+	 * 	what's prepared waits in uploads for the render thread's finishLoads().
+	 * 	Threads are only started the first time something is loaded this way.
+	 */
+	private static final int MAX_LOADING_THREADS = 4;
+	private ExecutorService loaders;
+	private final ConcurrentLinkedQueue<ResourceHandle> uploads = new ConcurrentLinkedQueue<ResourceHandle>();
+	// Guarded by itself
+	private final LoadStats load_stats = new LoadStats();
+	
+	/*
+	 * Memory: loaded resources nobody has acquired, least recently used
+	 * 	first, are unloaded while everything loaded adds up to more than
+	 * 	memory_budget.  The rest are guarded by this.
+	 */
+	private long memory_budget = Long.MAX_VALUE;
+	private long memory_used;
+	private final LinkedHashSet<ResourceItem> unused = new LinkedHashSet<ResourceItem>();
+	private final HashMap<String, CategoryStats> memory_stats = new HashMap<String, CategoryStats>();
+	
 	public ResourceManager(Engine engine){
+		this(engine, new File("."));
+	}
+	
+	// Resources under some other folder than the working directory
+	public ResourceManager(Engine engine, File root){
 		this.engine = engine;
 		//Setup cat_to_class hashmap
 		loadCatToClass();
 		
 		resources = new HashMap<String, ArrayList<ResourceItem>>();
+		index = new HashMap<String, HashMap<String, ResourceItem>>();
+		long start = System.nanoTime();
 		
 		/*
 		 * Get current path so that we can determine whether being
@@ -52,44 +168,75 @@ public class ResourceManager {
 		 * 
 		 * Each of those situations has its own file loader.
 		 */
-		program_path = (new File(".")).getAbsolutePath();
-		ContentExtractor c;
+		program_path = root.getAbsolutePath();
+		String found;
 		if(program_path.endsWith(".jar")){
-			c = new JarContents(program_path);
+			//Nothing to write a manifest next to, so always a scan
+			manifest = new ResourceManifest(program_path);
+			addFiles(new JarContents(program_path).getFiles());
+			found = "scanning " + program_path;
 		}else{
 			if(program_path.endsWith(".")){
 				program_path = program_path.substring(0, program_path.length()-1);
 			}
-			c = new FileSystemContents(program_path);
+			
+			/*
+			 * What was found last time, if it's still there.  Only
+			 * 	folders that have changed since are scanned again.
+			 */
+			manifest = ResourceManifest.load(program_path);
+			if(manifest == null){
+				manifest = new ResourceManifest(program_path);
+				addFiles(new FileSystemContents(program_path).getFiles());
+				found = "scanning " + program_path;
+			}else{
+				ArrayList<File> changed = manifest.getChangedFolders();
+				for(File folder : changed){
+					manifest.remove(folder);
+					if(folder.isDirectory()){
+						addFiles(new FileSystemContents(folder.getAbsolutePath()).getFiles());
+					}
+				}
+				found = manifest.getFile().getName() + ", " + changed.size() + " folders rescanned";
+			}
+			if(manifest.isDirty()){
+				try {
+					manifest.save();
+				} catch (IOException e) {
+					System.out.println("Couldn't write " + manifest.getFile() + ": " + e.getMessage());
+				}
+			}
 		}
 		
 		/*
-		 * Regardless of which method was used, we want a list of
-		 * 	files available to us.
-		 */
-		ArrayList<String> file_list = filter_files(c.getFiles());
-		
-		
-		/*
-		 * Loop through each file, creating a resource item for it.
+		 * Create a resource item for each file.
 		 * 	Don't load the file yet, we do that as each resource is needed.
 		 */
-		for(String file_path : file_list){
+		for(ResourceManifest.Entry entry : manifest.getEntries()){
 			ResourceItem tmp = new ResourceItem();
-			tmp.category = getCategory(file_path);
-			tmp.name = getName(file_path);
-			tmp.path = file_path;
+			tmp.category = entry.category;
+			tmp.name = entry.name;
+			tmp.path = entry.path;
+			tmp.hash = entry.hash;
 			
 			tmp.item_class = cat_to_class.get(tmp.category);
 			
 			if(tmp.item_class != null){
-				System.out.println("Loaded Resource: (" + tmp.name + "," + tmp.category + ")");
 				addResource(tmp);
 			}else{
 				System.out.println("Didn't load resource: " + tmp.path);
 				System.out.println("  No class specified.");
 			}
 		}
+		System.out.println(String.format("Found %d resources from %s in %.1fms",
+			manifest.size(), found, (System.nanoTime() - start) / 1e6));
+	}
+	
+	// Whatever of these files are resources go in the manifest
+	private void addFiles(ArrayList<String> files){
+		for(String file_path : filter_files(files)){
+			manifest.add(getCategory(file_path), getName(file_path), file_path);
+		}
 	}
 	
 	/*
@@ -100,12 +247,17 @@ public class ResourceManager {
 	 * 		\ This lets us keep the theme images and such in the 
 	 * 		\	Resource folder without having a seperate resource
 	 * 		\	for each one. 
+	 * 
+	 * 	Baked models are too; they're found through their source file.
+	 * 	As is the manifest of all this.
 	 */
 	private ArrayList<String> filter_files(ArrayList<String> files){
 		ArrayList<String> filtered = new ArrayList<String>();
 		
 		for(String name : files){
-			if(name.matches(".*resources.*") && !name.matches(".*ignore.*")){
+			if(name.matches(".*resources.*") && !name.matches(".*ignore.*")
+					&& !name.endsWith("." + BakedModel.EXTENSION)
+					&& !name.contains(ResourceManifest.FILE_NAME)){
 				filtered.add(name);
 			}
 		}
@@ -146,35 +298,18 @@ public class ResourceManager {
 	
 	/*
 	 * Load the resource on the fly, or just return it if it has been
-	 * 	loaded previously.
+	 * 	loaded previously.  It stays loaded for good; see acquire() for
+	 * 	something that can be let go of.
 	 */
 	public Object getResource(String name, String category){
 		ResourceItem res = findResource(name, category);
-		try {
-			if( res != null){
-				//Only load it if we haven't before.
-				if( res.data == null ){
-					String[] extension;
-					
-					
-					//Create a stream
-					File f = new File(res.path);
-					InputStream in = new FileInputStream(f);
-					
-					
-					extension = res.path.split("\\.");
-					
-					//Pass to interface
-					res.data = res.item_class.newInstance();
-					res.data.loadFromFile(this, in, extension[extension.length-1]);
-				}
-				
-				return res.data;
+		if( res != null ){
+			Resource data = loadNow(res);
+			if( data != null ){
+				pin(res);
+				trim();
+				return data;
 			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (Exception e){
-			e.printStackTrace();
 		}
 		
 		/*
@@ -185,6 +320,442 @@ public class ResourceManager {
 		return null;
 	}
 	
+	/*
+	 * getResource(), but counted: once every acquire() has been matched by
+	 * 	a release(), the resource can be unloaded to stay under the memory
+	 * 	budget, and is loaded again by the next acquire().
+	 */
+	public Object acquire(String name, String category){
+		ResourceItem res = findResource(name, category);
+		if( res != null ){
+			Resource data = loadNow(res);
+			if( data != null ){
+				synchronized (this) {
+					res.refs++;
+					unused.remove(res);
+				}
+				trim();
+				return data;
+			}
+		}
+		System.out.println("No such resource found: (" + name + "," + category + ")");
+		return null;
+	}
+	
+	public synchronized void release(String name, String category){
+		ResourceItem res = findResource(name, category);
+		if( res == null || res.refs == 0 ){
+			System.out.println("Released a resource that wasn't acquired: (" + name + "," + category + ")");
+			return;
+		}
+		res.refs--;
+		if( res.refs == 0 ){
+			lastUse(res);
+		}
+	}
+	
+	private Resource loadNow(ResourceItem res){
+		try {
+			ResourceHandle handle;
+			synchronized (this) {
+				handle = res.loading;
+			}
+			if( handle != null ){
+				//Already on its way; finish it here rather than load it twice
+				handle.finish();
+				return res.data;
+			}
+			//Only load it if we haven't before.
+			if( counted(res) ){
+				return res.data;
+			}
+			
+			verify(res);
+			File f = new File(res.path);
+			Resource data = res.item_class.getDeclaredConstructor().newInstance();
+			
+			if(data instanceof Model){
+				//Models go by path, so a baked copy can be mapped instead
+				((Model)data).loadFromFile(this, f);
+			}else{
+				//Create a stream
+				InputStream in = new FileInputStream(f);
+				
+				//Pass to interface
+				data.loadFromFile(this, in, extension(res.path));
+			}
+			res.data = data;
+			loaded(res);
+			return data;
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (Exception e){
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	// Before loading: the file may have changed since the manifest was written
+	private void verify(ResourceItem res){
+		String hash = manifest.verify(res.path);
+		if( hash != null ){
+			res.hash = hash;
+		}
+	}
+	
+	/*************** MEMORY ***************/
+	/*
+	 * How much loaded resources may add up to, heap, direct and GPU bytes
+	 * 	together, before unused ones are unloaded.  Only EvictableResources
+	 * 	are counted or unloaded.  Unlimited by default.
+	 */
+	public synchronized void setMemoryBudget(long bytes){
+		memory_budget = bytes;
+	}
+	
+	public synchronized long getMemoryBudget(){
+		return memory_budget;
+	}
+	
+	public synchronized long getMemoryUsed(){
+		return memory_used;
+	}
+	
+	// A hit or a miss; true if it's loaded
+	private synchronized boolean counted(ResourceItem res){
+		CategoryStats stats = categoryStats(res.category);
+		if( res.data != null ){
+			stats.hits++;
+			return true;
+		}
+		stats.misses++;
+		if( res.evicted ){
+			stats.reloads++;
+		}
+		return false;
+	}
+	
+	// Just loaded; measure it
+	synchronized void loaded(ResourceItem res){
+		CategoryStats stats = categoryStats(res.category);
+		stats.loaded++;
+		res.evicted = false;
+		if( res.data instanceof EvictableResource ){
+			EvictableResource data = (EvictableResource)res.data;
+			res.heap_bytes = data.getHeapBytes();
+			res.direct_bytes = data.getDirectBytes();
+			res.gpu_bytes = data.getGpuBytes();
+			stats.heap_bytes += res.heap_bytes;
+			stats.direct_bytes += res.direct_bytes;
+			stats.gpu_bytes += res.gpu_bytes;
+			memory_used += res.heap_bytes + res.direct_bytes + res.gpu_bytes;
+		}
+		if( res.refs == 0 && !res.pinned ){
+			lastUse(res);
+		}
+	}
+	
+	synchronized void pin(ResourceItem res){
+		res.pinned = true;
+		unused.remove(res);
+	}
+	
+	// To the back of the eviction queue
+	private void lastUse(ResourceItem res){
+		unused.remove(res);
+		if( !res.pinned && res.data instanceof EvictableResource ){
+			unused.add(res);
+		}
+	}
+	
+	/*
+	 * Unload the least recently used resources nobody holds until
+	 * 	everything fits the budget.  On the render thread, since unloading
+	 * 	deletes GL objects; getResource(), acquire() and finishLoads() do it.
+	 */
+	public synchronized void trim(){
+		Iterator<ResourceItem> oldest = unused.iterator();
+		while( memory_used > memory_budget && oldest.hasNext() ){
+			ResourceItem res = oldest.next();
+			oldest.remove();
+			unload(res);
+			res.evicted = true;
+			categoryStats(res.category).evictions++;
+		}
+	}
+	
+	/*
+	 * Unload a resource now, whoever has it, e.g. everything from the last
+	 * 	level.  Anything still using it will find it gone.  Render thread only.
+	 */
+	public synchronized void unloadResource(String name, String category){
+		ResourceItem res = findResource(name, category);
+		if( res != null && res.data != null && res.loading == null ){
+			unused.remove(res);
+			unload(res);
+			res.refs = 0;
+			res.pinned = false;
+		}
+	}
+	
+	private void unload(ResourceItem res){
+		CategoryStats stats = categoryStats(res.category);
+		if( res.data instanceof EvictableResource ){
+			((EvictableResource)res.data).unload();
+		}
+		stats.loaded--;
+		stats.heap_bytes -= res.heap_bytes;
+		stats.direct_bytes -= res.direct_bytes;
+		stats.gpu_bytes -= res.gpu_bytes;
+		memory_used -= res.heap_bytes + res.direct_bytes + res.gpu_bytes;
+		res.heap_bytes = res.direct_bytes = res.gpu_bytes = 0;
+		res.data = null;
+	}
+	
+	private CategoryStats categoryStats(String category){
+		CategoryStats stats = memory_stats.get(category);
+		if( stats == null ){
+			stats = new CategoryStats();
+			memory_stats.put(category, stats);
+		}
+		return stats;
+	}
+	
+	// A copy, so it can be read while loading goes on
+	public synchronized CategoryStats getCategoryStats(String category){
+		CategoryStats stats = categoryStats(category);
+		CategoryStats copy = new CategoryStats();
+		copy.loaded = stats.loaded;
+		copy.heap_bytes = stats.heap_bytes;
+		copy.direct_bytes = stats.direct_bytes;
+		copy.gpu_bytes = stats.gpu_bytes;
+		copy.hits = stats.hits;
+		copy.misses = stats.misses;
+		copy.evictions = stats.evictions;
+		copy.reloads = stats.reloads;
+		return copy;
+	}
+	/******************************************/
+	
+	/*************** ASYNCHRONOUS LOADING ***************/
+	/*
+	 * Start loading a resource and return straight away.  The file is read
+	 * 	and parsed on a loading thread; anything that needs GL is left for
+	 * 	finishLoads() on the render thread.  Asking again for the same one
+	 * 	gives the same handle.
+	 */
+	public ResourceHandle getResourceAsync(String name, String category){
+		ResourceItem res = findResource(name, category);
+		if( res == null ){
+			System.out.println("No such resource found: (" + name + "," + category + ")");
+			ResourceHandle missing = new ResourceHandle(this, null, name, category);
+			missing.fail(new FileNotFoundException("(" + name + "," + category + ")"));
+			return missing;
+		}
+		return load(res);
+	}
+	
+	/*
+	 * getResourceAsync() a list of resources from one category, or all of
+	 * 	it if no names are given; e.g. everything a level needs, up front,
+	 * 	behind a loading screen.
+	 */
+	public ArrayList<ResourceHandle> preload(String category, String... names){
+		ArrayList<ResourceHandle> handles = new ArrayList<ResourceHandle>();
+		if( names.length == 0 ){
+			ArrayList<ResourceItem> cat = resources.get(category);
+			if( cat != null ){
+				for( ResourceItem res : cat ){
+					handles.add(load(res));
+				}
+			}
+		}else{
+			for( String name : names ){
+				handles.add(getResourceAsync(name, category));
+			}
+		}
+		return handles;
+	}
+	
+	private synchronized ResourceHandle load(final ResourceItem res){
+		if( res.loading != null ){
+			return res.loading;
+		}
+		final ResourceHandle handle = new ResourceHandle(this, res, res.name, res.category);
+		synchronized (load_stats) {
+			load_stats.requested++;
+		}
+		if( counted(res) ){
+			//Loaded some time before, nothing to do (and nothing for anyone to wait on)
+			handle.done(0);
+			synchronized (load_stats) {
+				load_stats.finished++;
+			}
+			return handle;
+		}
+		res.loading = handle;
+		synchronized (load_stats) {
+			load_stats.pending++;
+		}
+		
+		if( loaders == null ){
+			int threads = Math.max(1, Math.min(MAX_LOADING_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+			loaders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "resource-loader");
+					// Never keeps the game running by itself
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		loaders.submit(new Runnable() {
+			public void run() {
+				prepare(handle);
+			}
+		});
+		return handle;
+	}
+	
+	// On a loading thread
+	private void prepare(ResourceHandle handle){
+		handle.preparing();
+		long start = System.nanoTime();
+		try {
+			verify(handle.item);
+			Resource data = handle.item.item_class.getDeclaredConstructor().newInstance();
+			if( data instanceof AsyncResource ){
+				((AsyncResource)data).prepare(this, new File(handle.item.path), extension(handle.item.path));
+			}
+			handle.resource = data;
+		} catch (Exception e) {
+			e.printStackTrace();
+			synchronized (load_stats) {
+				load_stats.pending--;
+			}
+			failed(handle, e);
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		synchronized (load_stats) {
+			load_stats.pending--;
+			load_stats.waiting_for_upload++;
+			load_stats.prepare_nanos += nanos;
+		}
+		handle.prepared(nanos);
+		uploads.add(handle);
+	}
+	
+	/*
+	 * Called by the engine once a frame on the render thread: finish
+	 * 	prepared resources until budget_nanos is used up.  At least one is
+	 * 	finished whatever the budget, so loading always moves along.
+	 * 	Returns how many were finished.
+	 */
+	public int finishLoads(long budget_nanos){
+		long start = System.nanoTime();
+		int count = 0;
+		ResourceHandle handle;
+		while( (count == 0 || System.nanoTime() - start < budget_nanos) && (handle = uploads.poll()) != null ){
+			finishLoad(handle);
+			count++;
+		}
+		if( count > 0 ){
+			trim();
+			synchronized (load_stats) {
+				load_stats.last_frame_nanos = System.nanoTime() - start;
+			}
+		}
+		return count;
+	}
+	
+	// The GL half of a load; on the render thread, or whoever called get()
+	void finishLoad(ResourceHandle handle){
+		try {
+			finishUpload(handle);
+		} finally {
+			synchronized (this) {
+				//Unless it's already been asked for again
+				if( handle.item != null && handle.item.loading == handle ){
+					handle.item.loading = null;
+				}
+			}
+		}
+	}
+	
+	private void finishUpload(ResourceHandle handle){
+		synchronized (handle) {
+			if( handle.isDone() ){
+				return;
+			}
+			ResourceItem res = handle.item;
+			long start = System.nanoTime();
+			try {
+				Resource data = handle.resource;
+				handle.resource = null;
+				if( data instanceof AsyncResource ){
+					((AsyncResource)data).upload(this);
+				}else{
+					//Can't be split, so it all happens here
+					InputStream in = new FileInputStream(res.path);
+					try {
+						data.loadFromFile(this, in, extension(res.path));
+					} finally {
+						in.close();
+					}
+				}
+				res.data = data;
+				loaded(res);
+			} catch (Exception e) {
+				e.printStackTrace();
+				synchronized (load_stats) {
+					load_stats.waiting_for_upload--;
+				}
+				failed(handle, e);
+				return;
+			}
+			long nanos = System.nanoTime() - start;
+			synchronized (load_stats) {
+				load_stats.waiting_for_upload--;
+				load_stats.finished++;
+				load_stats.upload_nanos += nanos;
+				load_stats.max_upload_nanos = Math.max(load_stats.max_upload_nanos, nanos);
+			}
+			handle.done(nanos);
+		}
+	}
+	
+	// Failed somewhere; it can be asked for again later
+	private void failed(ResourceHandle handle, Exception e){
+		synchronized (load_stats) {
+			load_stats.failed++;
+		}
+		handle.fail(e);
+		synchronized (this) {
+			if( handle.item.loading == handle ){
+				handle.item.loading = null;
+			}
+		}
+	}
+	
+	// A copy, so it can be read while loading goes on
+	public LoadStats getLoadStats(){
+		LoadStats copy = new LoadStats();
+		synchronized (load_stats) {
+			copy.requested = load_stats.requested;
+			copy.finished = load_stats.finished;
+			copy.failed = load_stats.failed;
+			copy.pending = load_stats.pending;
+			copy.waiting_for_upload = load_stats.waiting_for_upload;
+			copy.prepare_nanos = load_stats.prepare_nanos;
+			copy.upload_nanos = load_stats.upload_nanos;
+			copy.max_upload_nanos = load_stats.max_upload_nanos;
+			copy.last_frame_nanos = load_stats.last_frame_nanos;
+		}
+		return copy;
+	}
+	/******************************************/
+	
 	public void createResource(String name, String category, String path, Resource resource){
 		ResourceItem ri = new ResourceItem();
 		ri.name = name;
@@ -195,6 +766,11 @@ public class ResourceManager {
 		addResource(ri);
 	}
 	
+	private static String extension(String path) {
+		String[] extension = path.split("\\.");
+		return extension[extension.length-1];
+	}
+	
 	private String getName(String file_path) {
 		try {
 			return file_path.substring(file_path.lastIndexOf("/") + 1, file_path.lastIndexOf(".") );
@@ -219,24 +795,19 @@ public class ResourceManager {
 	private void addResource(ResourceItem r){
 		if(!resources.containsKey(r.category)){
 			resources.put(r.category,(new ArrayList<ResourceItem>()));
+			index.put(r.category, new HashMap<String, ResourceItem>());
 		}
 		
 		resources.get(r.category).add(r);
+		//The first of a name is the one that's found, as when this was a search
+		if(!index.get(r.category).containsKey(r.name)){
+			index.get(r.category).put(r.name, r);
+		}
 	}
 	
-	/*
-	 * Search through the resource list
-	 */
 	private ResourceItem findResource(String name, String category){
-		ArrayList<ResourceItem> cat = resources.get(category);
-		if( cat != null){
-			for(ResourceItem res : cat ){
-				if( res.name.equals(name) ){
-					return res;
-				}
-			}
-		}
-		return null;
+		HashMap<String, ResourceItem> cat = index.get(category);
+		return cat == null ? null : cat.get(name);
 	}
 	
 	public ArrayList<ResourceItem> getResourcesInCategory(String category) {
@@ -247,6 +818,15 @@ public class ResourceManager {
 		return resources;
 	}
 
+	// The SHA-1 of a resource's file, from the manifest; null if it isn't in it
+	public String getHash(File file){
+		return manifest.verify(file.getAbsolutePath());
+	}
+	
+	public ResourceManifest getManifest() {
+		return manifest;
+	}
+	
 	public Engine getEngine() {
 		return engine;
 	}
@@ -0,0 +1,300 @@
+/*
+ * Everything ResourceManager found last time, so starting up is reading
+ * 	one file instead of walking the whole working directory: each resource's
+ * 	category, name, format, path, size, modified time and content hash,
+ * 	plus the modified time of every folder they're in.  See
+ * 	docs/resource_manifest.txt for the layout.
+ *
+ * 	A folder's modified time changes when anything is added to, removed
+ * 	from or renamed in it, so only the folders that changed are scanned
+ * 	again.  A file changed in place doesn't touch its folder; that's caught
+ * 	by verify() when the resource is loaded.  main() (ant manifest) builds
+ * 	it ahead of time, otherwise the first run does.
+ */
+package engine.resource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ResourceManifest {
+	public static final String FILE_NAME = "resources.manifest";
+	// Bump whenever the layout changes; older manifests are rebuilt
+	public static final int VERSION = 1;
+	private static final String HEADER = "jge3d resources ";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/*
+	 * Basically just a struct for one resource
+	 */
+	public static class Entry {
+		public String category;
+		public String name;
+		// Extension, lower case
+		public String format;
+		public String path;
+		public long size;
+		public long modified;
+		// SHA-1 of the contents in hex, empty if it couldn't be read
+		public String hash;
+	}
+
+	// Paths are kept relative to root, so the folder can move
+	private final String root;
+	private final File file;
+	// By absolute path, in the order they were found
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	// Relative folder to its modified time
+	private final HashMap<String, Long> folders = new HashMap<String, Long>();
+	// Entries taken out by remove(), so rescanning only hashes what changed
+	private final HashMap<String, Entry> removed = new HashMap<String, Entry>();
+	private boolean dirty;
+
+	public ResourceManifest(String root) {
+		this.root = root.endsWith(File.separator) ? root : root + File.separator;
+		this.file = new File(this.root + FILE_NAME);
+	}
+
+	/*************** READING ***************/
+	// The manifest under root, or null if there isn't a readable one of this version
+	public static ResourceManifest load(String root) {
+		ResourceManifest manifest = new ResourceManifest(root);
+		if (!manifest.file.isFile()) {
+			return null;
+		}
+		try {
+			String[] lines = new String(Files.readAllBytes(manifest.file.toPath()), UTF8).split("\n");
+			if (!lines[0].equals(HEADER + VERSION)) {
+				return null;
+			}
+			for (int i = 1; i < lines.length; i++) {
+				String[] fields = lines[i].split("\t", -1);
+				if (fields[0].equals("d") && fields.length == 3) {
+					manifest.folders.put(fields[2], Long.parseLong(fields[1]));
+				} else if (fields[0].equals("r") && fields.length == 8) {
+					Entry entry = new Entry();
+					entry.category = fields[1];
+					entry.name = fields[2];
+					entry.format = fields[3];
+					entry.size = Long.parseLong(fields[4]);
+					entry.modified = Long.parseLong(fields[5]);
+					entry.hash = fields[6];
+					entry.path = manifest.absolute(fields[7]);
+					manifest.entries.put(entry.path, entry);
+				} else if (!lines[i].isEmpty()) {
+					throw new IOException("Bad line " + (i + 1) + ": " + lines[i]);
+				}
+			}
+		} catch (Exception e) {
+			System.out.println("Couldn't read " + manifest.file + ", scanning instead: " + e.getMessage());
+			return null;
+		}
+		return manifest;
+	}
+
+	/*
+	 * Folders added, removed or renamed in since the manifest was written.
+	 * 	Only the outermost of nested ones, since scanning it covers the rest.
+	 */
+	public ArrayList<File> getChangedFolders() {
+		ArrayList<String> changed = new ArrayList<String>();
+		for (Map.Entry<String, Long> folder : folders.entrySet()) {
+			if (new File(absolute(folder.getKey())).lastModified() != folder.getValue()) {
+				changed.add(folder.getKey());
+			}
+		}
+		ArrayList<File> outermost = new ArrayList<File>();
+		for (String folder : changed) {
+			boolean inside = false;
+			for (String other : changed) {
+				inside |= folder.startsWith(other + File.separator);
+			}
+			if (!inside) {
+				outermost.add(new File(absolute(folder)));
+			}
+		}
+		return outermost;
+	}
+	/******************************************/
+
+	/*************** CHANGING ***************/
+	// A resource found by scanning; only hashed if it's new or changed
+	public void add(String category, String name, String path) {
+		File source = new File(path);
+		Entry entry = removed.remove(path);
+		if (entry == null || entry.size != source.length() || entry.modified != source.lastModified()) {
+			entry = new Entry();
+			entry.size = source.length();
+			entry.modified = source.lastModified();
+			entry.hash = hash(source);
+		}
+		entry.category = category;
+		entry.name = name;
+		entry.path = path;
+		entry.format = path.substring(path.lastIndexOf('.') + 1).toLowerCase();
+		entries.put(path, entry);
+		dirty = true;
+	}
+
+	// Everything in and under folder, before scanning it again
+	public void remove(File folder) {
+		String prefix = folder.getAbsolutePath() + File.separator;
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (entry.path.startsWith(prefix)) {
+				removed.put(entry.path, entry);
+				it.remove();
+			}
+		}
+		String relative = relative(folder.getAbsolutePath());
+		Iterator<String> folder_it = folders.keySet().iterator();
+		while (folder_it.hasNext()) {
+			String other = folder_it.next();
+			if (other.equals(relative) || other.startsWith(relative + File.separator)) {
+				folder_it.remove();
+			}
+		}
+		dirty = true;
+	}
+
+	/*
+	 * Check a resource against its file before it's loaded, and hash it
+	 * 	again if it's changed.  Returns its hash, or null if it isn't in
+	 * 	the manifest.
+	 */
+	public synchronized String verify(String path) {
+		Entry entry = entries.get(path);
+		if (entry == null) {
+			return null;
+		}
+		File source = new File(path);
+		if (entry.size != source.length() || entry.modified != source.lastModified()) {
+			entry.size = source.length();
+			entry.modified = source.lastModified();
+			entry.hash = hash(source);
+			dirty = true;
+			try {
+				save();
+			} catch (IOException e) {
+				System.out.println("Couldn't update " + file + ": " + e.getMessage());
+			}
+		}
+		return entry.hash;
+	}
+
+	public synchronized Iterable<Entry> getEntries() {
+		return new ArrayList<Entry>(entries.values());
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	// Changed since it was loaded or saved
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	public File getFile() {
+		return file;
+	}
+	/******************************************/
+
+	/*************** WRITING ***************/
+	/*
+	 * Write it out, with the modified time of every folder between a
+	 * 	resource and the "resources" folder it's under.  Through a temporary
+	 * 	file, so a crash never leaves half a manifest.
+	 */
+	public synchronized void save() throws IOException {
+		for (Entry entry : entries.values()) {
+			File folder = new File(entry.path).getParentFile();
+			while (folder != null && folder.getPath().startsWith(root) && relative(folder.getPath()).contains("resources")) {
+				String relative = relative(folder.getPath());
+				if (folders.containsKey(relative)) {
+					break;
+				}
+				folders.put(relative, folder.lastModified());
+				folder = folder.getParentFile();
+			}
+		}
+
+		File temporary = new File(file.getPath() + ".tmp");
+		Writer out = new OutputStreamWriter(new FileOutputStream(temporary), UTF8);
+		try {
+			out.write(HEADER + VERSION + "\n");
+			for (Map.Entry<String, Long> folder : folders.entrySet()) {
+				out.write("d\t" + folder.getValue() + "\t" + folder.getKey() + "\n");
+			}
+			for (Entry entry : entries.values()) {
+				out.write("r\t" + entry.category + "\t" + entry.name + "\t" + entry.format + "\t"
+					+ entry.size + "\t" + entry.modified + "\t" + entry.hash + "\t" + relative(entry.path) + "\n");
+			}
+		} finally {
+			out.close();
+		}
+		// Windows won't rename over a file
+		if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+			temporary.delete();
+			throw new IOException("Couldn't replace " + file);
+		}
+		dirty = false;
+	}
+	/******************************************/
+
+	private String relative(String path) {
+		return path.startsWith(root) ? path.substring(root.length()) : path;
+	}
+
+	private String absolute(String path) {
+		return new File(path).isAbsolute() ? path : root + path;
+	}
+
+	// SHA-1 in hex, or "" if it can't be read (e.g. in a jar)
+	public static String hash(File source) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			InputStream in = new FileInputStream(source);
+			try {
+				byte[] buffer = new byte[65536];
+				int read;
+				while ((read = in.read(buffer)) > 0) {
+					digest.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (IOException e) {
+			return "";
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// Build the manifest for the working directory from scratch, e.g. before packaging
+	public static void main(String[] args) {
+		String root = args.length > 0 ? args[0] : ".";
+		new File(root, FILE_NAME).delete();
+		ResourceManager manager = new ResourceManager(null, new File(root));
+		System.out.println("Wrote " + manager.getManifest().getFile());
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Where the stars in a star field go and what colour they are.
+ *
+ * 	The field is num_levels layers of rows x columns cells, each of which
+ * 	has a small chance of a star (one in CHANCE, as Stars always had).
+ * 	Rather than rolling for every cell, each level's star count is drawn
+ * 	from the Poisson distribution with the expected count as its mean, and
+ * 	just that many stars are placed in random cells.  That's the same field
+ * 	statistically, for a few random numbers per star instead of one per cell.
+ *
+ * 	Everything comes from one seed: each level gets its own generator
+ * 	seeded from it, so the field is the same whether the levels are made
+ * 	one after another or in parallel.
+ *
+ * 	The stars end up in flat position (x y z) and colour (r g b a) arrays,
+ * 	and toPackedMesh() turns those into one mesh for a single draw.
+ */
+package engine.stars;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import engine.render.model_pieces.Face;
+import engine.render.model_pieces.Mesh;
+import engine.render.model_pieces.PackedMesh;
+
+public class StarField {
+	// One star in this many cells
+	public static final int CHANCE = 50000;
+
+	private final int rows, columns, num_levels;
+	private final float space_between_levels, starting_distance;
+	private final long seed;
+	private double density = 1.0 / CHANCE;
+
+	private float[] positions = new float[0];
+	private float[] colors = new float[0];
+	private int count;
+	// Where each level's stars start, and one past the last level's
+	private int[] level_start;
+
+	public StarField(int rows, int columns, float space_between_levels, int num_levels, float starting_distance, long seed) {
+		this.rows = rows;
+		this.columns = columns;
+		this.space_between_levels = space_between_levels;
+		this.num_levels = num_levels;
+		this.starting_distance = starting_distance;
+		this.seed = seed;
+		level_start = new int[num_levels + 1];
+	}
+
+	// Chance of a star in a cell
+	public void setDensity(double density) {
+		this.density = density;
+	}
+
+	/*************** GENERATING ***************/
+	/*
+	 * Pick every level's count up front (so each level knows where its
+	 * 	stars go in the arrays), then fill the levels in, on a thread each if
+	 * 	parallel.  Returns how many stars there are.
+	 */
+	public int generate(boolean parallel) throws Exception {
+		double mean = (double)rows * columns * density;
+		count = 0;
+		for (int level = 0; level < num_levels; level++) {
+			level_start[level] = count;
+			count += poisson(levelRandom(level, 0), mean);
+		}
+		level_start[num_levels] = count;
+		positions = new float[count * 3];
+		colors = new float[count * 4];
+
+		int threads = parallel ? Math.min(num_levels, Runtime.getRuntime().availableProcessors()) : 1;
+		if (threads <= 1) {
+			for (int level = 0; level < num_levels; level++) {
+				fillLevel(level);
+			}
+			return count;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<Void>> done = new ArrayList<Future<Void>>();
+			for (int level = 0; level < num_levels; level++) {
+				final int this_level = level;
+				done.add(pool.submit(new Callable<Void>() {
+					public Void call() {
+						fillLevel(this_level);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : done) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception)e.getCause();
+					}
+					throw e;
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return count;
+	}
+
+	// A random cell in the level for each of its stars, and a random colour
+	private void fillLevel(int level) {
+		Random random = levelRandom(level, 1);
+		float z = level * -space_between_levels - starting_distance;
+		for (int star = level_start[level]; star < level_start[level + 1]; star++) {
+			positions[star * 3] = random.nextInt(rows) - starting_distance;
+			positions[star * 3 + 1] = random.nextInt(columns) - starting_distance;
+			positions[star * 3 + 2] = z;
+			colors[star * 4] = random.nextFloat();
+			colors[star * 4 + 1] = random.nextFloat();
+			colors[star * 4 + 2] = random.nextFloat();
+			colors[star * 4 + 3] = 1f;
+		}
+	}
+
+	// Separate streams per level (and for counting vs filling), all from the one seed
+	private Random levelRandom(int level, int stream) {
+		long mixed = seed + (level * 2L + stream + 1) * 0x9E3779B97F4A7C15L;
+		mixed = (mixed ^ (mixed >>> 30)) * 0xBF58476D1CE4E5B9L;
+		mixed = (mixed ^ (mixed >>> 27)) * 0x94D049BB133111EBL;
+		return new Random(mixed ^ (mixed >>> 31));
+	}
+
+	/*
+	 * A Poisson distributed count with this mean: how many arrivals of a
+	 * 	process with that rate land in one unit of time, adding up
+	 * 	exponential gaps.  Exact, and about mean steps, which is no more than
+	 * 	placing the stars takes anyway.
+	 */
+	public static int poisson(Random random, double mean) {
+		if (!(mean > 0)) {
+			return 0;
+		}
+		int arrivals = 0;
+		double time = -Math.log(1.0 - random.nextDouble()) / mean;
+		while (time <= 1.0) {
+			arrivals++;
+			time += -Math.log(1.0 - random.nextDouble()) / mean;
+		}
+		return arrivals;
+	}
+	/******************************************/
+
+	/*************** MESH ***************/
+	/*
+	 * A copy of template (positions around 0,0,0) at every star, coloured
+	 * 	the star's colour, all in one mesh.
+	 */
+	public PackedMesh toPackedMesh(PackedMesh template) {
+		int template_vertices = template.getVertexCount();
+		int template_indices = template.getIndexCount();
+		float[] source = template.getVertices();
+		int[] source_indices = template.getIndices();
+
+		float[] vertices = new float[count * template_vertices * PackedMesh.STRIDE];
+		float[] vertex_colors = new float[count * template_vertices * PackedMesh.COLOR_STRIDE];
+		int[] indices = new int[count * template_indices];
+		for (int star = 0; star < count; star++) {
+			int first = star * template_vertices;
+			for (int v = 0; v < template_vertices; v++) {
+				int to = (first + v) * PackedMesh.STRIDE;
+				System.arraycopy(source, v * PackedMesh.STRIDE, vertices, to, PackedMesh.STRIDE);
+				vertices[to] += positions[star * 3];
+				vertices[to + 1] += positions[star * 3 + 1];
+				vertices[to + 2] += positions[star * 3 + 2];
+				System.arraycopy(colors, star * 4, vertex_colors, (first + v) * PackedMesh.COLOR_STRIDE, 4);
+			}
+			for (int i = 0; i < template_indices; i++) {
+				indices[star * template_indices + i] = first + source_indices[i];
+			}
+		}
+		return new PackedMesh(vertices, count * template_vertices, indices, count * template_indices, vertex_colors);
+	}
+
+	/*
+	 * meshes (e.g. a model's) as a PackedMesh to use as the template,
+	 * 	polygons fanned into triangles.  Corners aren't welded; a star is
+	 * 	a handful of vertices either way.
+	 */
+	public static PackedMesh template(ArrayList<Mesh> meshes) {
+		int corners = 0, triangles = 0;
+		for (Mesh mesh : meshes) {
+			for (Face face : mesh.getFaces()) {
+				if (face.getVertexCount() >= 3) {
+					corners += face.getVertexCount();
+					triangles += face.getVertexCount() - 2;
+				}
+			}
+		}
+		float[] vertices = new float[corners * PackedMesh.STRIDE];
+		int[] indices = new int[triangles * 3];
+		float[] rgba = {1, 1, 1, 1};
+		float[] vntc = new float[0];
+		int vertex = 0, index = 0;
+		for (Mesh mesh : meshes) {
+			for (Face face : mesh.getFaces()) {
+				int face_corners = face.getVertexCount();
+				if (face_corners < 3) {
+					continue;
+				}
+				if (vntc.length < face_corners * 12) {
+					vntc = new float[face_corners * 12];
+				}
+				face.writeVNTC(mesh, rgba, vntc);
+				for (int c = 0; c < face_corners; c++) {
+					System.arraycopy(vntc, c * 12, vertices, (vertex + c) * PackedMesh.STRIDE, PackedMesh.STRIDE);
+				}
+				for (int c = 2; c < face_corners; c++) {
+					indices[index++] = vertex;
+					indices[index++] = vertex + c - 1;
+					indices[index++] = vertex + c;
+				}
+				vertex += face_corners;
+			}
+		}
+		return new PackedMesh(vertices, vertex, indices, index);
+	}
+	/******************************************/
+
+	/*************** RESULTS ***************/
+	public int getCount() {
+		return count;
+	}
+
+	// x y z per star
+	public float[] getPositions() {
+		return positions;
+	}
+
+	// r g b a per star
+	public float[] getColors() {
+		return colors;
+	}
+
+	public int getLevelStart(int level) {
+		return level_start[level];
+	}
+
+	public int getLevelCount(int level) {
+		return level_start[level + 1] - level_start[level];
+	}
+	/******************************************/
+}
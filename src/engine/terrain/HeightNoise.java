@@ -0,0 +1,82 @@
+/*
+ * Seeded fractal value noise for terrain heights.
+ *
+ * 	A random value at every integer lattice point (hashed from the point
+ * 	and the seed, so nothing is stored), smoothly interpolated between them,
+ * 	and a few octaves of that at doubling frequency and halving amplitude
+ * 	added up.  A height only depends on where it's sampled, so chunks can be
+ * 	made in any order, on any thread, and their edges still meet.
+ */
+package engine.terrain;
+
+public class HeightNoise {
+	private final long seed;
+	private final int octaves;
+	private final float frequency;
+	private final float amplitude;
+
+	public HeightNoise(long seed) {
+		this(seed, 5, 1f / 64f, 24f);
+	}
+
+	// frequency of the first octave in lattice points per world unit, amplitude its height
+	public HeightNoise(long seed, int octaves, float frequency, float amplitude) {
+		this.seed = seed;
+		this.octaves = octaves;
+		this.frequency = frequency;
+		this.amplitude = amplitude;
+	}
+
+	public float sample(float x, float z) {
+		float total = 0;
+		float f = frequency;
+		float a = amplitude;
+		for (int octave = 0; octave < octaves; octave++) {
+			total += a * value(x * f, z * f, octave);
+			f *= 2;
+			a *= 0.5f;
+		}
+		return total;
+	}
+
+	// -1 to 1, interpolated between the four lattice points around x, z
+	private float value(float x, float z, int octave) {
+		int x0 = floor(x);
+		int z0 = floor(z);
+		float tx = fade(x - x0);
+		float tz = fade(z - z0);
+		float a = lattice(x0, z0, octave);
+		float b = lattice(x0 + 1, z0, octave);
+		float c = lattice(x0, z0 + 1, octave);
+		float d = lattice(x0 + 1, z0 + 1, octave);
+		float top = a + (b - a) * tx;
+		float bottom = c + (d - c) * tx;
+		return top + (bottom - top) * tz;
+	}
+
+	// Math.floor without the double round trip
+	private static int floor(float value) {
+		int i = (int)value;
+		return value < i ? i - 1 : i;
+	}
+
+	// Smoothstep, so there are no creases along the lattice lines
+	private static float fade(float t) {
+		return t * t * (3 - 2 * t);
+	}
+
+	private float lattice(int x, int z, int octave) {
+		long h = seed + octave * 0x9E3779B97F4A7C15L;
+		h ^= x * 0xC2B2AE3D27D4EB4FL;
+		h ^= z * 0x165667B19E3779F9L;
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		h ^= h >>> 31;
+		// Top 24 bits as -1 to 1
+		return (h >>> 40) / (float)(1 << 23) - 1f;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+}
@@ -1,80 +1,178 @@
+/*
+ * Heightfield terrain made of fixed size chunks (see TerrainChunk).
+ *
+ * 	generate() fills every chunk's heights from one HeightNoise and builds
+ * 	its mesh, a chunk per task on a thread pool if asked; the noise only
+ * 	depends on position, so a seed gives the same ground either way.
+ * 	addToEngine() then makes each chunk a static entity with its own model
+ * 	and triangle mesh collision shape, placed at the chunk's corner.
+ */
 package engine.terrain;
 
-import javax.vecmath.Vector3f;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import javax.vecmath.Vector4f;
 
+import engine.Engine;
 import engine.entity.Entity;
 import engine.render.Model;
 import engine.render.Shader;
-import engine.render.model_pieces.Mesh;
+import engine.render.model_pieces.PackedMesh;
 import engine.render.ubos.Material;
 
-public class Terrain extends Entity {
-	private DynamicMatrix terrain;
-	private	Model base_model;
-	private Model full_model;
+public class Terrain {
+	public static final int DEFAULT_CHUNK_SIZE = 64;
+
+	private final HeightNoise noise;
+	private final int chunk_size;
+	private final float cell_size;
+	// The same triangles for every chunk
+	private final int[] grid_indices;
+
+	private int chunks_x, chunks_z;
+	private TerrainChunk[] chunks = new TerrainChunk[0];
+	private PackedMesh[] meshes = new PackedMesh[0];
+	private ArrayList<Entity> entities = new ArrayList<Entity>();
 
-	public Terrain(float mass, boolean collide, Model base_model, Shader shader) {
-		super(mass, collide, base_model, shader);
-		this.base_model = new Model(base_model);
-		this.base_model.setShader(shader);
-		this.full_model = new Model(shader);
+	public Terrain(long seed) {
+		this(new HeightNoise(seed), DEFAULT_CHUNK_SIZE, 1f);
 	}
-	
-	public Terrain(float mass, boolean collide, Model base_model) {
-		super(mass, collide, base_model, base_model.getShader());
-		this.base_model = base_model;
-		this.full_model = new Model(base_model.getShader());
+
+	// chunk_size cells a side, cell_size world units a cell
+	public Terrain(HeightNoise noise, int chunk_size, float cell_size) {
+		this.noise = noise;
+		this.chunk_size = chunk_size;
+		this.cell_size = cell_size;
+		grid_indices = TerrainChunk.gridIndices(chunk_size);
 	}
 
-	public void createTerrain(int land_size) {
-		terrain = new DynamicMatrix();
-		
-		full_model.deleteMeshes();
-		
-		base_model.getMesh(0).setMaterial(
-			new Material(
-				new Vector4f(13.0f,13.0f,13.0f,255.0f),
-				new Vector4f(13.0f,13.0f,13.0f,255.0f),
-				new Vector4f(13.0f,13.0f,13.0f,255.0f),
-				100.0f,
-				255.0f
-			)
-		);
-		
-		//Create the base matrix for the terrain
-		for (int i = 0; i < land_size; i++)
-			terrain.expand();
-		
-		for (int i = 0; i < terrain.getSize(); i++) {
-			for(Mesh mesh: base_model.getMeshes()) {
-				Mesh new_mesh =	new Mesh(mesh);
+	/*************** GENERATING ***************/
+	// chunks_x by chunks_z chunks from the origin; returns how many
+	public int generate(int chunks_x, int chunks_z, boolean parallel) throws Exception {
+		this.chunks_x = chunks_x;
+		this.chunks_z = chunks_z;
+		chunks = new TerrainChunk[chunks_x * chunks_z];
+		meshes = new PackedMesh[chunks.length];
+
+		int threads = parallel ? Math.min(chunks.length, Runtime.getRuntime().availableProcessors()) : 1;
+		if (threads <= 1) {
+			for (int i = 0; i < chunks.length; i++) {
+				makeChunk(i);
+			}
+			return chunks.length;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<Void>> done = new ArrayList<Future<Void>>();
+			for (int i = 0; i < chunks.length; i++) {
+				final int chunk = i;
+				done.add(pool.submit(new Callable<Void>() {
+					public Void call() {
+						makeChunk(chunk);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : done) {
 				try {
-					new_mesh.transform(
-						terrain.get(i),
-						new Vector3f(0,0,1),
-						new Vector3f(0,1,0)
-					);
-				} catch (Exception e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+					future.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) {
+						throw (Exception)e.getCause();
+					}
+					throw e;
 				}
-				
-				full_model.addMesh(new_mesh);		
 			}
+		} finally {
+			pool.shutdown();
 		}
-		this.setProperty("model",full_model);
+		return chunks.length;
 	}
 
-	public String toString() {
-		String text = new String();
-		for (int i = 0; i < terrain.getColumns(); i++) {
-			for (int j = 0; j < terrain.getColumns(); j++) {
-				text += terrain.get(i, j) + ",";
-			}
-			text += "\n";
+	private void makeChunk(int i) {
+		TerrainChunk chunk = new TerrainChunk(i % chunks_x, i / chunks_x, chunk_size, cell_size);
+		chunk.generate(noise);
+		chunks[i] = chunk;
+		meshes[i] = chunk.buildMesh(grid_indices);
+	}
+	/******************************************/
+
+	/*************** ENGINE ***************/
+	// A static entity per chunk, named terrain_x_z
+	public void addToEngine(Engine engine, Shader shader) {
+		Material material = new Material(
+			new Vector4f(13.0f,13.0f,13.0f,255.0f),
+			new Vector4f(13.0f,13.0f,13.0f,255.0f),
+			new Vector4f(13.0f,13.0f,13.0f,255.0f),
+			100.0f,
+			255.0f
+		);
+		for (int i = 0; i < chunks.length; i++) {
+			TerrainChunk chunk = chunks[i];
+			Model model = new Model(meshes[i], material);
+			model.setShader(shader);
+			// Set before the entity exists so it doesn't wrap a hull around the mesh
+			model.setCollisionShape(chunk.buildCollisionShape(grid_indices));
+
+			Entity ent = new Entity("terrain_" + chunk.getChunkX() + "_" + chunk.getChunkZ(), 0, true, model, shader);
+			ent.setProperty(Entity.POSITION, chunk.getOrigin());
+			ent = engine.addEntity(ent);
+			ent.activate();
+			entities.add(ent);
+		}
+	}
+
+	public void removeFromEngine(Engine engine) {
+		for (Entity ent : entities) {
+			engine.removeEntity((String)ent.getProperty(Entity.NAME));
 		}
-		return text;
+		entities.clear();
+	}
+	/******************************************/
+
+	/*************** ACCESSORS ***************/
+	public TerrainChunk getChunk(int chunk_x, int chunk_z) {
+		return chunks[chunk_x + chunk_z * chunks_x];
+	}
+
+	public PackedMesh getMesh(int chunk_x, int chunk_z) {
+		return meshes[chunk_x + chunk_z * chunks_x];
+	}
+
+	public int getChunkCount() {
+		return chunks.length;
+	}
+
+	public int getChunkSize() {
+		return chunk_size;
+	}
+
+	public float getCellSize() {
+		return cell_size;
+	}
+
+	public int[] getGridIndices() {
+		return grid_indices;
+	}
+
+	// Heights, mesh vertices and the one shared index array
+	public long getBytes() {
+		long bytes = grid_indices.length * 4L;
+		for (int i = 0; i < chunks.length; i++) {
+			bytes += chunks[i].getHeightBytes();
+			bytes += meshes[i].getVertexCount() * (long)PackedMesh.STRIDE * 4;
+		}
+		return bytes;
+	}
 
+	public ArrayList<Entity> getEntities() {
+		return entities;
 	}
+	/******************************************/
 }
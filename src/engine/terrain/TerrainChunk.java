@@ -0,0 +1,298 @@
+/*
+ * One square piece of terrain: size x size cells, so (size + 1)^2 height
+ * 	samples, in a flat float[].  The samples carry a one sample border from
+ * 	the neighbouring chunks' ground so edge normals come out the same on
+ * 	both sides of a seam.
+ *
+ * 	The mesh is a grid of shared vertices indexed as triangles; every chunk
+ * 	the same size uses the same index array (gridIndices()), only the
+ * 	vertices differ.  The collision shape is a static triangle mesh over the
+ * 	same grid, so bullet only looks at the triangles near whatever it's
+ * 	testing instead of one hull around everything.
+ *
+ * 	Further away, buildMesh(step) makes a coarser grid with skirts (see
+ * 	there) for the level of detail that TerrainStreamer picks.
+ *
+ * 	Positions are relative to the chunk's corner (getOrigin()).
+ */
+package engine.terrain;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.vecmath.Vector3f;
+
+import com.bulletphysics.collision.shapes.BvhTriangleMeshShape;
+import com.bulletphysics.collision.shapes.CollisionShape;
+import com.bulletphysics.collision.shapes.TriangleIndexVertexArray;
+
+import engine.render.model_pieces.PackedMesh;
+
+public class TerrainChunk {
+	private final int chunk_x, chunk_z;
+	private final int size;
+	private final float cell_size;
+	// (size + 3)^2, with the border
+	private final float[] heights;
+	private final int row;
+
+	public TerrainChunk(int chunk_x, int chunk_z, int size, float cell_size) {
+		this.chunk_x = chunk_x;
+		this.chunk_z = chunk_z;
+		this.size = size;
+		this.cell_size = cell_size;
+		row = size + 3;
+		heights = new float[row * row];
+	}
+
+	/*************** GENERATING ***************/
+	// Sample noise at every point of the chunk and its border, in world units
+	public void generate(HeightNoise noise) {
+		float origin_x = chunk_x * size * cell_size;
+		float origin_z = chunk_z * size * cell_size;
+		for (int z = -1; z <= size + 1; z++) {
+			for (int x = -1; x <= size + 1; x++) {
+				heights[index(x, z)] = noise.sample(origin_x + x * cell_size, origin_z + z * cell_size);
+			}
+		}
+	}
+
+	// Height at sample x, z; -1 and size + 1 are the border
+	public float getHeight(int x, int z) {
+		return heights[index(x, z)];
+	}
+
+	public void setHeight(int x, int z, float height) {
+		heights[index(x, z)] = height;
+	}
+
+	private int index(int x, int z) {
+		return (x + 1) + (z + 1) * row;
+	}
+	/******************************************/
+
+	/*************** MESH ***************/
+	/*
+	 * Two triangles a cell, counter clockwise seen from above, indexing
+	 * 	(size + 1)^2 vertices row by row.  Build it once and hand it to every
+	 * 	chunk's buildMesh().
+	 */
+	public static int[] gridIndices(int size) {
+		int[] indices = new int[size * size * 6];
+		int i = 0;
+		for (int z = 0; z < size; z++) {
+			for (int x = 0; x < size; x++) {
+				int a = z * (size + 1) + x;
+				int b = a + 1;
+				int c = a + size + 1;
+				int d = c + 1;
+				indices[i++] = a;
+				indices[i++] = c;
+				indices[i++] = b;
+				indices[i++] = b;
+				indices[i++] = c;
+				indices[i++] = d;
+			}
+		}
+		return indices;
+	}
+
+	// grid_indices from gridIndices(size); it's shared, not copied
+	public PackedMesh buildMesh(int[] grid_indices) {
+		int side = size + 1;
+		float[] vertices = new float[side * side * PackedMesh.STRIDE];
+		float inverse = 1f / (2 * cell_size);
+		int v = 0;
+		for (int z = 0; z <= size; z++) {
+			for (int x = 0; x <= size; x++) {
+				// Central differences, using the border at the edges
+				float dx = (getHeight(x + 1, z) - getHeight(x - 1, z)) * inverse;
+				float dz = (getHeight(x, z + 1) - getHeight(x, z - 1)) * inverse;
+				float length = (float)Math.sqrt(dx * dx + 1 + dz * dz);
+				vertices[v] = x * cell_size;
+				vertices[v + 1] = getHeight(x, z);
+				vertices[v + 2] = z * cell_size;
+				vertices[v + PackedMesh.NORMAL_OFFSET] = -dx / length;
+				vertices[v + PackedMesh.NORMAL_OFFSET + 1] = 1 / length;
+				vertices[v + PackedMesh.NORMAL_OFFSET + 2] = -dz / length;
+				vertices[v + PackedMesh.TEXTURE_OFFSET] = x / (float)size;
+				vertices[v + PackedMesh.TEXTURE_OFFSET + 1] = z / (float)size;
+				v += PackedMesh.STRIDE;
+			}
+		}
+		return new PackedMesh(vertices, side * side, grid_indices, grid_indices.length);
+	}
+
+	/*************** LEVEL OF DETAIL ***************/
+	/*
+	 * Every step'th sample a side (step a power of two up to size), so
+	 * 	(size / step + 1)^2 grid vertices, followed by a skirt: a copy of each
+	 * 	edge vertex dropped straight down.  Neighbours at different steps
+	 * 	don't share edge vertices, so there'd be cracks between them; the
+	 * 	skirts hang down far enough to cover any crack the chunk's heights
+	 * 	could make.
+	 *
+	 * 	lod_indices from lodIndices(size, step), shared the same way.
+	 */
+	public PackedMesh buildMesh(int step, int[] lod_indices) {
+		int side = size / step + 1;
+		float[] vertices = new float[(side * side + 4 * side) * PackedMesh.STRIDE];
+		int v = 0;
+		for (int gz = 0; gz < side; gz++) {
+			for (int gx = 0; gx < side; gx++) {
+				int x = gx * step, z = gz * step;
+				float height = getHeight(x, z);
+				// Central differences a step either side, clamped to what's stored
+				float dx = (getHeight(Math.min(x + step, size + 1), z) - getHeight(Math.max(x - step, -1), z))
+					/ ((Math.min(x + step, size + 1) - Math.max(x - step, -1)) * cell_size);
+				float dz = (getHeight(x, Math.min(z + step, size + 1)) - getHeight(x, Math.max(z - step, -1)))
+					/ ((Math.min(z + step, size + 1) - Math.max(z - step, -1)) * cell_size);
+				float length = (float)Math.sqrt(dx * dx + 1 + dz * dz);
+				vertices[v] = x * cell_size;
+				vertices[v + 1] = height;
+				vertices[v + 2] = z * cell_size;
+				vertices[v + PackedMesh.NORMAL_OFFSET] = -dx / length;
+				vertices[v + PackedMesh.NORMAL_OFFSET + 1] = 1 / length;
+				vertices[v + PackedMesh.NORMAL_OFFSET + 2] = -dz / length;
+				vertices[v + PackedMesh.TEXTURE_OFFSET] = x / (float)size;
+				vertices[v + PackedMesh.TEXTURE_OFFSET + 1] = z / (float)size;
+				v += PackedMesh.STRIDE;
+			}
+		}
+		// A crack can't be deeper than the chunk is tall, at full detail
+		float lowest = Float.MAX_VALUE, highest = -Float.MAX_VALUE;
+		for (float height : heights) {
+			lowest = Math.min(lowest, height);
+			highest = Math.max(highest, height);
+		}
+		float depth = highest - lowest + cell_size;
+		for (int edge = 0; edge < 4; edge++) {
+			for (int i = 0; i < side; i++) {
+				System.arraycopy(vertices, edgeVertex(edge, i, side) * PackedMesh.STRIDE, vertices, v, PackedMesh.STRIDE);
+				vertices[v + 1] -= depth;
+				v += PackedMesh.STRIDE;
+			}
+		}
+		return new PackedMesh(vertices, side * side + 4 * side, lod_indices, lod_indices.length);
+	}
+
+	/*
+	 * Triangles for buildMesh(step): the grid like gridIndices(), then a
+	 * 	quad between each pair of edge vertices and their skirt copies,
+	 * 	facing out.
+	 */
+	public static int[] lodIndices(int size, int step) {
+		int cells = size / step;
+		int side = cells + 1;
+		int[] indices = new int[cells * cells * 6 + 4 * cells * 6];
+		int i = 0;
+		for (int z = 0; z < cells; z++) {
+			for (int x = 0; x < cells; x++) {
+				int a = z * side + x;
+				int b = a + 1;
+				int c = a + side;
+				int d = c + 1;
+				indices[i++] = a;
+				indices[i++] = c;
+				indices[i++] = b;
+				indices[i++] = b;
+				indices[i++] = c;
+				indices[i++] = d;
+			}
+		}
+		for (int edge = 0; edge < 4; edge++) {
+			int skirt = side * side + edge * side;
+			// Edges 0 and 3 (z = 0, x = size) run the way that faces out; 1 and 2 are mirrored
+			boolean flip = edge == 1 || edge == 2;
+			for (int j = 0; j < cells; j++) {
+				int a = edgeVertex(edge, j, side), b = edgeVertex(edge, j + 1, side);
+				int a_low = skirt + j, b_low = skirt + j + 1;
+				indices[i++] = a;
+				indices[i++] = flip ? a_low : b;
+				indices[i++] = flip ? b : a_low;
+				indices[i++] = b;
+				indices[i++] = flip ? a_low : b_low;
+				indices[i++] = flip ? b_low : a_low;
+			}
+		}
+		return indices;
+	}
+
+	// The i'th grid vertex along an edge: z = 0, z = max, x = 0, x = max
+	private static int edgeVertex(int edge, int i, int side) {
+		switch (edge) {
+			case 0: return i;
+			case 1: return (side - 1) * side + i;
+			case 2: return i * side;
+			default: return i * side + side - 1;
+		}
+	}
+	/******************************************/
+
+	/*************** COLLISION ***************/
+	/*
+	 * A static triangle mesh over the same grid.  Bullet keeps the buffers,
+	 * 	so they're the shape's own: positions only, 12 bytes a vertex.
+	 */
+	public CollisionShape buildCollisionShape(int[] grid_indices) {
+		int side = size + 1;
+		ByteBuffer vertex_base = ByteBuffer.allocateDirect(side * side * 12).order(ByteOrder.nativeOrder());
+		for (int z = 0; z <= size; z++) {
+			for (int x = 0; x <= size; x++) {
+				vertex_base.putFloat(x * cell_size);
+				vertex_base.putFloat(getHeight(x, z));
+				vertex_base.putFloat(z * cell_size);
+			}
+		}
+		ByteBuffer index_base = ByteBuffer.allocateDirect(grid_indices.length * 4).order(ByteOrder.nativeOrder());
+		for (int index : grid_indices) {
+			index_base.putInt(index);
+		}
+		vertex_base.flip();
+		index_base.flip();
+		TriangleIndexVertexArray mesh = new TriangleIndexVertexArray(
+			grid_indices.length / 3, index_base, 12,
+			side * side, vertex_base, 12
+		);
+		return new BvhTriangleMeshShape(mesh, true);
+	}
+
+	// What buildCollisionShape() copies for bullet, not counting its tree
+	public long getCollisionBytes(int[] grid_indices) {
+		return (size + 1) * (size + 1) * 12L + grid_indices.length * 4L;
+	}
+	/******************************************/
+
+	/*************** ACCESSORS ***************/
+	public int getChunkX() {
+		return chunk_x;
+	}
+
+	public int getChunkZ() {
+		return chunk_z;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public float getCellSize() {
+		return cell_size;
+	}
+
+	// World position of sample 0, 0
+	public Vector3f getOrigin() {
+		return new Vector3f(chunk_x * size * cell_size, 0, chunk_z * size * cell_size);
+	}
+
+	// Don't modify
+	public float[] getHeights() {
+		return heights;
+	}
+
+	// What the height samples take up
+	public long getHeightBytes() {
+		return heights.length * 4L;
+	}
+	/******************************************/
+}
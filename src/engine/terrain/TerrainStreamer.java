@@ -0,0 +1,526 @@
+/*
+ * Terrain for worlds too big to keep around: only the chunks within
+ * 	view distance of a focus point (usually the Camera's) exist as
+ * 	entities, nearer ones in more detail than further ones.
+ *
+ * 	Call update() every frame with where the focus is.  Chunks that come
+ * 	into range, or need a different level of detail, are made on a pool of
+ * 	background threads: heights, the triangle mesh collision shape and the
+ * 	level's mesh, packed for the VBO (Model.prepareBuffers()), so all the
+ * 	render thread does is upload them, through the renderer's queue like
+ * 	any other entity's model.  A level's step doubles each level, and
+ * 	chunks have skirts (TerrainChunk.buildMesh(step)) so neighbours at
+ * 	different levels don't leave cracks.
+ *
+ * 	Finished chunks stay in an LRU cache after they go out of range, up to
+ * 	a memory budget, so coming back doesn't mean making them again.
+ * 	Chunks in range are never evicted.
+ *
+ * 	Everything but the building runs on whichever thread calls update().
+ * 	With no engine, chunks are made and cached but no entities are added,
+ * 	e.g. for benchmarking.
+ */
+package engine.terrain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.vecmath.Vector3f;
+import javax.vecmath.Vector4f;
+
+import com.bulletphysics.collision.shapes.CollisionShape;
+
+import engine.Engine;
+import engine.entity.Entity;
+import engine.render.Model;
+import engine.render.Shader;
+import engine.render.model_pieces.PackedMesh;
+import engine.render.ubos.Material;
+
+public class TerrainStreamer {
+	public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+	// How far past a boundary the focus has to go before a chunk changes level or leaves
+	private static final float HYSTERESIS = 0.1f;
+
+	/*
+	 * Basically just a struct of how streaming is going
+	 */
+	public static class Stats {
+		public int resident;			// chunks in range, shown
+		public int cached;				// chunks made, shown or not
+		public long cached_bytes;
+		public int pending;				// waiting for a worker
+		public long hits;				// a chunk needed a level that was already made
+		public long misses;				// ... that had to be made
+		public long built;
+		public long evicted;
+		public long level_changes;
+		public double average_latency_ms;	// asked for until ready, for built chunks
+		public double max_latency_ms;
+		public long update_nanos;		// last update()
+
+		public double hitRate() {
+			return (hits + misses == 0) ? 0 : hits / (double)(hits + misses);
+		}
+
+		public String toString() {
+			return String.format(
+				"%d resident, %d cached (%.1f MB), %d pending; %.1f%% hits (%d/%d), %d built (%.1fms avg, %.1fms max), %d evicted, %d level changes; update %.3fms",
+				resident, cached, cached_bytes / 1048576.0, pending, hitRate() * 100, hits, hits + misses,
+				built, average_latency_ms, max_latency_ms, evicted, level_changes, update_nanos / 1e6
+			);
+		}
+	}
+
+	// Everything made for one chunk
+	private static class ChunkData {
+		final int chunk_x, chunk_z;
+		TerrainChunk chunk;
+		CollisionShape shape;
+		Model[] models;
+		long bytes;
+		// What's shown, or -1; the last update that wanted it, and that a level arrived in
+		int shown_level = -1;
+		Entity entity;
+		long wanted, built;
+
+		ChunkData(int chunk_x, int chunk_z, int levels) {
+			this.chunk_x = chunk_x;
+			this.chunk_z = chunk_z;
+			models = new Model[levels];
+		}
+	}
+
+	// One level of one chunk for a worker to make; whatever's already made is reused
+	private class Job implements Runnable {
+		final long key;
+		final int chunk_x, chunk_z, level;
+		final long submitted = System.nanoTime();
+		TerrainChunk chunk;
+		CollisionShape shape;
+		Model model;
+
+		Job(long key, int chunk_x, int chunk_z, int level, ChunkData data) {
+			this.key = key;
+			this.chunk_x = chunk_x;
+			this.chunk_z = chunk_z;
+			this.level = level;
+			if (data != null) {
+				chunk = data.chunk;
+				shape = data.shape;
+			}
+		}
+
+		public void run() {
+			try {
+				if (chunk == null) {
+					chunk = new TerrainChunk(chunk_x, chunk_z, chunk_size, cell_size);
+					chunk.generate(noise);
+				}
+				if (shape == null) {
+					shape = chunk.buildCollisionShape(grid_indices);
+				}
+				model = makeModel(chunk.buildMesh(1 << level, lod_indices[level]), shape);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			finished.add(this);
+		}
+	}
+
+	private final Engine engine;
+	private final Shader shader;
+	private final HeightNoise noise;
+	private final int chunk_size;
+	private final float cell_size;
+	private final int[] grid_indices;
+	private final int[][] lod_indices;
+	private final Material material;
+
+	// World distance to a chunk where each level stops; the last is the view distance
+	private float[] level_distances;
+	private long budget = DEFAULT_BUDGET;
+	private int max_pending;
+
+	private final ExecutorService workers;
+	private final ConcurrentLinkedQueue<Job> finished = new ConcurrentLinkedQueue<Job>();
+	// Key to level being made
+	private final HashMap<Long, Integer> pending = new HashMap<Long, Integer>();
+	// Least recently wanted first
+	private final LinkedHashMap<Long, ChunkData> cache = new LinkedHashMap<Long, ChunkData>(64, 0.75f, true);
+	private final HashMap<Long, ChunkData> resident = new HashMap<Long, ChunkData>();
+	private final ArrayList<ChunkData> leaving = new ArrayList<ChunkData>();
+	private long cached_bytes;
+	private long frame;
+
+	// Wanted this update, nearest first
+	private long[] wanted_keys = new long[64];
+	private float[] wanted_distances = new float[64];
+	private int wanted_count;
+
+	private long hits, misses, built, evicted, level_changes;
+	private double total_latency_ms, max_latency_ms;
+	private volatile Stats stats = new Stats();
+
+	public TerrainStreamer(Engine engine, Shader shader, long seed) {
+		this(engine, shader, new HeightNoise(seed), Terrain.DEFAULT_CHUNK_SIZE, 1f, Runtime.getRuntime().availableProcessors());
+	}
+
+	// chunk_size cells a side (a power of two), cell_size world units a cell
+	public TerrainStreamer(Engine engine, Shader shader, HeightNoise noise, int chunk_size, float cell_size, int threads) {
+		this.engine = engine;
+		this.shader = shader;
+		this.noise = noise;
+		this.chunk_size = chunk_size;
+		this.cell_size = cell_size;
+		grid_indices = TerrainChunk.gridIndices(chunk_size);
+
+		int levels = Math.min(4, Integer.numberOfTrailingZeros(chunk_size) + 1);
+		lod_indices = new int[levels][];
+		level_distances = new float[levels];
+		float width = chunk_size * cell_size;
+		for (int level = 0; level < levels; level++) {
+			lod_indices[level] = TerrainChunk.lodIndices(chunk_size, 1 << level);
+			level_distances[level] = width * (1.5f * (1 << level));
+		}
+
+		material = new Material(
+			new Vector4f(13.0f,13.0f,13.0f,255.0f),
+			new Vector4f(13.0f,13.0f,13.0f,255.0f),
+			new Vector4f(13.0f,13.0f,13.0f,255.0f),
+			100.0f,
+			255.0f
+		);
+
+		threads = Math.max(1, threads);
+		max_pending = threads * 2;
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "terrain");
+				// Don't hold the program open for chunks nobody will see
+				thread.setDaemon(true);
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+				return thread;
+			}
+		});
+	}
+
+	/*************** SETTINGS ***************/
+	/*
+	 * Where each level of detail ends, nearest first, in world units from
+	 * 	the focus to the nearest point of the chunk.  The last is how far
+	 * 	chunks are shown at all.  Levels past the chunk size are dropped.
+	 */
+	public void setLevelDistances(float... distances) {
+		level_distances = new float[Math.min(distances.length, lod_indices.length)];
+		System.arraycopy(distances, 0, level_distances, 0, level_distances.length);
+	}
+
+	// Bytes the cache can hold; it can go over with what's in range
+	public void setBudget(long budget) {
+		this.budget = budget;
+	}
+
+	// How many chunks can be waiting for a worker at once
+	public void setMaxPending(int max_pending) {
+		this.max_pending = max_pending;
+	}
+	/******************************************/
+
+	/*************** STREAMING ***************/
+	public void update(Vector3f focus) {
+		long start = System.nanoTime();
+		frame++;
+		collectFinished();
+
+		// Every chunk in range, nearest first so it's asked for first
+		float view = level_distances[level_distances.length - 1] * (1 + HYSTERESIS);
+		float width = chunk_size * cell_size;
+		int reach = (int)Math.ceil(view / width) + 1;
+		int focus_x = (int)Math.floor(focus.x / width);
+		int focus_z = (int)Math.floor(focus.z / width);
+		wanted_count = 0;
+		for (int z = focus_z - reach; z <= focus_z + reach; z++) {
+			for (int x = focus_x - reach; x <= focus_x + reach; x++) {
+				float distance = distance(focus, x, z);
+				if (distance <= view) {
+					addWanted(key(x, z), distance);
+				}
+			}
+		}
+		sortWanted();
+
+		for (int w = 0; w < wanted_count; w++) {
+			long key = wanted_keys[w];
+			ChunkData data = cache.get(key);
+			int current = (data == null) ? -1 : data.shown_level;
+			int level = levelFor(wanted_distances[w], current);
+			if (level < 0) {
+				continue;
+			}
+			if (data != null) {
+				data.wanted = frame;
+				if (data.shown_level == level) {
+					continue;
+				}
+			}
+			if (data != null && data.models[level] != null) {
+				// Not counted if it was only just made for this
+				if (data.built != frame) {
+					hits++;
+				}
+				show(key, data, level);
+			} else if (!pending.containsKey(key) && pending.size() < max_pending) {
+				misses++;
+				pending.put(key, level);
+				workers.execute(new Job(key, keyX(key), keyZ(key), level, data));
+			}
+		}
+
+		// Out of range
+		leaving.clear();
+		for (ChunkData data : resident.values()) {
+			if (data.wanted != frame) {
+				leaving.add(data);
+			}
+		}
+		for (ChunkData data : leaving) {
+			hide(data);
+		}
+
+		evict();
+		publishStats(System.nanoTime() - start);
+	}
+
+	// Whatever the workers have made since the last update, into the cache and on screen if still wanted
+	private void collectFinished() {
+		Job job;
+		while ((job = finished.poll()) != null) {
+			pending.remove(job.key);
+			if (job.model == null) {
+				continue;
+			}
+			ChunkData data = cache.get(job.key);
+			if (data == null) {
+				data = new ChunkData(job.chunk_x, job.chunk_z, lod_indices.length);
+				cache.put(job.key, data);
+			}
+			data.chunk = job.chunk;
+			data.shape = job.shape;
+			data.models[job.level] = job.model;
+			data.built = frame;
+			cached_bytes -= data.bytes;
+			data.bytes = bytes(data);
+			cached_bytes += data.bytes;
+
+			double latency = (System.nanoTime() - job.submitted) / 1e6;
+			built++;
+			total_latency_ms += latency;
+			max_latency_ms = Math.max(max_latency_ms, latency);
+
+			// It's shown in the loop below if it's still the level wanted
+		}
+	}
+
+	private void show(long key, ChunkData data, int level) {
+		Model model = data.models[level];
+		if (data.shown_level >= 0) {
+			level_changes++;
+		}
+		data.shown_level = level;
+		resident.put(key, data);
+		if (engine == null) {
+			return;
+		}
+		if (data.entity == null) {
+			Entity ent = new Entity("terrain_" + data.chunk_x + "_" + data.chunk_z, 0, true, model, shader);
+			ent.setProperty(Entity.POSITION, data.chunk.getOrigin());
+			data.entity = engine.addEntity(ent);
+			data.entity.activate();
+		} else {
+			// The renderer uploads the new one and frees the old once nothing draws it
+			data.entity.setProperty(Entity.MODEL, model);
+		}
+	}
+
+	private void hide(ChunkData data) {
+		resident.remove(key(data.chunk_x, data.chunk_z));
+		data.shown_level = -1;
+		if (data.entity != null) {
+			engine.removeEntity((String)data.entity.getProperty(Entity.NAME));
+			data.entity = null;
+		}
+	}
+
+	// Least recently wanted first, until it fits; never what's on screen
+	private void evict() {
+		Iterator<Map.Entry<Long, ChunkData>> it = cache.entrySet().iterator();
+		while (cached_bytes > budget && it.hasNext()) {
+			ChunkData data = it.next().getValue();
+			if (data.shown_level >= 0 || data.wanted == frame) {
+				continue;
+			}
+			cached_bytes -= data.bytes;
+			evicted++;
+			it.remove();
+		}
+	}
+
+	/*
+	 * The level for a chunk this far away, or -1 if it's out of range.  One
+	 * 	already showing keeps its level until it's a little past the boundary,
+	 * 	so a focus sitting on one doesn't swap it every frame.
+	 */
+	private int levelFor(float distance, int current) {
+		if (current >= 0) {
+			float inner = (current == 0) ? 0 : level_distances[current - 1] * (1 - HYSTERESIS);
+			float outer = level_distances[current] * (1 + HYSTERESIS);
+			if (distance >= inner && distance <= outer) {
+				return current;
+			}
+		}
+		for (int level = 0; level < level_distances.length; level++) {
+			if (distance <= level_distances[level]) {
+				return level;
+			}
+		}
+		return -1;
+	}
+
+	// From focus to the nearest point of the chunk, across the ground
+	private float distance(Vector3f focus, int chunk_x, int chunk_z) {
+		float width = chunk_size * cell_size;
+		float dx = Math.max(0, Math.max(chunk_x * width - focus.x, focus.x - (chunk_x + 1) * width));
+		float dz = Math.max(0, Math.max(chunk_z * width - focus.z, focus.z - (chunk_z + 1) * width));
+		return (float)Math.sqrt(dx * dx + dz * dz);
+	}
+
+	private void addWanted(long key, float distance) {
+		if (wanted_count == wanted_keys.length) {
+			wanted_keys = Arrays.copyOf(wanted_keys, wanted_count * 2);
+			wanted_distances = Arrays.copyOf(wanted_distances, wanted_count * 2);
+		}
+		wanted_keys[wanted_count] = key;
+		wanted_distances[wanted_count] = distance;
+		wanted_count++;
+	}
+
+	// Insertion sort; it's a few hundred chunks, mostly in order from the scan
+	private void sortWanted() {
+		for (int i = 1; i < wanted_count; i++) {
+			long key = wanted_keys[i];
+			float distance = wanted_distances[i];
+			int j = i - 1;
+			while (j >= 0 && wanted_distances[j] > distance) {
+				wanted_keys[j + 1] = wanted_keys[j];
+				wanted_distances[j + 1] = wanted_distances[j];
+				j--;
+			}
+			wanted_keys[j + 1] = key;
+			wanted_distances[j + 1] = distance;
+		}
+	}
+	/******************************************/
+
+	/*************** BUILDING ***************/
+	// On a worker: everything the render thread would otherwise do but the upload
+	private Model makeModel(PackedMesh mesh, CollisionShape shape) {
+		Model model = new Model(mesh, material);
+		model.setShader(shader);
+		// Set before an entity gets it, so it never wraps a hull around the mesh
+		model.setCollisionShape(shape);
+		model.setCompactVertices(true);
+		model.verify();
+		model.prepareBuffers();
+		return model;
+	}
+
+	// Heights, the collision shape's copy, and each level's vertices and packed buffers
+	private long bytes(ChunkData data) {
+		long bytes = 0;
+		if (data.chunk != null) {
+			bytes += data.chunk.getHeightBytes();
+		}
+		if (data.shape != null) {
+			bytes += data.chunk.getCollisionBytes(grid_indices);
+		}
+		for (Model model : data.models) {
+			if (model == null) {
+				continue;
+			}
+			bytes += model.getPackedMesh().getVertexCount() * (long)PackedMesh.STRIDE * 4;
+			if (model.getVertexBuffer() != null) {
+				bytes += model.getVertexBuffer().capacity() + model.getIndexBuffer().capacity();
+			}
+		}
+		return bytes;
+	}
+	/******************************************/
+
+	private void publishStats(long update_nanos) {
+		Stats update_stats = new Stats();
+		update_stats.resident = resident.size();
+		update_stats.cached = cache.size();
+		update_stats.cached_bytes = cached_bytes;
+		update_stats.pending = pending.size();
+		update_stats.hits = hits;
+		update_stats.misses = misses;
+		update_stats.built = built;
+		update_stats.evicted = evicted;
+		update_stats.level_changes = level_changes;
+		update_stats.average_latency_ms = (built == 0) ? 0 : total_latency_ms / built;
+		update_stats.max_latency_ms = max_latency_ms;
+		update_stats.update_nanos = update_nanos;
+		stats = update_stats;
+	}
+
+	// From the most recent update; don't modify
+	public Stats getStats() {
+		return stats;
+	}
+
+	// Nothing asked for is still being made
+	public boolean isSettled() {
+		return pending.isEmpty() && finished.isEmpty();
+	}
+
+	// The level chunk_x, chunk_z is shown at, or -1
+	public int getShownLevel(int chunk_x, int chunk_z) {
+		ChunkData data = resident.get(key(chunk_x, chunk_z));
+		return (data == null) ? -1 : data.shown_level;
+	}
+
+	public int getLevelCount() {
+		return lod_indices.length;
+	}
+
+	// Takes every chunk off screen and stops the workers
+	public void destroy() {
+		workers.shutdownNow();
+		for (ChunkData data : new ArrayList<ChunkData>(resident.values())) {
+			hide(data);
+		}
+		cache.clear();
+		cached_bytes = 0;
+	}
+
+	private static long key(int chunk_x, int chunk_z) {
+		return ((long)chunk_x << 32) | (chunk_z & 0xFFFFFFFFL);
+	}
+
+	private static int keyX(long key) {
+		return (int)(key >> 32);
+	}
+
+	private static int keyZ(long key) {
+		return (int)key;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Per-thread scratch objects for the per-frame paths.
+ * 	Grab one with Scratch.get(), fill it, use it, and don't hang on to it
+ * 	past the end of the method.  Every thread (render, physics, AI) gets its
+ * 	own, so nothing here needs locking.
+ */
+package engine.utils;
+
+import java.nio.FloatBuffer;
+
+import javax.vecmath.Vector3f;
+
+import org.lwjgl.BufferUtils;
+
+import com.bulletphysics.linearmath.Transform;
+
+public class Scratch {
+	public final Transform transform = new Transform();
+	public final Vector3f vector_a = new Vector3f();
+	public final Vector3f vector_b = new Vector3f();
+	public final Vector3f vector_c = new Vector3f();
+	public final float[] matrix = new float[16];
+	public final FloatBuffer matrix_buffer = BufferUtils.createFloatBuffer(16);
+	public final FloatBuffer vec4_buffer = BufferUtils.createFloatBuffer(4);
+
+	private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	private Scratch() {
+	}
+
+	public static Scratch get() {
+		return scratch.get();
+	}
+}
@@ -33,6 +33,7 @@
 	smooth in vec3 vertex_mod;
 	smooth in vec3 normal_mod;
 	in vec2 tex_coord;
+	in vec4 color_mod;
 	out vec4 frag_color;
 	
 	vec4 phongSpotPass(int light_id) {		
@@ -148,6 +149,7 @@
 		for(int i=0;i<2;i++) {
 			frag_color += phongSpotPass(i);
 		}
+		frag_color.rgb *= color_mod.rgb;
 	}
 ###ENDFRAG###
 ###VERT###
@@ -162,20 +164,28 @@
 	in vec3 vertex;
 	in vec3 normal;
 	in vec2 texture;
-	//in vec4 color;
+	in vec4 color;
 	uniform vec4 scale;
+	uniform bool instanced;
+	in mat4 instance_transform;
+	in vec4 instance_scale;
 	smooth out vec3 vertex_mod;
 	smooth out vec3 normal_mod;
 	out vec2 tex_coord;
+	out vec4 color_mod;
 	
 	void main() {
+		// Per instance attributes when drawn as a batch, the uniforms otherwise
+		mat4 world = instanced ? instance_transform : transform;
+		vec4 size = instanced ? instance_scale : scale;
+
 		vec4 vertex_cast;
-		vertex_cast.x = vertex.x * scale.x;
-		vertex_cast.y = vertex.y * scale.y;
-		vertex_cast.z = vertex.z * scale.z;
-		vertex_cast.w = 1.0 * scale.w;
+		vertex_cast.x = vertex.x * size.x;
+		vertex_cast.y = vertex.y * size.y;
+		vertex_cast.z = vertex.z * size.z;
+		vertex_cast.w = 1.0 * size.w;
 		
-		vertex_cast = transform * vertex_cast;
+		vertex_cast = world * vertex_cast;
 	
 		vertex_mod = vec3(vertex_cast);
 	
@@ -183,11 +193,11 @@
 		gl_Position = MVP * vertex_cast;
 	
 		// Calculate the normal value for this vertex, in world coordinates
-	    normal_mod = vec3(transform * vec4(normal.x,normal.y,normal.z,1.0));
+	    normal_mod = vec3(world * vec4(normal.x,normal.y,normal.z,1.0));
 	
 		tex_coord = texture;
 	
-	    // Set the front color to the color passed through with glColor
-		//color_mod = color;
+		// Per vertex colour, white unless the model's vertices differ
+		color_mod = color;
 	}
 ###ENDVERT###
\ No newline at end of file
@@ -4,10 +4,11 @@
 	uniform sampler2D texture_data;
 
 	in vec2 tex_coord;
+	in vec4 color_mod;
 	out vec4 frag_color;
 	
 	void main(){
-		frag_color = texture2D(texture_data,tex_coord);
+		frag_color = texture2D(texture_data,tex_coord) * vec4(color_mod.rgb, 1.0);
 	}
 ###ENDFRAG###
 ###VERT###
@@ -22,26 +23,34 @@
 	in vec3 vertex;
 	in vec3 normal;
 	in vec2 texture;
-	//in vec4 color;
+	in vec4 color;
 	uniform vec4 scale;
+	uniform bool instanced;
+	in mat4 instance_transform;
+	in vec4 instance_scale;
 
 	out vec2 tex_coord;
+	out vec4 color_mod;
 	
 	void main() {
+		// Per instance attributes when drawn as a batch, the uniforms otherwise
+		mat4 world = instanced ? instance_transform : transform;
+		vec4 size = instanced ? instance_scale : scale;
+
 		vec4 vertex_cast;
-		vertex_cast.x = vertex.x * scale.x;
-		vertex_cast.y = vertex.y * scale.y;
-		vertex_cast.z = vertex.z * scale.z;
-		vertex_cast.w = 1.0 * scale.w;
+		vertex_cast.x = vertex.x * size.x;
+		vertex_cast.y = vertex.y * size.y;
+		vertex_cast.z = vertex.z * size.z;
+		vertex_cast.w = 1.0 * size.w;
 		
-		vertex_cast = transform * vertex_cast;
+		vertex_cast = world * vertex_cast;
 	
 		//Calculate vertex position
 		gl_Position = MVP * vertex_cast;
 
 		tex_coord = texture;
 	
-	    // Set the front color to the color passed through with glColor
-		//color_mod = color;
+		// Per vertex colour, white unless the model's vertices differ
+		color_mod = color;
 	}
 ###ENDVERT###
\ No newline at end of file
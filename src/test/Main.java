@@ -65,17 +65,13 @@ public class Main {
 		
 		//Create the ground to stand on
 		/*
-		Terrain terrain = new Terrain(
-			0,
-			true,
-			(engine.render.Model) engine.resource_manager.getResource("subdivided_cube","models"),
-			(engine.render.Shader) engine.resource_manager.getResource("default","shaders")
-		);
-		terrain.setProperty(Entity.NAME, "terrain");
-		terrain.setProperty(Entity.POSITION,new Vector3f(0,-10,0));
-		terrain.setProperty(Entity.GRAVITY,new Vector3f(0, 0, 0));
-		terrain.createTerrain(10);
-		engine.addEntity(terrain);
+		Terrain terrain = new Terrain(1234);
+		try {
+			terrain.generate(4, 4, true);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		terrain.addToEngine(engine, (engine.render.Shader) engine.resource_manager.getResource("default","shaders"));
 		*/
 		
 		Box land = new Box(